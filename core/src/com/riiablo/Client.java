@@ -52,6 +52,7 @@ import com.riiablo.codec.StringTBLs;
 import com.riiablo.console.RenderedConsole;
 import com.riiablo.cvar.Cvar;
 import com.riiablo.cvar.CvarStateAdapter;
+import com.riiablo.graphics.PaletteIndexedAtlas;
 import com.riiablo.graphics.PaletteIndexedBatch;
 import com.riiablo.loader.BitmapFontLoader;
 import com.riiablo.loader.COFLoader;
@@ -93,6 +94,7 @@ public class Client extends Game {
   private ScalingViewport       scalingViewport;
   private ExtendViewport        extendViewport;
   private PaletteIndexedBatch   batch;
+  private PaletteIndexedAtlas   atlas;
   private ShaderProgram         shader;
   private ShapeRenderer         shapes;
   private MPQFileHandleResolver mpqs;
@@ -279,9 +281,12 @@ public class Client extends Game {
         ? new HomeFileHandleResolver(home)
         : mpqs;
     assets.setLoader(Sound.class, new VolumeControlledSoundLoader(soundResolver, new SoundVolumeController()));
+    // music is streamed when resolved from the archives rather than unpacked files
     assets.setLoader(Music.class, new VolumeControlledMusicLoader(soundResolver, new MusicVolumeController()));
-    assets.setLoader(DC6.class, new DC6Loader(mpqs));
-    assets.setLoader(DCC.class, new DCCLoader(mpqs));
+    // animation frames share atlas pages so that entities are drawn in fewer batches
+    atlas = new PaletteIndexedAtlas();
+    assets.setLoader(DC6.class, new DC6Loader(mpqs, atlas));
+    assets.setLoader(DCC.class, new DCCLoader(mpqs, atlas));
     assets.setLoader(Palette.class, new PaletteLoader(mpqs));
     assets.setLoader(Index.class, new IndexLoader(mpqs));
     assets.setLoader(FontTBL.BitmapFont.class, new BitmapFontLoader(mpqs));
@@ -585,6 +590,7 @@ public class Client extends Game {
     colormaps.dispose();
     textures.dispose();
     assets.dispose();
+    atlas.dispose();
 
     try {
       Gdx.app.debug(TAG, "Resetting stdout...");
@@ -5,6 +5,7 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import com.artemis.ComponentMapper;
+import com.artemis.World;
 import com.artemis.annotations.EntityId;
 import com.artemis.annotations.Wire;
 
@@ -58,13 +59,14 @@ public abstract class AI implements Interactable.Interactor {
   protected ComponentMapper<Interactable> mInteractable;
   protected ComponentMapper<PathWrapper> mPathWrapper;
 
+  protected World world;
   protected CofManager cofs;
   protected Pathfinder pathfinder;
 
   @Wire(name = "factory")
   protected EntityFactory factory;
 
-  private static final Vector2 tmpVec2 = new Vector2();
+  private final Vector2 tmpVec2 = new Vector2();
 
   protected float SLEEP = Float.POSITIVE_INFINITY;
   protected int[] params = ArrayUtils.EMPTY_INT_ARRAY;
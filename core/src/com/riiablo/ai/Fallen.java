@@ -34,7 +34,7 @@ public class Fallen extends AI {
 
   protected ComponentMapper<Class> mClass;
 
-  private static EntitySubscription enemyEntities;
+  private EntitySubscription enemyEntities;
 
   final Vector2 tmpVec2 = new Vector2();
 
@@ -60,7 +60,7 @@ public class Fallen extends AI {
   public void initialize() {
     super.initialize();
     if (enemyEntities == null) {
-      enemyEntities = Riiablo.engine.getAspectSubscriptionManager().get(Aspect
+      enemyEntities = world.getAspectSubscriptionManager().get(Aspect
               .all(Class.class)
               .one(Player.class));
     }
@@ -101,7 +101,7 @@ public class Fallen extends AI {
               return;
             } else if (dst < 25) {
               if (MathUtils.randomBoolean(params[0] / 100f)) {
-                pathfinder.findPath(entityId, targetPos);
+                pathfinder.chase(entityId, ent);
                 stateMachine.changeState(State.APPROACH);
                 return;
               }
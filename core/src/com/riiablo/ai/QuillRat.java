@@ -36,7 +36,7 @@ public class QuillRat extends AI {
 
   protected ComponentMapper<Class> mClass;
 
-  private static EntitySubscription enemyEntities;
+  private EntitySubscription enemyEntities;
 
   final Vector2 tmpVec2 = new Vector2();
 
@@ -56,7 +56,7 @@ public class QuillRat extends AI {
     monsound = "spikefiend";
     missile = Riiablo.files.Missiles.get(monster.monstats.MissA2);
     if (enemyEntities == null) {
-      enemyEntities = Riiablo.engine.getAspectSubscriptionManager().get(Aspect
+      enemyEntities = world.getAspectSubscriptionManager().get(Aspect
               .all(Class.class)
               .one(Player.class));
     }
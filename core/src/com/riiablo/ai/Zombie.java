@@ -34,7 +34,7 @@ public class Zombie extends AI {
 
   protected ComponentMapper<Class> mClass;
 
-  private static EntitySubscription enemyEntities;
+  private EntitySubscription enemyEntities;
 
   final Vector2 tmpVec2 = new Vector2();
 
@@ -51,7 +51,7 @@ public class Zombie extends AI {
   public void initialize() {
     super.initialize();
     if (enemyEntities == null) {
-      enemyEntities = Riiablo.engine.getAspectSubscriptionManager().get(Aspect
+      enemyEntities = world.getAspectSubscriptionManager().get(Aspect
               .all(Class.class)
               .one(Player.class));
     }
@@ -102,7 +102,7 @@ public class Zombie extends AI {
               return;
             } else if (dst < params[1]) {
               if (MathUtils.randomBoolean(params[0] / 100f)) {
-                pathfinder.findPath(entityId, targetPos);
+                pathfinder.chase(entityId, ent);
                 stateMachine.changeState(State.APPROACH);
                 return;
               }
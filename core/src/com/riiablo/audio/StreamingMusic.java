@@ -0,0 +1,388 @@
+package com.riiablo.audio;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.audio.AudioDevice;
+import com.badlogic.gdx.audio.Music;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.StreamUtils;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link Music} which streams PCM wave data from a {@link FileHandle} into an
+ * {@link AudioDevice} as playback advances. Handles resolved from an MPQ are
+ * read through an MPQ input stream, which decompresses one sector at a time,
+ * so only a sector and {@link #BUFFER_SIZE} bytes of the file are held in
+ * memory while playing.
+ */
+public class StreamingMusic implements Music {
+  private static final String TAG = "StreamingMusic";
+  private static final boolean DEBUG = !true;
+
+  /** bytes of pcm data written to the device at a time */
+  static final int BUFFER_SIZE = 4096;
+
+  private static final int STOPPED = 0;
+  private static final int PLAYING = 1;
+  private static final int PAUSED  = 2;
+
+  @NonNull
+  private final FileHandle handle;
+
+  private final Object lock = new Object();
+
+  // guarded by lock
+  private int state = STOPPED;
+  private float seek = -1;
+  @Nullable
+  private Thread thread;
+
+  private volatile float volume = 1.0f;
+  private volatile float pan = 0.0f;
+  private volatile boolean looping;
+  private volatile float position;
+  @Nullable
+  private volatile OnCompletionListener listener;
+
+  public StreamingMusic(@NonNull FileHandle handle) {
+    this.handle = Validate.notNull(handle, "FileHandle cannot be null");
+  }
+
+  @Override
+  public void play() {
+    synchronized (lock) {
+      if (state == PLAYING) return;
+      state = PLAYING;
+      if (thread == null) {
+        thread = new Thread(new Streamer(), TAG + "-" + handle.name());
+        thread.setDaemon(true);
+        thread.start();
+      }
+
+      lock.notifyAll();
+    }
+  }
+
+  @Override
+  public void pause() {
+    synchronized (lock) {
+      if (state == PLAYING) state = PAUSED;
+    }
+  }
+
+  @Override
+  public void stop() {
+    synchronized (lock) {
+      state = STOPPED;
+      seek = 0;
+      position = 0;
+      lock.notifyAll();
+    }
+  }
+
+  @Override
+  public boolean isPlaying() {
+    synchronized (lock) {
+      return state == PLAYING;
+    }
+  }
+
+  @Override
+  public void setLooping(boolean isLooping) {
+    this.looping = isLooping;
+  }
+
+  @Override
+  public boolean isLooping() {
+    return looping;
+  }
+
+  @Override
+  public void setVolume(float volume) {
+    this.volume = volume;
+  }
+
+  @Override
+  public float getVolume() {
+    return volume;
+  }
+
+  @Override
+  public void setPan(float pan, float volume) {
+    this.pan = MathUtils.clamp(pan, -1.0f, 1.0f);
+    this.volume = volume;
+  }
+
+  @Override
+  public void setPosition(float position) {
+    synchronized (lock) {
+      seek = Math.max(position, 0);
+      this.position = seek;
+      lock.notifyAll();
+    }
+  }
+
+  @Override
+  public float getPosition() {
+    return position;
+  }
+
+  @Override
+  public void dispose() {
+    stop();
+  }
+
+  @Override
+  public void setOnCompletionListener(@Nullable OnCompletionListener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public String toString() {
+    return handle.toString();
+  }
+
+  /**
+   * Opens the file and positions it at the start of its data chunk.
+   */
+  private Wave open() throws IOException {
+    InputStream in = handle.read();
+    try {
+      return new Wave(in);
+    } catch (Throwable t) {
+      StreamUtils.closeQuietly(in);
+      throw t;
+    }
+  }
+
+  private void complete() {
+    final OnCompletionListener listener = this.listener;
+    if (listener == null) return;
+    Gdx.app.postRunnable(new Runnable() {
+      @Override
+      public void run() {
+        listener.onCompletion(StreamingMusic.this);
+      }
+    });
+  }
+
+  private final class Streamer implements Runnable {
+    final byte[] bytes = new byte[BUFFER_SIZE];
+    final short[] samples = new short[BUFFER_SIZE];
+
+    @Override
+    public void run() {
+      AudioDevice device = null;
+      Wave wave = null;
+      float deviceVolume = Float.NaN;
+      long frames = 0;
+      try {
+        for (;;) {
+          final float seek;
+          synchronized (lock) {
+            while (state == PAUSED) lock.wait();
+            if (state == STOPPED) {
+              thread = null;
+              break;
+            }
+
+            seek = StreamingMusic.this.seek;
+            StreamingMusic.this.seek = -1;
+          }
+
+          if (seek >= 0 && wave != null) {
+            StreamUtils.closeQuietly(wave.in);
+            wave = null;
+          }
+
+          if (wave == null) {
+            wave = open();
+            frames = seek > 0 ? wave.skip(seek) : 0;
+            if (device == null) {
+              device = Gdx.audio.newAudioDevice(wave.sampleRate, wave.channels == 1);
+              if (DEBUG) Gdx.app.debug(TAG, "Streaming " + handle + " " + wave);
+            }
+          }
+
+          final int numSamples = wave.read(bytes, samples, pan);
+          if (numSamples <= 0) {
+            StreamUtils.closeQuietly(wave.in);
+            wave = null;
+            frames = 0;
+            if (looping) continue;
+            synchronized (lock) {
+              if (state == PLAYING && StreamingMusic.this.seek < 0) {
+                state = STOPPED;
+                thread = null;
+                position = 0;
+                complete();
+                break;
+              }
+            }
+
+            continue;
+          }
+
+          final float volume = StreamingMusic.this.volume;
+          if (volume != deviceVolume) device.setVolume(deviceVolume = volume);
+          device.writeSamples(samples, 0, numSamples); // blocks until buffered
+          frames += numSamples / wave.channels;
+          position = (float) frames / wave.sampleRate;
+        }
+      } catch (Throwable t) {
+        Gdx.app.error(TAG, "Failed to stream " + handle + ": " + t.getMessage(), t);
+        synchronized (lock) {
+          state = STOPPED;
+          thread = null;
+        }
+      } finally {
+        if (wave != null) StreamUtils.closeQuietly(wave.in);
+        if (device != null) device.dispose();
+      }
+    }
+  }
+
+  /**
+   * RIFF wave stream positioned within its data chunk.
+   */
+  static final class Wave {
+    static final int RIFF = 0x46464952; // "RIFF"
+    static final int WAVE = 0x45564157; // "WAVE"
+    static final int FMT  = 0x20746D66; // "fmt "
+    static final int DATA = 0x61746164; // "data"
+
+    static final int WAVE_FORMAT_PCM = 1;
+
+    final InputStream in;
+    int channels;
+    int sampleRate;
+    int bitsPerSample;
+    int blockAlign;
+    int remaining;
+
+    Wave(InputStream in) throws IOException {
+      this.in = in;
+      if (readInt() != RIFF) throw new GdxRuntimeException("File is not a RIFF file");
+      readInt(); // riff size
+      if (readInt() != WAVE) throw new GdxRuntimeException("File is not a WAVE file");
+      for (;;) {
+        final int id = readInt();
+        final int size = readInt();
+        if (id == FMT) {
+          final int format = readShort();
+          if (format != WAVE_FORMAT_PCM) throw new GdxRuntimeException("Unsupported wave format: " + format);
+          channels = readShort();
+          sampleRate = readInt();
+          readInt(); // byte rate
+          blockAlign = readShort();
+          bitsPerSample = readShort();
+          if (bitsPerSample != 8 && bitsPerSample != 16) {
+            throw new GdxRuntimeException("Unsupported bits per sample: " + bitsPerSample);
+          }
+          if (channels != 1 && channels != 2) {
+            throw new GdxRuntimeException("Unsupported number of channels: " + channels);
+          }
+          skipFully(size - 16 + (size & 1));
+        } else if (id == DATA) {
+          if (sampleRate == 0) throw new GdxRuntimeException("Missing fmt chunk");
+          remaining = size;
+          return;
+        } else {
+          skipFully(size + (size & 1));
+        }
+      }
+    }
+
+    /**
+     * Skips to the specified position in seconds.
+     *
+     * @return the number of frames skipped
+     */
+    long skip(float seconds) throws IOException {
+      final long frames = Math.min((long) (seconds * sampleRate), remaining / blockAlign);
+      final int bytes = (int) (frames * blockAlign);
+      skipFully(bytes);
+      remaining -= bytes;
+      return frames;
+    }
+
+    /**
+     * Reads the next block of samples, applying {@code pan} to stereo samples.
+     *
+     * @return the number of samples read, or {@code 0} at the end of the data
+     */
+    int read(byte[] bytes, short[] samples, float pan) throws IOException {
+      final int len = Math.min(remaining, bytes.length - bytes.length % blockAlign);
+      int read = 0;
+      while (read < len) {
+        final int n = in.read(bytes, read, len - read);
+        if (n < 0) break;
+        read += n;
+      }
+
+      read -= read % blockAlign;
+      remaining -= read;
+
+      int numSamples = 0;
+      if (bitsPerSample == 16) {
+        for (int i = 0; i < read; i += 2) {
+          samples[numSamples++] = (short) ((bytes[i] & 0xFF) | (bytes[i + 1] << 8));
+        }
+      } else {
+        for (int i = 0; i < read; i++) {
+          samples[numSamples++] = (short) (((bytes[i] & 0xFF) - 128) << 8);
+        }
+      }
+
+      if (channels == 2 && pan != 0) {
+        final float left = pan > 0 ? 1 - pan : 1;
+        final float right = pan < 0 ? 1 + pan : 1;
+        for (int i = 0; i < numSamples; i += 2) {
+          samples[i] = (short) (samples[i] * left);
+          samples[i + 1] = (short) (samples[i + 1] * right);
+        }
+      }
+
+      return numSamples;
+    }
+
+    private void skipFully(long n) throws IOException {
+      while (n > 0) {
+        final long skipped = in.skip(n);
+        if (skipped <= 0) {
+          if (in.read() < 0) throw new GdxRuntimeException("Unexpected end of wave stream");
+          n--;
+        } else {
+          n -= skipped;
+        }
+      }
+    }
+
+    private int readByte() throws IOException {
+      final int b = in.read();
+      if (b < 0) throw new GdxRuntimeException("Unexpected end of wave stream");
+      return b;
+    }
+
+    private int readShort() throws IOException {
+      return readByte() | (readByte() << 8);
+    }
+
+    private int readInt() throws IOException {
+      return readShort() | (readShort() << 16);
+    }
+
+    @Override
+    public String toString() {
+      return "[channels=" + channels + ", sampleRate=" + sampleRate + ", bitsPerSample=" + bitsPerSample + "]";
+    }
+  }
+}
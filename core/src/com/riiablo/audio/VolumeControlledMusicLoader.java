@@ -13,11 +13,16 @@ import org.apache.commons.lang3.Validate;
 
 import java.lang.ref.WeakReference;
 
+import com.riiablo.mpq_bytebuf.MPQFileHandle;
+
 public class VolumeControlledMusicLoader extends MusicLoader implements VolumeControlled<Music> {
 
   @Nullable
   private VolumeController<Music> controller;
 
+  @Nullable
+  private Music music;
+
   public VolumeControlledMusicLoader(@NonNull FileHandleResolver resolver,
                                      @NonNull VolumeController<Music> controller) {
     super(resolver);
@@ -38,11 +43,26 @@ public class VolumeControlledMusicLoader extends MusicLoader implements VolumeCo
   @Override
   public void loadAsync(AssetManager manager, String fileName, FileHandle file,
                         MusicParameter parameter) {
-    super.loadAsync(manager, fileName, file, parameter);
-    final Music music = getLoadedMusic();
+    if (file instanceof MPQFileHandle || file instanceof com.riiablo.mpq.MPQFileHandle) {
+      // streamed from the archive as it plays instead of being read fully
+      music = new StreamingMusic(file);
+    } else {
+      super.loadAsync(manager, fileName, file, parameter);
+      music = getLoadedMusic();
+    }
+
     if (controller != null) {
       music.setVolume(controller.getVolume());
       controller.manage(new WeakReference<>(music));
     }
   }
+
+  @Override
+  public Music loadSync(AssetManager manager, String fileName, FileHandle file,
+                        MusicParameter parameter) {
+    super.loadSync(manager, fileName, file, parameter);
+    final Music music = this.music;
+    this.music = null;
+    return music;
+  }
 }
@@ -20,6 +20,7 @@ import com.badlogic.gdx.utils.Pools;
 import com.riiablo.Riiablo;
 import com.riiablo.codec.util.BBox;
 import com.riiablo.graphics.BlendMode;
+import com.riiablo.graphics.PaletteIndexedAtlas;
 import com.riiablo.graphics.PaletteIndexedBatch;
 
 public class Animation extends BaseDrawable implements Pool.Poolable {
@@ -501,6 +502,7 @@ public class Animation extends BaseDrawable implements Pool.Poolable {
     if (f >= layer.regions[d].length) return; // FIXME: see #113
     TextureRegion region = layer.regions[d][f];
     if (region.getTexture().getTextureObjectHandle() == 0) return;
+    PaletteIndexedAtlas.touch(region);
     batch.draw(region, region.getRegionWidth(), region.getRegionHeight(), SHADOW_TRANSFORM);
   }
 
@@ -654,6 +656,7 @@ public class Animation extends BaseDrawable implements Pool.Poolable {
       if (f >= regions[d].length) return; // FIXME: see #113
       TextureRegion region = regions[d][f];
       if (region.getTexture().getTextureObjectHandle() == 0) return;
+      PaletteIndexedAtlas.touch(region);
       PaletteIndexedBatch b = (PaletteIndexedBatch) batch;
       b.setBlendMode(blendMode, tint, true);
       b.setColormap(transform, transformColor);
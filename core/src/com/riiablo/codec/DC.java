@@ -8,11 +8,12 @@ import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.utils.Disposable;
 
 import com.riiablo.codec.util.BBox;
+import com.riiablo.graphics.PaletteIndexedAtlas;
 import com.riiablo.graphics.PaletteIndexedBatch;
 import com.riiablo.logger.LogManager;
 import com.riiablo.logger.Logger;
 
-public abstract class DC implements Disposable {
+public abstract class DC implements Disposable, PaletteIndexedAtlas.Owner {
   private static final Logger log = LogManager.getLogger(DC.class);
 
   public static final String[] EXTS = {DC6.EXT, DCC.EXT }; // I think uncompressed first is better
@@ -67,6 +68,53 @@ public abstract class DC implements Disposable {
     return regions;
   }
 
+  PaletteIndexedAtlas atlas;
+  PaletteIndexedAtlas.Group groups[];
+
+  /**
+   * Sets the atlas directions are packed into when loaded, or {@code null} to
+   * load each frame into its own texture. Directions which are already loaded
+   * are not affected.
+   */
+  public void setAtlas(PaletteIndexedAtlas atlas) {
+    this.atlas = atlas;
+  }
+
+  /**
+   * Packs the specified frames of direction {@code d} into {@link #atlas}.
+   *
+   * @return whether or not the frames were packed, in which case
+   *         {@code regions[d]} is set
+   */
+  boolean pack(int d, byte[][] colormaps, int[] widths, int[] heights) {
+    if (atlas == null) return false;
+    PaletteIndexedAtlas.Group group = atlas.pack(this, d, colormaps, widths, heights);
+    if (group == null) return false;
+    if (groups == null) groups = new PaletteIndexedAtlas.Group[regions.length];
+    groups[d] = group;
+    regions[d] = group.regions();
+    return true;
+  }
+
+  /**
+   * Frees the atlas space of all packed directions.
+   */
+  void disposeGroups() {
+    if (groups == null) return;
+    for (PaletteIndexedAtlas.Group group : groups) {
+      if (group != null) group.free();
+    }
+
+    groups = null;
+  }
+
+  @Override
+  public void evict(PaletteIndexedAtlas.Group group) {
+    final int d = group.id();
+    groups[d] = null;
+    regions[d] = null;
+  }
+
   public abstract boolean isPreloaded(int d);
   public final void preloadDirection(int d) {
     preloadDirection(d, false);
@@ -60,6 +60,7 @@ public class DC6 extends com.riiablo.codec.DC {
     disposeFrames();
     disposePixmaps();
     disposeTextures();
+    disposeGroups();
   }
 
   private void disposeFrames() {
@@ -99,7 +100,7 @@ public class DC6 extends com.riiablo.codec.DC {
 
   @Override
   public int getNumPages(int d) {
-    return textures[d].length;
+    return regions[d].length;
   }
 
   @Override
@@ -185,7 +186,7 @@ public class DC6 extends com.riiablo.codec.DC {
 
   @Override
   public boolean isLoaded(int d) {
-    return textures != null && textures[d] != null;
+    return regions[d] != null;
   }
 
   @Override
@@ -196,10 +197,25 @@ public class DC6 extends com.riiablo.codec.DC {
 
   @Override
   public void loadDirection(int d, boolean combineFrames) {
-    if (textures == null) textures = new Texture[header.directions][];
-    else if (textures[d] != null) return;
+    if (regions[d] != null) return;
     preloadDirection(d, combineFrames);
 
+    if (atlas != null && !combineFrames) {
+      final Frame[] frames = this.frames[d];
+      final int numFrames = frames.length;
+      final byte[][] colormaps = new byte[numFrames][];
+      final int[] widths = new int[numFrames];
+      final int[] heights = new int[numFrames];
+      for (int f = 0; f < numFrames; f++) {
+        colormaps[f] = frames[f].colormap;
+        widths[f] = frames[f].width;
+        heights[f] = frames[f].height;
+      }
+
+      if (pack(d, colormaps, widths, heights)) return;
+    }
+
+    if (textures == null) textures = new Texture[header.directions][];
     Pixmap[] pixmaps = this.pixmaps[d];
     textures[d] = new Texture[pixmaps.length];
     for (int p = 0; p < pixmaps.length; p++) {
@@ -7,6 +7,8 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -16,15 +18,16 @@ import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
-import com.badlogic.gdx.graphics.glutils.PixmapTextureData;
 
 import com.riiablo.codec.util.BBox;
 import com.riiablo.graphics.PaletteIndexedPixmap;
+import com.riiablo.graphics.PaletteIndexedTextureData;
 import com.riiablo.io.BitInput;
 import com.riiablo.io.BitUtils;
 import com.riiablo.io.ByteInput;
 import com.riiablo.mpq.MPQFileHandle;
 import com.riiablo.util.BufferUtils;
+import com.riiablo.util.Pool;
 
 public class DCC extends com.riiablo.codec.DC {
   private static final String TAG = "DCC";
@@ -42,6 +45,7 @@ public class DCC extends com.riiablo.codec.DC {
   BBox      box;
 
   Texture   textures[][];
+  Pixmap    pixmaps[][];
 
   private DCC(Header header, Direction[] directions, Frame[][] frames, BBox box) {
     this.header     = header;
@@ -55,18 +59,20 @@ public class DCC extends com.riiablo.codec.DC {
   public void dispose() {
     disposeFrames();
     disposeTextures();
+    disposeGroups();
   }
 
   private void disposeFrames() {
+    if (pixmaps == null) return;
     final int numDirections = header.directions;
     for (int d = 0; d < numDirections; d++) {
-      Frame[] frames = this.frames[d];
-      if (frames != null) for (Frame frame : frames) {
-        if (frame.pixmap == null) continue;
-        frame.pixmap.dispose();
-        frame.pixmap = null;
+      Pixmap[] pixmaps = this.pixmaps[d];
+      if (pixmaps != null) for (Pixmap pixmap : pixmaps) {
+        if (pixmap != null) pixmap.dispose();
       }
     }
+
+    pixmaps = null;
   }
 
   private void disposeTextures() {
@@ -82,7 +88,15 @@ public class DCC extends com.riiablo.codec.DC {
 
   @Override
   public Pixmap getPixmap(int d, int f) {
-    return frames[d][f].pixmap;
+    if (pixmaps == null) pixmaps = new Pixmap[header.directions][];
+    if (pixmaps[d] == null) pixmaps[d] = new Pixmap[header.framesPerDir];
+    Pixmap pixmap = pixmaps[d][f];
+    if (pixmap == null) {
+      BBox box = directions[d].box;
+      pixmap = pixmaps[d][f] = new PaletteIndexedPixmap(box.width, box.height, frames[d][f].colormap);
+    }
+
+    return pixmap;
   }
 
   @Override
@@ -108,7 +122,7 @@ public class DCC extends com.riiablo.codec.DC {
 
   @Override
   public boolean isLoaded(int d) {
-    return textures != null && textures[d] != null;
+    return regions[d] != null;
   }
 
   @Override
@@ -119,14 +133,29 @@ public class DCC extends com.riiablo.codec.DC {
 
   @Override
   public void loadDirection(int d, boolean combineFrames) {
-    if (textures == null) textures = new Texture[header.directions][];
-    else if (textures[d] != null) return;
+    if (regions[d] != null) return;
     preloadDirection(d);
 
+    final BBox box = directions[d].box;
+    if (atlas != null) {
+      final int numFrames = header.framesPerDir;
+      final byte[][] colormaps = new byte[numFrames][];
+      final int[] widths = new int[numFrames];
+      final int[] heights = new int[numFrames];
+      for (int f = 0; f < numFrames; f++) {
+        colormaps[f] = frames[d][f].colormap;
+        widths[f] = box.width;
+        heights[f] = box.height;
+      }
+
+      if (pack(d, colormaps, widths, heights)) return;
+    }
+
+    if (textures == null) textures = new Texture[header.directions][];
     textures[d] = new Texture[header.framesPerDir];
     for (int f = 0; f < header.framesPerDir; f++) {
-      Pixmap pixmap = frames[d][f].pixmap;
-      Texture texture = new Texture(new PixmapTextureData(pixmap, null, false, false, false));
+      byte[] colormap = frames[d][f].colormap;
+      Texture texture = new Texture(new PaletteIndexedTextureData(colormap, box.width, box.height));
       //texture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
       texture.setWrap(Texture.TextureWrap.ClampToEdge, Texture.TextureWrap.ClampToEdge);
       textures[d][f] = texture;
@@ -296,6 +325,7 @@ public class DCC extends com.riiablo.codec.DC {
   }
 
   public static DCC loadFromByteBuf(ByteBuf buffer) {
+    final long key = DCCCache.key(buffer);
     ByteInput in = ByteInput.wrap(buffer);
     final int fileSize = in.bytesRemaining();
 
@@ -322,20 +352,8 @@ public class DCC extends com.riiablo.codec.DC {
       final Direction dir = directions[d] = Direction.obtain(in, end - start, frames[d]);
       if (DEBUG_DIRECTIONS) Gdx.app.debug(TAG, dir.toString());
       if (DEBUG_FRAMES) for (Frame frame : frames[d]) Gdx.app.debug(TAG, frame.toString());
-
-      Cache cache = new Cache(header);
-      fillPixelBuffer(cache, dir, frames[d]);
-      makeFrames(cache, dir, frames[d]);
-      if (DEBUG_PB_SIZE) Gdx.app.debug(TAG, "pixelBuffer.size = " + cache.numEntries);
-
       start = end;
 
-      assert dir.equalCellBitStream.bitsRemaining() == 0;
-      assert dir.pixelMaskBitStream.bitsRemaining() == 0;
-      assert dir.encodingTypeBitStream.bitsRemaining() == 0;
-      assert dir.rawPixelCodesBitStream.bitsRemaining() == 0;
-      assert dir.pixelCodeAndDisplacementBitStream.bytesRemaining() == 0;
-
       if (dir.box.xMin < box.xMin) box.xMin = dir.box.xMin;
       if (dir.box.yMin < box.yMin) box.yMin = dir.box.yMin;
       if (dir.box.xMax > box.xMax) box.xMax = dir.box.xMax;
@@ -345,14 +363,109 @@ public class DCC extends com.riiablo.codec.DC {
     box.width  = box.xMax - box.xMin + 1;
     box.height = box.yMax - box.yMin + 1;
 
+    decodeDirections(key, header, directions, frames);
     return new DCC(header, directions, frames, box);
   }
 
+  /** minimum number of directions for a file to be decoded in parallel */
+  static final int PARALLEL_DIRECTIONS = 2;
+
+  private static final ForkJoinPool DECODE_POOL = new ForkJoinPool();
+
+  /**
+   * Decodes the frames of each direction, or assigns them from
+   * {@link DCCCache} if this file has already been decoded.
+   */
+  private static void decodeDirections(long key, Header header, Direction[] directions, Frame[][] frames) {
+    final int numDirections = header.directions;
+    final int numFrames = header.framesPerDir;
+    final int[] sizes = new int[numDirections];
+    for (int d = 0; d < numDirections; d++) sizes[d] = directions[d].box.width * directions[d].box.height;
+
+    final DCCCache cache = DCCCache.get();
+    byte[][][] colormaps = cache.get(key, sizes, numFrames);
+    if (colormaps != null) {
+      for (int d = 0; d < numDirections; d++) {
+        for (int f = 0; f < numFrames; f++) frames[d][f].colormap = colormaps[d][f];
+      }
+
+      return;
+    }
+
+    if (numDirections >= PARALLEL_DIRECTIONS) {
+      DECODE_POOL.invoke(new DirectionTask(directions, frames, 0, numDirections));
+    } else {
+      for (int d = 0; d < numDirections; d++) decodeDirection(directions[d], frames[d]);
+    }
+
+    colormaps = new byte[numDirections][numFrames][];
+    for (int d = 0; d < numDirections; d++) {
+      for (int f = 0; f < numFrames; f++) colormaps[d][f] = frames[d][f].colormap;
+    }
+
+    cache.put(key, colormaps, sizes, numFrames);
+  }
+
+  private static final Pool<Cache> CACHE_POOL = new Pool<Cache>(true, true) {
+    @Override
+    protected Cache newInstance() {
+      return new Cache();
+    }
+  };
+
+  private static void decodeDirection(Direction dir, Frame[] frames) {
+    Cache cache = CACHE_POOL.obtain().reset(dir, frames.length);
+    try {
+      fillPixelBuffer(cache, dir, frames);
+      makeFrames(cache, dir, frames);
+      if (DEBUG_PB_SIZE) Gdx.app.debug(TAG, "pixelBuffer.size = " + cache.numEntries);
+    } finally {
+      CACHE_POOL.release(cache);
+    }
+
+    assert dir.equalCellBitStream.bitsRemaining() == 0;
+    assert dir.pixelMaskBitStream.bitsRemaining() == 0;
+    assert dir.encodingTypeBitStream.bitsRemaining() == 0;
+    assert dir.rawPixelCodesBitStream.bitsRemaining() == 0;
+    assert dir.pixelCodeAndDisplacementBitStream.bytesRemaining() == 0;
+  }
+
+  static final class DirectionTask extends RecursiveAction {
+    final Direction[] directions;
+    final Frame[][] frames;
+    final int from;
+    final int to;
+
+    DirectionTask(Direction[] directions, Frame[][] frames, int from, int to) {
+      this.directions = directions;
+      this.frames = frames;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        decodeDirection(directions[from], frames[from]);
+      } else {
+        final int mid = (from + to) >>> 1;
+        invokeAll(
+            new DirectionTask(directions, frames, from, mid),
+            new DirectionTask(directions, frames, mid, to));
+      }
+    }
+  }
+
   public static DCC loadFromFile(FileHandle handle) {
     if (handle instanceof MPQFileHandle) {
       return loadFromArray(handle.readBytes());
     } else if (handle instanceof com.riiablo.mpq_bytebuf.MPQFileHandle) {
-      return loadFromByteBuf(((com.riiablo.mpq_bytebuf.MPQFileHandle) handle).readByteBuf());
+      ByteBuf buffer = ((com.riiablo.mpq_bytebuf.MPQFileHandle) handle).readByteBuf();
+      try {
+        return loadFromByteBuf(buffer);
+      } finally {
+        buffer.release();
+      }
     }
 
     return loadFromArray(handle.readBytes());
@@ -420,14 +533,12 @@ public class DCC extends com.riiablo.codec.DC {
 //  }
 
   private static void fillPixelBuffer(Cache cache, Direction dir, Frame[] frames) {
-    cache.pixelBuffer = new PixelBuffer[PixelBuffer.MAX_VALUE];
-    cache.frameBuffer = Bitmap.create(dir.box.width, dir.box.height);
     prepareBufferCells(cache, dir);
 
     final int frameBufferCellsW = cache.frameBufferCellsW;
     final int frameBufferCellsH = cache.frameBufferCellsH;
     final int numCells = frameBufferCellsW * frameBufferCellsH;
-    PixelBuffer[] cellBuffer = new PixelBuffer[numCells];
+    PixelBuffer[] cellBuffer = cache.cellBuffer(numCells);
 
     int cellsW, cellsH;
     int cellX, cellY;
@@ -443,7 +554,7 @@ public class DCC extends com.riiablo.codec.DC {
     int curCX, curCY, curCell;
     for (int f = 0; f < frames.length; f++) {
       Frame frame = frames[f];
-      Cache.FrameCache frameCache = cache.frame[f] = new Cache.FrameCache();
+      Cache.FrameCache frameCache = cache.frame[f];
       prepareFrameCells(cache, frameCache, dir, frame);
 
       cellsW = frameCache.cellsW;
@@ -513,7 +624,7 @@ public class DCC extends com.riiablo.codec.DC {
               throw new IllegalStateException("Pixel buffer full, cannot add more entries");
             }
 
-            newEntry = cache.pixelBuffer[pixelBufferId++] = new PixelBuffer();
+            newEntry = cache.pixelBuffer(pixelBufferId++);
             curId = decodedPixels - 1;
             for (int i = 0; i < 4; i++) {
               if ((pixelMask & (1 << i)) != 0) {
@@ -673,18 +784,19 @@ public class DCC extends com.riiablo.codec.DC {
 
     int pbId = 0;
     PixelBuffer pbe;
+    final int numEntries = cache.numEntries;
 
     int numCells, cellX, cellY, cellId;
 
     Frame frame;
     Cache.FrameCache frameCache;
-    Bitmap frameBmp = Bitmap.create(dir.box.width, dir.box.height);
+    Bitmap frameBmp = cache.frameBmp;
     for (int f = 0; f < frames.length; f++, frameBmp.clear()) {
       frame = frames[f];
       frameCache = cache.frame[f];
       numCells = frameCache.cellsW * frameCache.cellsH;
       for (int c = 0; c < numCells; c++) {
-        pbe = cache.pixelBuffer[pbId];
+        pbe = pbId < numEntries ? cache.pixelBuffer[pbId] : null;
         Cell cell = frameCache.cells[c];
         cellX = cell.x / 4;
         cellY = cell.y / 4;
@@ -742,7 +854,6 @@ public class DCC extends com.riiablo.codec.DC {
 
   private static void saveFrame(Frame frame, Bitmap frameBmp) {
     frame.colormap = frameBmp.copy();
-    frame.pixmap   = new PaletteIndexedPixmap(frameBmp.width, frameBmp.height, frame.colormap);
   }
 
   static class Header {
@@ -973,7 +1084,6 @@ public class DCC extends com.riiablo.codec.DC {
     byte optionalBytesData[];
 
     //BBox   box; // inherited
-    Pixmap pixmap;
 
     static Frame obtain(BitInput bitStream, Direction direction) {
       return new Frame().read(bitStream, direction);
@@ -1022,19 +1132,64 @@ public class DCC extends com.riiablo.codec.DC {
           .build();
     }
   }
+  /**
+   * Working state of decoding a direction. Instances are pooled and reused
+   * by {@link #reset(Direction, int)}, so the pixel buffer entries and
+   * bitmaps are only allocated when a direction needs more than any before.
+   */
   static class Cache {
     int  frameBufferCellsW, frameBufferCellsH;
     Cell frameBufferCells[];
 
-    PixelBuffer pixelBuffer[];
+    PixelBuffer pixelBuffer[] = new PixelBuffer[PixelBuffer.MAX_VALUE];
     int numEntries;
 
+    PixelBuffer cellBuffer[] = new PixelBuffer[0];
+
+    byte frameBufferColormap[] = ArrayUtils.EMPTY_BYTE_ARRAY;
+    byte frameBmpColormap[] = ArrayUtils.EMPTY_BYTE_ARRAY;
     Bitmap frameBuffer;
+    Bitmap frameBmp;
+
+    FrameCache frame[] = new FrameCache[0];
+
+    Cache reset(Direction dir, int numFrames) {
+      numEntries = 0;
+      if (frame.length < numFrames) {
+        FrameCache[] frame = Arrays.copyOf(this.frame, numFrames);
+        for (int f = this.frame.length; f < numFrames; f++) frame[f] = new FrameCache();
+        this.frame = frame;
+      }
+
+      final int width = dir.box.width;
+      final int height = dir.box.height;
+      final int size = width * height;
+      if (frameBufferColormap.length < size) {
+        frameBufferColormap = new byte[size];
+        frameBmpColormap = new byte[size];
+      }
+
+      frameBuffer = new Bitmap(frameBufferColormap, width, height);
+      frameBuffer.clear();
+      frameBmp = new Bitmap(frameBmpColormap, width, height);
+      frameBmp.clear();
+      return this;
+    }
 
-    FrameCache frame[];
+    PixelBuffer[] cellBuffer(int numCells) {
+      if (cellBuffer.length < numCells) {
+        cellBuffer = new PixelBuffer[numCells];
+      } else {
+        Arrays.fill(cellBuffer, 0, numCells, null);
+      }
+
+      return cellBuffer;
+    }
 
-    Cache(Header header) {
-      frame = new FrameCache[header.framesPerDir];
+    PixelBuffer pixelBuffer(int id) {
+      PixelBuffer entry = pixelBuffer[id];
+      if (entry == null) entry = pixelBuffer[id] = new PixelBuffer();
+      return entry;
     }
 
     static class FrameCache {
@@ -1158,7 +1313,8 @@ public class DCC extends com.riiablo.codec.DC {
     }
 
     byte[] copy() {
-      return Arrays.copyOf(colormap, colormap.length);
+      assert x == 0 && y == 0 && stride == width;
+      return Arrays.copyOf(colormap, width * height);
     }
   }
 }
@@ -0,0 +1,270 @@
+package com.riiablo.codec;
+
+import io.netty.buffer.ByteBuf;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+import org.apache.commons.io.FileUtils;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.StreamUtils;
+
+import com.riiablo.logger.LogManager;
+import com.riiablo.logger.Logger;
+
+/**
+ * Size-bounded LRU cache of decoded {@link DCC} frames keyed by the contents
+ * of the encoded file, i.e., the length and CRC-32 of the MPQ block it was
+ * read from, so a DCC which is unloaded and loaded again (e.g., re-entering
+ * an area) is not decoded again. Cached colormaps are shared and must be
+ * treated as read-only.
+ *
+ * Decoded frames may also be written to a directory via
+ * {@link #setDirectory(FileHandle)}, in which case misses are read from
+ * there before decoding.
+ */
+public final class DCCCache {
+  private static final Logger log = LogManager.getLogger(DCCCache.class);
+
+  public static final long DEFAULT_MAX_BYTES = 64L << 20; // 64 MiB
+
+  static final int DISK_VERSION = 1;
+
+  private static final DCCCache INSTANCE = new DCCCache(DEFAULT_MAX_BYTES);
+
+  public static DCCCache get() {
+    return INSTANCE;
+  }
+
+  static long key(ByteBuf buffer) {
+    final int length = buffer.readableBytes();
+    final CRC32 crc = new CRC32();
+    if (buffer.hasArray()) {
+      crc.update(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), length);
+    } else if (buffer.nioBufferCount() == 1) {
+      // hashed in place, CRC32 reads direct buffers without copying them
+      crc.update(buffer.nioBuffer());
+    } else {
+      for (ByteBuffer nioBuffer : buffer.nioBuffers()) crc.update(nioBuffer);
+    }
+
+    return (crc.getValue() << Integer.SIZE) | (length & 0xFFFFFFFFL);
+  }
+
+  /** colormaps of each frame of each direction */
+  private final LinkedHashMap<Long, byte[][][]> files = new LinkedHashMap<>(64, 0.75f, true);
+  private long maxBytes;
+  private long bytes;
+  private FileHandle directory;
+
+  private long hits;
+  private long diskHits;
+  private long misses;
+  private long evictions;
+
+  DCCCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Sets the maximum total size of cached frames. A value of {@code 0}
+   * disables caching in memory.
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  public synchronized long maxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Sets the directory decoded frames are written to, or {@code null} to
+   * disable caching on disk.
+   */
+  public synchronized void setDirectory(FileHandle directory) {
+    if (directory != null) directory.mkdirs();
+    this.directory = directory;
+  }
+
+  public synchronized FileHandle directory() {
+    return directory;
+  }
+
+  /**
+   * Returns the cached colormaps of the specified file, reading them from
+   * disk if they are not cached in memory.
+   *
+   * @param sizes expected size of the frames of each direction
+   * @return the cached colormaps, or {@code null} if they are not cached
+   */
+  byte[][][] get(long key, int[] sizes, int framesPerDir) {
+    final FileHandle directory;
+    synchronized (this) {
+      final byte[][][] colormaps = files.get(key);
+      if (colormaps != null) {
+        hits++;
+        return colormaps;
+      }
+
+      directory = this.directory;
+    }
+
+    final byte[][][] colormaps = directory != null ? read(directory, key, sizes, framesPerDir) : null;
+    synchronized (this) {
+      if (colormaps == null) {
+        misses++;
+        return null;
+      }
+
+      diskHits++;
+      put(key, colormaps, size(sizes, framesPerDir));
+      return colormaps;
+    }
+  }
+
+  /**
+   * Caches the specified colormaps, writing them to disk if a directory is
+   * set.
+   */
+  void put(long key, byte[][][] colormaps, int[] sizes, int framesPerDir) {
+    final FileHandle directory;
+    synchronized (this) {
+      put(key, colormaps, size(sizes, framesPerDir));
+      directory = this.directory;
+    }
+
+    if (directory != null) write(directory, key, colormaps, sizes);
+  }
+
+  private void put(long key, byte[][][] colormaps, long size) {
+    if (size > maxBytes / 4) return;
+    final byte[][][] previous = files.put(key, colormaps);
+    if (previous == null) bytes += size;
+    evict();
+  }
+
+  private void evict() {
+    for (Iterator<byte[][][]> it = files.values().iterator(); bytes > maxBytes && it.hasNext();) {
+      final byte[][][] colormaps = it.next();
+      it.remove();
+      bytes -= size(colormaps);
+      evictions++;
+    }
+  }
+
+  private static long size(int[] sizes, int framesPerDir) {
+    long size = 0;
+    for (int s : sizes) size += (long) s * framesPerDir;
+    return size;
+  }
+
+  private static long size(byte[][][] colormaps) {
+    long size = 0;
+    for (byte[][] direction : colormaps) {
+      for (byte[] colormap : direction) size += colormap.length;
+    }
+
+    return size;
+  }
+
+  private static FileHandle file(FileHandle directory, long key) {
+    return directory.child(String.format("%016x.dcc", key));
+  }
+
+  private static byte[][][] read(FileHandle directory, long key, int[] sizes, int framesPerDir) {
+    final FileHandle file = file(directory, key);
+    if (!file.exists()) return null;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(file.read(8192));
+      if (in.readInt() != DISK_VERSION || in.readLong() != key) {
+        log.warn("{} is stale", file);
+        return null;
+      }
+
+      final byte[][][] colormaps = new byte[sizes.length][framesPerDir][];
+      for (int d = 0; d < sizes.length; d++) {
+        for (int f = 0; f < framesPerDir; f++) {
+          in.readFully(colormaps[d][f] = new byte[sizes[d]]);
+        }
+      }
+
+      return colormaps;
+    } catch (Throwable t) {
+      log.warn("Failed to read {}: {}", file, t.getMessage(), t);
+      return null;
+    } finally {
+      StreamUtils.closeQuietly(in);
+    }
+  }
+
+  private static void write(FileHandle directory, long key, byte[][][] colormaps, int[] sizes) {
+    final FileHandle file = file(directory, key);
+    final FileHandle tmp = file.sibling(file.name() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(tmp.write(false, 8192));
+      out.writeInt(DISK_VERSION);
+      out.writeLong(key);
+      for (int d = 0; d < colormaps.length; d++) {
+        for (byte[] colormap : colormaps[d]) {
+          assert colormap.length == sizes[d];
+          out.write(colormap);
+        }
+      }
+
+      out.close();
+      out = null;
+      tmp.moveTo(file);
+    } catch (Throwable t) {
+      log.warn("Failed to write {}: {}", file, t.getMessage(), t);
+      tmp.delete();
+    } finally {
+      StreamUtils.closeQuietly(out);
+    }
+  }
+
+  public synchronized void clear() {
+    files.clear();
+    bytes = 0;
+    log.debug("cleared {}", this);
+  }
+
+  public synchronized int size() {
+    return files.size();
+  }
+
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long diskHits() {
+    return diskHits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("[files=%d, size=%s/%s, hits=%d, diskHits=%d, misses=%d, evictions=%d]",
+        files.size(),
+        FileUtils.byteCountToDisplaySize(bytes),
+        FileUtils.byteCountToDisplaySize(maxBytes),
+        hits, diskHits, misses, evictions);
+  }
+}
@@ -21,6 +21,8 @@ import com.riiablo.engine.server.component.Class;
 import com.riiablo.engine.server.component.CofComponents;
 import com.riiablo.engine.server.component.CofReference;
 import com.riiablo.engine.server.event.CofChangeEvent;
+import com.riiablo.loader.DC6Loader;
+import com.riiablo.loader.DCDescriptors;
 
 import net.mostlyoriginal.api.event.common.Subscribe;
 
@@ -34,6 +36,7 @@ public class CofLayerLoader extends IteratingSystem {
   private static final boolean DEBUG_EVENTS = DEBUG && true;
 
   private final StringBuilder builder = new StringBuilder(64);
+  private final DCDescriptors dcs = new DCDescriptors();
 
   protected ComponentMapper<Class> mClass;
   protected ComponentMapper<CofWrapper> mCofWrapper;
@@ -98,17 +101,14 @@ public class CofLayerLoader extends IteratingSystem {
           .replace(start + 12, start + 15, layer.weaponClass);
 
       unload(c, descriptors);
-      AssetDescriptor<? extends DC> descriptor = descriptors[c];
-      String path = builder.replace(start + 16, start + 19, DCC.EXT).toString();
-      if (Riiablo.mpqs.contains(path)) {
-        descriptor = descriptors[c] = new AssetDescriptor<>(path, DCC.class);
-      } else {
-        path = builder.replace(start + 16, start + 19, DC6.EXT).toString();
-        assert Riiablo.mpqs.contains(path) : "Failed to locate " + path + " after looking for DCC and DC6";
-        descriptor = descriptors[c] = new AssetDescriptor<>(path, DC6.class);
+      AssetDescriptor<? extends DC> descriptor = dcs.dcc(builder.replace(start + 16, start + 19, DCC.EXT));
+      if (descriptor == null) {
+        descriptor = dcs.dc6(builder.replace(start + 16, start + 19, DC6.EXT), DC6Loader.DC6Parameters.ATLAS);
+        assert descriptor != null : "Failed to locate " + builder + " after looking for DCC and DC6";
       }
 
-      if (DEBUG) Gdx.app.log(TAG, "Loading[" + Engine.getComposite(c) + "] " + path);
+      descriptors[c] = descriptor;
+      if (DEBUG) Gdx.app.log(TAG, "Loading[" + Engine.getComposite(c) + "] " + descriptor.fileName);
       Riiablo.assets.load(descriptor);
       requiresReload |= (1 << c);
     }
@@ -8,6 +8,7 @@ import com.badlogic.gdx.ai.utils.Collision;
 import com.badlogic.gdx.ai.utils.Ray;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.Pools;
 import com.riiablo.engine.server.component.Angle;
 import com.riiablo.engine.server.component.Pathfind;
@@ -17,12 +18,23 @@ import com.riiablo.engine.server.component.Size;
 import com.riiablo.engine.server.component.Velocity;
 import com.riiablo.map.DT1;
 import com.riiablo.map.Map;
+import com.riiablo.map.pfa.FlowField;
 import com.riiablo.map.pfa.GraphPath;
+import com.riiablo.map.pfa.Point2;
 
 import java.util.Iterator;
 
 @All({Pathfind.class, Position.class, Velocity.class})
 public class Pathfinder extends IteratingSystem {
+  /** sub-tiles around a chased entity covered by its flow fields */
+  public static final int FLOW_FIELD_RADIUS = 64;
+  /** seconds before a flow field is flooded again from the position of its target */
+  public static final float FLOW_FIELD_REFRESH = 0.25f;
+  /** seconds before a flow field which is no longer followed is discarded */
+  public static final float FLOW_FIELD_EXPIRE = 2f;
+  /** flow fields flooded each tick, further chases use stale fields or search */
+  public static final int MAX_FLOODS_PER_TICK = 4;
+
   protected ComponentMapper<Position> mPosition;
   protected ComponentMapper<Size> mSize;
   protected ComponentMapper<Pathfind> mPathfind;
@@ -37,6 +49,41 @@ public class Pathfinder extends IteratingSystem {
   private final Ray<Vector2> ray = new Ray<>(new Vector2(), new Vector2());
   private final Collision<Vector2> collision = new Collision<>(new Vector2(), new Vector2());
 
+  /** flow fields toward each chased entity, indexed by size */
+  private final IntMap<Field[]> fields = new IntMap<>();
+  private float time;
+  private int floods;
+
+  static final class Field {
+    final FlowField field = new FlowField();
+    float flooded = Float.NEGATIVE_INFINITY;
+    float used;
+  }
+
+  @Override
+  protected void begin() {
+    time += world.delta;
+    floods = 0;
+  }
+
+  @Override
+  protected void end() {
+    for (IntMap.Entries<Field[]> it = fields.entries(); it.hasNext();) {
+      Field[] fields = it.next().value;
+      boolean empty = true;
+      for (int i = 0; i < fields.length; i++) {
+        if (fields[i] == null) continue;
+        if (time - fields[i].used > FLOW_FIELD_EXPIRE) {
+          fields[i] = null;
+        } else {
+          empty = false;
+        }
+      }
+
+      if (empty) it.remove();
+    }
+  }
+
   @Override
   protected void process(int entityId) {
     Vector2 position0 = mPosition.get(entityId).position;
@@ -83,6 +130,53 @@ public class Pathfinder extends IteratingSystem {
     velocity.velocity.set(tmpVec2).setLength(speed);
   }
 
+  /**
+   * Paths {@code src} toward the entity {@code target} by following a flow
+   * field shared by every entity of the same size chasing it, so the cost of
+   * repathing a pack does not depend on its size. Falls back to
+   * {@link #findPath(int, Vector2)} if {@code src} is outside of the field.
+   */
+  public boolean chase(int src, int target) {
+    Vector2 targetPos = mPosition.get(target).position;
+    int size = Math.min(mSize.get(src).size, Point2.MAX_CLEARANCE);
+    FlowField field = flowField(target, targetPos, size);
+    if (field != null) {
+      Vector2 position = mPosition.get(src).position;
+      GraphPath path = Pools.obtain(GraphPath.class);
+      if (field.path(Map.round(position.x), Map.round(position.y), path)) {
+        map.smoothPath(DT1.Tile.FLAG_BLOCK_WALK, size, path);
+        mPathfind.create(src).set(path);
+        return true;
+      }
+
+      Pools.free(path);
+    }
+
+    return findPath(src, targetPos);
+  }
+
+  /**
+   * Returns the flow field toward {@code target} for entities of the
+   * specified size, flooding it again if it is older than
+   * {@link #FLOW_FIELD_REFRESH} and the tick budget allows.
+   *
+   * @return the field, or {@code null} if none could be computed
+   */
+  FlowField flowField(int target, Vector2 targetPos, int size) {
+    Field[] fields = this.fields.get(target);
+    if (fields == null) this.fields.put(target, fields = new Field[Point2.MAX_CLEARANCE + 1]);
+    Field field = fields[size];
+    if (field == null) field = fields[size] = new Field();
+    field.used = time;
+    if (time - field.flooded >= FLOW_FIELD_REFRESH && floods < MAX_FLOODS_PER_TICK) {
+      floods++;
+      field.flooded = time;
+      map.flood(field.field, targetPos, FLOW_FIELD_RADIUS, size);
+    }
+
+    return field.field.isValid() ? field.field : null;
+  }
+
   public boolean findPath(int src, Vector2 target) {
     return findPath(src, target, false);
   }
@@ -131,9 +225,8 @@ public class Pathfinder extends IteratingSystem {
   }
 
   protected boolean findPath(int src, Vector2 srcPos, Vector2 targetPos, int flags, int size, GraphPath path) {
-    boolean success = map.findPath(srcPos, targetPos, flags, size, path);
+    boolean success = map.findSmoothPath(srcPos, targetPos, flags, size, path);
     if (success) {
-      map.smoothPath(flags, size, path);
       mPathfind.create(src).set(path);
     }
 
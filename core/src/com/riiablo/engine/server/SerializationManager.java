@@ -51,6 +51,9 @@ public class SerializationManager extends PassiveSystem {
   private static final boolean DEBUG             = true;
   private static final boolean DEBUG_DESERIALIZE = DEBUG && true;
 
+  /** Mask of every {@link ComponentP} type, see {@link #serialize(FlatBufferBuilder, int, int)} */
+  public static final int ALL_COMPONENTS = 0xFFFFFFFF;
+
   private static final int INITIAL_SIZE = 64;
   public final Bag<Component> components = new Bag<>(INITIAL_SIZE);
   public final ByteArray dataType = new ByteArray(INITIAL_SIZE);
@@ -121,25 +124,31 @@ public class SerializationManager extends PassiveSystem {
     cm[ComponentP.ItemP] = null;
   }
 
-  @SuppressWarnings("unchecked")
   public int serialize(FlatBufferBuilder builder, int entityId) {
+    return serialize(builder, entityId, ALL_COMPONENTS);
+  }
+
+  /**
+   * Serializes the components of {@code entityId} whose {@link ComponentP}
+   * type bit is set within {@code componentMask}.
+   */
+  @SuppressWarnings("unchecked")
+  public int serialize(FlatBufferBuilder builder, int entityId, int componentMask) {
     dataType.clear();
     data.clear();
     components.clear();
 
-    int type = mClass.get(entityId).type.ordinal();
-
     int flags = mFlags.get(entityId).flags;
     if ((flags & EntityFlags.deleted) == EntityFlags.deleted) {
-      int dataTypeOffset = EntitySync.createComponentTypeVector(builder, ArrayUtils.EMPTY_BYTE_ARRAY);
-      int dataOffset = EntitySync.createComponentVector(builder, ArrayUtils.EMPTY_INT_ARRAY);
-      return EntitySync.createEntitySync(builder, entityId, type, flags, dataTypeOffset, dataOffset);
+      return serializeDeleted(builder, entityId);
     }
 
+    int type = mClass.get(entityId).type.ordinal();
     componentManager.getComponentsFor(entityId, components);
     for (Component c : components) {
       FlatBuffersSerializer serializer = serializers.get(c.getClass());
       if (serializer == null) continue;
+      if ((componentMask & (1 << serializer.getDataType())) == 0) continue;
       dataType.add(serializer.getDataType());
       data.add(serializer.putData(builder, c));
     }
@@ -161,6 +170,53 @@ public class SerializationManager extends PassiveSystem {
     return EntitySync.createEntitySync(builder, entityId, type, flags, dataTypeOffset, dataOffset);
   }
 
+  /**
+   * Serializes {@code entityId} flagged as {@link EntityFlags#deleted} without
+   * any components, regardless of whether or not it has actually been deleted.
+   */
+  public int serializeDeleted(FlatBufferBuilder builder, int entityId) {
+    return serializeDeleted(builder, entityId, mClass.get(entityId).type.ordinal(), mFlags.get(entityId).flags);
+  }
+
+  /**
+   * Serializes {@code entityId} flagged as {@link EntityFlags#deleted} using
+   * the specified type and flags, e.g., captured before its components were
+   * removed.
+   */
+  public int serializeDeleted(FlatBufferBuilder builder, int entityId, int type, int flags) {
+    flags |= EntityFlags.deleted;
+    int dataTypeOffset = EntitySync.createComponentTypeVector(builder, ArrayUtils.EMPTY_BYTE_ARRAY);
+    int dataOffset = EntitySync.createComponentVector(builder, ArrayUtils.EMPTY_INT_ARRAY);
+    return EntitySync.createEntitySync(builder, entityId, type, flags, dataTypeOffset, dataOffset);
+  }
+
+  /**
+   * Serializes each component of {@code entityId} individually into
+   * {@code scratch} and stores a hash of the serialized bytes into
+   * {@code hashes} at the index of its {@link ComponentP} type. Hashes of
+   * unchanged components are stable across calls and can be compared to
+   * detect which components need to be synchronized.
+   *
+   * @return mask of the {@link ComponentP} types which were hashed
+   */
+  @SuppressWarnings("unchecked")
+  public int hash(FlatBufferBuilder scratch, int entityId, int[] hashes) {
+    components.clear();
+    componentManager.getComponentsFor(entityId, components);
+    int componentMask = 0;
+    for (Component c : components) {
+      FlatBuffersSerializer serializer = serializers.get(c.getClass());
+      if (serializer == null) continue;
+      byte dataType = serializer.getDataType();
+      scratch.clear();
+      scratch.finish(serializer.putData(scratch, c));
+      hashes[dataType] = scratch.dataBuffer().hashCode();
+      componentMask |= 1 << dataType;
+    }
+
+    return componentMask;
+  }
+
   public void deserialize(int entityId, D2GS packet) {
     packet.data(sync);
     deserialize(entityId, sync);
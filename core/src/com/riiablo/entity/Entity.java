@@ -24,6 +24,7 @@ import com.riiablo.codec.util.BBox;
 import com.riiablo.engine.Direction;
 import com.riiablo.graphics.BlendMode;
 import com.riiablo.graphics.PaletteIndexedBatch;
+import com.riiablo.loader.DCDescriptors;
 import com.riiablo.map.DT1.Tile;
 import com.riiablo.map.Map;
 import com.riiablo.map.pfa.GraphPath;
@@ -275,6 +276,7 @@ public abstract class Entity implements Animation.AnimationListener {
   int     size = 1;
 
   private static final Vector2 tmpVec2 = new Vector2();
+  private static final DCDescriptors DCS = new DCDescriptors();
 
   Entity(Type type, String classname, String token) {
     this(type, classname, token, new byte[COF.Component.NUM_COMPONENTS], DEFAULT_TRANS.clone());
@@ -405,10 +407,11 @@ public abstract class Entity implements Animation.AnimationListener {
           .replace(start +  5, start +  7, composit)
           .replace(start +  7, start + 10, type.COMP[comp[layer.component]])
           .replace(start + 12, start + 15, layer.weaponClass);
-      String path = builder.toString();
-      if (DEBUG_DIRTY) Gdx.app.log(TAG, path);
+      if (DEBUG_DIRTY) Gdx.app.log(TAG, builder.toString());
 
-      AssetDescriptor<? extends DC> descriptor = this.layer[layer.component] = new AssetDescriptor<>(path, DCC.class);
+      AssetDescriptor<? extends DC> descriptor = DCS.dcc(builder);
+      if (descriptor == null) descriptor = new AssetDescriptor<>(builder.toString(), DCC.class);
+      this.layer[layer.component] = descriptor;
       Riiablo.assets.load(descriptor);
       load |= (1 << layer.component);
     }
@@ -0,0 +1,317 @@
+package com.riiablo.graphics;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap.Format;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.SnapshotArray;
+
+import com.riiablo.logger.LogManager;
+import com.riiablo.logger.Logger;
+
+/**
+ * Shared palette-indexed texture pages which the frames of many animations
+ * are packed into, so consecutive draws of different animations use the same
+ * texture and are not split into separate batches.
+ *
+ * Frames are packed as a {@link Group} (e.g., a direction of a DC) using shelf
+ * packing, and all frames of a group are placed within the same page. When
+ * all {@link #maxPages} pages are full, the least recently used page which
+ * was not drawn within the current frame is evicted, notifying the
+ * {@link Owner} of each of its groups so that they can be packed again the
+ * next time they are needed. Regions must be passed to {@link #touch} when
+ * drawn for this to work.
+ *
+ * Pages are only modified on the GL thread.
+ */
+public class PaletteIndexedAtlas implements Disposable {
+  private static final Logger log = LogManager.getLogger(PaletteIndexedAtlas.class);
+
+  public static final int PAGE_SIZE = 2048;
+  public static final int DEFAULT_MAX_PAGES = 8;
+
+  /** frames larger than this in either dimension are not packed */
+  public static final int MAX_REGION_SIZE = PAGE_SIZE / 4;
+
+  /** gap between adjacent frames so that sampling doesn't bleed */
+  static final int PADDING = 1;
+
+  public interface Owner {
+    /**
+     * Called when the specified group is evicted. Its regions must not be
+     * drawn afterwards.
+     */
+    void evict(Group group);
+  }
+
+  final Array<Page> pages = new Array<>(false, DEFAULT_MAX_PAGES, Page.class);
+  final int maxPages;
+
+  final IntArray xy = new IntArray();
+
+  private long evictions;
+
+  public PaletteIndexedAtlas() {
+    this(DEFAULT_MAX_PAGES);
+  }
+
+  public PaletteIndexedAtlas(int maxPages) {
+    this.maxPages = maxPages;
+  }
+
+  /**
+   * Marks the page the specified region is packed into as used within the
+   * current frame, if it is packed into an atlas.
+   */
+  public static void touch(TextureRegion region) {
+    if (region instanceof Region) ((Region) region).page.lastUsed = Gdx.graphics.getFrameId();
+  }
+
+  /**
+   * Packs the specified frames into a page.
+   *
+   * @param id        identifier of the group passed back to the owner
+   * @param colormaps palette-indexed pixels of each frame
+   * @return the packed group, or {@code null} if a frame is too large to pack
+   *         or every page was drawn within the current frame
+   */
+  public Group pack(Owner owner, int id, byte[][] colormaps, int[] widths, int[] heights) {
+    final int numFrames = colormaps.length;
+    for (int f = 0; f < numFrames; f++) {
+      if (widths[f] > MAX_REGION_SIZE || heights[f] > MAX_REGION_SIZE) return null;
+    }
+
+    Page page = null;
+    for (Page p : pages) {
+      if (p.allocate(widths, heights, numFrames, xy)) {
+        page = p;
+        break;
+      }
+    }
+
+    if (page == null) {
+      page = pages.size < maxPages ? newPage() : evict();
+      if (page == null || !page.allocate(widths, heights, numFrames, xy)) return null;
+    }
+
+    final Group group = new Group(this, owner, id, page, numFrames);
+    final int[] xy = this.xy.items;
+    page.texture.bind();
+    for (int f = 0; f < numFrames; f++) {
+      final int x = xy[f << 1], y = xy[(f << 1) + 1];
+      final int width = widths[f], height = heights[f];
+      if (width > 0 && height > 0) {
+        Gdx.gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0, x, y, width, height,
+            Format.toGlFormat(Format.Intensity), Format.toGlType(Format.Intensity),
+            PaletteIndexedTextureData.stage(colormaps[f], 0, width * height));
+      }
+
+      group.regions[f] = new Region(page, x, y, width, height);
+    }
+
+    page.groups.add(group);
+    page.lastUsed = Gdx.graphics.getFrameId();
+    return group;
+  }
+
+  Page newPage() {
+    Texture texture = new Texture(new PaletteIndexedTextureData(PAGE_SIZE, PAGE_SIZE));
+    texture.setWrap(Texture.TextureWrap.ClampToEdge, Texture.TextureWrap.ClampToEdge);
+    Page page = new Page(texture);
+    pages.add(page);
+    log.debug("allocated page {}", pages.size);
+    return page;
+  }
+
+  /**
+   * Evicts the least recently used page which was not drawn within the
+   * current frame.
+   */
+  Page evict() {
+    final long frameId = Gdx.graphics.getFrameId();
+    Page lru = null;
+    for (Page page : pages) {
+      if (page.lastUsed >= frameId) continue;
+      if (lru == null || page.lastUsed < lru.lastUsed) lru = page;
+    }
+
+    if (lru == null) return null;
+    final Group[] groups = lru.groups.begin();
+    for (int i = 0, s = lru.groups.size; i < s; i++) {
+      Group group = groups[i];
+      group.page = null;
+      group.owner.evict(group);
+    }
+
+    lru.groups.end();
+    lru.groups.clear();
+    lru.reset();
+    evictions++;
+    return lru;
+  }
+
+  void free(Group group) {
+    final Page page = group.page;
+    if (page == null) return;
+    group.page = null;
+    page.groups.removeValue(group, true);
+    if (page.groups.isEmpty()) page.reset();
+  }
+
+  public int numPages() {
+    return pages.size;
+  }
+
+  public long evictions() {
+    return evictions;
+  }
+
+  @Override
+  public void dispose() {
+    for (Page page : pages) page.texture.dispose();
+    pages.clear();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("[pages=%d/%d, evictions=%d]", pages.size, maxPages, evictions);
+  }
+
+  /**
+   * Frames packed together by {@link #pack}.
+   */
+  public static final class Group {
+    final PaletteIndexedAtlas atlas;
+    final Owner owner;
+    final int id;
+    final TextureRegion[] regions;
+    Page page;
+
+    Group(PaletteIndexedAtlas atlas, Owner owner, int id, Page page, int numFrames) {
+      this.atlas = atlas;
+      this.owner = owner;
+      this.id = id;
+      this.page = page;
+      this.regions = new TextureRegion[numFrames];
+    }
+
+    public int id() {
+      return id;
+    }
+
+    public TextureRegion[] regions() {
+      return regions;
+    }
+
+    /**
+     * Releases the space of this group within its page.
+     */
+    public void free() {
+      atlas.free(this);
+    }
+  }
+
+  static final class Region extends TextureRegion {
+    final Page page;
+
+    Region(Page page, int x, int y, int width, int height) {
+      super(page.texture, x, y, width, height);
+      this.page = page;
+    }
+  }
+
+  static final class Page {
+    final Texture texture;
+    final SnapshotArray<Group> groups = new SnapshotArray<>(false, 16, Group.class);
+    long lastUsed;
+
+    // shelves, i.e., rows of frames, stored as y, height and next x
+    final IntArray shelfY = new IntArray();
+    final IntArray shelfHeight = new IntArray();
+    final IntArray shelfX = new IntArray();
+    int nextY;
+
+    // shelves of the allocation in progress
+    final IntArray tmpX = new IntArray();
+    /** y and height of shelves opened by the allocation in progress */
+    final IntArray newShelves = new IntArray();
+
+    Page(Texture texture) {
+      this.texture = texture;
+    }
+
+    void reset() {
+      shelfY.clear();
+      shelfHeight.clear();
+      shelfX.clear();
+      nextY = 0;
+    }
+
+    /**
+     * Allocates all of the specified frames, or none of them.
+     *
+     * @param xy receives the position of each frame
+     */
+    boolean allocate(int[] widths, int[] heights, int numFrames, IntArray xy) {
+      final IntArray shelfX = tmpX;
+      shelfX.clear();
+      shelfX.addAll(this.shelfX);
+      final int numShelves = shelfY.size;
+      int nextY = this.nextY;
+      xy.clear();
+      for (int f = 0; f < numFrames; f++) {
+        final int width = widths[f] + PADDING;
+        final int height = heights[f] + PADDING;
+
+        int best = -1, bestWaste = Integer.MAX_VALUE;
+        for (int i = 0, s = shelfX.size; i < s; i++) {
+          int shelfHeight = i < numShelves ? this.shelfHeight.get(i) : heightOf(i, numShelves);
+          if (height > shelfHeight || shelfX.get(i) + width > PAGE_SIZE) continue;
+          int waste = shelfHeight - height;
+          if (waste < bestWaste) {
+            best = i;
+            bestWaste = waste;
+          }
+        }
+
+        // open a new shelf instead of wasting more than half of an existing one
+        if ((best == -1 || bestWaste > height / 2) && nextY + height <= PAGE_SIZE) {
+          best = shelfX.size;
+          newShelves.add(nextY);
+          newShelves.add(height);
+          shelfX.add(0);
+          nextY += height;
+        }
+
+        if (best == -1) {
+          newShelves.clear();
+          return false;
+        }
+
+        final int x = shelfX.get(best);
+        xy.add(x);
+        xy.add(best < numShelves ? shelfY.get(best) : newShelves.get((best - numShelves) << 1));
+        shelfX.set(best, x + width);
+      }
+
+      for (int i = 0; i < newShelves.size; i += 2) {
+        shelfY.add(newShelves.get(i));
+        shelfHeight.add(newShelves.get(i + 1));
+      }
+
+      newShelves.clear();
+      this.shelfX.clear();
+      this.shelfX.addAll(shelfX);
+      this.nextY = nextY;
+      return true;
+    }
+
+    int heightOf(int i, int numShelves) {
+      return newShelves.get(((i - numShelves) << 1) + 1);
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.riiablo.graphics;
+
+import java.nio.ByteBuffer;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Pixmap.Format;
+import com.badlogic.gdx.graphics.TextureData;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+/**
+ * Unmanaged {@link TextureData} which uploads a palette-indexed colormap as
+ * is, i.e., the same texture a {@link PaletteIndexedPixmap} of the colormap
+ * would upload without allocating the pixmap. Uploads are staged through a
+ * single direct buffer, so textures must be created on the GL thread. A
+ * {@code null} colormap allocates the texture without uploading any pixels.
+ */
+public class PaletteIndexedTextureData implements TextureData {
+  private static ByteBuffer staging = BufferUtils.newByteBuffer(1 << 16);
+
+  final byte[] colormap;
+  final int offset;
+  final int width;
+  final int height;
+
+  public PaletteIndexedTextureData(byte[] colormap, int width, int height) {
+    this(colormap, 0, width, height);
+  }
+
+  public PaletteIndexedTextureData(int width, int height) {
+    this(null, 0, width, height);
+  }
+
+  public PaletteIndexedTextureData(byte[] colormap, int offset, int width, int height) {
+    if (colormap != null && offset + width * height > colormap.length) {
+      throw new IllegalArgumentException("colormap.length(" + colormap.length + ") < " + (offset + width * height));
+    }
+
+    this.colormap = colormap;
+    this.offset = offset;
+    this.width = width;
+    this.height = height;
+  }
+
+  @Override
+  public TextureDataType getType() {
+    return TextureDataType.Custom;
+  }
+
+  @Override
+  public boolean isPrepared() {
+    return true;
+  }
+
+  @Override
+  public void prepare() {}
+
+  @Override
+  public Pixmap consumePixmap() {
+    throw new GdxRuntimeException("This TextureData implementation does not return a Pixmap");
+  }
+
+  @Override
+  public boolean disposePixmap() {
+    return false;
+  }
+
+  /**
+   * Copies {@code size} bytes of the specified colormap into the staging
+   * buffer and sets the unpack alignment to match.
+   */
+  static ByteBuffer stage(byte[] colormap, int offset, int size) {
+    ByteBuffer staging = PaletteIndexedTextureData.staging;
+    if (staging.capacity() < size) {
+      staging = PaletteIndexedTextureData.staging = BufferUtils.newByteBuffer(Integer.highestOneBit(size - 1) << 1);
+    }
+
+    staging.clear();
+    staging.put(colormap, offset, size).flip();
+    Gdx.gl.glPixelStorei(GL20.GL_UNPACK_ALIGNMENT, 1);
+    return staging;
+  }
+
+  @Override
+  public void consumeCustomData(int target) {
+    final ByteBuffer pixels = colormap != null ? stage(colormap, offset, width * height) : null;
+    final int glFormat = Format.toGlFormat(Format.Intensity);
+    Gdx.gl.glTexImage2D(target, 0, glFormat, width, height, 0, glFormat, Format.toGlType(Format.Intensity), pixels);
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public Format getFormat() {
+    return Format.Intensity;
+  }
+
+  @Override
+  public boolean useMipMaps() {
+    return false;
+  }
+
+  @Override
+  public boolean isManaged() {
+    return false;
+  }
+}
@@ -9,12 +9,23 @@ import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
 
 import com.riiablo.codec.DC6;
+import com.riiablo.graphics.PaletteIndexedAtlas;
 
 public class DC6Loader extends AsynchronousAssetLoader<DC6, DC6Loader.DC6Parameters> {
+  final PaletteIndexedAtlas atlas;
   DC6 dc6;
 
   public DC6Loader(FileHandleResolver resolver) {
+    this(resolver, null);
+  }
+
+  /**
+   * @param atlas atlas DC6 directions are packed into, or {@code null} -- only
+   *              used if {@link DC6Parameters#atlas} is set
+   */
+  public DC6Loader(FileHandleResolver resolver, PaletteIndexedAtlas atlas) {
     super(resolver);
+    this.atlas = atlas;
   }
 
   @Override
@@ -43,6 +54,7 @@ public class DC6Loader extends AsynchronousAssetLoader<DC6, DC6Loader.DC6Paramet
       this.dc6 = null;
     }
 
+    if (params != null && params.atlas) dc6.setAtlas(atlas);
     if (params != null) {
       int preload = params.preload;
       if (preload == DC6Parameters.PRELOAD_ALL) {
@@ -68,9 +80,12 @@ public class DC6Loader extends AsynchronousAssetLoader<DC6, DC6Loader.DC6Paramet
     public static final int PRELOAD_ALL = -1;
 
     public static final DC6Parameters COMBINE = new DC6Parameters(PRELOAD_ALL).combineFrames();
+    public static final DC6Parameters ATLAS = new DC6Parameters(PRELOAD_ALL).atlas();
 
     public int preload;
     public boolean combineFrames;
+    /** pack directions into the loader's atlas, see {@link DC6#setAtlas} */
+    public boolean atlas;
     public DC6Parameters() {
       this(PRELOAD_ALL);
     }
@@ -84,5 +99,10 @@ public class DC6Loader extends AsynchronousAssetLoader<DC6, DC6Loader.DC6Paramet
       combineFrames = true;
       return this;
     }
+
+    public DC6Parameters atlas() {
+      atlas = true;
+      return this;
+    }
   }
 }
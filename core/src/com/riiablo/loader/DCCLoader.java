@@ -9,12 +9,22 @@ import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
 
 import com.riiablo.codec.DCC;
+import com.riiablo.graphics.PaletteIndexedAtlas;
 
 public class DCCLoader extends AsynchronousAssetLoader<DCC, DCCLoader.DCCParameters> {
+  final PaletteIndexedAtlas atlas;
   DCC dcc;
 
   public DCCLoader(FileHandleResolver resolver) {
+    this(resolver, null);
+  }
+
+  /**
+   * @param atlas atlas DCC directions are packed into, or {@code null}
+   */
+  public DCCLoader(FileHandleResolver resolver, PaletteIndexedAtlas atlas) {
     super(resolver);
+    this.atlas = atlas;
   }
 
   @Override
@@ -43,6 +53,7 @@ public class DCCLoader extends AsynchronousAssetLoader<DCC, DCCLoader.DCCParamet
       this.dcc = null;
     }
 
+    dcc.setAtlas(atlas);
     if (params != null) {
       int preload = params.preload;
       if (preload == DCCParameters.PRELOAD_ALL) {
@@ -0,0 +1,73 @@
+package com.riiablo.loader;
+
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.utils.LongMap;
+
+import com.riiablo.Riiablo;
+import com.riiablo.codec.DC;
+import com.riiablo.codec.DC6;
+import com.riiablo.codec.DCC;
+import com.riiablo.mpq_bytebuf.MutablePathKey;
+
+/**
+ * Canonical {@link AssetDescriptor descriptors} of DC files keyed by the MPQ
+ * hashes of their paths, so paths which are built repeatedly (e.g., the
+ * layers of a COF) are hashed in place and only copied into a {@code String}
+ * the first time they are found. Paths which are not found are remembered as
+ * well. Entries are never removed, which is bounded by the number of files
+ * within the archives. Not thread-safe.
+ */
+public final class DCDescriptors {
+  private static final AssetDescriptor<DC> MISSING = new AssetDescriptor<>("", DC.class);
+
+  private final MutablePathKey key = new MutablePathKey();
+  private final LongMap<AssetDescriptor<? extends DC>> descriptors = new LongMap<>(256);
+
+  /**
+   * Returns the descriptor of the DCC at the specified path.
+   *
+   * @return the descriptor, or {@code null} if the file does not exist
+   */
+  @SuppressWarnings("unchecked")
+  public AssetDescriptor<DCC> dcc(CharSequence path) {
+    AssetDescriptor<? extends DC> descriptor = lookup(path);
+    if (descriptor == null) {
+      descriptor = put(Riiablo.mpqs.contains(key)
+          ? new AssetDescriptor<>(path.toString(), DCC.class)
+          : MISSING);
+    }
+
+    return descriptor != MISSING ? (AssetDescriptor<DCC>) descriptor : null;
+  }
+
+  /**
+   * Returns the descriptor of the DC6 at the specified path. The parameters
+   * of the descriptor are those given when the path was first found.
+   *
+   * @return the descriptor, or {@code null} if the file does not exist
+   */
+  @SuppressWarnings("unchecked")
+  public AssetDescriptor<DC6> dc6(CharSequence path, DC6Loader.DC6Parameters params) {
+    AssetDescriptor<? extends DC> descriptor = lookup(path);
+    if (descriptor == null) {
+      descriptor = put(Riiablo.mpqs.contains(key)
+          ? new AssetDescriptor<>(path.toString(), DC6.class, params)
+          : MISSING);
+    }
+
+    return descriptor != MISSING ? (AssetDescriptor<DC6>) descriptor : null;
+  }
+
+  private AssetDescriptor<? extends DC> lookup(CharSequence path) {
+    return descriptors.get(key.set(path).key());
+  }
+
+  private AssetDescriptor<? extends DC> put(AssetDescriptor<? extends DC> descriptor) {
+    descriptors.put(key.key(), descriptor);
+    return descriptor;
+  }
+
+  public void clear() {
+    descriptors.clear();
+  }
+}
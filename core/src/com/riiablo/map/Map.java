@@ -32,7 +32,8 @@ import com.riiablo.codec.excel.LvlTypes;
 import com.riiablo.engine.Engine;
 import com.riiablo.engine.EntityFactory;
 import com.riiablo.engine.server.component.Warp;
-import com.riiablo.map.pfa.AStarPathFinder;
+import com.riiablo.map.pfa.FlowField;
+import com.riiablo.map.pfa.GridPathFinder;
 import com.riiablo.map.pfa.Point2;
 
 public class Map implements Disposable {
@@ -322,7 +323,11 @@ public class Map implements Disposable {
   int act = -1;
 
   final IntMap<DT1s> dt1s = new IntMap<>();
-  final Array<Zone> zones = new Array<>(); // TODO: replace with R-tree? https://en.wikipedia.org/wiki/R-tree
+  final Array<Zone> zones = new Array<>();
+  final ZoneGrid zoneGrid = new ZoneGrid();
+
+  /** incremented whenever the tiles drawn at any position may have changed */
+  int modCount;
 
   ComponentMapper<Warp> mWarp;
   EntityFactory factory;
@@ -362,16 +367,26 @@ public class Map implements Disposable {
      * FIXME: throwing nested iterator error if not creating new wrapper
      *        nested iterator is within systems which use Map#getZone()
      */
+    zoneGrid.build(zones);
     for (Zone zone : new Array.ArrayIterator<>(zones)) zone.generate();
+    // after all zones are generated, since clearance spans zone boundaries
+    for (Zone zone : new Array.ArrayIterator<>(zones)) zone.buildClearance();
+    modCount++;
+    portals.rebuild();
+    paths.clear();
   }
 
   @Override
   public void dispose() {
     for (Zone zone : zones) Zone.free(zone);
     zones.clear();
+    zoneGrid.clear();
     for (DT1s dt1s : this.dt1s.values()) dt1s.clear();
     dt1s.clear();
     mapGraph.clear();
+    portals.clear();
+    paths.clear();
+    modCount++;
   }
 
   public Array<AssetDescriptor> getDependencies() {
@@ -403,15 +418,62 @@ public class Map implements Disposable {
     }
   }
 
-  private MapGraph        mapGraph   = new MapGraph(this);
-  private AStarPathFinder pathFinder = new AStarPathFinder(mapGraph, true);
+  private MapGraph       mapGraph   = new MapGraph(this);
+  private GridPathFinder pathFinder = new GridPathFinder(this);
+  private PortalGraph    portals    = new PortalGraph(this, pathFinder);
+  private PathCache      paths      = new PathCache(PathCache.DEFAULT_MAX_ENTRIES);
 
   public boolean findPath(Vector2 src, Vector2 dst, GraphPath<Point2> path) {
     return findPath(src, dst, DT1.Tile.FLAG_BLOCK_WALK, 0, path);
   }
 
+  /**
+   * Searches for a path from {@code src} to {@code dst}. This may be called
+   * from any thread while the map is not being modified.
+   */
   public boolean findPath(Vector2 src, Vector2 dst, int flags, int size, GraphPath<Point2> path) {
-    return mapGraph.searchNodePath(pathFinder, src, dst, flags, size, path);
+    path.clear();
+    if (dst == null) return false;
+    if (flags(dst) != 0) return false;
+    final int srcX = round(src.x), srcY = round(src.y);
+    final int dstX = round(dst.x), dstY = round(dst.y);
+    if (clearance(dstX, dstY) < size) return false; // too narrow to ever be reached
+    if (pathFinder.search(srcX, srcY, dstX, dstY, flags, size, path)) return true;
+    // too far or too winding for a local search
+    path.clear();
+    return portals.search(srcX, srcY, dstX, dstY, size, path);
+  }
+
+  /**
+   * Searches for a path from {@code src} to {@code dst} and smooths it, or
+   * returns the cached path if the same path was found before and the flags
+   * of the zones it passes through have not changed since. This may be
+   * called from any thread while the map is not being modified.
+   */
+  public boolean findSmoothPath(Vector2 src, Vector2 dst, int flags, int size, SmoothableGraphPath<Point2, Vector2> path) {
+    path.clear();
+    if (dst == null) return false;
+    final int srcX = round(src.x), srcY = round(src.y);
+    final int dstX = round(dst.x), dstY = round(dst.y);
+    if (paths.get(srcX, srcY, dstX, dstY, flags, size, path)) return true;
+    if (!findPath(src, dst, flags, size, path)) return false;
+    smoothPath(flags, size, path);
+    PathCache.Entry entry = PathCache.track(this, path);
+    paths.put(srcX, srcY, dstX, dstY, flags, size, entry, path);
+    return true;
+  }
+
+  public PathCache pathCache() {
+    return paths;
+  }
+
+  /**
+   * Computes a flow field toward {@code dst} covering the sub-tiles within
+   * {@code radius} of it. This may be called from any thread while the map is
+   * not being modified.
+   */
+  public boolean flood(FlowField field, Vector2 dst, int radius, int size) {
+    return pathFinder.flood(field, round(dst.x), round(dst.y), radius, size);
   }
 
   public void smoothPath(SmoothableGraphPath<Point2, Vector2> path) {
@@ -452,16 +514,20 @@ public class Map implements Disposable {
 
   public void addWarpSubsts(IntIntMap warps) {
     this.warpSubsts.putAll(warps);
+    modCount++;
   }
 
   public void clearWarpSubsts(IntIntMap warps) {
     for (IntIntMap.Entry entry : warps.entries()) {
       this.warpSubsts.remove(entry.key, entry.value);
     }
+
+    modCount++;
   }
 
   public void clearWarpSubsts() {
     this.warpSubsts.clear();
+    modCount++;
   }
 
   // FIXME: only works properly for zone 0 at 0,0
@@ -484,6 +550,17 @@ public class Map implements Disposable {
     return zone.flags(x - zone.x, y - zone.y);
   }
 
+  /**
+   * Returns the size of the largest entity which fits centered at the
+   * specified sub-tile, from {@code 0} if it is not walkable up to
+   * {@link Point2#MAX_CLEARANCE}.
+   */
+  public int clearance(int x, int y) {
+    Zone zone = getZone(x, y);
+    if (zone == null) return 0;
+    return zone.clearance(x - zone.x, y - zone.y);
+  }
+
   void or(Vector2 position, int width, int height, int flags) {
     if (width == 0 || height == 0) return;
     int x0 = round(position.x - width  / 2f);
@@ -494,6 +571,17 @@ public class Map implements Disposable {
         if (zone != null) zone.or(dx - zone.x, dy - zone.y, flags);
       }
     }
+
+    // blockers reduce the clearance of sub-tiles up to MAX_CLEARANCE - 1 away
+    final int pad = Point2.MAX_CLEARANCE - 1;
+    for (int y = y0 - pad, y1 = y0 + height + pad; y < y1; y++) {
+      for (int x = x0 - pad, x1 = x0 + width + pad; x < x1; x++) {
+        Zone zone = getZone(x, y);
+        if (zone != null) zone.updateClearance(x - zone.x, y - zone.y);
+      }
+    }
+
+    portals.invalidate(x0, y0, x0 + width - 1, y0 + height - 1);
   }
 
   public Material material(Vector2 vec) {
@@ -519,8 +607,12 @@ public class Map implements Disposable {
   }
 
   public Zone getZone(int x, int y) {
-    for (Zone zone : zones) if (zone.contains(x, y)) return zone;
-    return null;
+    if (zoneGrid.dirty) buildZoneGrid();
+    return zoneGrid.get(x, y);
+  }
+
+  private synchronized void buildZoneGrid() {
+    if (zoneGrid.dirty) zoneGrid.build(zones);
   }
 
   public Zone findZone(Levels.Entry level) {
@@ -539,6 +631,8 @@ public class Map implements Disposable {
     Zone zone = Zone.obtain(this, level, diff, gridSizeX, gridSizeY);
     if (DEBUG_ZONES) Gdx.app.debug(TAG, zone.toString());
     zones.add(zone);
+    zoneGrid.invalidate();
+    modCount++;
     return zone;
   }
 
@@ -546,6 +640,8 @@ public class Map implements Disposable {
     Zone zone = Zone.obtain(this, level, diff, gridSizeX, gridSizeY, gridsX, gridsY);
     if (DEBUG_ZONES) Gdx.app.debug(TAG, zone.toString());
     zones.add(zone);
+    zoneGrid.invalidate();
+    modCount++;
     return zone;
   }
 
@@ -618,6 +714,10 @@ public class Map implements Disposable {
     LvlTypes.Entry type;
     DT1s           dt1s;
     byte           flags[];
+    /** incremented whenever the flags or clearance of a sub-tile change, see PathCache */
+    volatile int   flagsVersion;
+    /** see Map#clearance, null until generated */
+    byte           clearance[];
     final DT1.Tile tiles[][] = new DT1.Tile[Map.MAX_LAYERS][];
     Preset         presets[][];
 
@@ -708,6 +808,9 @@ public class Map implements Disposable {
       free(flags);
       flags = null;
 
+      if (clearance != null) free(clearance);
+      clearance = null;
+
       for (DT1.Tile[] layer : tiles) free(layer);
       Arrays.fill(tiles, null);
 
@@ -750,6 +853,8 @@ public class Map implements Disposable {
       this.y = y;
       tx = x / DT1.Tile.SUBTILE_SIZE;
       ty = y / DT1.Tile.SUBTILE_SIZE;
+      map.zoneGrid.invalidate();
+      map.modCount++;
     }
 
     public boolean isTown() {
@@ -773,8 +878,77 @@ public class Map implements Disposable {
       return flags[index(width, x, y)] & 0xFF;
     }
 
+    /**
+     * Sets the specified flags of a sub-tile, invalidating the paths which
+     * were cached through this zone if they were not already set.
+     */
     public int or(int x, int y, int flags) {
-      return (this.flags[index(width, x, y)] |= flags) & 0xFF;
+      final int index = index(width, x, y);
+      final byte value = this.flags[index];
+      final byte result = (byte) (value | flags);
+      if (result != value) {
+        this.flags[index] = result;
+        flagsVersion++;
+      }
+
+      return result & 0xFF;
+    }
+
+    public int clearance(int x, int y) {
+      if (clearance == null) return probeClearance(x, y);
+      return clearance[index(width, x, y)];
+    }
+
+    void buildClearance() {
+      if (clearance == null) clearance = obtainByteArray(width * height);
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          clearance[index(width, x, y)] = (byte) probeClearance(x, y);
+        }
+      }
+    }
+
+    void updateClearance(int x, int y) {
+      if (clearance == null) return;
+      final int index = index(width, x, y);
+      final byte value = (byte) probeClearance(x, y);
+      if (clearance[index] != value) {
+        clearance[index] = value;
+        flagsVersion++;
+      }
+    }
+
+    // sub-tiles around a sub-tile checked by Point2#probeClearance, ring i + 1 is
+    // CLEARANCE_RING[i] until CLEARANCE_RING[i + 1]
+    static final int[] CLEARANCE_DX = {
+        -1,  0,  1, -1,  1, -1,  0,  1,
+        -1,  0,  1, -2,  2, -2,  2, -2,  2, -1,  0,  1,
+    };
+    static final int[] CLEARANCE_DY = {
+        -1, -1, -1,  0,  0,  1,  1,  1,
+        -2, -2, -2, -1, -1,  0,  0,  1,  1,  2,  2,  2,
+    };
+    static final int[] CLEARANCE_RING = {0, 8, 20};
+
+    /**
+     * Computes the clearance of a sub-tile from the flags around it. Sub-tiles
+     * far enough from the zone edges only read {@link #flags}.
+     */
+    int probeClearance(int x, int y) {
+      final int reach = Point2.MAX_CLEARANCE - 1;
+      if (x < reach || y < reach || x >= width - reach || y >= height - reach) {
+        return Point2.probeClearance(map, this.x + x, this.y + y);
+      }
+
+      final byte[] flags = this.flags;
+      if (flags[index(width, x, y)] != 0) return 0;
+      for (int ring = 0; ring < CLEARANCE_RING.length - 1; ring++) {
+        for (int i = CLEARANCE_RING[ring], s = CLEARANCE_RING[ring + 1]; i < s; i++) {
+          if (flags[index(width, x + CLEARANCE_DX[i], y + CLEARANCE_DY[i])] != 0) return ring + 1;
+        }
+      }
+
+      return Point2.MAX_CLEARANCE;
     }
 
     public Material material(int tx, int ty) {
@@ -12,16 +12,22 @@ import com.riiablo.map.pfa.RaycastCollisionDetector;
 
 public class MapGraph {
   Map map;
-  PathSmoother<Point2> smoother;
   RaycastCollisionDetector raycaster;
 
+  /** smoothers hold scratch state, so each thread smoothing paths gets its own */
+  final ThreadLocal<PathSmoother<Point2>> smoothers = new ThreadLocal<PathSmoother<Point2>>() {
+    @Override
+    protected PathSmoother<Point2> initialValue() {
+      return new PathSmoother<>(new RaycastCollisionDetector(map, MapGraph.this));
+    }
+  };
+
   final Point2 tmpPoint = new Point2();
   final ObjectSet<Point2> identity = new ObjectSet<>();
 
   public MapGraph(Map map) {
     this.map = map;
     raycaster = new RaycastCollisionDetector(map, this);
-    smoother = new PathSmoother<>(raycaster);
   }
 
   public void clear() {
@@ -61,7 +67,7 @@ public class MapGraph {
   }
 
   public void smoothPath(int flags, int size, SmoothableGraphPath<Point2, Vector2> path) {
-    smoother.smoothPath(flags, size, path);
+    smoothers.get().smoothPath(flags, size, path);
   }
 
   public Array<Point2> getNeighbors(Point2 src, int flags, Array<Point2> neighbors) {
@@ -0,0 +1,220 @@
+package com.riiablo.map;
+
+import java.util.LinkedHashMap;
+
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.utils.Array;
+
+import com.riiablo.map.pfa.Point2;
+
+/**
+ * Size-bounded LRU cache of smoothed paths keyed by their start and end
+ * sub-tiles, flags and size, so repeated requests (e.g., clicking the same
+ * spot, npcs walking between the same anchors) are not searched and smoothed
+ * again.
+ *
+ * Each path records the flags version of every zone it passes through when it
+ * was searched, and is discarded when it is next requested if any of those
+ * zones had its flags or clearance changed since, see {@link Map#or}.
+ */
+public final class PathCache {
+  public static final int DEFAULT_MAX_ENTRIES = 256;
+
+  /** points sampled per sub-tile along each segment, same as RaycastCollisionDetector */
+  static final int SAMPLES = 5;
+
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(64, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(java.util.Map.Entry<Key, Entry> eldest) {
+      if (size() <= maxEntries) return false;
+      evictions++;
+      return true;
+    }
+  };
+
+  private final Key tmpKey = new Key();
+  private int maxEntries;
+
+  private long hits;
+  private long misses;
+  private long invalidations;
+  private long evictions;
+
+  PathCache(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Sets the maximum number of cached paths. A value of {@code 0} disables
+   * caching.
+   */
+  public synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+    while (entries.size() > maxEntries) {
+      entries.remove(entries.keySet().iterator().next());
+      evictions++;
+    }
+  }
+
+  public synchronized int maxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Appends the cached path between the specified sub-tiles.
+   *
+   * @return {@code false} if the path is not cached or is no longer valid
+   */
+  synchronized boolean get(int srcX, int srcY, int dstX, int dstY, int flags, int size, GraphPath<Point2> outPath) {
+    final Key key = tmpKey.set(srcX, srcY, dstX, dstY, flags, size);
+    final Entry entry = entries.get(key);
+    if (entry == null) {
+      misses++;
+      return false;
+    }
+
+    if (!entry.isValid()) {
+      entries.remove(key);
+      invalidations++;
+      misses++;
+      return false;
+    }
+
+    hits++;
+    for (Point2 node : entry.nodes) outPath.add(new Point2(node));
+    return true;
+  }
+
+  /**
+   * Records the zones the specified path passes through. Segments between
+   * nodes are sampled the same way they are checked when the path is
+   * smoothed, so zones which a smoothed segment cuts through are included.
+   */
+  static Entry track(Map map, GraphPath<Point2> path) {
+    final Array<Map.Zone> zones = new Array<>(false, 4, Map.Zone.class);
+    final int count = path.getCount();
+    if (count > 0) {
+      Point2 a = path.get(0);
+      add(zones, map.getZone(a.x, a.y));
+      for (int i = 1; i < count; i++) {
+        final Point2 b = path.get(i);
+        final int dx = b.x - a.x, dy = b.y - a.y;
+        final int steps = Math.max(Math.abs(dx), Math.abs(dy)) * SAMPLES;
+        for (int j = 1; j <= steps; j++) {
+          add(zones, map.getZone(a.x + (float) dx * j / steps, a.y + (float) dy * j / steps));
+        }
+
+        a = b;
+      }
+    }
+
+    final int[] versions = new int[zones.size];
+    for (int i = 0; i < zones.size; i++) versions[i] = zones.get(i).flagsVersion;
+    return new Entry(zones.toArray(), versions);
+  }
+
+  private static void add(Array<Map.Zone> zones, Map.Zone zone) {
+    if (zone == null) return;
+    if (zones.size > 0 && zones.peek() == zone) return;
+    if (!zones.contains(zone, true)) zones.add(zone);
+  }
+
+  /**
+   * Caches the specified smoothed path for the zones of {@code entry}.
+   */
+  synchronized void put(int srcX, int srcY, int dstX, int dstY, int flags, int size, Entry entry, GraphPath<Point2> path) {
+    if (maxEntries <= 0) return;
+    final Point2[] nodes = entry.nodes = new Point2[path.getCount()];
+    for (int i = 0; i < nodes.length; i++) nodes[i] = new Point2(path.get(i));
+    entries.put(new Key().set(srcX, srcY, dstX, dstY, flags, size), entry);
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  public synchronized long invalidations() {
+    return invalidations;
+  }
+
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  public synchronized float hitRate() {
+    final long requests = hits + misses;
+    return requests == 0 ? 0 : (float) hits / requests;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("[paths=%d/%d, hits=%d, misses=%d, hitRate=%.2f, invalidations=%d, evictions=%d]",
+        entries.size(), maxEntries, hits, misses, hitRate(), invalidations, evictions);
+  }
+
+  static final class Entry {
+    final Map.Zone[] zones;
+    final int[] versions;
+    Point2[] nodes;
+
+    Entry(Map.Zone[] zones, int[] versions) {
+      this.zones = zones;
+      this.versions = versions;
+    }
+
+    boolean isValid() {
+      for (int i = 0; i < zones.length; i++) {
+        if (zones[i].flagsVersion != versions[i]) return false;
+      }
+
+      return true;
+    }
+  }
+
+  static final class Key {
+    int srcX, srcY, dstX, dstY, flags, size;
+
+    Key set(int srcX, int srcY, int dstX, int dstY, int flags, int size) {
+      this.srcX = srcX;
+      this.srcY = srcY;
+      this.dstX = dstX;
+      this.dstY = dstY;
+      this.flags = flags;
+      this.size = size;
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = srcX;
+      result = 31 * result + srcY;
+      result = 31 * result + dstX;
+      result = 31 * result + dstY;
+      result = 31 * result + flags;
+      result = 31 * result + size;
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) return true;
+      if (!(obj instanceof Key)) return false;
+      Key other = (Key) obj;
+      return srcX == other.srcX && srcY == other.srcY
+          && dstX == other.dstX && dstY == other.dstY
+          && flags == other.flags && size == other.size;
+    }
+  }
+}
@@ -0,0 +1,589 @@
+package com.riiablo.map;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectMap;
+
+import com.riiablo.logger.LogManager;
+import com.riiablo.logger.Logger;
+import com.riiablo.map.pfa.GridPathFinder;
+import com.riiablo.map.pfa.Point2;
+
+/**
+ * Abstract graph of the portals between clusters of sub-tiles, used to find
+ * paths which are too long for a single {@link GridPathFinder} search, i.e.,
+ * hierarchical path-finding A*. Clusters follow the preset grid of each
+ * {@link Map.Zone}, split so that neither side exceeds {@link #MAX_CLUSTER}
+ * sub-tiles, and a portal is a pair of adjacent walkable cells on either side
+ * of a cluster boundary.
+ *
+ * Portals are found when the map is generated. The costs and paths between
+ * the portals of a cluster are found lazily by flooding the cluster and are
+ * cached per entity size until {@link Map#or} changes the flags of the
+ * cluster. Paths are refined by joining the cached paths with local searches
+ * from the start and to the end within their own clusters.
+ *
+ * Searches give up after {@link #MAX_EXPANSIONS} portals or after flooding
+ * {@link #MAX_CLUSTER_FLOODS} clusters whose paths were not cached, so
+ * unreachable destinations do not flood the whole level.
+ */
+class PortalGraph {
+  private static final Logger log = LogManager.getLogger(PortalGraph.class);
+
+  static final int MAX_CLUSTER = 64;
+
+  /** entrances at least this long get a portal at each end instead of the middle */
+  static final int MAX_ENTRANCE = 6;
+
+  /** cached sizes per cluster, sizes above the maximum clearance share the last */
+  static final int NUM_SIZES = Point2.MAX_CLEARANCE + 2;
+
+  static final float INF = Float.POSITIVE_INFINITY;
+
+  /** portals expanded per search */
+  static final int MAX_EXPANSIONS = 512;
+
+  /** clusters whose portal paths are computed per search */
+  static final int MAX_CLUSTER_FLOODS = 32;
+
+  final Map map;
+  final GridPathFinder finder;
+
+  /** replaced as a whole when portals change so searches see a consistent graph */
+  volatile Graph graph;
+  volatile boolean stale;
+
+  private static final ThreadLocal<Search> searches = new ThreadLocal<Search>() {
+    @Override
+    protected Search initialValue() {
+      return new Search();
+    }
+  };
+
+  PortalGraph(Map map, GridPathFinder finder) {
+    this.map = map;
+    this.finder = finder;
+  }
+
+  static int ceilDiv(int a, int b) {
+    return (a + b - 1) / b;
+  }
+
+  /**
+   * Returns the current graph, building it first if the zones or the flags of
+   * cluster boundaries have changed.
+   */
+  Graph graph() {
+    Graph graph = this.graph;
+    if (graph != null && !stale && graph.modCount == map.modCount) return graph;
+    synchronized (this) {
+      graph = this.graph;
+      if (graph != null && !stale && graph.modCount == map.modCount) return graph;
+      stale = false;
+      return this.graph = newGraph();
+    }
+  }
+
+  /**
+   * Rebuilds the graph, e.g., after the map was generated.
+   */
+  synchronized void rebuild() {
+    stale = false;
+    graph = newGraph();
+  }
+
+  synchronized void clear() {
+    graph = null;
+    stale = false;
+  }
+
+  /**
+   * Invalidates the clusters containing the specified sub-tiles (inclusive)
+   * after their flags have changed.
+   */
+  void invalidate(int x0, int y0, int x1, int y1) {
+    final Graph graph = this.graph;
+    if (graph == null) return;
+    // portals on other clusters within this distance have a different clearance
+    final int pad = Point2.MAX_CLEARANCE - 1;
+    for (int y = y0 - pad; y <= y1 + pad; y++) {
+      for (int x = x0 - pad; x <= x1 + pad; x++) {
+        final int c = graph.cluster(map, x, y);
+        if (c < 0) continue;
+        final Cluster cluster = graph.clusters[c];
+        cluster.invalidate();
+        if (x0 <= x && x <= x1 && y0 <= y && y <= y1 && cluster.onBoundary(x, y)) stale = true;
+      }
+    }
+  }
+
+  Graph newGraph() {
+    final ObjectMap<Map.Zone, ZoneClusters> zones = new ObjectMap<>();
+    final Array<Cluster> clusters = new Array<>(false, 256, Cluster.class);
+    for (Map.Zone zone : map.zones) {
+      if (zone.width <= 0 || zone.height <= 0) continue;
+      final int gridWidth  = zone.gridSizeX > 0 ? zone.gridSizeX * DT1.Tile.SUBTILE_SIZE : zone.width;
+      final int gridHeight = zone.gridSizeY > 0 ? zone.gridSizeY * DT1.Tile.SUBTILE_SIZE : zone.height;
+      final int cw = ceilDiv(gridWidth, ceilDiv(gridWidth, MAX_CLUSTER));
+      final int ch = ceilDiv(gridHeight, ceilDiv(gridHeight, MAX_CLUSTER));
+      final ZoneClusters zc = new ZoneClusters(clusters.size, cw, ch, ceilDiv(zone.width, cw));
+      zones.put(zone, zc);
+      for (int y = 0; y < zone.height; y += ch) {
+        for (int x = 0; x < zone.width; x += cw) {
+          clusters.add(new Cluster(zone.x + x, zone.y + y,
+              Math.min(cw, zone.width - x), Math.min(ch, zone.height - y)));
+        }
+      }
+    }
+
+    final Graph graph = new Graph(map.modCount, zones, clusters.toArray());
+    final IntArray[] nodes = new IntArray[clusters.size];
+    for (int i = 0; i < nodes.length; i++) nodes[i] = new IntArray(8);
+    for (int c = 0; c < clusters.size; c++) {
+      final Cluster cluster = clusters.get(c);
+      final int right  = cluster.x + cluster.width - 1;
+      final int bottom = cluster.y + cluster.height - 1;
+      scan(graph, nodes, c, right, cluster.y, 0, 1, cluster.height, 1, 0);
+      scan(graph, nodes, c, cluster.x, bottom, 1, 0, cluster.width, 0, 1);
+    }
+
+    for (int c = 0; c < clusters.size; c++) clusters.get(c).nodes = nodes[c].toArray();
+    graph.seal();
+    log.debug("built {} clusters, {} portals", clusters.size, graph.numNodes);
+    return graph;
+  }
+
+  /**
+   * Finds the entrances along a boundary of cluster {@code c}, i.e., runs of
+   * walkable cells whose neighbors in direction {@code (nx, ny)} are
+   * walkable and within the same other cluster.
+   */
+  void scan(Graph graph, IntArray[] nodes, int c, int x, int y, int dx, int dy, int length, int nx, int ny) {
+    int runStart = -1, runCluster = -1;
+    for (int i = 0; i <= length; i++) {
+      int other = -1;
+      if (i < length) {
+        final int ax = x + i * dx, ay = y + i * dy;
+        final int bx = ax + nx, by = ay + ny;
+        other = graph.cluster(map, bx, by);
+        if (other == c || map.flags(ax, ay) != 0 || map.flags(bx, by) != 0) other = -1;
+      }
+
+      if (runStart >= 0 && other != runCluster) {
+        final int runLength = i - runStart;
+        if (runLength >= MAX_ENTRANCE) {
+          portal(graph, nodes, c, runCluster, x + runStart * dx, y + runStart * dy, nx, ny);
+          portal(graph, nodes, c, runCluster, x + (i - 1) * dx, y + (i - 1) * dy, nx, ny);
+        } else {
+          final int mid = runStart + runLength / 2;
+          portal(graph, nodes, c, runCluster, x + mid * dx, y + mid * dy, nx, ny);
+        }
+
+        runStart = -1;
+      }
+
+      if (runStart < 0 && other >= 0) {
+        runStart = i;
+        runCluster = other;
+      }
+    }
+  }
+
+  void portal(Graph graph, IntArray[] nodes, int a, int b, int x, int y, int nx, int ny) {
+    final int nodeA = graph.addNode(x, y, a, nodes[a].size);
+    nodes[a].add(nodeA);
+    final int nodeB = graph.addNode(x + nx, y + ny, b, nodes[b].size);
+    nodes[b].add(nodeB);
+    graph.link(nodeA, nodeB);
+  }
+
+  /**
+   * Searches for a path using the portal graph. This may be called from any
+   * thread while the map is not being modified.
+   */
+  boolean search(int srcX, int srcY, int dstX, int dstY, int size, GraphPath<Point2> outPath) {
+    final Graph graph = graph();
+    final int src = graph.cluster(map, srcX, srcY);
+    final int dst = graph.cluster(map, dstX, dstY);
+    if (src < 0 || dst < 0) return false;
+    return searches.get().search(map, finder, graph, src, srcX, srcY, dst, dstX, dstY, Math.max(size, 0), outPath);
+  }
+
+  static final class ZoneClusters {
+    final int base;
+    final int width, height;
+    final int cols;
+
+    ZoneClusters(int base, int width, int height, int cols) {
+      this.base = base;
+      this.width = width;
+      this.height = height;
+      this.cols = cols;
+    }
+  }
+
+  static final class Graph {
+    final int modCount;
+    final ObjectMap<Map.Zone, ZoneClusters> zones;
+    final Cluster[] clusters;
+
+    int numNodes;
+    int[] nodeX, nodeY;
+    int[] nodeCluster;
+    /** index of the node within the nodes of its cluster */
+    int[] nodeLocal;
+    /** node on the other side of the boundary */
+    int[] nodeLink;
+
+    private IntArray tmp = new IntArray(5 * 64);
+
+    Graph(int modCount, ObjectMap<Map.Zone, ZoneClusters> zones, Cluster[] clusters) {
+      this.modCount = modCount;
+      this.zones = zones;
+      this.clusters = clusters;
+    }
+
+    int cluster(Map map, int x, int y) {
+      final Map.Zone zone = map.getZone(x, y);
+      if (zone == null) return -1;
+      final ZoneClusters zc = zones.get(zone);
+      if (zc == null) return -1;
+      return zc.base + ((y - zone.y) / zc.height) * zc.cols + (x - zone.x) / zc.width;
+    }
+
+    int addNode(int x, int y, int cluster, int local) {
+      tmp.add(x, y, cluster, local);
+      tmp.add(-1);
+      return numNodes++;
+    }
+
+    void link(int a, int b) {
+      tmp.items[a * 5 + 4] = b;
+      tmp.items[b * 5 + 4] = a;
+    }
+
+    void seal() {
+      final int[] items = tmp.items;
+      nodeX = new int[numNodes];
+      nodeY = new int[numNodes];
+      nodeCluster = new int[numNodes];
+      nodeLocal = new int[numNodes];
+      nodeLink = new int[numNodes];
+      for (int i = 0, j = 0; i < numNodes; i++) {
+        nodeX[i] = items[j++];
+        nodeY[i] = items[j++];
+        nodeCluster[i] = items[j++];
+        nodeLocal[i] = items[j++];
+        nodeLink[i] = items[j++];
+      }
+
+      tmp = null;
+    }
+  }
+
+  static final class Cluster {
+    final int x, y, width, height;
+    int[] nodes;
+
+    /** cached per size slot, guarded by this */
+    final Edges[] edges = new Edges[NUM_SIZES];
+
+    Cluster(int x, int y, int width, int height) {
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+
+    boolean onBoundary(int x, int y) {
+      return x == this.x || y == this.y || x == this.x + width - 1 || y == this.y + height - 1;
+    }
+
+    synchronized void invalidate() {
+      Arrays.fill(edges, null);
+    }
+
+    synchronized boolean isCached(int size) {
+      return edges[Math.min(size, NUM_SIZES - 1)] != null;
+    }
+
+    /**
+     * Returns the costs and paths between the portals of this cluster for
+     * entities of the specified size, flooding the cluster from each portal
+     * if they are not cached.
+     */
+    synchronized Edges edges(Graph graph, Map map, GridPathFinder finder, int size) {
+      final int slot = Math.min(size, NUM_SIZES - 1);
+      Edges edges = this.edges[slot];
+      if (edges != null) return edges;
+
+      final int[] nodes = this.nodes;
+      final int n = nodes.length;
+      edges = new Edges(n);
+      final boolean[] usable = new boolean[n];
+      for (int i = 0; i < n; i++) usable[i] = usable(graph, map, nodes[i], size);
+
+      final IntArray xy = new IntArray();
+      for (int i = 0; i < n; i++) {
+        if (!usable[i]) continue;
+        edges.costs[i * n + i] = 0;
+        final int ni = nodes[i];
+        if (!finder.flood(graph.nodeX[ni], graph.nodeY[ni], x, y, width, height, size)) continue;
+        for (int j = 0; j < n; j++) {
+          if (j == i || !usable[j]) continue;
+          final int nj = nodes[j];
+          final float cost = finder.cost(graph.nodeX[nj], graph.nodeY[nj]);
+          edges.costs[i * n + j] = cost;
+          if (j > i && cost != INF) {
+            xy.clear();
+            finder.path(graph.nodeX[nj], graph.nodeY[nj], xy);
+            edges.paths[i * n + j] = xy.toArray();
+          }
+        }
+      }
+
+      return this.edges[slot] = edges;
+    }
+  }
+
+  static boolean usable(Graph graph, Map map, int node, int size) {
+    final int clearance = map.clearance(graph.nodeX[node], graph.nodeY[node]);
+    return clearance > 0 && clearance >= size;
+  }
+
+  static final class Edges {
+    final int n;
+    /** cost from portal i to portal j at {@code i * n + j} */
+    final float[] costs;
+    /** cells from portal i to portal j as {@code x, y} pairs at {@code i * n + j} for {@code i < j} */
+    final int[][] paths;
+
+    Edges(int n) {
+      this.n = n;
+      costs = new float[n * n];
+      Arrays.fill(costs, INF);
+      paths = new int[n * n][];
+    }
+
+    /** appends the cells of the path from portal i to portal j, except the first */
+    void appendPath(int i, int j, IntArray xy) {
+      if (i == j) return;
+      if (i < j) {
+        final int[] path = paths[i * n + j];
+        xy.addAll(path, 2, path.length - 2);
+      } else {
+        final int[] path = paths[j * n + i];
+        for (int k = path.length - 4; k >= 0; k -= 2) xy.add(path[k], path[k + 1]);
+      }
+    }
+  }
+
+  /**
+   * Abstract search state of a single thread, shared by the graphs of every
+   * map.
+   */
+  static final class Search {
+    static final int START = -1;
+
+    int searchId;
+    int[] stamp = new int[0];
+    float[] g = new float[0];
+    int[] parent = new int[0];
+    boolean[] closed = new boolean[0];
+
+    int[] heap = new int[64];
+    float[] heapF = new float[64];
+    int heapSize;
+
+    float[] startCosts = new float[0];
+    float[] endCosts = new float[0];
+
+    final IntArray route = new IntArray();
+    final IntArray xy = new IntArray();
+    final IntArray tail = new IntArray();
+
+    boolean search(Map map, GridPathFinder finder, Graph graph, int src, int srcX, int srcY, int dst, int dstX, int dstY, int size, GraphPath<Point2> outPath) {
+      final Cluster srcCluster = graph.clusters[src];
+      final Cluster dstCluster = graph.clusters[dst];
+      if (!finder.flood(srcX, srcY, srcCluster.x, srcCluster.y, srcCluster.width, srcCluster.height, size)) return false;
+      final float direct = src == dst ? finder.cost(dstX, dstY) : INF;
+      startCosts = costs(map, finder, graph, srcCluster, size, startCosts);
+      if (!finder.flood(dstX, dstY, dstCluster.x, dstCluster.y, dstCluster.width, dstCluster.height, size)) return false;
+      endCosts = costs(map, finder, graph, dstCluster, size, endCosts);
+      if (direct == INF && (!any(startCosts, srcCluster.nodes.length) || !any(endCosts, dstCluster.nodes.length))) {
+        // no portal can be reached from the start or can reach the end
+        return false;
+      }
+
+      final int goal = graph.numNodes;
+      reset(goal + 1);
+      for (int i = 0; i < srcCluster.nodes.length; i++) {
+        if (startCosts[i] != INF) relax(srcCluster.nodes[i], startCosts[i], START, graph, dstX, dstY);
+      }
+
+      if (direct != INF) relax(goal, direct, START, graph, dstX, dstY);
+
+      boolean found = false;
+      for (int expansions = 0, floods = 0; heapSize > 0;) {
+        final int u = pop();
+        if (closed[u]) continue;
+        closed[u] = true;
+        if (u == goal) {
+          found = true;
+          break;
+        }
+
+        if (++expansions > MAX_EXPANSIONS) break;
+
+        final float gu = g[u];
+        final int cluster = graph.nodeCluster[u];
+        final int local = graph.nodeLocal[u];
+        if (cluster == dst && endCosts[local] != INF) relax(goal, gu + endCosts[local], u, graph, dstX, dstY);
+
+        final int link = graph.nodeLink[u];
+        if (link >= 0 && usable(graph, map, link, size)) relax(link, gu + 1, u, graph, dstX, dstY);
+
+        final Cluster c = graph.clusters[cluster];
+        if (!c.isCached(size) && ++floods > MAX_CLUSTER_FLOODS) break;
+        final Edges edges = c.edges(graph, map, finder, size);
+        final int[] nodes = c.nodes;
+        for (int j = 0, n = edges.n; j < n; j++) {
+          final float cost = edges.costs[local * n + j];
+          if (j != local && cost != INF) relax(nodes[j], gu + cost, u, graph, dstX, dstY);
+        }
+      }
+
+      if (!found) return false;
+
+      route.clear();
+      for (int u = parent[goal]; u != START; u = parent[u]) route.add(u);
+      route.reverse();
+
+      xy.clear();
+      finder.flood(srcX, srcY, srcCluster.x, srcCluster.y, srcCluster.width, srcCluster.height, size);
+      if (route.size == 0) {
+        finder.path(dstX, dstY, xy);
+      } else {
+        final int first = route.first();
+        finder.path(graph.nodeX[first], graph.nodeY[first], xy);
+        for (int i = 1; i < route.size; i++) {
+          final int a = route.get(i - 1), b = route.get(i);
+          if (graph.nodeLink[a] == b) {
+            xy.add(graph.nodeX[b], graph.nodeY[b]);
+          } else {
+            final Cluster c = graph.clusters[graph.nodeCluster[a]];
+            c.edges(graph, map, finder, size).appendPath(graph.nodeLocal[a], graph.nodeLocal[b], xy);
+          }
+        }
+
+        // floods are symmetric, so the path to the end is the reverse of the
+        // path from the end to the last portal, without the portal
+        final int last = route.peek();
+        tail.clear();
+        finder.flood(dstX, dstY, dstCluster.x, dstCluster.y, dstCluster.width, dstCluster.height, size);
+        finder.path(graph.nodeX[last], graph.nodeY[last], tail);
+        for (int k = tail.size - 4; k >= 0; k -= 2) xy.add(tail.items[k], tail.items[k + 1]);
+      }
+
+      for (int i = 0; i < xy.size; i += 2) outPath.add(new Point2(xy.items[i], xy.items[i + 1]));
+      return true;
+    }
+
+    boolean any(float[] costs, int length) {
+      for (int i = 0; i < length; i++) {
+        if (costs[i] != INF) return true;
+      }
+
+      return false;
+    }
+
+    /**
+     * Reads the costs of reaching the portals of the specified cluster from
+     * the last flood.
+     */
+    float[] costs(Map map, GridPathFinder finder, Graph graph, Cluster cluster, int size, float[] costs) {
+      final int[] nodes = cluster.nodes;
+      if (costs.length < nodes.length) costs = new float[nodes.length];
+      for (int i = 0; i < nodes.length; i++) {
+        final int node = nodes[i];
+        costs[i] = usable(graph, map, node, size)
+            ? finder.cost(graph.nodeX[node], graph.nodeY[node])
+            : INF;
+      }
+
+      return costs;
+    }
+
+    void reset(int numNodes) {
+      if (stamp.length < numNodes) {
+        stamp = new int[numNodes];
+        g = new float[numNodes];
+        parent = new int[numNodes];
+        closed = new boolean[numNodes];
+        searchId = 0;
+      }
+
+      if (++searchId <= 0) {
+        Arrays.fill(stamp, 0);
+        searchId = 1;
+      }
+
+      heapSize = 0;
+    }
+
+    void relax(int node, float cost, int from, Graph graph, int dstX, int dstY) {
+      if (stamp[node] != searchId) {
+        stamp[node] = searchId;
+        closed[node] = false;
+      } else if (closed[node] || g[node] <= cost) {
+        return;
+      }
+
+      g[node] = cost;
+      parent[node] = from;
+      final float h = node < graph.numNodes
+          ? GridPathFinder.heuristic(graph.nodeX[node], graph.nodeY[node], dstX, dstY)
+          : 0;
+      push(node, cost + h);
+    }
+
+    void push(int node, float f) {
+      if (heapSize == heap.length) {
+        heap  = Arrays.copyOf(heap, heapSize << 1);
+        heapF = Arrays.copyOf(heapF, heapSize << 1);
+      }
+
+      int pos = heapSize++;
+      while (pos > 0) {
+        final int p = (pos - 1) >>> 1;
+        if (heapF[p] <= f) break;
+        heap[pos] = heap[p];
+        heapF[pos] = heapF[p];
+        pos = p;
+      }
+
+      heap[pos] = node;
+      heapF[pos] = f;
+    }
+
+    int pop() {
+      final int result = heap[0];
+      final int last = heap[--heapSize];
+      final float lastF = heapF[heapSize];
+      int pos = 0;
+      for (int child; (child = (pos << 1) + 1) < heapSize; pos = child) {
+        if (child + 1 < heapSize && heapF[child + 1] < heapF[child]) child++;
+        if (lastF <= heapF[child]) break;
+        heap[pos] = heap[child];
+        heapF[pos] = heapF[child];
+      }
+
+      heap[pos] = last;
+      heapF[pos] = lastF;
+      return result;
+    }
+  }
+}
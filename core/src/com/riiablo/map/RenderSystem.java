@@ -1,7 +1,6 @@
 package com.riiablo.map;
 
 import java.util.Arrays;
-import java.util.Comparator;
 import org.apache.commons.lang3.StringUtils;
 
 import com.artemis.Aspect;
@@ -16,14 +15,13 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.GlyphLayout;
-import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.utils.Align;
-import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Bits;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.Pools;
 
 import com.riiablo.Riiablo;
@@ -96,16 +94,6 @@ public class RenderSystem extends BaseEntitySystem {
   private static final int TILES_PADDING_X = 3;
   private static final int TILES_PADDING_Y = 7;
 
-  private final Comparator<Integer> SUBTILE_ORDER = new Comparator<Integer>() {
-    @Override
-    public int compare(Integer e1, Integer e2) {
-      Vector2 pos1 = mPosition.get(e1).position;
-      Vector2 pos2 = mPosition.get(e2).position;
-      int i = Float.compare(pos1.y, pos2.y);
-      return i == 0 ? Float.compare(pos1.x, pos2.x): i;
-    }
-  };
-
   protected ComponentMapper<AnimationWrapper> mAnimationWrapper;
   protected ComponentMapper<Overlay> mOverlay;
   protected ComponentMapper<CofReference> mCofReference;
@@ -133,7 +121,8 @@ public class RenderSystem extends BaseEntitySystem {
   IsometricCamera     iso;
   Map                 map;
   int                 viewBuffer[];
-  Array<Integer>      cache[][][];
+  int                 viewBufferStartX[];
+  IntArray            cache[][][];
   int                 src = -1;
   boolean             dirty;
   final Vector2       currentPos = new Vector2();
@@ -174,10 +163,15 @@ public class RenderSystem extends BaseEntitySystem {
 
   // DT1 mainIndexes to not draw
   final Bits popped = new Bits();
+  final Bits prevPopped = new Bits();
+
+  // cached floors, shadows and roofs
+  final TileCache tiles;
 
   public RenderSystem(PaletteIndexedBatch batch, Map map) {
     this.batch = batch;
     this.map = map;
+    this.tiles = new TileCache(map, popped);
     this.iso = new IsometricCamera();
     iso.setToOrtho(false);
     iso.offset(0, -Tile.SUBTILE_HEIGHT50);
@@ -221,6 +215,7 @@ public class RenderSystem extends BaseEntitySystem {
   @Override
   protected void dispose() {
     debugEntitites = null;
+    tiles.clear();
   }
 
   public Map getMap() {
@@ -282,15 +277,16 @@ public class RenderSystem extends BaseEntitySystem {
     }
     dirty = true;
 
-    cache = new Array[viewBufferLen][][];
+    viewBufferStartX = new int[viewBufferLen];
+    cache = new IntArray[viewBufferLen][][];
     for (int i = 0; i < viewBufferLen; i++) {
       int viewBufferRun = viewBuffer[i];
-      cache[i] = new Array[viewBufferRun][];
+      cache[i] = new IntArray[viewBufferRun][];
       for (int j = 0; j < viewBufferRun; j++) {
-        cache[i][j] = new Array[] {
-            new Array<Integer>(Tile.NUM_SUBTILES), // TODO: Really {@code (Tile.SUBTILE_SIZE - 1) * (Tile.SUBTILE_SIZE - 1)}
-            new Array<Integer>(1), // better size TBD
-            new Array<Integer>(Tile.SUBTILE_SIZE + Tile.SUBTILE_SIZE - 1), // only upper walls
+        cache[i][j] = new IntArray[] {
+            new IntArray(Tile.NUM_SUBTILES), // TODO: Really {@code (Tile.SUBTILE_SIZE - 1) * (Tile.SUBTILE_SIZE - 1)}
+            new IntArray(1), // better size TBD
+            new IntArray(Tile.SUBTILE_SIZE + Tile.SUBTILE_SIZE - 1), // only upper walls
         };
       }
     }
@@ -391,7 +387,10 @@ public class RenderSystem extends BaseEntitySystem {
   }
 
   private void updatePopPads() {
+    prevPopped.clear();
+    prevPopped.or(popped);
     map.updatePopPads(popped, x, y, tx, ty, stx, sty);
+    if (!popped.equals(prevPopped)) tiles.invalidate(TileCache.ROOFS);
     if (DEBUG_POPPADS) {
       String popPads = getPopPads();
       if (!popPads.isEmpty()) Gdx.app.debug(TAG, "PopPad IDs: " + popPads);
@@ -436,9 +435,14 @@ public class RenderSystem extends BaseEntitySystem {
   public void draw(float delta) {
     prepareBatch();
     buildCaches();
+    tiles.begin(
+        startPx - (startX - startY) * Tile.WIDTH50,
+        startPy + (startX + startY) * Tile.HEIGHT50,
+        renderMinX, renderMinY, renderMaxX, renderMaxY);
     drawBackground();
     drawMiddleground();
     drawForeground();
+    tiles.end();
   }
 
   private void prepareBatch() {
@@ -458,136 +462,123 @@ public class RenderSystem extends BaseEntitySystem {
   }
 
   /**
-   * TODO: This is still a fairly expensive calculation because it needs to read all entities
-   *       viewbuffer size times -- this can be sped up using some kind of cache within entities
-   *       themselves (so each time position changes, update viewbuffer cache position) or by
-   *       storing the entity at its position in array within the zone (similar to how the collision
-   *       map works -- this may very well be how the actual game works, but some spaces might allow
-   *       more than 1 entity, e.g., player + item, or monsters that don't have collision -- I'll
-   *       look into this more when I add entity collision detection.
+   * Buckets the entities into the caches of the view buffer tiles containing
+   * them with a single pass over the entities, and then sorts each bucket by
+   * position. Tile (tx, ty) is at row {@code ty - startY} of the view buffer,
+   * offset by {@code tx - viewBufferStartX[row]} within that row.
    */
   private void buildCaches() {
     int x, y;
     int startX2 = startX;
-    int startY2 = startY;
     for (y = 0; y < viewBuffer.length; y++) {
-      int tx = startX2;
-      int ty = startY2;
-      int stx = tx * Tile.SUBTILE_SIZE;
-      int sty = ty * Tile.SUBTILE_SIZE;
-      int size = viewBuffer[y];
-      for (x = 0; x < size; x++) {
-        Map.Zone zone = map.getZone(stx, sty);
-        if (zone != null) buildCache(cache[y][x], zone, stx, sty);
-        tx++;
-        stx += Tile.SUBTILE_SIZE;
+      viewBufferStartX[y] = startX2;
+      IntArray[][] row = cache[y];
+      for (x = 0; x < viewBuffer[y]; x++) {
+        IntArray[] cache = row[x];
+        cache[0].clear();
+        cache[1].clear();
+        cache[2].clear();
       }
 
-      startY2++;
       if (y >= tilesX - 1) {
         startX2++;
       } else {
         startX2--;
       }
     }
-  }
 
-  private void buildCache(Array<Integer>[] cache, Map.Zone zone, int stx, int sty) {
-    cache[0].size = cache[1].size = cache[2].size = 0;
     int orderFlag;
-    IntBag entitites = getEntityIds();
-    for (int i = 0, size = entitites.size(); i < size; i++) {
-      int id = entitites.get(i);
+    IntBag entities = getEntityIds();
+    int[] ids = entities.getData();
+    for (int i = 0, size = entities.size(); i < size; i++) {
+      int id = ids[i];
       Vector2 pos = mPosition.get(id).position;
-      if ((stx <= pos.x && pos.x < stx + Tile.SUBTILE_SIZE)
-       && (sty <= pos.y && pos.y < sty + Tile.SUBTILE_SIZE)) {
-        Object objectComponent = mObject.get(id);
-        if (objectComponent != null) {
-          CofReference reference = mCofReference.get(id);
-          orderFlag = objectComponent.base.OrderFlag[reference.mode];
-        } else {
-          orderFlag = stx == pos.x || sty == pos.y ? 2 : 0;
-        }
+      int ty = toTile(pos.y);
+      y = ty - startY;
+      if (y < 0 || y >= viewBuffer.length) continue;
+      int tx = toTile(pos.x);
+      x = tx - viewBufferStartX[y];
+      if (x < 0 || x >= viewBuffer[y]) continue;
+      int stx = tx * Tile.SUBTILE_SIZE;
+      int sty = ty * Tile.SUBTILE_SIZE;
+      if (map.getZone(stx, sty) == null) continue;
+      Object objectComponent = mObject.get(id);
+      if (objectComponent != null) {
+        CofReference reference = mCofReference.get(id);
+        orderFlag = objectComponent.base.OrderFlag[reference.mode];
+      } else {
+        orderFlag = stx == pos.x || sty == pos.y ? 2 : 0;
+      }
+
+      cache[y][x][orderFlag].add(id);
+    }
 
-        cache[orderFlag].add(id);
+    for (y = 0; y < viewBuffer.length; y++) {
+      IntArray[][] row = cache[y];
+      for (x = 0; x < viewBuffer[y]; x++) {
+        IntArray[] cache = row[x];
+        sort(cache[0]);
+        sort(cache[1]);
+        sort(cache[2]);
       }
     }
-    cache[0].sort(SUBTILE_ORDER);
-    cache[1].sort(SUBTILE_ORDER);
-    cache[2].sort(SUBTILE_ORDER);
   }
 
-  private void drawBackground() {
-    int x, y;
-    int startX2 = startX;
-    int startY2 = startY;
-    float startPx2 = startPx;
-    float startPy2 = startPy;
-    for (y = 0; y < viewBuffer.length; y++) {
-      int tx = startX2;
-      int ty = startY2;
-      int stx = tx * Tile.SUBTILE_SIZE;
-      int sty = ty * Tile.SUBTILE_SIZE;
-      float px = startPx2;
-      float py = startPy2;
-      int size = viewBuffer[y];
-      for (x = 0; x < size; x++) {
-        Map.Zone zone = map.getZone(stx, sty);
-        if (zone != null) {
-          drawLowerWalls(batch, zone, tx, ty, px, py);
-          drawFloors(batch, zone, tx, ty, px, py);
-        }
+  /**
+   * Returns the tile containing the specified subtile coordinate, i.e., the
+   * tile {@code t} where {@code t * SUBTILE_SIZE <= subtile < (t + 1) * SUBTILE_SIZE}.
+   */
+  private static int toTile(float subtile) {
+    int t = (int) Math.floor(subtile / Tile.SUBTILE_SIZE);
+    if (subtile < t * Tile.SUBTILE_SIZE) {
+      t--;
+    } else if (subtile >= (t + 1) * Tile.SUBTILE_SIZE) {
+      t++;
+    }
 
-        tx++;
-        stx += Tile.SUBTILE_SIZE;
-        px += Tile.WIDTH50;
-        py -= Tile.HEIGHT50;
-      }
+    return t;
+  }
 
-      startY2++;
-      if (y >= tilesX - 1) {
-        startX2++;
-        startPy2 -= Tile.HEIGHT;
-      } else {
-        startX2--;
-        startPx2 -= Tile.WIDTH;
+  /**
+   * Stable insertion sort of entities by position (y, then x). Buckets only
+   * hold the few entities within a single tile.
+   */
+  private void sort(IntArray bucket) {
+    final int[] items = bucket.items;
+    for (int i = 1, size = bucket.size; i < size; i++) {
+      final int id = items[i];
+      final Vector2 pos = mPosition.get(id).position;
+      int j = i - 1;
+      for (; j >= 0 && compare(mPosition.get(items[j]).position, pos) > 0; j--) {
+        items[j + 1] = items[j];
       }
+
+      items[j + 1] = id;
     }
+  }
 
-    startX2 = startX;
-    startY2 = startY;
-    startPx2 = startPx;
-    startPy2 = startPy;
-    for (y = 0; y < viewBuffer.length; y++) {
-      int tx = startX2;
-      int ty = startY2;
-      int stx = tx * Tile.SUBTILE_SIZE;
-      int sty = ty * Tile.SUBTILE_SIZE;
-      float px = startPx2;
-      float py = startPy2;
-      int size = viewBuffer[y];
-      for (x = 0; x < size; x++) {
-        Map.Zone zone = map.getZone(stx, sty);
-        if (zone != null) {
-          //buildCaches(zone, stx, sty);
-          drawShadows(batch, zone, tx, ty, px, py, cache[y][x]);
-        }
+  private static int compare(Vector2 pos1, Vector2 pos2) {
+    int i = Float.compare(pos1.y, pos2.y);
+    return i == 0 ? Float.compare(pos1.x, pos2.x) : i;
+  }
 
-        tx++;
-        stx += Tile.SUBTILE_SIZE;
-        px += Tile.WIDTH50;
-        py -= Tile.HEIGHT50;
-      }
+  private void drawBackground() {
+    int x, y;
+    for (y = 0; y < viewBuffer.length; y++) {
+      int tx = viewBufferStartX[y];
+      tiles.draw(batch, TileCache.FLOORS, batch.getPackedColor(), tx, tx + viewBuffer[y] - 1, startY + y);
+    }
 
-      startY2++;
-      if (y >= tilesX - 1) {
-        startX2++;
-        startPy2 -= Tile.HEIGHT;
-      } else {
-        startX2--;
-        startPx2 -= Tile.WIDTH;
+    batch.setBlendMode(BlendMode.SOLID, Riiablo.colors.modal75);
+    for (y = 0; y < viewBuffer.length; y++) {
+      int tx = viewBufferStartX[y];
+      tiles.draw(batch, TileCache.SHADOWS, batch.getPackedColor(), tx, tx + viewBuffer[y] - 1, startY + y);
+      IntArray[][] row = cache[y];
+      for (x = 0; x < viewBuffer[y]; x++) {
+        drawShadows(row[x]);
       }
     }
+    batch.resetBlendMode();
   }
 
   private void drawMiddleground() {
@@ -608,7 +599,7 @@ public class RenderSystem extends BaseEntitySystem {
         Map.Zone zone = map.getZone(stx, sty);
         if (zone != null) {
           //buildCaches(zone, stx, sty);
-          Array<Integer>[] cache = this.cache[y][x];
+          IntArray[] cache = this.cache[y][x];
           drawEntities(cache, 1); // floors
           drawEntities(cache, 2); // walls/doors
           drawWalls(batch, zone, tx, ty, px, py);
@@ -634,44 +625,16 @@ public class RenderSystem extends BaseEntitySystem {
   }
 
   private void drawForeground() {
-    int x, y;
-    int startX2 = startX;
-    int startY2 = startY;
-    float startPx2 = startPx;
-    float startPy2 = startPy;
-    for (y = 0; y < viewBuffer.length; y++) {
-      int tx = startX2;
-      int ty = startY2;
-      int stx = tx * Tile.SUBTILE_SIZE;
-      int sty = ty * Tile.SUBTILE_SIZE;
-      float px = startPx2;
-      float py = startPy2;
-      int size = viewBuffer[y];
-      for (x = 0; x < size; x++) {
-        Map.Zone zone = map.getZone(stx, sty);
-        if (zone != null) {
-          drawRoofs(batch, zone, tx, ty, px, py);
-        }
-
-        tx++;
-        stx += Tile.SUBTILE_SIZE;
-        px += Tile.WIDTH50;
-        py -= Tile.HEIGHT50;
-      }
-
-      startY2++;
-      if (y >= tilesX - 1) {
-        startX2++;
-        startPy2 -= Tile.HEIGHT;
-      } else {
-        startX2--;
-        startPx2 -= Tile.WIDTH;
-      }
+    for (int y = 0; y < viewBuffer.length; y++) {
+      int tx = viewBufferStartX[y];
+      tiles.draw(batch, TileCache.ROOFS, batch.getPackedColor(), tx, tx + viewBuffer[y] - 1, startY + y);
     }
   }
 
-  void drawEntities(Array<Integer>[] cache, int i) {
-    for (int entity : cache[i]) {
+  void drawEntities(IntArray[] cache, int i) {
+    IntArray bucket = cache[i];
+    for (int j = 0, s = bucket.size; j < s; j++) {
+      int entity = bucket.items[j];
 //      if (!entity.target().isZero() && !entity.position().epsilonEquals(entity.target())) {
 //        entity.angle(angle(entity.position(), entity.target()));
 //      }
@@ -697,62 +660,10 @@ public class RenderSystem extends BaseEntitySystem {
     }
   }
 
-  void drawLowerWalls(PaletteIndexedBatch batch, Map.Zone zone, int tx, int ty, float px, float py) {
-    if (px > renderMaxX || py > renderMaxY || px + Tile.WIDTH < renderMinX) return;
-    for (int i = Map.WALL_OFFSET; i < Map.WALL_OFFSET + Map.MAX_WALLS; i++) {
-      Tile tile = zone.get(i, tx, ty);
-      if (tile == null) continue;
-      switch (tile.orientation) {
-        case Orientation.LOWER_LEFT_WALL:
-        case Orientation.LOWER_RIGHT_WALL:
-        case Orientation.LOWER_NORTH_CORNER_WALL:
-        case Orientation.LOWER_SOUTH_CORNER_WALL:
-          batch.draw(tile.texture, px, py + tile.height + Tile.WALL_HEIGHT);
-          // fall-through to continue
-        default:
-      }
-    }
-  }
-
-  void drawFloors(PaletteIndexedBatch batch, Map.Zone zone, int tx, int ty, float px, float py) {
-    if (px > renderMaxX || py > renderMaxY) return;
-    if (px + Tile.WIDTH < renderMinX || py + Tile.HEIGHT < renderMinY) return;
-    for (int i = Map.FLOOR_OFFSET; i < Map.FLOOR_OFFSET + Map.MAX_FLOORS; i++) {
-      Tile tile = zone.get(i, tx, ty);
-      if (tile == null) continue;
-      TextureRegion texture;
-      int subst = map.warpSubsts.get(tile.id, -1);
-      if (subst != -1) { // TODO: Performance can be improved if the reference is updated to below subst
-        texture = map.dt1s.get(zone.level.LevelType).get(subst).texture;
-      } else {
-        texture = tile.texture;
-      }
-      //if (texture.getTexture().getTextureObjectHandle() == 0) return;
-      batch.draw(texture, px, py);
-    }
-  }
-
-  void drawShadows(PaletteIndexedBatch batch, Map.Zone zone, int tx, int ty, float px, float py, Array<Integer>[] cache) {
-    batch.setBlendMode(BlendMode.SOLID, Riiablo.colors.modal75);
-    for (int i = Map.SHADOW_OFFSET; i < Map.SHADOW_OFFSET + Map.MAX_SHADOWS; i++) {
-      Tile tile = zone.get(i, tx, ty);
-      if (tile == null) continue;
-      if (px > renderMaxX || px + Tile.WIDTH  < renderMinX) continue;
-      TextureRegion texture = tile.texture;
-      if (py > renderMaxY || py + texture.getRegionHeight() < renderMinY) continue;
-      batch.draw(texture, px, py);
-    }
-    /*
-    for (int i = Map.WALL_OFFSET; i < Map.WALL_OFFSET + Map.MAX_WALLS; i++) {
-      Map.Tile tile = zone.get(i, tx, ty);
-      if (tile == null || tile.tile == null) continue;
-      if (tile.tile.orientation != Orientation.SHADOW) continue;
-      TextureRegion texture = tile.tile.texture;
-      batch.draw(texture, px, py, texture.getRegionWidth(), texture.getRegionHeight());
-    }
-    */
-    for (Array<Integer> c : cache) {
-      for (int entity : c) {
+  void drawShadows(IntArray[] cache) {
+    for (IntArray c : cache) {
+      for (int j = 0, s = c.size; j < s; j++) {
+        int entity = c.items[j];
 //        CofComponent cofComponent = this.cofComponent.get(entity);
 //        if (cofComponent != null && cofComponent.load != Dirty.NONE) continue;
         Animation animation = mAnimationWrapper.get(entity).animation;
@@ -761,7 +672,6 @@ public class RenderSystem extends BaseEntitySystem {
         animation.drawShadow(batch, tmp.x, tmp.y, false);
       }
     }
-    batch.resetBlendMode();
   }
 
   void drawWalls(PaletteIndexedBatch batch, Map.Zone zone, int tx, int ty, float px, float py) {
@@ -800,19 +710,6 @@ public class RenderSystem extends BaseEntitySystem {
     }
   }
 
-  void drawRoofs(PaletteIndexedBatch batch, Map.Zone zone, int tx, int ty, float px, float py) {
-    if (px > renderMaxX || px + Tile.WIDTH < renderMinX) return;
-    for (int i = Map.WALL_OFFSET; i < Map.WALL_OFFSET + Map.MAX_WALLS; i++) {
-      Tile tile = zone.get(i, tx, ty);
-      if (tile == null || tile == null) continue;
-      if (popped.get(tile.mainIndex)) continue;
-      if (!Orientation.isRoof(tile.orientation)) continue;
-      if (py + tile.roofHeight > renderMaxY) continue;
-      if (py + tile.roofHeight + tile.texture.getRegionHeight() < renderMinY) continue;
-      batch.draw(tile.texture, px, py + tile.roofHeight);
-    }
-  }
-
   public void drawDebug(ShapeRenderer shapes) {
     batch.setProjectionMatrix(iso.combined);
     shapes.setProjectionMatrix(iso.combined);
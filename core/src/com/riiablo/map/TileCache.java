@@ -0,0 +1,362 @@
+package com.riiablo.map;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Bits;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.Pool;
+
+import com.riiablo.map.DT1.Tile;
+
+/**
+ * Cache of the static DT1 tile geometry drawn by {@link RenderSystem}. Tiles
+ * are grouped into chunks of {@link #CHUNK_SIZE} consecutive tiles within a
+ * single row (i.e., the same {@code ty}), so drawing the chunks overlapping
+ * each row of the view buffer in order draws the tiles in the same order as
+ * drawing them tile-by-tile.
+ *
+ * Each chunk stores the sprite vertices of its {@link #FLOORS},
+ * {@link #SHADOWS} and {@link #ROOFS} layers, built the first time the layer is
+ * drawn and submitted as-is to the batch afterwards. Layers are rebuilt when
+ * {@link Map#modCount} or the world-space origin of the tiles changes, and
+ * roofs are rebuilt when the popped pop pads change. Walls are not cached,
+ * since they are interleaved with entities.
+ *
+ * Only the tiles of a chunk within the drawn range whose sprites overlap the
+ * render bounds are submitted, as when they were drawn tile-by-tile.
+ */
+class TileCache {
+  static final int CHUNK_SHIFT = 3;
+  static final int CHUNK_SIZE  = 1 << CHUNK_SHIFT;
+
+  static final int FLOORS     = 0; // lower walls and floors
+  static final int SHADOWS    = 1;
+  static final int ROOFS      = 2;
+  static final int NUM_LAYERS = 3;
+
+  /** chunks not drawn within the current frame are evicted above this size */
+  static final int MAX_CHUNKS = 512;
+
+  static final int VERTEX_SIZE = 5; // x, y, color, u, v
+  static final int SPRITE_SIZE = 4 * VERTEX_SIZE;
+
+  final Map map;
+  final Bits popped;
+
+  final LongMap<Chunk> chunks = new LongMap<>(MAX_CHUNKS);
+  final Pool<Chunk> pool = new Pool<Chunk>() {
+    @Override
+    protected Chunk newObject() {
+      return new Chunk();
+    }
+  };
+
+  int modCount = -1;
+  float originPx, originPy;
+  float minX, minY, maxX, maxY;
+  int frame;
+
+  TileCache(Map map, Bits popped) {
+    this.map = map;
+    this.popped = popped;
+  }
+
+  static long key(int cx, int ty) {
+    return ((long) ty << Integer.SIZE) | (cx & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Validates the cache against the specified tile origin, i.e., the pixel
+   * offset of tile (0, 0) in world-space, and sets the render bounds tiles
+   * are culled against -- once per frame
+   */
+  void begin(float originPx, float originPy, int minX, int minY, int maxX, int maxY) {
+    frame++;
+    this.minX = minX;
+    this.minY = minY;
+    this.maxX = maxX;
+    this.maxY = maxY;
+    if (modCount != map.modCount || this.originPx != originPx || this.originPy != originPy) {
+      modCount = map.modCount;
+      this.originPx = originPx;
+      this.originPy = originPy;
+      invalidate();
+    }
+  }
+
+  /**
+   * Evicts chunks which were not drawn within the current frame if the cache
+   * is full
+   */
+  void end() {
+    if (chunks.size <= MAX_CHUNKS) return;
+    for (LongMap.Entries<Chunk> it = chunks.entries(); it.hasNext();) {
+      Chunk chunk = it.next().value;
+      if (chunk.frame == frame) continue;
+      it.remove();
+      pool.free(chunk);
+    }
+  }
+
+  void invalidate() {
+    for (Chunk chunk : chunks.values()) pool.free(chunk);
+    chunks.clear();
+  }
+
+  void invalidate(int layer) {
+    for (Chunk chunk : chunks.values()) chunk.layers[layer].invalidate();
+  }
+
+  void clear() {
+    invalidate();
+    pool.clear();
+  }
+
+  /**
+   * Draws the specified layer of the tiles {@code tx0} to {@code tx1}
+   * (inclusive) of row {@code ty}.
+   */
+  void draw(Batch batch, int layer, float color, int tx0, int tx1, int ty) {
+    for (int cx = tx0 >> CHUNK_SHIFT, cx1 = tx1 >> CHUNK_SHIFT; cx <= cx1; cx++) {
+      Chunk chunk = chunks.get(key(cx, ty));
+      if (chunk == null) {
+        chunk = pool.obtain();
+        chunk.cx = cx;
+        chunk.ty = ty;
+        chunks.put(key(cx, ty), chunk);
+      }
+
+      chunk.frame = frame;
+      Layer cache = chunk.layers[layer];
+      if (!cache.valid || cache.color != color) build(chunk, layer, color);
+      final int tx = cx << CHUNK_SHIFT;
+      cache.draw(batch, Math.max(tx0 - tx, 0), Math.min(tx1 - tx, CHUNK_SIZE - 1), minX, minY, maxX, maxY);
+    }
+  }
+
+  void build(Chunk chunk, int layer, float color) {
+    Layer cache = chunk.layers[layer];
+    cache.clear();
+    cache.color = color;
+    final int ty  = chunk.ty;
+    final int sty = ty * Tile.SUBTILE_SIZE;
+    for (int i = 0, tx = chunk.cx << CHUNK_SHIFT; i < CHUNK_SIZE; i++, tx++) {
+      cache.tile(i);
+      Map.Zone zone = map.getZone(tx * Tile.SUBTILE_SIZE, sty);
+      if (zone == null) continue;
+      float px = originPx + (tx - ty) * Tile.WIDTH50;
+      float py = originPy - (tx + ty) * Tile.HEIGHT50;
+      switch (layer) {
+        case FLOORS:
+          cacheLowerWalls(cache, zone, tx, ty, px, py);
+          cacheFloors(cache, zone, tx, ty, px, py);
+          break;
+        case SHADOWS:
+          cacheShadows(cache, zone, tx, ty, px, py);
+          break;
+        case ROOFS:
+          cacheRoofs(cache, zone, tx, ty, px, py);
+          break;
+        default:
+          throw new IllegalArgumentException("Invalid layer: " + layer);
+      }
+    }
+
+    cache.runs[CHUNK_SIZE] = cache.textures.size;
+    cache.valid = true;
+  }
+
+  void cacheLowerWalls(Layer cache, Map.Zone zone, int tx, int ty, float px, float py) {
+    for (int i = Map.WALL_OFFSET; i < Map.WALL_OFFSET + Map.MAX_WALLS; i++) {
+      Tile tile = zone.get(i, tx, ty);
+      if (tile == null) continue;
+      switch (tile.orientation) {
+        case Orientation.LOWER_LEFT_WALL:
+        case Orientation.LOWER_RIGHT_WALL:
+        case Orientation.LOWER_NORTH_CORNER_WALL:
+        case Orientation.LOWER_SOUTH_CORNER_WALL:
+          cache.add(tile.texture, px, py + tile.height + Tile.WALL_HEIGHT);
+          // fall-through to continue
+        default:
+      }
+    }
+  }
+
+  void cacheFloors(Layer cache, Map.Zone zone, int tx, int ty, float px, float py) {
+    for (int i = Map.FLOOR_OFFSET; i < Map.FLOOR_OFFSET + Map.MAX_FLOORS; i++) {
+      Tile tile = zone.get(i, tx, ty);
+      if (tile == null) continue;
+      TextureRegion texture;
+      int subst = map.warpSubsts.get(tile.id, -1);
+      if (subst != -1) {
+        texture = map.dt1s.get(zone.level.LevelType).get(subst).texture;
+      } else {
+        texture = tile.texture;
+      }
+      cache.add(texture, px, py);
+    }
+  }
+
+  void cacheShadows(Layer cache, Map.Zone zone, int tx, int ty, float px, float py) {
+    for (int i = Map.SHADOW_OFFSET; i < Map.SHADOW_OFFSET + Map.MAX_SHADOWS; i++) {
+      Tile tile = zone.get(i, tx, ty);
+      if (tile == null) continue;
+      cache.add(tile.texture, px, py);
+    }
+  }
+
+  void cacheRoofs(Layer cache, Map.Zone zone, int tx, int ty, float px, float py) {
+    for (int i = Map.WALL_OFFSET; i < Map.WALL_OFFSET + Map.MAX_WALLS; i++) {
+      Tile tile = zone.get(i, tx, ty);
+      if (tile == null) continue;
+      if (popped.get(tile.mainIndex)) continue;
+      if (!Orientation.isRoof(tile.orientation)) continue;
+      cache.add(tile.texture, px, py + tile.roofHeight);
+    }
+  }
+
+  static final class Chunk implements Pool.Poolable {
+    final Layer[] layers = new Layer[NUM_LAYERS];
+    int cx, ty;
+    int frame;
+
+    Chunk() {
+      for (int i = 0; i < NUM_LAYERS; i++) layers[i] = new Layer();
+    }
+
+    @Override
+    public void reset() {
+      for (Layer layer : layers) layer.clear();
+    }
+  }
+
+  /**
+   * Sprite vertices of a layer of a chunk, split into runs of sprites of the
+   * same tile sharing the same texture.
+   */
+  static final class Layer {
+    final FloatArray vertices = new FloatArray(CHUNK_SIZE * SPRITE_SIZE);
+    final Array<Texture> textures = new Array<>(true, CHUNK_SIZE, Texture.class);
+    /** vertices of run i are {@code vertices[offsets[i]]} to {@code vertices[offsets[i + 1] - 1]} */
+    final IntArray offsets = new IntArray(CHUNK_SIZE + 1);
+    /** runs of tile i are {@code runs[i]} to {@code runs[i + 1] - 1} */
+    final int[] runs = new int[CHUNK_SIZE + 1];
+    /** x, y, x2, y2 of the sprites of tile i start at {@code bounds[4 * i]} */
+    final float[] bounds = new float[4 * CHUNK_SIZE];
+    int tile;
+    boolean valid;
+    float color;
+
+    void invalidate() {
+      valid = false;
+    }
+
+    void clear() {
+      vertices.clear();
+      textures.clear();
+      offsets.clear();
+      Arrays.fill(runs, 0);
+      tile = 0;
+      valid = false;
+    }
+
+    /**
+     * Starts the sprites of the specified tile of the chunk. Tiles must be
+     * started in order.
+     */
+    void tile(int i) {
+      tile = i;
+      runs[i] = textures.size;
+      final int b = i << 2;
+      bounds[b] = bounds[b + 1] = Float.POSITIVE_INFINITY;
+      bounds[b + 2] = bounds[b + 3] = Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Adds the vertices of the specified region as
+     * {@link Batch#draw(TextureRegion, float, float)} would.
+     */
+    void add(TextureRegion region, float x, float y) {
+      Texture texture = region.getTexture();
+      if (textures.size == runs[tile] || textures.peek() != texture) {
+        textures.add(texture);
+        offsets.add(vertices.size);
+      }
+
+      final float x2 = x + region.getRegionWidth();
+      final float y2 = y + region.getRegionHeight();
+      final int b = tile << 2;
+      bounds[b    ] = Math.min(bounds[b    ], x);
+      bounds[b + 1] = Math.min(bounds[b + 1], y);
+      bounds[b + 2] = Math.max(bounds[b + 2], x2);
+      bounds[b + 3] = Math.max(bounds[b + 3], y2);
+      final float u  = region.getU();
+      final float v  = region.getV2();
+      final float u2 = region.getU2();
+      final float v2 = region.getV();
+      final float color = this.color;
+      final float[] items = vertices.ensureCapacity(SPRITE_SIZE);
+      int i = vertices.size;
+      items[i++] = x;
+      items[i++] = y;
+      items[i++] = color;
+      items[i++] = u;
+      items[i++] = v;
+
+      items[i++] = x;
+      items[i++] = y2;
+      items[i++] = color;
+      items[i++] = u;
+      items[i++] = v2;
+
+      items[i++] = x2;
+      items[i++] = y2;
+      items[i++] = color;
+      items[i++] = u2;
+      items[i++] = v2;
+
+      items[i++] = x2;
+      items[i++] = y;
+      items[i++] = color;
+      items[i++] = u2;
+      items[i++] = v;
+      vertices.size = i;
+    }
+
+    /**
+     * Draws the sprites of tiles {@code from} to {@code to} (inclusive) which
+     * overlap the specified bounds. Runs which are adjacent once culled tiles
+     * are skipped and share the same texture are drawn together.
+     */
+    void draw(Batch batch, int from, int to, float minX, float minY, float maxX, float maxY) {
+      final float[] items = vertices.items;
+      final Texture[] textures = this.textures.items;
+      final int[] offsets = this.offsets.items;
+      final int numRuns = this.textures.size;
+      Texture texture = null;
+      int start = 0, end = 0;
+      for (int i = from; i <= to; i++) {
+        final int b = i << 2;
+        if (bounds[b] > maxX || bounds[b + 1] > maxY || bounds[b + 2] < minX || bounds[b + 3] < minY) continue;
+        for (int r = runs[i], s = runs[i + 1]; r < s; r++) {
+          final int offset = offsets[r];
+          if (textures[r] != texture || offset != end) {
+            if (texture != null) batch.draw(texture, items, start, end - start);
+            texture = textures[r];
+            start = offset;
+          }
+
+          end = r + 1 < numRuns ? offsets[r + 1] : vertices.size;
+        }
+      }
+
+      if (texture != null) batch.draw(texture, items, start, end - start);
+    }
+  }
+}
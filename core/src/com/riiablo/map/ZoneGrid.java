@@ -0,0 +1,130 @@
+package com.riiablo.map;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.utils.Array;
+
+import com.riiablo.map.Map.Zone;
+
+/**
+ * Coarse uniform grid of zone references covering the bounds of a map. Each
+ * cell lists the zones overlapping it in the same order they were added to
+ * the map, so {@link #get(int, int)} resolves the same zone a linear scan of
+ * {@link Map#zones} would, while only testing the few zones sharing a cell.
+ */
+class ZoneGrid {
+  static final int CELL_SHIFT = 6; // 64x64 sub-tiles
+  static final int MAX_CELLS  = 1 << 16;
+
+  static final int[]  EMPTY_INT_ARRAY  = new int[0];
+  static final Zone[] EMPTY_ZONE_ARRAY = new Zone[0];
+
+  /** grids are built lazily by the first lookup, possibly off the GL thread */
+  volatile boolean dirty = true;
+
+  int shift = CELL_SHIFT;
+  int x0, y0;
+  int cellsX, cellsY;
+
+  /** zones within cell i are {@code refs[offsets[i]]} to {@code refs[offsets[i + 1] - 1]} */
+  int[]  offsets = EMPTY_INT_ARRAY;
+  Zone[] refs    = EMPTY_ZONE_ARRAY;
+  int    numRefs;
+
+  void invalidate() {
+    dirty = true;
+  }
+
+  void clear() {
+    Arrays.fill(refs, 0, numRefs, null);
+    numRefs = 0;
+    cellsX = cellsY = 0;
+    dirty = true;
+  }
+
+  void build(Array<Zone> zones) {
+    clear();
+    build0(zones);
+    dirty = false; // published last so that concurrent lookups never see a partial grid
+  }
+
+  private void build0(Array<Zone> zones) {
+    int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+    for (int i = 0, s = zones.size; i < s; i++) {
+      Zone zone = zones.get(i);
+      if (zone.width <= 0 || zone.height <= 0) continue;
+      minX = Math.min(minX, zone.x);
+      minY = Math.min(minY, zone.y);
+      maxX = Math.max(maxX, zone.x + zone.width);
+      maxY = Math.max(maxY, zone.y + zone.height);
+    }
+
+    if (minX > maxX) return;
+
+    x0 = minX;
+    y0 = minY;
+    shift = CELL_SHIFT;
+    for (;;) {
+      cellsX = ((maxX - 1 - x0) >> shift) + 1;
+      cellsY = ((maxY - 1 - y0) >> shift) + 1;
+      if ((long) cellsX * cellsY <= MAX_CELLS) break;
+      shift++;
+    }
+
+    final int numCells = cellsX * cellsY;
+    if (offsets.length < numCells + 1) {
+      offsets = new int[numCells + 1];
+    } else {
+      Arrays.fill(offsets, 0, numCells + 1, 0);
+    }
+
+    // count references per cell and convert to cell end offsets
+    for (int i = 0, s = zones.size; i < s; i++) {
+      Zone zone = zones.get(i);
+      if (zone.width <= 0 || zone.height <= 0) continue;
+      for (int cy = cellY(zone.y), cy1 = cellY(zone.y + zone.height - 1); cy <= cy1; cy++) {
+        for (int cx = cellX(zone.x), cx1 = cellX(zone.x + zone.width - 1); cx <= cx1; cx++) {
+          offsets[cy * cellsX + cx]++;
+        }
+      }
+    }
+
+    for (int i = 1; i < numCells; i++) offsets[i] += offsets[i - 1];
+    numRefs = offsets[numCells] = offsets[numCells - 1];
+    if (refs.length < numRefs) refs = new Zone[numRefs];
+
+    // filling in reverse leaves offsets at cell starts and preserves zone order
+    for (int i = zones.size - 1; i >= 0; i--) {
+      Zone zone = zones.get(i);
+      if (zone.width <= 0 || zone.height <= 0) continue;
+      for (int cy = cellY(zone.y), cy1 = cellY(zone.y + zone.height - 1); cy <= cy1; cy++) {
+        for (int cx = cellX(zone.x), cx1 = cellX(zone.x + zone.width - 1); cx <= cx1; cx++) {
+          refs[--offsets[cy * cellsX + cx]] = zone;
+        }
+      }
+    }
+  }
+
+  int cellX(int x) {
+    return (x - x0) >> shift;
+  }
+
+  int cellY(int y) {
+    return (y - y0) >> shift;
+  }
+
+  Zone get(int x, int y) {
+    if (x < x0 || y < y0) return null;
+    final int cx = cellX(x);
+    final int cy = cellY(y);
+    if (cx >= cellsX || cy >= cellsY) return null;
+    final int cell = cy * cellsX + cx;
+    for (int i = offsets[cell], end = offsets[cell + 1]; i < end; i++) {
+      Zone zone = refs[i];
+      if (zone.contains(x, y)) return zone;
+    }
+
+    return null;
+  }
+}
@@ -0,0 +1,105 @@
+package com.riiablo.map.pfa;
+
+import com.badlogic.gdx.ai.pfa.GraphPath;
+
+/**
+ * Direction toward a single target from every sub-tile within a window around
+ * it, i.e., a Dijkstra map, so any number of entities heading to the same
+ * target can follow it instead of each searching for a path. Fields are
+ * computed by {@link GridPathFinder#flood(FlowField, int, int, int, int)} and
+ * are only valid for entities of the size they were computed for.
+ */
+public class FlowField {
+  static final byte UNREACHABLE = -1;
+  static final byte GOAL        = 8;
+
+  int targetX, targetY, size;
+  int x0, y0, width, height;
+  boolean valid;
+
+  /** index into GridPathFinder#DX of the step away from the target, GOAL or UNREACHABLE */
+  byte[] next = new byte[0];
+
+  public boolean isValid() {
+    return valid;
+  }
+
+  public int targetX() {
+    return targetX;
+  }
+
+  public int targetY() {
+    return targetY;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    valid = false;
+  }
+
+  public boolean contains(int x, int y) {
+    x -= x0;
+    y -= y0;
+    return 0 <= x && x < width && 0 <= y && y < height;
+  }
+
+  public boolean isReachable(int x, int y) {
+    return valid && contains(x, y) && next[index(x, y)] != UNREACHABLE;
+  }
+
+  /**
+   * Appends the path from the specified sub-tile to the target.
+   *
+   * @return {@code false} if the target cannot be reached from the sub-tile
+   *         within this field
+   */
+  public boolean path(int x, int y, GraphPath<Point2> outPath) {
+    if (!isReachable(x, y)) return false;
+    for (;;) {
+      outPath.add(new Point2(x, y));
+      final byte d = next[index(x, y)];
+      if (d == GOAL) break;
+      x -= GridPathFinder.DX[d];
+      y -= GridPathFinder.DY[d];
+    }
+
+    return true;
+  }
+
+  int index(int x, int y) {
+    return (y - y0) * width + (x - x0);
+  }
+
+  /**
+   * Copies the results of a flood of the specified context from the target.
+   */
+  void set(GridPathFinder.Context context, int targetX, int targetY, int size) {
+    this.targetX = targetX;
+    this.targetY = targetY;
+    this.size = size;
+    x0 = context.x0;
+    y0 = context.y0;
+    width = context.width;
+    height = context.height;
+
+    final int numCells = width * height;
+    if (next.length < numCells) next = new byte[numCells];
+    final int searchId = context.searchId;
+    final int[] stamp = context.stamp;
+    final byte[] category = context.category;
+    final byte[] parent = context.parent;
+    final float[] g = context.g;
+    for (int i = 0; i < numCells; i++) {
+      if (stamp[i] != searchId || category[i] != GridPathFinder.CLOSED) {
+        next[i] = UNREACHABLE;
+      } else {
+        next[i] = g[i] == 0 ? GOAL : parent[i];
+      }
+    }
+
+    valid = true;
+  }
+}
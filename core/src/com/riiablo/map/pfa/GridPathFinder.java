@@ -0,0 +1,361 @@
+package com.riiablo.map.pfa;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.IntArray;
+
+import com.riiablo.map.Map;
+
+/**
+ * A* which searches the sub-tile flags of a {@link Map} directly. Search
+ * state is kept in primitive arrays of a per-thread {@link Context} covering
+ * a window around the start and end, so searches may run concurrently from
+ * any number of threads and nothing is allocated per node except the
+ * returned path. Contexts are shared by the finders of every map, so their
+ * memory scales with the number of threads rather than maps.
+ *
+ * Searches are bounded by {@link #maxExpansions} and by the window, which
+ * extends {@link #MARGIN} sub-tiles beyond the start and end and is at most
+ * {@link #MAX_WINDOW} sub-tiles wide or tall.
+ */
+public class GridPathFinder implements PathFinder {
+  public static final int DEFAULT_MAX_EXPANSIONS = 1 << 14;
+
+  /** sub-tiles searched beyond the bounds of the start and end */
+  public static final int MARGIN = 32;
+  public static final int MAX_WINDOW = 512;
+
+  static final float DIAGONAL_COST = (float) Math.sqrt(2);
+
+  // same order as MapGraph#getNeighbors
+  static final int[] DX = {-1,  0, 0, 1, -1, -1,  1, 1};
+  static final int[] DY = { 0, -1, 1, 0, -1,  1, -1, 1};
+  static final float[] COST = {1, 1, 1, 1, DIAGONAL_COST, DIAGONAL_COST, DIAGONAL_COST, DIAGONAL_COST};
+
+  static final byte UNVISITED = 0;
+  static final byte OPEN      = 1;
+  static final byte CLOSED    = 2;
+
+  final Map map;
+  final int maxExpansions;
+
+  private static final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+    @Override
+    protected Context initialValue() {
+      return new Context();
+    }
+  };
+
+  public GridPathFinder(Map map) {
+    this(map, DEFAULT_MAX_EXPANSIONS);
+  }
+
+  public GridPathFinder(Map map, int maxExpansions) {
+    this.map = map;
+    this.maxExpansions = maxExpansions;
+  }
+
+  /**
+   * Returns the metrics of the last search made by the calling thread.
+   */
+  public AStarPathFinder.Metrics metrics() {
+    return contexts.get().metrics;
+  }
+
+  @Override
+  public boolean search(Point2 startNode, Point2 endNode, int flags, int size, GraphPath<Point2> outPath) {
+    return search(startNode.x, startNode.y, endNode.x, endNode.y, flags, size, outPath);
+  }
+
+  public boolean search(int srcX, int srcY, int dstX, int dstY, int flags, int size, GraphPath<Point2> outPath) {
+    final Context context = contexts.get();
+    context.metrics.reset();
+    if (!context.init(srcX, srcY, dstX, dstY)) return false;
+    if (!context.search(map, context.index(dstX, dstY), dstX, dstY, size, maxExpansions)) return false;
+    context.generatePath(dstX, dstY, outPath);
+    return true;
+  }
+
+  /**
+   * Computes the cost of reaching every cell within the specified bounds from
+   * {@code (srcX, srcY)}. The results are kept by the calling thread until
+   * its next search with any finder and are read using {@link #cost} and
+   * {@link #path}.
+   *
+   * @return {@code false} if the bounds are larger than {@link #MAX_WINDOW}
+   *         or do not contain the source
+   */
+  public boolean flood(int srcX, int srcY, int x0, int y0, int width, int height, int size) {
+    final Context context = contexts.get();
+    context.metrics.reset();
+    if (!context.reset(x0, y0, width, height)) return false;
+    if (!context.contains(srcX, srcY)) return false;
+    context.start(srcX, srcY, 0);
+    context.search(map, -1, 0, 0, size, Integer.MAX_VALUE);
+    return true;
+  }
+
+  /**
+   * Computes a flow field toward {@code (dstX, dstY)} covering the sub-tiles
+   * within {@code radius} of it. The field is cleared if it cannot be
+   * computed.
+   *
+   * @return {@code false} if the window would be larger than
+   *         {@link #MAX_WINDOW}
+   */
+  public boolean flood(FlowField field, int dstX, int dstY, int radius, int size) {
+    final int diameter = 2 * radius + 1;
+    if (!flood(dstX, dstY, dstX - radius, dstY - radius, diameter, diameter, size)) {
+      field.clear();
+      return false;
+    }
+
+    field.set(contexts.get(), dstX, dstY, size);
+    return true;
+  }
+
+  /**
+   * Returns the cost of reaching the specified cell in the last
+   * {@link #flood} of the calling thread, or {@link Float#POSITIVE_INFINITY}
+   * if it is unreachable.
+   */
+  public float cost(int x, int y) {
+    return contexts.get().cost(x, y);
+  }
+
+  /**
+   * Appends the cells of the path from the source of the last {@link #flood}
+   * of the calling thread to the specified cell as {@code x, y} pairs.
+   *
+   * @return {@code false} if the cell is unreachable
+   */
+  public boolean path(int x, int y, IntArray outXY) {
+    return contexts.get().appendPath(x, y, outXY);
+  }
+
+  /**
+   * Returns the octile distance between the specified sub-tiles, i.e., the
+   * cost of the shortest path between them if nothing is in the way.
+   */
+  public static float heuristic(int x, int y, int dstX, int dstY) {
+    final int dx = Math.abs(dstX - x);
+    final int dy = Math.abs(dstY - y);
+    return dx < dy
+        ? (dy - dx) + DIAGONAL_COST * dx
+        : (dx - dy) + DIAGONAL_COST * dy;
+  }
+
+  /**
+   * Search state of a single thread.
+   */
+  static final class Context {
+    final AStarPathFinder.Metrics metrics = new AStarPathFinder.Metrics();
+
+    int searchId;
+    int x0, y0, width, height;
+
+    // indexed by cell, valid when stamp[i] == searchId
+    int[]   stamp     = new int[0];
+    float[] g         = new float[0];
+    byte[]  category  = new byte[0];
+    byte[]  parent    = new byte[0];
+
+    // binary min-heap of cells by f, stale entries are skipped when popped
+    int[]   heap  = new int[256];
+    float[] heapF = new float[256];
+    int     heapSize;
+
+    /**
+     * Positions the window over the specified start and end and resets the
+     * search state.
+     *
+     * @return {@code false} if the window would be too large
+     */
+    boolean init(int srcX, int srcY, int dstX, int dstY) {
+      final int x0 = Math.min(srcX, dstX) - MARGIN;
+      final int y0 = Math.min(srcY, dstY) - MARGIN;
+      final int width  = Math.abs(dstX - srcX) + 2 * MARGIN + 1;
+      final int height = Math.abs(dstY - srcY) + 2 * MARGIN + 1;
+      if (!reset(x0, y0, width, height)) return false;
+      start(srcX, srcY, heuristic(srcX, srcY, dstX, dstY));
+      return true;
+    }
+
+    /**
+     * Positions the window and resets the search state.
+     *
+     * @return {@code false} if the window would be too large
+     */
+    boolean reset(int x0, int y0, int width, int height) {
+      if (width > MAX_WINDOW || height > MAX_WINDOW) return false;
+      this.x0 = x0;
+      this.y0 = y0;
+      this.width = width;
+      this.height = height;
+
+      final int numCells = width * height;
+      if (stamp.length < numCells) {
+        final int capacity = Math.min(MathUtils.nextPowerOfTwo(numCells), MAX_WINDOW * MAX_WINDOW);
+        stamp     = new int[capacity];
+        g         = new float[capacity];
+        category  = new byte[capacity];
+        parent    = new byte[capacity];
+        searchId  = 0;
+      }
+
+      if (++searchId <= 0) {
+        Arrays.fill(stamp, 0);
+        searchId = 1;
+      }
+
+      heapSize = 0;
+      return true;
+    }
+
+    void start(int srcX, int srcY, float h) {
+      final int start = index(srcX, srcY);
+      touch(start);
+      g[start] = 0;
+      push(start, h);
+    }
+
+    boolean contains(int x, int y) {
+      x -= x0;
+      y -= y0;
+      return 0 <= x && x < width && 0 <= y && y < height;
+    }
+
+    int index(int x, int y) {
+      return (y - y0) * width + (x - x0);
+    }
+
+    void touch(int i) {
+      if (stamp[i] == searchId) return;
+      stamp[i] = searchId;
+      category[i] = UNVISITED;
+    }
+
+    /**
+     * @param end index of the goal, or {@code -1} to visit every reachable
+     *            cell without a heuristic
+     */
+    boolean search(Map map, int end, int dstX, int dstY, int size, int maxExpansions) {
+      final int width = this.width, height = this.height;
+      for (int expansions = 0; heapSize > 0 && expansions < maxExpansions;) {
+        final int current = pop();
+        if (category[current] == CLOSED) continue;
+        category[current] = CLOSED;
+        if (current == end) return true;
+        expansions++;
+        metrics.visitedNodes++;
+
+        final int cx = current % width;
+        final int cy = current / width;
+        final float currentG = g[current];
+        for (int d = 0; d < 8; d++) {
+          final int nx = cx + DX[d];
+          final int ny = cy + DY[d];
+          if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+          final int neighbor = ny * width + nx;
+          touch(neighbor);
+          if (category[neighbor] == CLOSED) continue;
+          final int wx = nx + x0, wy = ny + y0;
+          final int clearance = map.clearance(wx, wy);
+          if (clearance == 0 || clearance < size) continue; // not walkable or too narrow
+
+          final float ng = currentG + COST[d];
+          if (category[neighbor] == OPEN && g[neighbor] <= ng) continue;
+          g[neighbor] = ng;
+          parent[neighbor] = (byte) d;
+          push(neighbor, end < 0 ? ng : ng + heuristic(wx, wy, dstX, dstY));
+        }
+      }
+
+      return false;
+    }
+
+    float cost(int x, int y) {
+      if (!contains(x, y)) return Float.POSITIVE_INFINITY;
+      final int i = index(x, y);
+      return stamp[i] == searchId && category[i] == CLOSED ? g[i] : Float.POSITIVE_INFINITY;
+    }
+
+    boolean appendPath(int dstX, int dstY, IntArray outXY) {
+      if (cost(dstX, dstY) == Float.POSITIVE_INFINITY) return false;
+      final int start = outXY.size;
+      int x = dstX - x0, y = dstY - y0;
+      for (int i = y * width + x; ; i = y * width + x) {
+        outXY.add(y + y0);
+        outXY.add(x + x0);
+        if (g[i] == 0) break;
+        final int d = parent[i];
+        x -= DX[d];
+        y -= DY[d];
+      }
+
+      // pairs were added as (y, x) so reversing the whole run yields (x, y)
+      final int[] items = outXY.items;
+      for (int i = start, j = outXY.size - 1; i < j; i++, j--) {
+        final int tmp = items[i];
+        items[i] = items[j];
+        items[j] = tmp;
+      }
+
+      return true;
+    }
+
+    void generatePath(int dstX, int dstY, GraphPath<Point2> outPath) {
+      int x = dstX - x0, y = dstY - y0;
+      for (int i = y * width + x; ; i = y * width + x) {
+        outPath.add(new Point2(x + x0, y + y0));
+        if (g[i] == 0) break;
+        final int d = parent[i];
+        x -= DX[d];
+        y -= DY[d];
+      }
+
+      outPath.reverse();
+    }
+
+    void push(int i, float f) {
+      category[i] = OPEN;
+      if (heapSize == heap.length) {
+        heap  = Arrays.copyOf(heap, heapSize << 1);
+        heapF = Arrays.copyOf(heapF, heapSize << 1);
+      }
+
+      int pos = heapSize++;
+      while (pos > 0) {
+        final int p = (pos - 1) >>> 1;
+        if (heapF[p] <= f) break;
+        heap[pos] = heap[p];
+        heapF[pos] = heapF[p];
+        pos = p;
+      }
+
+      heap[pos] = i;
+      heapF[pos] = f;
+      metrics.openListAdditions++;
+      metrics.openListPeak = Math.max(metrics.openListPeak, heapSize);
+    }
+
+    int pop() {
+      final int result = heap[0];
+      final int last = heap[--heapSize];
+      final float lastF = heapF[heapSize];
+      int pos = 0;
+      for (int child; (child = (pos << 1) + 1) < heapSize; pos = child) {
+        if (child + 1 < heapSize && heapF[child + 1] < heapF[child]) child++;
+        if (lastF <= heapF[child]) break;
+        heap[pos] = heap[child];
+        heapF[pos] = heapF[child];
+      }
+
+      heap[pos] = last;
+      heapF[pos] = lastF;
+      return result;
+    }
+  }
+}
@@ -8,11 +8,11 @@ public class PathSmoother<N> {
   final RaycastCollisionDetector raycaster;
   final Ray<Vector2> ray = new Ray<>(new Vector2(), new Vector2());
 
-  private static final Ray<Vector2> upper = new Ray<>(new Vector2(), new Vector2());
-  private static final Ray<Vector2> lower = new Ray<>(new Vector2(), new Vector2());
+  private final Ray<Vector2> upper = new Ray<>(new Vector2(), new Vector2());
+  private final Ray<Vector2> lower = new Ray<>(new Vector2(), new Vector2());
 
-  private static final Vector2 radius = new Vector2();
-  private static final Vector2 normal = new Vector2();
+  private final Vector2 radius = new Vector2();
+  private final Vector2 normal = new Vector2();
 
   public PathSmoother(RaycastCollisionDetector raycaster) {
     this.raycaster = raycaster;
@@ -118,8 +118,29 @@ public class Point2 extends BinaryHeap.Node implements Pool.Poolable {
       }
   };
 
+  /** maximum clearance returned by {@link #clearance(Map, int, int)} */
+  public static final int MAX_CLEARANCE = NEAR.length;
+
   public void updateClearance(Map map, int flags) {
-    byte i;
+    clearance = (byte) clearance(map, x, y);
+  }
+
+  /**
+   * Returns the size of the largest entity which fits centered at the
+   * specified sub-tile, up to {@link #MAX_CLEARANCE}.
+   *
+   * @see Map#clearance(int, int)
+   */
+  public static int clearance(Map map, int x, int y) {
+    return map.clearance(x, y);
+  }
+
+  /**
+   * Computes {@link #clearance(Map, int, int)} from the flags around the
+   * specified sub-tile.
+   */
+  public static int probeClearance(Map map, int x, int y) {
+    int i;
 size:
     for (i = 0; i < NEAR.length; i++) {
       for (Point2 p : NEAR[i]) {
@@ -129,7 +150,7 @@ size:
       }
     }
 
-    clearance = i;
+    return i;
   }
 
   @Override
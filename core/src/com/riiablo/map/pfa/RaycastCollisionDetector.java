@@ -47,7 +47,7 @@ public class RaycastCollisionDetector {
     delta.set(end).sub(start).setLength(DELTA);
     float add = delta.len();
     for (float curDist = 0, maxDist = start.dst(end); curDist < maxDist; curDist += add, last.set(sample), sample.add(delta)) {
-      if (map.flags(sample) != 0 || graph.getOrCreate(sample).clearance < size) {
+      if (map.flags(sample) != 0 || Point2.clearance(map, Map.round(sample.x), Map.round(sample.y)) < size) {
         return true;
       }
     }
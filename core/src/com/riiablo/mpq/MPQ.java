@@ -17,6 +17,7 @@ import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.StreamUtils;
 
 import com.riiablo.mpq.util.Decryptor;
+import com.riiablo.mpq_bytebuf.MutablePathKey;
 import com.riiablo.util.BufferUtils;
 
 public class MPQ {
@@ -49,6 +50,13 @@ public class MPQ {
     return hashTable.contains(fileName);
   }
 
+  /**
+   * Looks up a path by its precomputed hashes without creating a string.
+   */
+  public boolean contains(MutablePathKey path) {
+    return hashTable.getIndex(path.key(), path.offset(), HashTable.Entry.DEFAULT_LOCALE) != -1;
+  }
+
   public long length(String fileName) {
     fileName = fileName.replaceAll("/", "\\\\");
     HashTable.Entry entry = hashTable.getEntry(fileName);
@@ -4,6 +4,7 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.assets.loaders.FileHandleResolver;
 import com.badlogic.gdx.files.FileHandle;
 import com.riiablo.Riiablo;
+import com.riiablo.mpq_bytebuf.MutablePathKey;
 
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -62,6 +63,17 @@ public class MPQFileHandleResolver implements FileHandleResolver {
     return false;
   }
 
+  public boolean contains(MutablePathKey path) {
+    // indexed to avoid allocating an iterator, mpqs are only ever added
+    for (int i = 0, s = mpqs.size(); i < s; i++) {
+      if (mpqs.get(i).contains(path)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   @Override
   public FileHandle resolve(String fileName) {
     if (DEBUG) Gdx.app.debug(TAG, "Resolving " + fileName);
@@ -47,6 +47,14 @@ public class Exploder {
     private static final int PK_LITERAL_SIZE_FIXED = 0; // Use fixed size literal bytes, used for binary data
     private static final int PK_LITERAL_SIZE_VARIABLE = 1; // Use variable size literal bytes, used for text
 
+    // Sliding dictionary used for compression and decompression, reused per thread
+    private static final ThreadLocal<byte[]> DICT = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[0x1000];
+        }
+    };
+
     private static long TRUNCATE_VALUE(long value, int bits)  {
         return ((value) & ((1 << (bits)) - 1));
     }
@@ -175,7 +183,7 @@ public class Exploder {
         int nDictSize = 64 << nDictSizeByte;
 
         // Initialize dictionary position
-        byte[] Dict = new byte[0x1000]; // Sliding dictionary used for compression and decompression
+        byte[] Dict = DICT.get();
         int pDictPos = 0;
 
         // Initialize current dictionary size to zero
@@ -394,7 +402,7 @@ public class Exploder {
         int nDictSize = 64 << nDictSizeByte;
 
         // Initialize dictionary position
-        byte[] Dict = new byte[0x1000]; // Sliding dictionary used for compression and decompression
+        byte[] Dict = DICT.get();
         int pDictPos = 0;
 
         // Initialize current dictionary size to zero
@@ -10,6 +10,7 @@ import java.io.RandomAccessFile;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -53,6 +54,10 @@ public final class MPQ {
     return ALLOC.heapBuffer(capacity, sectorSize);
   }
 
+  private static final AtomicInteger IDS = new AtomicInteger();
+
+  /** unique id of this archive, used to key cached files */
+  final int id = IDS.getAndIncrement();
   final FileHandle file;
   final MappedByteBuffer map;
   final ByteBuf buffer;
@@ -65,8 +70,24 @@ public final class MPQ {
   final int blockTableOffset;
   final int hashTableSize;
   final int blockTableSize;
-  final Entry[] table;
-  final Block[] blocks;
+
+  /**
+   * Hash table entries are stored as parallel arrays indexed by hash slot,
+   * {@link Entry} instances are only created for resolved files.
+   */
+  final long[] keys;
+  final short[] locales;
+  final short[] platforms;
+  final int[] blockIds;
+
+  /**
+   * Block table rows are stored as parallel arrays indexed by block id,
+   * {@link Block} instances are only created for resolved files.
+   */
+  final int[] blockOffsets;
+  final int[] blockCSizes;
+  final int[] blockFSizes;
+  final int[] blockFlags;
 
   int searches;
   int misses;
@@ -132,10 +153,16 @@ public final class MPQ {
       blockTableSize = readSafeUnsignedIntLE(buffer);
       log.debug("blockTableSize: {} ({})", blockTableSize, FileUtils.byteCountToDisplaySize(blockTableSize * Block.SIZE));
 
-      table = new Entry[hashTableSize];
+      keys = new long[hashTableSize];
+      locales = new short[hashTableSize];
+      platforms = new short[hashTableSize];
+      blockIds = new int[hashTableSize];
       populateHashTable(buffer.readerIndex(hashTableOffset));
 
-      blocks = new Block[blockTableSize];
+      blockOffsets = new int[blockTableSize];
+      blockCSizes = new int[blockTableSize];
+      blockFSizes = new int[blockTableSize];
+      blockFlags = new int[blockTableSize];
       populateBlockTable(buffer.readerIndex(blockTableOffset));
     } finally {
       MDC.remove("mpq");
@@ -148,7 +175,10 @@ public final class MPQ {
     int i = 0;
     int files = 0;
     long encryption = ((long) Decryptor.SEED2 << Integer.SIZE) | (Decryptor.HASH_TABLE_KEY & 0xFFFFFFFFL);
-    final Entry[] table = this.table;
+    final long[] keys = this.keys;
+    final short[] locales = this.locales;
+    final short[] platforms = this.platforms;
+    final int[] blockIds = this.blockIds;
 
     final ByteBuf buffer = obtainHeapBuffer(sectorSize);
     try {
@@ -179,14 +209,20 @@ public final class MPQ {
             if (DEBUG_MODE && key != Entry.NULL_KEY) log.warnf(
                 "bad hash table entry %08x %016x %04x %04x %08x",
                 i, key, locale, platform, block);
-            table[i] = block == Entry.BLOCK_UNUSED ? Entry.UNUSED : Entry.DELETED;
+            keys[i] = Entry.NULL_KEY;
+            locales[i] = (short) Entry.NULL_LOCALE;
+            platforms[i] = (short) Entry.NULL_PLATFORM;
+            blockIds[i] = block == Entry.BLOCK_UNUSED ? Entry.BLOCK_UNUSED : Entry.BLOCK_DELETED;
           } else {
             if (DEBUG_MODE) assert key != Entry.NULL_KEY : "key(" + key + ") != " + Entry.NULL_KEY;
             if (DEBUG_MODE) assert locale <= Short.MAX_VALUE : "locale(" + locale + ") > " + Short.MAX_VALUE;
             if (DEBUG_MODE) assert platform <= Short.MAX_VALUE : "platform(" + platform + ") > " + Short.MAX_VALUE;
             if (DEBUG_MODE) assert block <= Integer.MAX_VALUE : "block(" + block + ") > " + Integer.MAX_VALUE + ": key(" + key + ")";
-            table[i] = new Entry(key, (short) locale, (short) platform, (int) block);
-            if (DEBUG_MODE) log.debug(table[i].toString());
+            keys[i] = key;
+            locales[i] = (short) locale;
+            platforms[i] = (short) platform;
+            blockIds[i] = (int) block;
+            if (DEBUG_MODE) log.debug(entry(i).toString());
             files++;
           }
         }
@@ -203,7 +239,10 @@ public final class MPQ {
 
     int i = 0;
     long encryption = ((long) Decryptor.SEED2 << Integer.SIZE) | (Decryptor.BLOCK_TABLE_KEY & 0xFFFFFFFFL);
-    final Block[] blocks = this.blocks;
+    final int[] blockOffsets = this.blockOffsets;
+    final int[] blockCSizes = this.blockCSizes;
+    final int[] blockFSizes = this.blockFSizes;
+    final int[] blockFlags = this.blockFlags;
 
     final ByteBuf buffer = obtainHeapBuffer(sectorSize);
     try {
@@ -232,8 +271,11 @@ public final class MPQ {
           if (DEBUG_MODE) assert FSize <= Integer.MAX_VALUE : "FSize(" + FSize + ") > " + Integer.MAX_VALUE;
           final int flags = buffer.readIntLE();
           if (DEBUG_MODE) log.tracef("%04x %08x %08x %08x %08x", i, offset, CSize, FSize, flags);
-          final Block block = blocks[i] = new Block((int) offset, (int) CSize, (int) FSize, flags);
-          if (DEBUG_MODE) log.trace(block.toString());
+          blockOffsets[i] = (int) offset;
+          blockCSizes[i] = (int) CSize;
+          blockFSizes[i] = (int) FSize;
+          blockFlags[i] = flags;
+          if (DEBUG_MODE) log.trace(block(i).toString());
         }
       }
     } finally {
@@ -267,16 +309,19 @@ public final class MPQ {
   int getIndex(final long key, final int offset, final short locale) {
     searches++;
     int bestId = -1;
-    final Entry[] table = this.table;
-    for (int i = offset & (table.length - 1), s = table.length; i < s; i++, misses++) {
-      final Entry entry = table[i];
-      if (entry.block == Entry.BLOCK_UNUSED) {
+    final long[] keys = this.keys;
+    final short[] locales = this.locales;
+    final int[] blockIds = this.blockIds;
+    for (int i = offset & (blockIds.length - 1), s = blockIds.length; i < s; i++, misses++) {
+      final int block = blockIds[i];
+      if (block == Entry.BLOCK_UNUSED) {
         return bestId;
-      } else if (entry.block != Entry.BLOCK_DELETED) {
-        if (entry.key == key) {
-          if (entry.locale == locale) {
+      } else if (block != Entry.BLOCK_DELETED) {
+        if (keys[i] == key) {
+          final short entryLocale = locales[i];
+          if (entryLocale == locale) {
             return i;
-          } else if (bestId == -1 || entry.locale == DEFAULT_LOCALE) {
+          } else if (bestId == -1 || entryLocale == DEFAULT_LOCALE) {
             bestId = i;
           }
         }
@@ -286,26 +331,54 @@ public final class MPQ {
     return bestId;
   }
 
+  /**
+   * Returns the id of the block of the specified file within the block table,
+   * or {@code -1} if the file does not exist.
+   */
+  int getBlockId(final long key, final int offset, final short locale) {
+    final int index = getIndex(key, offset, locale);
+    return index >= 0 ? blockIds[index] : -1;
+  }
+
+  int blockOffset(final int id) {
+    return blockOffsets[id];
+  }
+
+  int blockCSize(final int id) {
+    return blockCSizes[id];
+  }
+
+  int blockFSize(final int id) {
+    return blockFSizes[id];
+  }
+
+  int blockFlags(final int id) {
+    return blockFlags[id];
+  }
+
+  /**
+   * Copies the entry of the specified file, for debugging. Lookups on the
+   * hot path should use {@link #getBlockId} instead.
+   */
   Entry getEntry(final long key, final int offset, final short locale) {
     final int index = getIndex(key, offset, locale);
-    return index >= 0 ? table[index] : null;
+    return index >= 0 ? entry(index) : null;
   }
 
+  Entry entry(final int index) {
+    return new Entry(keys[index], locales[index], platforms[index], blockIds[index]);
+  }
+
+  /**
+   * Copies the block of the specified entry, for debugging.
+   */
   Block getBlock(final Entry entry) {
     if (entry == null) return null;
-    return blocks[entry.block];
+    return block(entry.block);
   }
 
-  static final class File {
-    static long key(final String file) {
-      int key1 = Decryptor.HASH_TABLE_KEY1.hash(file);
-      int key2 = Decryptor.HASH_TABLE_KEY2.hash(file);
-      return ((long) key2 << Integer.SIZE) | (key1 & 0xFFFFFFFFL);
-    }
-
-    static int offset(String file) {
-      return Decryptor.HASH_TABLE_OFFSET.hash(file);
-    }
+  Block block(final int id) {
+    return new Block(blockOffsets[id], blockCSizes[id], blockFSizes[id], blockFlags[id]);
   }
 
   static final class Entry {
@@ -318,9 +391,6 @@ public final class MPQ {
     static final int BLOCK_UNUSED = -1;
     static final int BLOCK_DELETED = -2;
 
-    static final Entry UNUSED = new Entry(NULL_KEY, (short) NULL_LOCALE, (short) NULL_PLATFORM, BLOCK_UNUSED);
-    static final Entry DELETED = new Entry(NULL_KEY, (short) NULL_LOCALE, (short) NULL_PLATFORM, BLOCK_DELETED);
-
     final long key;
     final short locale;
     final short platform;
@@ -405,6 +475,10 @@ public final class MPQ {
     }
 
     public String getFlagsString() {
+      return getFlagsString(flags);
+    }
+
+    static String getFlagsString(final int flags) {
       if (flags == 0) return "0";
       StringBuilder builder = new StringBuilder(64);
       builder.append(StringUtils.leftPad(Integer.toHexString(flags), 8, '0'));
@@ -0,0 +1,137 @@
+package com.riiablo.mpq_bytebuf;
+
+import io.netty.buffer.ByteBuf;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+
+import com.riiablo.logger.LogManager;
+import com.riiablo.logger.Logger;
+
+/**
+ * Size-bounded LRU cache of decompressed files keyed by archive and block.
+ * Cached buffers are shared, so buffers returned by {@link #get(long)} must
+ * be treated as read-only and released by the caller.
+ */
+public final class MPQCache {
+  private static final Logger log = LogManager.getLogger(MPQCache.class);
+
+  public static final long DEFAULT_MAX_BYTES = 64L << 20; // 64 MiB
+
+  private static final MPQCache INSTANCE = new MPQCache(DEFAULT_MAX_BYTES);
+
+  public static MPQCache get() {
+    return INSTANCE;
+  }
+
+  static long key(MPQ mpq, int blockOffset) {
+    return ((long) mpq.id << Integer.SIZE) | (blockOffset & 0xFFFFFFFFL);
+  }
+
+  private final LinkedHashMap<Long, ByteBuf> files = new LinkedHashMap<>(256, 0.75f, true);
+  private long maxBytes;
+  private long bytes;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  MPQCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Sets the maximum total size of cached files. A value of {@code 0}
+   * disables caching.
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  public synchronized long maxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return a retained duplicate of the cached file, or {@code null} if it is
+   *         not cached
+   */
+  synchronized ByteBuf get(long key) {
+    final ByteBuf buffer = files.get(key);
+    if (buffer == null) {
+      misses++;
+      return null;
+    }
+
+    hits++;
+    return buffer.retainedDuplicate();
+  }
+
+  /**
+   * Caches the specified file, retaining it if it is small enough to cache.
+   * Files larger than a quarter of the cache are not cached.
+   */
+  synchronized void put(long key, ByteBuf buffer) {
+    final int size = buffer.capacity();
+    if (size > maxBytes / 4) return;
+    final ByteBuf previous = files.put(key, buffer.retain());
+    if (previous != null) {
+      bytes -= previous.capacity();
+      previous.release();
+    }
+
+    bytes += size;
+    evict();
+  }
+
+  private void evict() {
+    for (Iterator<ByteBuf> it = files.values().iterator(); bytes > maxBytes && it.hasNext();) {
+      final ByteBuf buffer = it.next();
+      it.remove();
+      bytes -= buffer.capacity();
+      buffer.release();
+      evictions++;
+    }
+  }
+
+  public synchronized void clear() {
+    for (Map.Entry<Long, ByteBuf> entry : files.entrySet()) {
+      entry.getValue().release();
+    }
+
+    files.clear();
+    bytes = 0;
+    log.debug("cleared {}", this);
+  }
+
+  public synchronized int size() {
+    return files.size();
+  }
+
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("[files=%d, size=%s/%s, hits=%d, misses=%d, evictions=%d]",
+        files.size(),
+        FileUtils.byteCountToDisplaySize(bytes),
+        FileUtils.byteCountToDisplaySize(maxBytes),
+        hits, misses, evictions);
+  }
+}
@@ -10,7 +10,6 @@ import org.apache.commons.io.FilenameUtils;
 
 import com.badlogic.gdx.files.FileHandle;
 
-import com.riiablo.mpq_bytebuf.util.Decryptor;
 
 public final class MPQFileHandle extends FileHandle {
   public final MPQ mpq;
@@ -19,29 +18,43 @@ public final class MPQFileHandle extends FileHandle {
 
   final long key;
   final int offset;
-  final MPQ.Entry entry;
-  final MPQ.Block block;
+  final int block;
 
   public MPQFileHandle(MPQ mpq, String filename) {
     this(mpq, filename, MPQ.DEFAULT_LOCALE);
   }
 
   public MPQFileHandle(MPQ mpq, String filename, short locale) {
-    this(mpq, filename, MPQ.File.key(filename), MPQ.File.offset(filename), locale);
+    this(mpq, PathKey.of(filename), locale);
   }
 
-  MPQFileHandle(MPQ mpq, String filename, long key, int offset, short locale) {
-    this(mpq, filename, key, offset, locale, mpq.getEntry(key, offset, locale));
+  public MPQFileHandle(MPQ mpq, PathKey path, short locale) {
+    this(mpq, path, locale, mpq.getBlockId(path.key(), path.offset, locale));
   }
 
-  MPQFileHandle(MPQ mpq, String filename, long key, int offset, short locale, MPQ.Entry entry) {
+  MPQFileHandle(MPQ mpq, PathKey path, short locale, int block) {
     this.mpq = mpq;
-    this.filename = Decryptor.LookupTable.fix(filename);
-    this.key = key;
-    this.offset = offset;
+    this.filename = path.path;
+    this.key = path.key();
+    this.offset = path.offset;
     this.locale = locale;
-    this.entry = entry;
-    this.block = mpq.getBlock(entry);
+    this.block = block;
+  }
+
+  int blockOffset() {
+    return mpq.blockOffset(block);
+  }
+
+  int CSize() {
+    return mpq.blockCSize(block);
+  }
+
+  int FSize() {
+    return mpq.blockFSize(block);
+  }
+
+  int flags() {
+    return mpq.blockFlags(block);
   }
 
   public MPQ mpq() {
@@ -59,16 +72,16 @@ public final class MPQFileHandle extends FileHandle {
 
   @Override
   public boolean exists() {
-    return block != null;
+    return block >= 0;
   }
 
   @Override
   public long length() {
-    if (block == null) {
+    if (block < 0) {
       throw new RuntimeException(new FileNotFoundException("File not found: " + filename));
     }
 
-    return block.FSize;
+    return FSize();
   }
 
   @Override
@@ -83,7 +96,7 @@ public final class MPQFileHandle extends FileHandle {
   }
 
   public ByteBuf readByteBuf() {
-    if (block == null) {
+    if (block < 0) {
       throw new RuntimeException(new FileNotFoundException("File not found: " + filename));
     }
 
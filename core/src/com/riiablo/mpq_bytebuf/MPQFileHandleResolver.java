@@ -8,7 +8,6 @@ import com.badlogic.gdx.files.FileHandle;
 import com.riiablo.Riiablo;
 import com.riiablo.logger.LogManager;
 import com.riiablo.logger.Logger;
-import com.riiablo.mpq_bytebuf.util.Decryptor;
 
 public class MPQFileHandleResolver implements FileHandleResolver {
   private static final Logger log = LogManager.getLogger(MPQFileHandleResolver.class);
@@ -27,6 +26,17 @@ public class MPQFileHandleResolver implements FileHandleResolver {
 
   private final CopyOnWriteArrayList<MPQ> mpqs = new CopyOnWriteArrayList<>();
 
+  /** keys of the paths passed as strings, which are hashed without copying them */
+  private static final ThreadLocal<MutablePathKey> keys = new ThreadLocal<MutablePathKey>() {
+    @Override
+    protected MutablePathKey initialValue() {
+      return new MutablePathKey();
+    }
+  };
+
+  /** merged index of {@link #mpqs}, rebuilt lazily when an archive is added */
+  private volatile MPQIndex index;
+
   public MPQFileHandleResolver() {
     this(Riiablo.home);
   }
@@ -43,13 +53,29 @@ public class MPQFileHandleResolver implements FileHandleResolver {
     d2music  = add(home.child("d2music.mpq"));
     d2speech = add(home.child("d2speech.mpq"));
     d2video  = add(home.child("d2video.mpq"));
+    index();
   }
 
   public MPQ add(MPQ mpq) {
     mpqs.add(mpq);
+    index = null;
     return mpq;
   }
 
+  MPQIndex index() {
+    MPQIndex index = this.index;
+    if (index == null) {
+      synchronized (mpqs) {
+        index = this.index;
+        if (index == null) {
+          this.index = index = new MPQIndex(mpqs);
+        }
+      }
+    }
+
+    return index;
+  }
+
   public MPQ add(FileHandle file) {
     return add(MPQ.load(file));
   }
@@ -59,16 +85,15 @@ public class MPQFileHandleResolver implements FileHandleResolver {
   }
 
   public boolean contains(String filename, short locale) {
-    filename = Decryptor.LookupTable.fix(filename);
-    final long key = MPQ.File.key(filename);
-    final int offset = MPQ.File.offset(filename);
-    for (MPQ mpq : mpqs) {
-      if (mpq.contains(key, offset, locale)) {
-        return true;
-      }
-    }
+    return contains(keys.get().set(filename), locale);
+  }
+
+  public boolean contains(PathKey path, short locale) {
+    return index().contains(path.key(), locale);
+  }
 
-    return false;
+  public boolean contains(MutablePathKey path, short locale) {
+    return index().contains(path.key(), locale);
   }
 
   @Override
@@ -77,21 +102,35 @@ public class MPQFileHandleResolver implements FileHandleResolver {
   }
 
   public MPQFileHandle resolve(String filename, short locale) {
-    filename = Decryptor.LookupTable.fix(filename);
-    log.debug("Resolving {}:{}...", filename, locale);
     if (filename == null) return null;
+    return resolve(keys.get().set(filename), locale);
+  }
 
-    final long key = MPQ.File.key(filename);
-    final int offset = MPQ.File.offset(filename);
-    for (MPQ mpq : mpqs) {
-      MPQ.Entry entry = mpq.getEntry(key, offset, locale);
-      if (entry != null) {
-        log.debug("{}:{} found in {}", filename, locale, mpq);
-        return new MPQFileHandle(mpq, filename, key, offset, locale, entry);
-      }
+  /**
+   * Resolves the specified path, only copying it if the file exists.
+   */
+  public MPQFileHandle resolve(MutablePathKey path, short locale) {
+    final MPQIndex index = index();
+    final int i = index.find(path.key(), locale);
+    if (i == MPQIndex.NOT_FOUND) {
+      log.error("Failed to resolve {}:{}", path, locale);
+      return null;
+    }
+
+    return new MPQFileHandle(index.mpq(i), path.toPathKey(), locale, index.blockId(i));
+  }
+
+  public MPQFileHandle resolve(PathKey path, short locale) {
+    log.debug("Resolving {}:{}...", path, locale);
+    final MPQIndex index = index();
+    final int i = index.find(path.key(), locale);
+    if (i != MPQIndex.NOT_FOUND) {
+      final MPQ mpq = index.mpq(i);
+      log.debug("{}:{} found in {}", path, locale, mpq);
+      return new MPQFileHandle(mpq, path, locale, index.blockId(i));
     }
 
-    log.error("Failed to resolve {}:{}", filename, locale);
+    log.error("Failed to resolve {}:{}", path, locale);
     return null;
   }
 }
@@ -0,0 +1,134 @@
+package com.riiablo.mpq_bytebuf;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.riiablo.logger.LogManager;
+import com.riiablo.logger.Logger;
+
+/**
+ * Merged file index of a list of archives in priority order. Maps the 64-bit
+ * path key and locale of every file to the archive and hash table slot which
+ * would be resolved by probing each archive's hash table in order, i.e., a
+ * file in an archive earlier in the list (e.g., patch_d2) shadows all
+ * locales of that file in later archives.
+ *
+ * Entries are stored in a single open-addressed table hashed by path key, so
+ * all locales of a file are found within the same probe sequence.
+ */
+final class MPQIndex {
+  private static final Logger log = LogManager.getLogger(MPQIndex.class);
+
+  static final int NOT_FOUND = -1;
+
+  private static final float LOAD_FACTOR = 0.5f;
+  private static final byte EMPTY = -1;
+
+  final MPQ[] mpqs;
+  final int mask;
+  final long[] keys;
+  final short[] locales;
+  final byte[] archives;
+  final int[] slots;
+  final int size;
+
+  MPQIndex(List<MPQ> mpqs) {
+    this.mpqs = mpqs.toArray(new MPQ[0]);
+    if (this.mpqs.length > Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("mpqs.size(" + this.mpqs.length + ") > " + Byte.MAX_VALUE);
+    }
+
+    int numEntries = 0;
+    for (MPQ mpq : this.mpqs) numEntries += mpq.blockIds.length;
+    final int capacity = Math.max(16, Integer.highestOneBit((int) (numEntries / LOAD_FACTOR) - 1) << 1);
+    mask = capacity - 1;
+    keys = new long[capacity];
+    locales = new short[capacity];
+    archives = new byte[capacity];
+    slots = new int[capacity];
+    Arrays.fill(archives, EMPTY);
+
+    int size = 0;
+    for (int archive = 0; archive < this.mpqs.length; archive++) {
+      final MPQ mpq = this.mpqs[archive];
+      final long[] mpqKeys = mpq.keys;
+      final short[] mpqLocales = mpq.locales;
+      final int[] mpqBlockIds = mpq.blockIds;
+      for (int i = 0, s = mpqBlockIds.length; i < s; i++) {
+        if (mpqBlockIds[i] < 0) continue;
+        if (insert(mpqKeys[i], mpqLocales[i], archive, i)) size++;
+      }
+    }
+
+    this.size = size;
+    log.debug("indexed {} files from {} archives ({} slots)", size, this.mpqs.length, capacity);
+  }
+
+  private static int hash(long key) {
+    final int h = (int) (key ^ (key >>> 32));
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Inserts the specified entry unless the file is already indexed from a
+   * higher priority archive, or from the same archive with the same locale.
+   */
+  private boolean insert(long key, short locale, int archive, int slot) {
+    int i = hash(key) & mask;
+    for (;;) {
+      final byte a = archives[i];
+      if (a == EMPTY) break;
+      if (keys[i] == key && (a < archive || locales[i] == locale)) return false;
+      i = (i + 1) & mask;
+    }
+
+    keys[i] = key;
+    locales[i] = locale;
+    archives[i] = (byte) archive;
+    slots[i] = slot;
+    return true;
+  }
+
+  /**
+   * Returns the index of the entry which best matches the specified key and
+   * locale, preferring an exact locale match, then {@link MPQ#DEFAULT_LOCALE},
+   * then any locale, or {@link #NOT_FOUND} if there is none.
+   */
+  int find(final long key, final short locale) {
+    int bestId = NOT_FOUND;
+    final long[] keys = this.keys;
+    final short[] locales = this.locales;
+    final byte[] archives = this.archives;
+    for (int i = hash(key) & mask; archives[i] != EMPTY; i = (i + 1) & mask) {
+      if (keys[i] != key) continue;
+      final short entryLocale = locales[i];
+      if (entryLocale == locale) {
+        return i;
+      } else if (bestId == NOT_FOUND || entryLocale == MPQ.DEFAULT_LOCALE) {
+        bestId = i;
+      }
+    }
+
+    return bestId;
+  }
+
+  boolean contains(final long key, final short locale) {
+    return find(key, locale) != NOT_FOUND;
+  }
+
+  MPQ mpq(int index) {
+    return mpqs[archives[index]];
+  }
+
+  int blockId(int index) {
+    return mpq(index).blockIds[slots[index]];
+  }
+
+  MPQ.Entry entry(int index) {
+    return mpq(index).entry(slots[index]);
+  }
+
+  int size() {
+    return size;
+  }
+}
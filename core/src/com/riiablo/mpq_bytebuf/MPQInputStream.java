@@ -6,6 +6,8 @@ import io.netty.buffer.Unpooled;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import org.apache.commons.io.FilenameUtils;
 
 import com.riiablo.logger.LogManager;
@@ -29,7 +31,7 @@ public class MPQInputStream extends InputStream {
   private static final int COMPRESSED_OR_IMPLODE = FLAG_COMPRESSED | FLAG_IMPLODE;
 
   final MPQFileHandle handle;
-  final MPQ.Block block;
+  final int flags;
   final ByteBuf buffer;
   final int blockOffset;
   final int sectorSize;
@@ -50,43 +52,40 @@ public class MPQInputStream extends InputStream {
   }
 
   public static InputStream open(MPQFileHandle handle, boolean buffered, boolean releaseOnClose) throws IOException {
-    final MPQ.Block block = handle.block;
-    if (block == null) {
+    if (!handle.exists()) {
       throw new FileNotFoundException("File not found: " + handle.name());
     }
 
-    if (!buffered && (block.flags & ~FLAG_EXISTS) == 0) {
-      assert block.CSize == block.FSize : "file(" + handle + ") block(" + block + ") CSize(" + block.CSize + ") != FSize(" + block.FSize + ")";
-      return new ByteBufInputStream(handle.mpq.buffer(block.offset).readRetainedSlice(block.FSize), releaseOnClose);
+    if (!buffered && (handle.flags() & ~FLAG_EXISTS) == 0) {
+      assert handle.CSize() == handle.FSize() : "file(" + handle + ") block(" + handle.mpq.block(handle.block) + ") CSize(" + handle.CSize() + ") != FSize(" + handle.FSize() + ")";
+      return new ByteBufInputStream(handle.mpq.buffer.retainedSlice(handle.blockOffset(), handle.FSize()), releaseOnClose);
     } else {
       return new MPQInputStream(handle, releaseOnClose);
     }
   }
 
   public MPQInputStream(MPQFileHandle handle, boolean releaseOnClose) throws IOException {
-    block = handle.block;
-    if (block == null) {
+    if (!handle.exists()) {
       throw new FileNotFoundException("File not found: " + handle.name());
     }
 
     this.handle = handle;
     this.releaseOnClose = releaseOnClose;
     final MPQ mpq = handle.mpq;
-    assert (block.flags & FLAG_EXISTS) == FLAG_EXISTS : "file(" + handle + ") does not exist!";
-    final int flags = block.flags;
-    final int offset = blockOffset = block.offset;
-    final int CSize = block.CSize;
-    FSize = block.FSize;
+    final int flags = this.flags = handle.flags();
+    assert (flags & FLAG_EXISTS) == FLAG_EXISTS : "file(" + handle + ") does not exist!";
+    final int offset = blockOffset = handle.blockOffset();
+    final int CSize = handle.CSize();
+    FSize = handle.FSize();
 
     log.tracef("Accessing %s+%x:%s", mpq, offset, handle.name());
-    final ByteBuf archive = mpq.buffer(offset);
     if ((flags & ~FLAG_EXISTS) == 0) { // FIXME: Note it is assumed that ByteBufInputStream be used in this case
-      assert CSize == FSize : "file(" + handle + ") block(" + block + ") CSize(" + CSize + ") != FSize(" + FSize + ")";
+      assert CSize == FSize : "file(" + handle + ") block(" + mpq.block(handle.block) + ") CSize(" + CSize + ") != FSize(" + FSize + ")";
       sectorSize = FSize;
       sectorCount = 1;
       sectorOffsets = Unpooled.EMPTY_BUFFER; // TODO: 1 element = max length?
       encryptionKey = 0;
-      buffer = archive.readRetainedSlice(FSize);
+      buffer = mpq.buffer.retainedSlice(offset, FSize);
       return;
     }
 
@@ -97,7 +96,7 @@ public class MPQInputStream extends InputStream {
     buffer = mpq.obtainHeapBuffer(sectorSize);
 
     log.trace("Populating sector offsets...");
-    archive.readBytes(sectorOffsets);
+    mpq.buffer.getBytes(offset, sectorOffsets, sectorCount << 2);
     if ((flags & FLAG_ENCRYPTED) == FLAG_ENCRYPTED) {
       log.trace("Decrypting sector offsets...");
       Decryptor.decrypt(encryptionKey - 1, sectorOffsets);
@@ -178,19 +177,19 @@ public class MPQInputStream extends InputStream {
           "curSector(" + curSector + ") >= sectorCount(" + sectorCount + ")");
     }
 
-    final int flags = block.flags;
-    assert (flags & COMPRESSED_OR_IMPLODE) != 0 : "block(" + block + ") is neither compressed or imploded";
+    final int flags = this.flags;
+    assert (flags & COMPRESSED_OR_IMPLODE) != 0 : "block(" + handle.mpq.block(handle.block) + ") is neither compressed or imploded";
 
     try {
       MDC.put("sector", curSector);
-      if (log.traceEnabled()) log.trace("flags={}", block.getFlagsString());
+      if (log.traceEnabled()) log.trace("flags={}", MPQ.Block.getFlagsString(flags));
       final int sectorOffset = nextSectorOffset;
       nextSectorOffset = MPQ.readSafeUnsignedIntLE(sectorOffsets);
       final int sectorCSize = nextSectorOffset - sectorOffset;
       final int sectorFSize = Math.min(FSize - decompressedBytes, sectorSize);
       log.debug("Reading sector {} / {} ({} bytes)", curSector, sectorCount - 1, sectorCSize);
 
-      handle.mpq.buffer(blockOffset + sectorOffset).readBytes(buffer.setIndex(0, 0), sectorCSize);
+      handle.mpq.buffer.getBytes(blockOffset + sectorOffset, buffer.setIndex(0, 0), sectorCSize);
       if (DEBUG_MODE) log.trace("sector: {}", buffer);
 
       if ((flags & FLAG_ENCRYPTED) == FLAG_ENCRYPTED) {
@@ -231,96 +230,203 @@ public class MPQInputStream extends InputStream {
     }
   }
 
+  /**
+   * Reads the specified file in its entirety. Decompressed files are cached
+   * in {@link MPQCache}, so the returned buffer must not be modified.
+   */
   public static ByteBuf readByteBuf(MPQFileHandle handle) {
     final MPQ mpq = handle.mpq;
-    final MPQ.Block block = handle.block;
-    assert (block.flags & FLAG_EXISTS) == FLAG_EXISTS : "file(" + handle + ") does not exist!";
-    final int flags = block.flags;
-    final int offset = block.offset;
-    final int CSize = block.CSize;
-    final int FSize = block.FSize;
+    final int flags = handle.flags();
+    final int offset = handle.blockOffset();
+    assert (flags & FLAG_EXISTS) == FLAG_EXISTS : "file(" + handle + ") does not exist!";
+    if ((flags & ~FLAG_EXISTS) == 0) {
+      assert handle.CSize() == handle.FSize() : "file(" + handle + ") block(" + mpq.block(handle.block) + ") CSize(" + handle.CSize() + ") != FSize(" + handle.FSize() + ")";
+      log.tracef("Accessing %s+%x:%s", mpq, offset, handle.name());
+      return mpq.buffer.retainedSlice(offset, handle.FSize());
+    }
+
+    final MPQCache cache = MPQCache.get();
+    final long cacheKey = MPQCache.key(mpq, offset);
+    final ByteBuf cached = cache.get(cacheKey);
+    if (cached != null) {
+      log.trace("Cache hit {}", handle);
+      return cached;
+    }
+
+    // callers may move the indices of the returned buffer, so the cached
+    // instance is only ever handed out as a duplicate
+    final ByteBuf buffer = readFully(handle);
+    try {
+      cache.put(cacheKey, buffer);
+      return buffer.retainedDuplicate();
+    } finally {
+      buffer.release();
+    }
+  }
+
+  /**
+   * Decompresses the specified file into a single pooled buffer, bypassing
+   * {@link MPQCache}. Files with at least {@link #PARALLEL_SECTORS} sectors
+   * have their sectors decompressed in parallel.
+   */
+  public static ByteBuf readFully(MPQFileHandle handle) {
+    final MPQ mpq = handle.mpq;
+    final int flags = handle.flags();
+    assert (flags & FLAG_EXISTS) == FLAG_EXISTS : "file(" + handle + ") does not exist!";
+    final int offset = handle.blockOffset();
+    final int CSize = handle.CSize();
+    final int FSize = handle.FSize();
 
     log.tracef("Accessing %s+%x:%s", mpq, offset, handle.name());
-    final ByteBuf archive = mpq.buffer(offset);
     if ((flags & ~FLAG_EXISTS) == 0) {
-      assert CSize == FSize : "file(" + handle + ") block(" + block + ") CSize(" + CSize + ") != FSize(" + FSize + ")";
-      return archive.readRetainedSlice(FSize);
+      assert CSize == FSize : "file(" + handle + ") block(" + mpq.block(handle.block) + ") CSize(" + CSize + ") != FSize(" + FSize + ")";
+      return mpq.buffer.retainedSlice(offset, FSize);
     }
 
+    if (log.traceEnabled()) log.trace("flags={}", MPQ.Block.getFlagsString(flags));
+    assert (flags & COMPRESSED_OR_IMPLODE) != 0 : "block(" + mpq.block(handle.block) + ") is neither compressed or imploded";
+
     final int sectorSize = mpq.sectorSize;
     final int sectorCount = (FSize + sectorSize - 1) / sectorSize;
+    final int encryptionKey = getEncryptionKey(handle.filename, flags, offset, FSize);
+    final int[] sectorOffsets = readSectorOffsets(mpq, flags, offset, CSize, sectorCount, encryptionKey);
     final ByteBuf buffer = mpq.alloc().heapBuffer(FSize, FSize);
+    try {
+      final SectorReader reader = new SectorReader(mpq, flags, offset, FSize, sectorSize, sectorOffsets, encryptionKey, buffer);
+      if (sectorCount >= PARALLEL_SECTORS) {
+        log.debug("Reading {} sectors in parallel", sectorCount);
+        SECTOR_POOL.invoke(new SectorTask(reader, 0, sectorCount));
+      } else {
+        for (int curSector = 0; curSector < sectorCount; curSector++) {
+          try {
+            MDC.put("sector", curSector);
+            reader.readSector(curSector);
+          } finally {
+            MDC.remove("sector");
+          }
+        }
+      }
+
+      return buffer.writerIndex(FSize);
+    } catch (Throwable t) {
+      buffer.release();
+      throw t;
+    }
+  }
+
+  /** minimum number of sectors for a file to be decompressed in parallel */
+  static final int PARALLEL_SECTORS = 8;
 
-    if (log.traceEnabled()) log.trace("flags={}", block.getFlagsString());
-    assert (flags & COMPRESSED_OR_IMPLODE) != 0 : "block(" + block + ") is neither compressed or imploded";
+  private static final ForkJoinPool SECTOR_POOL = new ForkJoinPool();
 
+  private static int[] readSectorOffsets(MPQ mpq, int flags, int offset, int CSize, int sectorCount, int encryptionKey) {
     log.trace("Populating sector offsets...");
-    final ByteBuf sectorOffsets = mpq.alloc().heapBuffer(sectorCount << 2);
+    final ByteBuf buffer = mpq.alloc().heapBuffer(sectorCount << 2);
     try {
-      final int encryptionKey = getEncryptionKey(handle.filename, flags, offset, FSize);
-      archive.readBytes(sectorOffsets);
+      mpq.buffer.getBytes(offset, buffer, sectorCount << 2);
       if ((flags & FLAG_ENCRYPTED) == FLAG_ENCRYPTED) {
         log.trace("Decrypting sector offsets...");
-        Decryptor.decrypt(encryptionKey - 1, sectorOffsets);
+        Decryptor.decrypt(encryptionKey - 1, buffer);
       }
 
-      sectorOffsets.writeIntLE(CSize);
+      final int[] sectorOffsets = new int[sectorCount + 1];
+      for (int i = 0; i < sectorCount; i++) {
+        sectorOffsets[i] = MPQ.readSafeUnsignedIntLE(buffer);
+      }
 
+      sectorOffsets[sectorCount] = CSize;
       if (log.traceEnabled()) {
         final StringBuilder builder = new StringBuilder(256);
-        for (int i = 0, s = sectorCount; i <= s; i++) {
-          builder.append(Integer.toHexString(MPQ.readSafeUnsignedIntLE(sectorOffsets))).append(',');
+        for (int sectorOffset : sectorOffsets) {
+          builder.append(Integer.toHexString(sectorOffset)).append(',');
         }
         if (builder.length() > 0) builder.setLength(builder.length() - 1);
         log.trace("sector offsets: {}+[{}]", Integer.toHexString(offset), builder);
-        sectorOffsets.resetReaderIndex();
       }
 
-      int decompressedBytes = 0;
-      int nextSectorOffset = MPQ.readSafeUnsignedIntLE(sectorOffsets);
-      for (int curSector = 0, s = sectorCount; curSector < s; curSector++) {
-        try {
-          MDC.put("sector", curSector);
-          final int sectorOffset = nextSectorOffset;
-          nextSectorOffset = MPQ.readSafeUnsignedIntLE(sectorOffsets);
-          final int sectorCSize = nextSectorOffset - sectorOffset;
-          final int sectorFSize = Math.min(FSize - decompressedBytes, sectorSize);
-          log.debug("Reading sector {} / {} ({} bytes)", curSector, s - 1, sectorCSize);
-          archive.readerIndex(offset + sectorOffset);
-
-          final ByteBuf sector = buffer.slice(buffer.writerIndex(), sectorFSize);
-          buffer.writerIndex(buffer.writerIndex() + sectorFSize);
-          archive.readBytes(sector.setIndex(0, 0), sectorCSize);
-          if (DEBUG_MODE) log.trace("sector: {}", sector);
-
-          if ((flags & FLAG_ENCRYPTED) == FLAG_ENCRYPTED) {
-            if (DEBUG_MODE) log.trace("Decrypting sector...");
-            Decryptor.decrypt(encryptionKey + curSector, sector);
-            if (DEBUG_MODE) log.trace("Decrypted {} bytes", sector.writerIndex());
-          }
+      return sectorOffsets;
+    } finally {
+      buffer.release();
+    }
+  }
 
-          if ((flags & FLAG_COMPRESSED) == FLAG_COMPRESSED && sectorCSize != sectorFSize) {
-            if (DEBUG_MODE) log.trace("Decompressing sector...");
-            Decompressor.decompress(sector, sectorCSize, sectorFSize);
-            if (DEBUG_MODE) log.trace("Decompressed {} bytes", sector.writerIndex());
-          }
+  /**
+   * Decompresses individual sectors of a file into their final position
+   * within the file buffer. Sectors are independent of one another, so
+   * distinct sectors may be read concurrently.
+   */
+  static final class SectorReader {
+    final MPQ mpq;
+    final int flags;
+    final int offset;
+    final int FSize;
+    final int sectorSize;
+    final int[] sectorOffsets;
+    final int encryptionKey;
+    final ByteBuf buffer;
+
+    SectorReader(MPQ mpq, int flags, int offset, int FSize, int sectorSize, int[] sectorOffsets, int encryptionKey, ByteBuf buffer) {
+      this.mpq = mpq;
+      this.flags = flags;
+      this.offset = offset;
+      this.FSize = FSize;
+      this.sectorSize = sectorSize;
+      this.sectorOffsets = sectorOffsets;
+      this.encryptionKey = encryptionKey;
+      this.buffer = buffer;
+    }
 
-          if ((flags & FLAG_IMPLODE) == FLAG_IMPLODE && sectorCSize != sectorFSize) {
-            if (DEBUG_MODE) log.trace("Exploding sector...");
-            Exploder.pkexplode(sector);
-            if (DEBUG_MODE) log.trace("Exploded {} bytes", sector.writerIndex());
-          }
+    void readSector(int curSector) {
+      final int sectorOffset = sectorOffsets[curSector];
+      final int sectorCSize = sectorOffsets[curSector + 1] - sectorOffset;
+      final int sectorStart = curSector * sectorSize;
+      final int sectorFSize = Math.min(FSize - sectorStart, sectorSize);
+      if (DEBUG_MODE) log.debug("Reading sector {} ({} bytes)", curSector, sectorCSize);
 
-          decompressedBytes += sector.readableBytes();
-        } finally {
-          MDC.remove("sector");
-        }
+      final ByteBuf sector = buffer.slice(sectorStart, sectorFSize);
+      mpq.buffer.getBytes(offset + sectorOffset, sector.setIndex(0, 0), sectorCSize);
+      if (DEBUG_MODE) log.trace("sector: {}", sector);
+
+      if ((flags & FLAG_ENCRYPTED) == FLAG_ENCRYPTED) {
+        if (DEBUG_MODE) log.trace("Decrypting sector...");
+        Decryptor.decrypt(encryptionKey + curSector, sector);
+        if (DEBUG_MODE) log.trace("Decrypted {} bytes", sector.writerIndex());
+      }
+
+      if ((flags & FLAG_COMPRESSED) == FLAG_COMPRESSED && sectorCSize != sectorFSize) {
+        if (DEBUG_MODE) log.trace("Decompressing sector...");
+        Decompressor.decompress(sector, sectorCSize, sectorFSize);
+        if (DEBUG_MODE) log.trace("Decompressed {} bytes", sector.writerIndex());
+      }
+
+      if ((flags & FLAG_IMPLODE) == FLAG_IMPLODE && sectorCSize != sectorFSize) {
+        if (DEBUG_MODE) log.trace("Exploding sector...");
+        Exploder.pkexplode(sector);
+        if (DEBUG_MODE) log.trace("Exploded {} bytes", sector.writerIndex());
       }
-    } finally {
-      sectorOffsets.release();
     }
+  }
 
-    return buffer;
+  static final class SectorTask extends RecursiveAction {
+    final SectorReader reader;
+    final int from;
+    final int to;
+
+    SectorTask(SectorReader reader, int from, int to) {
+      this.reader = reader;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        reader.readSector(from);
+      } else {
+        final int mid = (from + to) >>> 1;
+        invokeAll(new SectorTask(reader, from, mid), new SectorTask(reader, mid, to));
+      }
+    }
   }
 
   private static int getEncryptionKey(final String filename, final int flags, final int offset, final int FSize) {
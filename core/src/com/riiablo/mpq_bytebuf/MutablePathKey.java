@@ -0,0 +1,78 @@
+package com.riiablo.mpq_bytebuf;
+
+import java.nio.charset.StandardCharsets;
+
+import com.riiablo.mpq_bytebuf.util.Decryptor;
+
+/**
+ * Reusable {@link PathKey} whose hashes are computed from the characters of a
+ * {@link CharSequence} (e.g., a {@link StringBuilder} a path is built in)
+ * without copying them, so a lookup does not allocate. The sequence is
+ * referenced as is and {@link #set(CharSequence)} must be called again after
+ * it is changed.
+ */
+public final class MutablePathKey {
+  CharSequence path = "";
+  int offset;
+  int key1;
+  int key2;
+
+  public MutablePathKey() {
+    set(path);
+  }
+
+  /**
+   * Hashes the specified path. The path is normalized and each of the hashes
+   * are computed in a single pass over its characters.
+   */
+  public MutablePathKey set(CharSequence path) {
+    final Decryptor.LookupTable offsetTable = Decryptor.HASH_TABLE_OFFSET;
+    final Decryptor.LookupTable key1Table = Decryptor.HASH_TABLE_KEY1;
+    final Decryptor.LookupTable key2Table = Decryptor.HASH_TABLE_KEY2;
+    int offsetSeed1 = Decryptor.SEED1, offsetSeed2 = Decryptor.SEED2;
+    int key1Seed1 = Decryptor.SEED1, key1Seed2 = Decryptor.SEED2;
+    int key2Seed1 = Decryptor.SEED1, key2Seed2 = Decryptor.SEED2;
+    for (int i = 0, s = path.length(); i < s; i++) {
+      final byte ch = Decryptor.LookupTable.fix(path.charAt(i));
+      offsetSeed1 = offsetTable.get(ch) ^ (offsetSeed1 + offsetSeed2);
+      offsetSeed2 = ch + offsetSeed1 + offsetSeed2 + (offsetSeed2 << 5) + 3;
+      key1Seed1 = key1Table.get(ch) ^ (key1Seed1 + key1Seed2);
+      key1Seed2 = ch + key1Seed1 + key1Seed2 + (key1Seed2 << 5) + 3;
+      key2Seed1 = key2Table.get(ch) ^ (key2Seed1 + key2Seed2);
+      key2Seed2 = ch + key2Seed1 + key2Seed2 + (key2Seed2 << 5) + 3;
+    }
+
+    this.path = path;
+    this.offset = offsetSeed1;
+    this.key1 = key1Seed1;
+    this.key2 = key2Seed1;
+    return this;
+  }
+
+  public int offset() {
+    return offset;
+  }
+
+  /**
+   * Returns the 64-bit key as stored in the hash table of an {@link MPQ}.
+   */
+  public long key() {
+    return ((long) key2 << Integer.SIZE) | (key1 & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns an immutable copy of this key.
+   */
+  public PathKey toPathKey() {
+    final CharSequence path = this.path;
+    final int length = path.length();
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) bytes[i] = Decryptor.LookupTable.fix(path.charAt(i));
+    return new PathKey(new String(bytes, StandardCharsets.US_ASCII), offset, key1, key2);
+  }
+
+  @Override
+  public String toString() {
+    return path.toString();
+  }
+}
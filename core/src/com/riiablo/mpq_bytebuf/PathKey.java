@@ -0,0 +1,56 @@
+package com.riiablo.mpq_bytebuf;
+
+/**
+ * Path of a file within an {@link MPQ} along with its precomputed hash table
+ * offset and keys. Lookups by a {@code PathKey} do not hash the path.
+ * {@link MutablePathKey} should be used instead for paths which are built and
+ * looked up repeatedly.
+ *
+ * @see #of(CharSequence)
+ */
+public final class PathKey {
+  /** upper-cased, backslash-delimited path */
+  public final String path;
+  public final int offset;
+  public final int key1;
+  public final int key2;
+
+  PathKey(String path, int offset, int key1, int key2) {
+    this.path = path;
+    this.offset = offset;
+    this.key1 = key1;
+    this.key2 = key2;
+  }
+
+  /**
+   * Computes the key of the specified path.
+   */
+  public static PathKey of(CharSequence path) {
+    return new MutablePathKey().set(path).toPathKey();
+  }
+
+  /**
+   * Returns the 64-bit key as stored in the hash table of an {@link MPQ}.
+   */
+  public long key() {
+    return ((long) key2 << Integer.SIZE) | (key1 & 0xFFFFFFFFL);
+  }
+
+  @Override
+  public int hashCode() {
+    return key1;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (!(obj instanceof PathKey)) return false;
+    PathKey other = (PathKey) obj;
+    return offset == other.offset && key1 == other.key1 && key2 == other.key2;
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+}
@@ -4,11 +4,14 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
 
+import com.riiablo.mpq_bytebuf.InvalidFormat;
 import com.riiablo.util.Pool;
 
 public final class ADPCM {
   private ADPCM() {}
 
+  private static final int SHORT_BYTES = Short.SIZE / Byte.SIZE;
+
   private static final byte INITIAL_ADPCM_STEP_INDEX = 0x2C;
 
   private static final byte[] CHANGE_TABLE = {
@@ -37,101 +40,158 @@ public final class ADPCM {
   static final int STEREO = 2;
   private static final int CHANNELS = 2;
 
-  private static final class Channel {
-    short sampleValue;
-    byte stepIndex;
-  }
-
-  private static final Pool<Channel[]> POOL = new Pool<Channel[]>(true, false, 8, 64) {
-    @Override
-    protected Channel[] newInstance() {
-      final Channel[] channels = new Channel[CHANNELS];
-      for (int i = 0; i < CHANNELS; i++) channels[i] = new Channel();
-      return channels;
+  /**
+   * Streaming decoder state, fed one compressed byte at a time so that it can
+   * consume the output of {@link Huffman} directly.
+   */
+  static final class Decoder {
+    final short[] sampleValue = new short[CHANNELS];
+    final byte[] stepIndex = new byte[CHANNELS];
+    int numChannels;
+    int stepShift;
+    int headerSize;
+    int headerPos;
+    int current;
+
+    Decoder reset(final int numChannels) {
+      this.numChannels = numChannels;
+      headerSize = SHORT_BYTES + numChannels * SHORT_BYTES;
+      headerPos = 0;
+      current = 0;
+      return this;
     }
-  };
-
-  private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
 
-  public static int decompress(final ByteBuf inout, final int numChannels) {
-    // NOTE: in must be copied because it will eventually reach out
-    final ByteBuf in = ALLOC.heapBuffer(inout.resetReaderIndex().readableBytes());
-    try {
-      in.writeBytes(inout);
-      return decompress(in, inout.clear(), numChannels);
-    } finally {
-      in.release();
+    void finish() {
+      if (headerPos < headerSize) {
+        throw new InvalidFormat("Incomplete ADPCM header: " + headerPos + " < " + headerSize);
+      }
     }
-  }
 
-  public static int decompress(final ByteBuf in, final ByteBuf out, final int numChannels) {
-    Channel[] channels = POOL.obtain();
-    try {
-      return decompress(in, out, numChannels, channels);
-    } finally {
-      POOL.release(channels);
-    }
-  }
+    private void header(final int b, final ByteBuf out) {
+      final int i = headerPos++;
+      if (i < SHORT_BYTES) {
+        if (i == 1) stepShift = (byte) b;
+        return;
+      }
 
-  public static int decompress(final ByteBuf in, final ByteBuf out, final int numChannels, final Channel[] state) {
-    byte stepshift = (byte) (in.readShortLE() >>> Byte.SIZE);
-    for (int i = 0; i < numChannels; i++) {
-      Channel c = state[i];
-      c.stepIndex = INITIAL_ADPCM_STEP_INDEX;
-      c.sampleValue = in.readShortLE();
-      out.writeShortLE(c.sampleValue);
+      final int channel = (i - SHORT_BYTES) >>> 1;
+      if ((i & 1) == 0) {
+        sampleValue[channel] = (short) (b & 0xFF);
+      } else {
+        sampleValue[channel] |= (short) (b << Byte.SIZE);
+        stepIndex[channel] = INITIAL_ADPCM_STEP_INDEX;
+        out.writeShortLE(sampleValue[channel]);
+      }
     }
 
-    int current = 0;
-    while (in.readableBytes() > 0) {
-      byte op = in.readByte();
-      Channel channel = state[current];
+    void decode(final int b, final ByteBuf out) {
+      if (headerPos < headerSize) {
+        header(b, out);
+        return;
+      }
+
+      final byte op = (byte) b;
+      final int channel = current;
+      int stepIndex = this.stepIndex[channel];
       if ((op & 0x80) != 0) {
         switch (op & 0x7F) {
           case 0: // write current value
-            if (channel.stepIndex != 0) channel.stepIndex--;
-            out.writeShortLE(channel.sampleValue);
-            current = (current + 1) % numChannels;
+            if (stepIndex != 0) stepIndex--;
+            out.writeShortLE(sampleValue[channel]);
+            current = (channel + 1) % numChannels;
             break;
           case 1: // increment period
-            channel.stepIndex += 8;
-            if (channel.stepIndex >= STEP_TABLE.length)
-              channel.stepIndex = (byte) (STEP_TABLE.length - 1);
+            stepIndex += 8;
+            if (stepIndex >= STEP_TABLE.length)
+              stepIndex = STEP_TABLE.length - 1;
             break;
           case 2: // skip channel (unused?)
-            current = (current + 1) % numChannels;
+            current = (channel + 1) % numChannels;
             break;
           default:
-            channel.stepIndex -= 8;
-            if (channel.stepIndex < 0) channel.stepIndex = 0;
+            stepIndex -= 8;
+            if (stepIndex < 0) stepIndex = 0;
         }
       } else { // adjust value
-        short stepbase = STEP_TABLE[channel.stepIndex];
-        short step = (short) (stepbase >>> stepshift);
+        final short stepbase = STEP_TABLE[stepIndex];
+        short step = (short) (stepbase >>> stepShift);
         for (int i = 0; i < 6; i++) {
           if ((op & 1 << i) != 0) {
             step += (stepbase >> i);
           }
         }
 
+        final short sample;
         if ((op & 0x40) != 0) {
-          channel.sampleValue = (short) Math.max((int) channel.sampleValue - step, Short.MIN_VALUE);
+          sample = (short) Math.max((int) sampleValue[channel] - step, Short.MIN_VALUE);
         } else {
-          channel.sampleValue = (short) Math.min((int) channel.sampleValue + step, Short.MAX_VALUE);
+          sample = (short) Math.min((int) sampleValue[channel] + step, Short.MAX_VALUE);
         }
 
-        out.writeShortLE(channel.sampleValue);
-        channel.stepIndex += CHANGE_TABLE[op & 0x1F];
-        if (channel.stepIndex < 0) {
-          channel.stepIndex = 0;
-        } else if (channel.stepIndex >= STEP_TABLE.length) {
-          channel.stepIndex = (byte) (STEP_TABLE.length - 1);
+        sampleValue[channel] = sample;
+        out.writeShortLE(sample);
+        stepIndex += CHANGE_TABLE[op & 0x1F];
+        if (stepIndex < 0) {
+          stepIndex = 0;
+        } else if (stepIndex >= STEP_TABLE.length) {
+          stepIndex = STEP_TABLE.length - 1;
         }
 
-        current = (current + 1) % numChannels;
+        current = (channel + 1) % numChannels;
       }
+
+      this.stepIndex[channel] = (byte) stepIndex;
+    }
+
+    @Override
+    public String toString() {
+      return "ADPCM.Decoder[numChannels=" + numChannels + "]";
+    }
+  }
+
+  private static final Pool<Decoder> POOL = new Pool<Decoder>(true, false, 8, 64) {
+    @Override
+    protected Decoder newInstance() {
+      return new Decoder();
+    }
+  };
+
+  static Decoder obtain(final int numChannels) {
+    return POOL.obtain().reset(numChannels);
+  }
+
+  static void release(final Decoder decoder) {
+    POOL.release(decoder);
+  }
+
+  private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+
+  public static int decompress(final ByteBuf inout, final int numChannels) {
+    // NOTE: in must be copied because it will eventually reach out
+    final ByteBuf in = ALLOC.heapBuffer(inout.resetReaderIndex().readableBytes());
+    try {
+      in.writeBytes(inout);
+      return decompress(in, inout.clear(), numChannels);
+    } finally {
+      in.release();
+    }
+  }
+
+  public static int decompress(final ByteBuf in, final ByteBuf out, final int numChannels) {
+    final Decoder decoder = obtain(numChannels);
+    try {
+      return decompress(in, out, decoder);
+    } finally {
+      release(decoder);
+    }
+  }
+
+  static int decompress(final ByteBuf in, final ByteBuf out, final Decoder decoder) {
+    while (in.isReadable()) {
+      decoder.decode(in.readByte(), out);
     }
 
+    decoder.finish();
     return out.writerIndex();
   }
 }
@@ -73,20 +73,22 @@ public final class Decompressor {
       inout.readerIndex(0).markReaderIndex();
     }
 
+    final boolean adpcm = (compressionFlags & ADPCM_MASK) != 0;
+    final int numChannels = ((compressionFlags & FLAG_ADPCM1C) == FLAG_ADPCM1C) ? ADPCM.MONO : ADPCM.STEREO;
     if ((compressionFlags & FLAG_HUFFMAN) == FLAG_HUFFMAN) {
       final Huffman huffman = HUFFMAN.obtain();
+      final ADPCM.Decoder decoder = adpcm ? ADPCM.obtain(numChannels) : null;
       try {
+        // wave data is fed from huffman through adpcm in a single pass
         log.trace("Huffman decompressing {}...", inout);
-        huffman.decompress(inout);
+        huffman.decompress(inout, decoder);
         log.trace("Huffman decompressed {} bytes", inout.writerIndex());
         inout.readerIndex(0).markReaderIndex();
       } finally {
         HUFFMAN.release(huffman);
+        if (decoder != null) ADPCM.release(decoder);
       }
-    }
-
-    if ((compressionFlags & ADPCM_MASK) != 0) {
-      final int numChannels = ((compressionFlags & FLAG_ADPCM1C) == FLAG_ADPCM1C) ? ADPCM.MONO : ADPCM.STEREO;
+    } else if (adpcm) {
       log.trace("PCM{}C decompressing {}...", numChannels, inout);
       ADPCM.decompress(inout, numChannels);
       log.trace("PCM{}C decompressed {} bytes", numChannels, inout.writerIndex());
@@ -284,6 +284,14 @@ public final class Decryptor {
       byteMap['/'] = '\\';
     }
 
+    /**
+     * Returns the upper-cased, backslash-delimited form of the specified
+     * character as hashed by {@link #hash(byte[])}.
+     */
+    public static byte fix(int ch) {
+      return byteMap[ch & 0xFF];
+    }
+
     public static String fix(String str) {
       final byte[] byteMap = LookupTable.byteMap;
       final byte[] bytes = getBytes(str);
@@ -19,11 +19,10 @@ package com.riiablo.mpq_bytebuf.util;
 
 import io.netty.buffer.ByteBuf;
 
-import com.badlogic.gdx.utils.Pool;
-
 import com.riiablo.logger.LogManager;
 import com.riiablo.logger.Logger;
 import com.riiablo.mpq_bytebuf.InvalidFormat;
+import com.riiablo.util.Pool;
 
 /**
  * pkexplode.c                                Copyright (c) ShadowFlare 2003
@@ -152,27 +151,82 @@ public final class Exploder {
       0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08
   };
 
-  private static final int[] BIT_MASKS = new int[Integer.SIZE + 1];
+  private static final int LIT_TABLE_BITS = 13;
+  private static final int LEN_TABLE_BITS = 7;
+  private static final int OFFS_TABLE_BITS = 8;
+
+  private static final int MIN_TOKEN_BITS = 16;
+  private static final int MIN_OFFSET_BITS = 14; // intentionally 14
+  private static final int END_OF_STREAM = 519;
+
+  /**
+   * Decode tables indexed by the next {@code *_TABLE_BITS} bits of the stream.
+   * Each entry packs the code length in the low 4 bits along with the decoded
+   * symbol, replacing the linear scans over the code tables above. Unused
+   * literal entries are left {@code 0} to detect invalid codes.
+   *
+   * LenDecode: base << 8 | extraBits << 4 | bits
+   * OffsDecode: offsHi << 4 | bits
+   * ChDecode: ch << 4 | bits
+   */
+  private static final int[] LenDecode = new int[1 << LEN_TABLE_BITS];
+  private static final int[] OffsDecode = new int[1 << OFFS_TABLE_BITS];
+  private static final int[] ChDecode = new int[1 << LIT_TABLE_BITS];
   static {
-    for (int i = 1; i < Integer.SIZE; i++) {
-      BIT_MASKS[i] = (BIT_MASKS[i - 1] << 1) + 1;
+    for (int i = 0; i < LenCode.length; i++) {
+      final int entry = LenBase[i] << 8 | ExLenBits[i] << 4 | LenBits[i];
+      for (int j = LenCode[i], step = 1 << LenBits[i]; j < LenDecode.length; j += step) {
+        LenDecode[j] = entry;
+      }
+    }
+
+    for (int i = 0; i < OffsCode.length; i++) {
+      final int entry = i << 4 | OffsBits[i];
+      for (int j = OffsCode[i], step = 1 << OffsBits[i]; j < OffsDecode.length; j += step) {
+        OffsDecode[j] = entry;
+      }
+    }
+
+    for (int i = 0; i < ChCode.length; i++) {
+      final int entry = i << 4 | ChBits[i];
+      for (int j = ChCode[i], step = 1 << ChBits[i]; j < ChDecode.length; j += step) {
+        ChDecode[j] = entry;
+      }
     }
   }
 
-  private static final Pool<byte[]> BYTES = new Pool<byte[]>(1, 8, true) {
+  private static final int SCRATCH_SIZE = 0x1000;
+
+  private static final Pool<byte[]> BYTES = new Pool<byte[]>(true, false, 2, 64) {
     @Override
-    protected byte[] newObject() {
-      return new byte[0x1000];
+    protected byte[] newInstance() {
+      return new byte[SCRATCH_SIZE];
     }
   };
 
+  private static byte[] obtain(int size) {
+    return size <= SCRATCH_SIZE ? BYTES.obtain() : new byte[size];
+  }
+
+  private static void release(byte[] bytes) {
+    if (bytes.length == SCRATCH_SIZE) BYTES.release(bytes);
+  }
+
   public static ByteBuf pkexplode(final ByteBuf inout) {
     return pkexplode(inout.resetReaderIndex().slice(), inout.clear());
   }
 
+  /**
+   * Explodes {@code in} into the writable bytes of {@code out}. Heap buffers
+   * are decoded in place: the backing array of {@code in} is read directly
+   * unless it is shared with {@code out}, and the backing array of
+   * {@code out} is written directly and doubles as the sliding dictionary.
+   * Other buffers are staged through pooled scratch arrays.
+   */
   public static ByteBuf pkexplode(final ByteBuf in, final ByteBuf out) {
     log.traceEntry("pkexplode(in: {}, out: {})", in, out);
-    if (in.readableBytes() < INT_BYTES) {
+    final int inSize = in.readableBytes();
+    if (inSize < INT_BYTES) {
       throw new InvalidFormat("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
     }
 
@@ -186,123 +240,147 @@ public final class Exploder {
       throw new InvalidFormat("PK_ERR_BAD_DATA: Invalid dictShift: " + dictShift);
     }
 
-    final int[] ChCode = Exploder.ChCode;
-    final int[] ChBits = Exploder.ChBits;
-    final int[] LenCode = Exploder.LenCode;
-    final int[] LenBits = Exploder.LenBits;
-    final int[] LenBase = Exploder.LenBase;
-    final int[] ExLenBits = Exploder.ExLenBits;
-    final int[] OffsCode = Exploder.OffsCode;
-    final int[] OffsBits = Exploder.OffsBits;
+    final int outSize = out.writableBytes();
+    final boolean directOut = out.hasArray();
+    final boolean directIn = in.hasArray() && !(directOut && in.array() == out.array());
+    byte[] src = null, dst = null;
+    try {
+      final int srcPos, srcEnd;
+      if (directIn) {
+        src = in.array();
+        srcPos = in.arrayOffset() + in.readerIndex();
+        srcEnd = srcPos + in.readableBytes();
+      } else {
+        src = obtain(in.readableBytes());
+        srcPos = 0;
+        srcEnd = in.readableBytes();
+        in.getBytes(in.readerIndex(), src, srcPos, srcEnd);
+      }
 
-    final int dictSize = 64 << dictShift;
-    final byte[] Dict = BYTES.obtain();
-    int dictPos = 0;
-    int curDictSize = 0;
+      final int dstPos;
+      if (directOut) {
+        dst = out.array();
+        dstPos = out.arrayOffset() + out.writerIndex();
+      } else {
+        dst = obtain(outSize);
+        dstPos = 0;
+      }
 
-    final int outSize = out.writableBytes();
-    final byte[] Out = BYTES.obtain();
-    int outPos = 0;
+      final int outPos = explode(litSize, dictShift, src, srcPos, srcEnd, dst, dstPos, dstPos + outSize);
+      in.skipBytes(in.readableBytes());
+      if (directOut) {
+        return out.writerIndex(out.writerIndex() + outPos - dstPos);
+      } else {
+        return out.writeBytes(dst, 0, outPos);
+      }
+    } finally {
+      if (!directIn && src != null) release(src);
+      if (!directOut && dst != null) release(dst);
+    }
+  }
 
-    try {
-      int cache = in.readUnsignedShortLE();
-      int bitsCached = Short.SIZE;
-
-      int i;
-      int copyLen;
-      while (outPos < outSize) {
-        while (bitsCached < Short.SIZE) {
-          if (!in.isReadable()) {
-            // Store the current size of output
-            // nOutSize = pOutPos - pOutBuffer;
-            throw new InvalidFormat("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
-          }
-          cache |= (in.readUnsignedByte() << bitsCached);
+  /**
+   * Explodes {@code src[srcPos, srcEnd)} (excluding the 2 byte header) into
+   * {@code dst[dstStart, dstEnd)}. Bits are consumed from a 64-bit buffer that
+   * is refilled a byte at a time, and back-references are copied from the
+   * output itself.
+   *
+   * @return the position within {@code dst} after the last byte written
+   */
+  private static int explode(
+      final int litSize, final int dictShift,
+      final byte[] src, int srcPos, final int srcEnd,
+      final byte[] dst, final int dstStart, final int dstEnd) {
+    final int[] LenDecode = Exploder.LenDecode;
+    final int[] OffsDecode = Exploder.OffsDecode;
+    final int[] ChDecode = Exploder.ChDecode;
+    final int dictMask = (1 << dictShift) - 1;
+
+    long bits = 0;
+    int bitsCached = 0;
+    int outPos = dstStart;
+    while (outPos < dstEnd) {
+      while (bitsCached <= Long.SIZE - Byte.SIZE && srcPos < srcEnd) {
+        bits |= (src[srcPos++] & 0xFFL) << bitsCached;
+        bitsCached += Byte.SIZE;
+      }
+
+      if (bitsCached < MIN_TOKEN_BITS) {
+        throw new InvalidFormat("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
+      }
+
+      if ((bits & 1) == 0) { // First bit is 0; literal byte
+        if (litSize == PK_LITERAL_SIZE_FIXED) {
+          dst[outPos++] = (byte) (bits >>> 1);
+          bits >>>= (Byte.SIZE + 1);
+          bitsCached -= (Byte.SIZE + 1);
+        } else { // Variable size literal byte
+          final int entry = ChDecode[(int) (bits >>> 1) & ((1 << LIT_TABLE_BITS) - 1)];
+          final int n = 1 + (entry & 0xF);
+          if (n == 1) throw new InvalidFormat("PK_ERR_BAD_DATA: Invalid literal code");
+          dst[outPos++] = (byte) (entry >>> 4);
+          bits >>>= n;
+          bitsCached -= n;
+        }
+
+        continue;
+      }
+
+      // First bit is 1; copy from dictionary
+      final int lenEntry = LenDecode[(int) (bits >>> 1) & ((1 << LEN_TABLE_BITS) - 1)];
+      final int lenBits = 1 + (lenEntry & 0xF);
+      final int exLenBits = (lenEntry >>> 4) & 0xF;
+      bits >>>= lenBits;
+      final int copyLen = (lenEntry >>> 8) + ((int) bits & ((1 << exLenBits) - 1));
+      bits >>>= exLenBits;
+      bitsCached -= lenBits + exLenBits;
+      if (copyLen == END_OF_STREAM) break; // indicates end of the stream has been reached
+
+      if (bitsCached < MIN_OFFSET_BITS) {
+        while (bitsCached <= Long.SIZE - Byte.SIZE && srcPos < srcEnd) {
+          bits |= (src[srcPos++] & 0xFFL) << bitsCached;
           bitsCached += Byte.SIZE;
         }
 
-        if ((cache & 1) == 1) { // First bit is 1; copy from dictionary
-          cache >>= 1;
-          bitsCached--;
-
-          // Find the base value for the copy length
-          for (i = 0; i <= 0x0F && (cache & BIT_MASKS[LenBits[i]]) != LenCode[i]; i++);
-          cache >>= LenBits[i];
-          bitsCached -= LenBits[i];
-
-          copyLen = LenBase[i] + (cache & BIT_MASKS[ExLenBits[i]]);
-          cache >>= ExLenBits[i];
-          bitsCached -= ExLenBits[i];
-          if (copyLen == 519) break; // indicates end of the stream has been reached
-
-          while (bitsCached < 14) { // intentionally 14
-            if (!in.isReadable()) {
-              // Store the current size of output
-              // nOutSize = pOutPos - pOutBuffer;
-              throw new InvalidFormat("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
-            }
-            cache |= (in.readUnsignedByte() << bitsCached);
-            bitsCached += Byte.SIZE;
-          }
-
-          // Find most significant 6 bits of offset into the dictionary
-          for (i = 0; i <= 0x3F && (cache & BIT_MASKS[OffsBits[i]]) != OffsCode[i]; i++);
-          cache >>= OffsBits[i];
-          bitsCached -= OffsBits[i];
-
-          // If the copy length is 2, there are only two more bits in the dictionary
-          // offset; otherwise, there are 4, 5, or 6 bits left, depending on what
-          // the dictionary size is
-          int copyOffset;
-          if (copyLen == 2) {
-            copyOffset = dictPos - 1 - (i << copyLen) - (cache & BIT_MASKS[copyLen]);
-            cache >>= copyLen;
-            bitsCached -= copyLen;
-          } else {
-            copyOffset = dictPos - 1 - (i << dictShift) - (cache & BIT_MASKS[dictShift]);
-            cache >>= dictShift;
-            bitsCached -= dictShift;
-          }
-
-          while (copyLen-- > 0) {
-            if (!out.isWritable()) {
-              throw new InvalidFormat("PK_ERR_BUFFER_TOO_SMALL: Output buffer is full: " + out);
-            }
-
-            while (copyOffset < 0) copyOffset += curDictSize;
-            while (copyOffset >= curDictSize) copyOffset -= curDictSize;
-
-            // Copy the byte from the dictionary and add it to the end of the dictionary
-            Dict[dictPos++] = Out[outPos++] = Dict[copyOffset++];
-
-            if (curDictSize < dictSize) curDictSize++;
-            if (dictPos >= dictSize) dictPos = 0;
-          }
-        } else { // First bit is 0; literal byte
-          if (litSize == PK_LITERAL_SIZE_FIXED) {
-            Dict[dictPos++] = Out[outPos++] = (byte) (cache >> 1);
-            cache >>= (Byte.SIZE + 1);
-            bitsCached -= (Byte.SIZE + 1);
-          } else { // Variable size literal byte
-            cache >>= 1;
-            bitsCached -= 1;
-
-            // Find the actual byte from the bit sequence
-            for (i = 0; i <= 0xFF && (cache & BIT_MASKS[ChBits[i]]) != ChCode[i]; i++);
-            Dict[dictPos++] = Out[outPos++] = (byte) i;
-            cache >>= ChBits[i];
-            bitsCached -= ChBits[i];
-          }
-
-          if (curDictSize < dictSize) curDictSize++;
-          if (dictPos >= dictSize) dictPos = 0;
+        if (bitsCached < MIN_OFFSET_BITS) {
+          throw new InvalidFormat("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
         }
       }
 
-      return out.writeBytes(Out, 0, outSize);
-    } finally {
-      BYTES.free(Dict);
-      BYTES.free(Out);
+      // Find most significant 6 bits of offset into the dictionary
+      final int offsEntry = OffsDecode[(int) bits & ((1 << OFFS_TABLE_BITS) - 1)];
+      final int offsBits = offsEntry & 0xF;
+      bits >>>= offsBits;
+      bitsCached -= offsBits;
+
+      // If the copy length is 2, there are only two more bits in the dictionary
+      // offset; otherwise, there are 4, 5, or 6 bits left, depending on what
+      // the dictionary size is
+      final int distance;
+      if (copyLen == 2) {
+        distance = 1 + ((offsEntry >>> 4) << 2) + ((int) bits & 0x3);
+        bits >>>= 2;
+        bitsCached -= 2;
+      } else {
+        distance = 1 + ((offsEntry >>> 4) << dictShift) + ((int) bits & dictMask);
+        bits >>>= dictShift;
+        bitsCached -= dictShift;
+      }
+
+      int copyPos = outPos - distance;
+      if (copyPos < dstStart) {
+        throw new InvalidFormat("PK_ERR_BAD_DATA: Invalid copy offset: " + distance);
+      }
+
+      final int len = Math.min(copyLen, dstEnd - outPos);
+      if (distance >= len) {
+        System.arraycopy(dst, copyPos, dst, outPos, len);
+        outPos += len;
+      } else { // overlapping copy repeats the last distance bytes
+        for (final int end = outPos + len; outPos < end;) dst[outPos++] = dst[copyPos++];
+      }
     }
+
+    return outPos;
   }
 }
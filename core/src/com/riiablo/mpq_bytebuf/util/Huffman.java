@@ -3,21 +3,25 @@ package com.riiablo.mpq_bytebuf.util;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 
 import com.riiablo.logger.LogManager;
 import com.riiablo.logger.Logger;
+import com.riiablo.mpq_bytebuf.InvalidFormat;
 
 public final class Huffman {
   private static final Logger log = LogManager.getLogger(Huffman.class);
 
-  private static final int[] BIT_MASKS = new int[Integer.SIZE + 1];
-  static {
-    for (int i = 1; i < Integer.SIZE; i++) {
-      BIT_MASKS[i] = (BIT_MASKS[i - 1] << 1) + 1;
-    }
-  }
+  /**
+   * Number of bits resolved per lookup into the quick link table. Each link
+   * maps the next {@code QUICK_BITS} bits of input to the leaf they decode
+   * to, or to the node reached after consuming all of them.
+   */
+  private static final int QUICK_BITS = 7;
+  private static final int QUICK_SIZE = 1 << QUICK_BITS;
+  private static final int QUICK_MASK = QUICK_SIZE - 1;
 
   private static final class Node {
     Node parent;
@@ -116,8 +120,18 @@ public final class Huffman {
 
   private Node root = null;
 
-  private int bitBuffer;
-  private byte bitNumber;
+  /**
+   * Quick links are lazily populated and are only valid while their version
+   * matches {@link #version}, which is incremented whenever the shape of the
+   * tree changes, so adapting the tree invalidates all links at once.
+   */
+  private final int[] quickVersion = new int[QUICK_SIZE];
+  private final Node[] quickNode = new Node[QUICK_SIZE];
+  private final byte[] quickBits = new byte[QUICK_SIZE];
+  private int version;
+
+  private long bitBuffer;
+  private int bitNumber;
   private ByteBuf source;
 
   private void setSource(ByteBuf source) {
@@ -126,19 +140,72 @@ public final class Huffman {
     bitNumber = 0;
   }
 
-  private int getBits(int bits) {
-    while (bitNumber < bits) {
-      bitBuffer |= source.readUnsignedByte() << bitNumber;
+  private void refill() {
+    while (bitNumber <= Long.SIZE - Byte.SIZE && source.isReadable()) {
+      bitBuffer |= (long) source.readUnsignedByte() << bitNumber;
       bitNumber += Byte.SIZE;
     }
+  }
+
+  private int getBits(int bits) {
+    if (bitNumber < bits) {
+      refill();
+      if (bitNumber < bits) {
+        throw new InvalidFormat("Incomplete input: " + source);
+      }
+    }
 
-    int result = bitBuffer & BIT_MASKS[bits];
+    int result = (int) bitBuffer & ((1 << bits) - 1);
     bitBuffer >>>= bits;
     bitNumber -= bits;
 
     return result;
   }
 
+  private void invalidate() {
+    if (++version == 0) {
+      Arrays.fill(quickVersion, 0);
+      version = 1;
+    }
+  }
+
+  /**
+   * Decodes the next leaf, resolving up to {@link #QUICK_BITS} bits with a
+   * single quick link lookup and walking the tree a bit at a time for any
+   * remaining bits, or when fewer than {@code QUICK_BITS} bits remain.
+   */
+  private Node decodeNode() {
+    Node node = root;
+    if (bitNumber < QUICK_BITS) refill();
+    if (bitNumber >= QUICK_BITS) {
+      final int index = (int) bitBuffer & QUICK_MASK;
+      final int bits;
+      if (quickVersion[index] == version) {
+        node = quickNode[index];
+        bits = quickBits[index];
+      } else {
+        int i = 0;
+        while (node.value == -1 && i < QUICK_BITS) {
+          node = node.child[(index >>> i++) & 1];
+        }
+
+        bits = i;
+        quickVersion[index] = version;
+        quickNode[index] = node;
+        quickBits[index] = (byte) bits;
+      }
+
+      bitBuffer >>>= bits;
+      bitNumber -= bits;
+    }
+
+    while (node.value == -1) {
+      node = node.child[getBits(1)];
+    }
+
+    return node;
+  }
+
   private Node getNode() {
     Node node;
     if (nodes == null) node = new Node();
@@ -206,6 +273,7 @@ public final class Huffman {
     child1.parent = node2;
     child2.parent = node2;
 
+    invalidate();
     return node;
   }
 
@@ -228,6 +296,7 @@ public final class Huffman {
       if (where != node) {
         node.listSwap(where);
         node.treeSwap(where);
+        invalidate();
 
         if (where.probability != where.next.probability) {
           sorted2.put(where.probability, where);
@@ -280,53 +349,71 @@ public final class Huffman {
     }
 
     root.parent = null;
+    invalidate();
   }
 
   private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
 
   synchronized int decompress(ByteBuf inout) {
+    return decompress(inout, (ADPCM.Decoder) null);
+  }
+
+  /**
+   * Decompresses {@code inout} in place. If {@code adpcm} is not
+   * {@code null}, decoded bytes are fed straight through it, so that
+   * compressed wave data is decoded into {@code inout} in a single pass.
+   */
+  synchronized int decompress(ByteBuf inout, ADPCM.Decoder adpcm) {
     // NOTE: in must be copied because it will eventually reach out
     final ByteBuf in = ALLOC.heapBuffer(inout.resetReaderIndex().readableBytes());
     try {
       in.writeBytes(inout);
-      return decompress(in, inout.clear());
+      return decompress(in, inout.clear(), adpcm);
     } finally {
       in.release();
     }
   }
 
   synchronized int decompress(ByteBuf in, ByteBuf out) {
-    log.traceEntry("decompress(in: {}, out: {})", in, out);
-    setSource(in);
-    byte type = (byte) getBits(8);
-    buildTree(type);
+    return decompress(in, out, null);
+  }
 
-    boolean adjustProbability = type == 0;
+  synchronized int decompress(ByteBuf in, ByteBuf out, ADPCM.Decoder adpcm) {
+    log.traceEntry("decompress(in: {}, out: {}, adpcm: {})", in, out, adpcm);
+    setSource(in);
+    try {
+      byte type = (byte) getBits(8);
+      buildTree(type);
+
+      boolean adjustProbability = type == 0;
+
+      for (;;) {
+        Node current = decodeNode();
+        if (current.value == 0x101) {
+          int value = getBits(8);
+          current = addValueToTree(value);
+          incrementProbability(current);
+          if (!adjustProbability) incrementProbability(current);
+        } else if (current.value == 0x100) {
+          break;
+        }
 
-    for (;;) {
-      Node current = root;
-      while (current.value == -1) {
-        final int i = getBits(1);
-        current = current.child[i];
-      }
+        if (adpcm == null) {
+          out.writeByte(current.value);
+        } else {
+          adpcm.decode(current.value, out);
+        }
 
-      if (current.value == 0x101) {
-        int value = getBits(8);
-        current = addValueToTree(value);
-        incrementProbability(current);
-        if (!adjustProbability) incrementProbability(current);
-      } else if (current.value == 0x100) {
-        break;
+        if (adjustProbability) {
+          incrementProbability(current);
+        }
       }
 
-      out.writeByte(current.value);
-
-      if (adjustProbability) {
-        incrementProbability(current);
-      }
+      if (adpcm != null) adpcm.finish();
+      return out.writerIndex();
+    } finally {
+      source = null;
     }
-
-    return out.writerIndex();
   }
 
   private static final byte[][] PROBABILITY_TABLES = {
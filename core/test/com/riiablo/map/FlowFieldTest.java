@@ -0,0 +1,68 @@
+package com.riiablo.map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.badlogic.gdx.math.RandomXS128;
+
+import com.riiablo.map.pfa.FlowField;
+import com.riiablo.map.pfa.GraphPath;
+import com.riiablo.map.pfa.GridPathFinder;
+
+import static com.riiablo.map.PathfindingTest.BLOCK;
+import static com.riiablo.map.PathfindingTest.EPSILON;
+import static com.riiablo.map.PathfindingTest.addZone;
+import static com.riiablo.map.PathfindingTest.assertPath;
+import static com.riiablo.map.PathfindingTest.cost;
+import static com.riiablo.map.PathfindingTest.fill;
+import static com.riiablo.map.PathfindingTest.generate;
+import static com.riiablo.map.PathfindingTest.scatter;
+
+public class FlowFieldTest {
+  @Test
+  public void paths_end_at_target() {
+    Map map = new Map(0, 0);
+    addZone(map, 0, 0, 48, 48);
+    scatter(map, new RandomXS128(4), 0.15f);
+    fill(map, 22, 22, 5, 5, 0);
+    generate(map);
+
+    GridPathFinder finder = new GridPathFinder(map);
+    FlowField field = new FlowField();
+    GraphPath path = new GraphPath();
+    for (int size = 0; size <= 2; size++) {
+      Assert.assertTrue(finder.flood(field, 24, 24, 16, size));
+      int reachable = 0;
+      for (int y = 8; y <= 40; y++) {
+        for (int x = 8; x <= 40; x++) {
+          if (!field.isReachable(x, y)) {
+            Assert.assertEquals(Float.POSITIVE_INFINITY, finder.cost(x, y), 0);
+            continue;
+          }
+
+          reachable++;
+          path.clear();
+          Assert.assertTrue(field.path(x, y, path));
+          assertPath(map, size, x, y, 24, 24, path);
+          Assert.assertEquals(finder.cost(x, y), cost(path), EPSILON);
+        }
+      }
+
+      Assert.assertTrue(reachable > 1);
+    }
+  }
+
+  @Test
+  public void zero_radius_covers_target() {
+    Map map = new Map(0, 0);
+    addZone(map, 0, 0, 8, 8);
+    generate(map);
+
+    FlowField field = new FlowField();
+    Assert.assertTrue(new GridPathFinder(map).flood(field, 3, 3, 0, 0));
+    GraphPath path = new GraphPath();
+    Assert.assertTrue(field.path(3, 3, path));
+    Assert.assertEquals(1, path.getCount());
+    Assert.assertFalse(field.isReachable(4, 3));
+  }
+}
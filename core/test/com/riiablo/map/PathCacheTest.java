@@ -0,0 +1,57 @@
+package com.riiablo.map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.badlogic.gdx.math.Vector2;
+
+import com.riiablo.map.Map.Zone;
+import com.riiablo.map.pfa.GraphPath;
+
+import static com.riiablo.map.PathfindingTest.BLOCK;
+import static com.riiablo.map.PathfindingTest.addZone;
+import static com.riiablo.map.PathfindingTest.fill;
+import static com.riiablo.map.PathfindingTest.generate;
+
+public class PathCacheTest {
+  @Test
+  public void invalidated_by_zone_or() {
+    Map map = new Map(0, 0);
+    Zone zone = addZone(map, 0, 0, 32, 32);
+    fill(map, 16, 0, 1, 24, BLOCK);
+    generate(map);
+
+    PathCache cache = map.pathCache();
+    GraphPath path = new GraphPath();
+    Vector2 src = new Vector2(4, 4), dst = new Vector2(28, 4);
+    Assert.assertTrue(map.findSmoothPath(src, dst, BLOCK, 0, path));
+    Assert.assertTrue(map.findSmoothPath(src, dst, BLOCK, 0, path));
+    Assert.assertEquals(1, cache.hits());
+
+    zone.or(30, 30, BLOCK);
+    Assert.assertTrue(map.findSmoothPath(src, dst, BLOCK, 0, path));
+    Assert.assertEquals(1, cache.invalidations());
+
+    // flags which are already set do not change the zone
+    zone.or(30, 30, BLOCK);
+    Assert.assertTrue(map.findSmoothPath(src, dst, BLOCK, 0, path));
+    Assert.assertEquals(2, cache.hits());
+    Assert.assertEquals(1, cache.invalidations());
+  }
+
+  @Test
+  public void invalidated_by_clearance_of_neighbor_zone() {
+    Map map = new Map(0, 0);
+    addZone(map, 0,  0, 24, 24);
+    addZone(map, 0, 24, 24, 24);
+    generate(map);
+
+    PathCache cache = map.pathCache();
+    GraphPath path = new GraphPath();
+    Vector2 src = new Vector2(4, 22), dst = new Vector2(20, 22);
+    Assert.assertTrue(map.findSmoothPath(src, dst, BLOCK, 0, path));
+    map.or(new Vector2(12, 24), 1, 1, BLOCK);
+    Assert.assertTrue(map.findSmoothPath(src, dst, BLOCK, 0, path));
+    Assert.assertEquals(1, cache.invalidations());
+  }
+}
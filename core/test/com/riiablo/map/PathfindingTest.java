@@ -0,0 +1,168 @@
+package com.riiablo.map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.badlogic.gdx.math.RandomXS128;
+
+import com.riiablo.map.Map.Zone;
+import com.riiablo.map.pfa.AStarPathFinder;
+import com.riiablo.map.pfa.GraphPath;
+import com.riiablo.map.pfa.GridPathFinder;
+import com.riiablo.map.pfa.Point2;
+
+/**
+ * Searches synthetic maps whose zones only have flags, i.e., without loading
+ * any tiles.
+ */
+public class PathfindingTest {
+  static final int BLOCK = DT1.Tile.FLAG_BLOCK_WALK;
+  static final float EPSILON = 1e-3f;
+  static final float DIAGONAL_COST = (float) Math.sqrt(2);
+
+  static Zone addZone(Map map, int x, int y, int width, int height) {
+    Zone zone = new Zone();
+    zone.map = map;
+    zone.width = width;
+    zone.height = height;
+    zone.flags = Zone.obtainByteArray(width * height);
+    zone.setPosition(x, y);
+    map.zones.add(zone);
+    return zone;
+  }
+
+  static void set(Map map, int x, int y, int flags) {
+    Zone zone = map.getZone(x, y);
+    zone.flags[Zone.index(zone.width, x - zone.x, y - zone.y)] = (byte) flags;
+  }
+
+  static void fill(Map map, int x, int y, int width, int height, int flags) {
+    for (int dy = 0; dy < height; dy++) {
+      for (int dx = 0; dx < width; dx++) {
+        set(map, x + dx, y + dy, flags);
+      }
+    }
+  }
+
+  static void scatter(Map map, RandomXS128 random, float density) {
+    for (Zone zone : map.zones) {
+      for (int y = 0; y < zone.height; y++) {
+        for (int x = 0; x < zone.width; x++) {
+          if (random.nextFloat() < density) set(map, zone.x + x, zone.y + y, BLOCK);
+        }
+      }
+    }
+  }
+
+  /** same as the end of Map#generate() */
+  static void generate(Map map) {
+    for (Zone zone : map.zones) zone.buildClearance();
+    map.modCount++;
+  }
+
+  static float cost(GraphPath path) {
+    float cost = 0;
+    for (int i = 1, s = path.getCount(); i < s; i++) {
+      Point2 a = path.get(i - 1), b = path.get(i);
+      cost += a.x != b.x && a.y != b.y ? DIAGONAL_COST : 1;
+    }
+
+    return cost;
+  }
+
+  /**
+   * Asserts that the path goes from the start to the end one sub-tile at a
+   * time, through sub-tiles wide enough for the entity.
+   */
+  static void assertPath(Map map, int size, int srcX, int srcY, int dstX, int dstY, GraphPath path) {
+    final int count = path.getCount();
+    Assert.assertTrue(count > 0);
+    Assert.assertEquals(new Point2(srcX, srcY), path.get(0));
+    Assert.assertEquals(new Point2(dstX, dstY), path.get(count - 1));
+    for (int i = 1; i < count; i++) {
+      Point2 a = path.get(i - 1), b = path.get(i);
+      Assert.assertEquals(path.toString(), 1, Math.max(Math.abs(b.x - a.x), Math.abs(b.y - a.y)));
+      Assert.assertTrue(path.toString(), map.clearance(b.x, b.y) >= Math.max(size, 1));
+    }
+  }
+
+  @Test
+  public void grid_matches_astar() {
+    Map map = new Map(0, 0);
+    addZone(map, 0, 0, 16, 16);
+    RandomXS128 random = new RandomXS128(1);
+    scatter(map, random, 0.2f);
+    generate(map);
+
+    GridPathFinder finder = new GridPathFinder(map);
+    MapGraph graph = new MapGraph(map);
+    AStarPathFinder baseline = new AStarPathFinder(graph);
+    GraphPath expected = new GraphPath();
+    GraphPath actual = new GraphPath();
+    int found = 0, blocked = 0;
+    for (int size = 0; size <= Point2.MAX_CLEARANCE; size++) {
+      for (int i = 0; i < 128; i++) {
+        int srcX, srcY;
+        do {
+          srcX = random.nextInt(16);
+          srcY = random.nextInt(16);
+        } while (map.flags(srcX, srcY) != 0);
+        int dstX = random.nextInt(16);
+        int dstY = random.nextInt(16);
+
+        expected.clear();
+        actual.clear();
+        boolean expectedFound = baseline.search(graph.getOrCreate(srcX, srcY), graph.getOrCreate(dstX, dstY), BLOCK, size, expected);
+        boolean actualFound = finder.search(srcX, srcY, dstX, dstY, BLOCK, size, actual);
+        Assert.assertEquals(expectedFound, actualFound);
+        if (map.flags(dstX, dstY) != 0) {
+          Assert.assertFalse(actualFound);
+          blocked++;
+        }
+
+        if (!actualFound) continue;
+        found++;
+        assertPath(map, size, srcX, srcY, dstX, dstY, actual);
+        Assert.assertEquals(cost(expected), cost(actual), EPSILON);
+      }
+    }
+
+    Assert.assertTrue(found > 0);
+    Assert.assertTrue(blocked > 0);
+  }
+
+  @Test
+  public void grid_respects_size_near_walls() {
+    Map map = new Map(0, 0);
+    addZone(map, 0, 0, 24, 12);
+    // corridor 3 sub-tiles wide, which fits entities up to size 2
+    fill(map, 0, 0, 24, 4, BLOCK);
+    fill(map, 0, 7, 24, 5, BLOCK);
+    generate(map);
+
+    GridPathFinder finder = new GridPathFinder(map);
+    MapGraph graph = new MapGraph(map);
+    AStarPathFinder baseline = new AStarPathFinder(graph);
+    GraphPath path = new GraphPath();
+    for (int size = 0; size <= Point2.MAX_CLEARANCE; size++) {
+      boolean fits = size <= 2;
+      path.clear();
+      Assert.assertEquals(fits, finder.search(4, 5, 19, 5, BLOCK, size, path));
+      if (fits) assertPath(map, size, 4, 5, 19, 5, path);
+      path.clear();
+      Assert.assertEquals(fits, baseline.search(graph.getOrCreate(4, 5), graph.getOrCreate(19, 5), BLOCK, size, path));
+    }
+  }
+
+  @Test
+  public void grid_floods_single_cell_window() {
+    Map map = new Map(0, 0);
+    addZone(map, 0, 0, 8, 8);
+    generate(map);
+
+    GridPathFinder finder = new GridPathFinder(map);
+    Assert.assertTrue(finder.flood(3, 3, 3, 3, 1, 1, 0));
+    Assert.assertEquals(0, finder.cost(3, 3), 0);
+    Assert.assertEquals(Float.POSITIVE_INFINITY, finder.cost(4, 3), 0);
+  }
+}
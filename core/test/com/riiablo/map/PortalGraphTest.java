@@ -0,0 +1,84 @@
+package com.riiablo.map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.badlogic.gdx.math.RandomXS128;
+
+import com.riiablo.map.pfa.GraphPath;
+import com.riiablo.map.pfa.GridPathFinder;
+import com.riiablo.map.pfa.Point2;
+
+import static com.riiablo.map.PathfindingTest.BLOCK;
+import static com.riiablo.map.PathfindingTest.EPSILON;
+import static com.riiablo.map.PathfindingTest.addZone;
+import static com.riiablo.map.PathfindingTest.assertPath;
+import static com.riiablo.map.PathfindingTest.cost;
+import static com.riiablo.map.PathfindingTest.fill;
+import static com.riiablo.map.PathfindingTest.generate;
+
+public class PortalGraphTest {
+  @Test
+  public void paths_are_stitched_across_clusters_and_zones() {
+    Map map = new Map(0, 0);
+    // each zone is split into 2 clusters
+    addZone(map,  0, 0, 80, 48);
+    addZone(map, 80, 0, 80, 48);
+    // walls with gaps at alternating ends, one on each zone boundary
+    final int[] walls = {20, 39, 60, 79, 100, 119, 140};
+    for (int i = 0; i < walls.length; i++) {
+      fill(map, walls[i], 0, 1, 48, BLOCK);
+      fill(map, walls[i], (i & 1) == 0 ? 4 : 39, 1, 5, 0);
+    }
+    generate(map);
+
+    GridPathFinder finder = new GridPathFinder(map, Integer.MAX_VALUE);
+    PortalGraph portals = new PortalGraph(map, new GridPathFinder(map));
+    RandomXS128 random = new RandomXS128(2);
+    GraphPath expected = new GraphPath();
+    GraphPath actual = new GraphPath();
+    int found = 0;
+    for (int size = 0; size <= Point2.MAX_CLEARANCE; size++) {
+      for (int i = 0; i < 32; i++) {
+        int srcX, srcY, dstX, dstY;
+        do {
+          srcX = random.nextInt(20);
+          srcY = random.nextInt(48);
+        } while (map.flags(srcX, srcY) != 0);
+        do {
+          dstX = 141 + random.nextInt(19);
+          dstY = random.nextInt(48);
+        } while (map.flags(dstX, dstY) != 0);
+
+        expected.clear();
+        actual.clear();
+        boolean expectedFound = finder.search(srcX, srcY, dstX, dstY, BLOCK, size, expected);
+        boolean actualFound = portals.search(srcX, srcY, dstX, dstY, size, actual);
+        if (size == 0) Assert.assertEquals(expectedFound, actualFound);
+        if (!actualFound) continue;
+        Assert.assertTrue(expectedFound);
+        found++;
+        assertPath(map, size, srcX, srcY, dstX, dstY, actual);
+        Assert.assertTrue(cost(actual) >= cost(expected) - EPSILON);
+      }
+    }
+
+    Assert.assertTrue(found > 0);
+  }
+
+  @Test
+  public void rejects_unreachable_targets() {
+    Map map = new Map(0, 0);
+    addZone(map,  0, 0, 80, 48);
+    addZone(map, 80, 0, 80, 48);
+    fill(map, 100, 0, 1, 48, BLOCK);
+    generate(map);
+
+    PortalGraph portals = new PortalGraph(map, new GridPathFinder(map));
+    GraphPath path = new GraphPath();
+    Assert.assertFalse(portals.search(4, 4, 150, 40, 0, path));
+    path.clear();
+    Assert.assertTrue(portals.search(4, 4, 90, 40, 0, path));
+    assertPath(map, 0, 4, 4, 90, 40, path);
+  }
+}
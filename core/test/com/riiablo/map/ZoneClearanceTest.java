@@ -0,0 +1,46 @@
+package com.riiablo.map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.math.Vector2;
+
+import com.riiablo.map.Map.Zone;
+import com.riiablo.map.pfa.Point2;
+
+import static com.riiablo.map.PathfindingTest.BLOCK;
+import static com.riiablo.map.PathfindingTest.addZone;
+import static com.riiablo.map.PathfindingTest.generate;
+
+public class ZoneClearanceTest {
+  static void assertClearance(Map map) {
+    for (Zone zone : map.zones) {
+      for (int y = 0; y < zone.height; y++) {
+        for (int x = 0; x < zone.width; x++) {
+          Assert.assertEquals(
+              Point2.probeClearance(map, zone.x + x, zone.y + y),
+              zone.clearance(x, y));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void matches_probe_after_or() {
+    Map map = new Map(0, 0);
+    addZone(map,  0, 0, 24, 24);
+    addZone(map, 24, 0, 24, 24);
+    addZone(map,  0, 24, 48, 8);
+    generate(map);
+    assertClearance(map);
+
+    RandomXS128 random = new RandomXS128(3);
+    Vector2 position = new Vector2();
+    for (int i = 0; i < 32; i++) {
+      position.set(random.nextInt(48), random.nextInt(32));
+      map.or(position, 1 + random.nextInt(3), 1 + random.nextInt(3), BLOCK);
+      assertClearance(map);
+    }
+  }
+}
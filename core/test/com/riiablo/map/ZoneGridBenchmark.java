@@ -0,0 +1,120 @@
+package com.riiablo.map;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.utils.Array;
+
+import com.riiablo.COFs;
+import com.riiablo.Files;
+import com.riiablo.Riiablo;
+import com.riiablo.map.Map.Zone;
+import com.riiablo.mpq.MPQFileHandleResolver;
+
+/**
+ * Compares {@link Map#getZone(int, int)} against the linear zone scan it
+ * replaced using the zone layouts generated for each act.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ZoneGridBenchmark {
+  static final int NUM_QUERIES = 1 << 12;
+
+  @Param({"0", "1", "2", "3", "4"})
+  int act;
+
+  Map map;
+  int[] xs = new int[NUM_QUERIES];
+  int[] ys = new int[NUM_QUERIES];
+
+  @Setup
+  public void setup() {
+    Gdx.app = new HeadlessApplication(new ApplicationAdapter() {});
+    Riiablo.home = Gdx.files.absolute("C:\\Program Files (x86)\\Steam\\steamapps\\common\\Diablo II");
+    Riiablo.mpqs = new MPQFileHandleResolver();
+    Riiablo.assets = new AssetManager();
+    Riiablo.files = new Files();
+    Riiablo.cofs = new COFs(Riiablo.assets);
+
+    map = new Map(0, Riiablo.NORMAL);
+    map.generate(act);
+    map.zoneGrid.build(map.zones);
+
+    int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+    for (Zone zone : map.zones) {
+      minX = Math.min(minX, zone.x);
+      minY = Math.min(minY, zone.y);
+      maxX = Math.max(maxX, zone.x + zone.width);
+      maxY = Math.max(maxY, zone.y + zone.height);
+    }
+
+    RandomXS128 random = new RandomXS128(act);
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      xs[i] = minX + random.nextInt(maxX - minX);
+      ys[i] = minY + random.nextInt(maxY - minY);
+    }
+  }
+
+  @TearDown
+  public void teardown() {
+    map.dispose();
+    Gdx.app.exit();
+  }
+
+  @Benchmark
+  public void linear(Blackhole bh) {
+    final Array<Zone> zones = map.zones;
+    final int size = zones.size;
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      final int x = xs[i], y = ys[i];
+      Zone match = null;
+      for (int j = 0; j < size; j++) {
+        Zone zone = zones.get(j);
+        if (zone.contains(x, y)) {
+          match = zone;
+          break;
+        }
+      }
+      bh.consume(match);
+    }
+  }
+
+  @Benchmark
+  public void grid(Blackhole bh) {
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      bh.consume(map.getZone(xs[i], ys[i]));
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ZoneGridBenchmark.class.getSimpleName())
+        .build())
+        .run();
+  }
+}
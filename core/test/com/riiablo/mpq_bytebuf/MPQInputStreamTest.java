@@ -99,6 +99,32 @@ public class MPQInputStreamTest extends RiiabloTest {
     test(d2data, "data\\local\\lng\\eng\\string.tbl");
   }
 
+  @Test
+  public void readBytes_COMPRESSED_cached() {
+    final MPQ d2data = load("d2data");
+    final MPQFileHandle handle = new MPQFileHandle(d2data, "data\\local\\lng\\eng\\string.tbl");
+    final MPQCache cache = MPQCache.get();
+    cache.clear();
+    final long hits = cache.hits();
+    final ByteBuf expected = MPQInputStream.readFully(handle);
+    try {
+      for (int i = 0; i < 2; i++) {
+        final ByteBuf actual = MPQInputStream.readByteBuf(handle);
+        try {
+          Assert.assertTrue(ByteBufUtil.equals(expected, actual));
+          // consuming the returned buffer must not affect the cached file
+          actual.skipBytes(actual.readableBytes());
+        } finally {
+          actual.release();
+        }
+      }
+    } finally {
+      expected.release();
+    }
+
+    Assert.assertEquals(hits + 1, cache.hits());
+  }
+
   @Test
   public void read() throws IOException {
     final MPQ d2data = load("d2data");
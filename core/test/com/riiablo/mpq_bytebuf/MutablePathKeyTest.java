@@ -0,0 +1,48 @@
+package com.riiablo.mpq_bytebuf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.riiablo.mpq_bytebuf.util.Decryptor;
+
+public class MutablePathKeyTest {
+  static final String PATH = "data\\global\\monsters\\FK\\rh\\FKRHFBLA11HS.dcc";
+
+  static void assertHashes(String expected, MutablePathKey key) {
+    final String fixed = Decryptor.LookupTable.fix(expected);
+    Assert.assertEquals(Decryptor.HASH_TABLE_OFFSET.hash(fixed), key.offset());
+    Assert.assertEquals(Decryptor.HASH_TABLE_KEY1.hash(fixed), key.key1);
+    Assert.assertEquals(Decryptor.HASH_TABLE_KEY2.hash(fixed), key.key2);
+  }
+
+  @Test
+  public void matches_string_hashes() {
+    assertHashes(PATH, new MutablePathKey().set(PATH));
+  }
+
+  @Test
+  public void normalizes_case_and_slashes() {
+    MutablePathKey key = new MutablePathKey().set(PATH);
+    MutablePathKey other = new MutablePathKey().set(PATH.toUpperCase().replace('\\', '/'));
+    Assert.assertEquals(key.key(), other.key());
+    Assert.assertEquals(key.offset(), other.offset());
+  }
+
+  @Test
+  public void rehashes_builder_in_place() {
+    StringBuilder builder = new StringBuilder(PATH);
+    MutablePathKey key = new MutablePathKey().set(builder);
+    builder.replace(builder.length() - 3, builder.length(), "dc6");
+    key.set(builder);
+    assertHashes(builder.toString(), key);
+  }
+
+  @Test
+  public void copy_equals_immutable_key() {
+    PathKey expected = PathKey.of(PATH);
+    PathKey actual = new MutablePathKey().set(new StringBuilder(PATH)).toPathKey();
+    Assert.assertEquals(expected, actual);
+    Assert.assertEquals(expected.path, actual.path);
+    Assert.assertEquals(Decryptor.LookupTable.fix(PATH), actual.path);
+  }
+}
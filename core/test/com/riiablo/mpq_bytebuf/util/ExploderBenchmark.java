@@ -0,0 +1,108 @@
+package com.riiablo.mpq_bytebuf.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+
+/**
+ * Compares {@link Exploder} against {@link LegacyExploder} and the
+ * {@code ByteBuffer} based {@link com.riiablo.mpq.util.Exploder} on the
+ * imploded sector dump used by {@link ExploderTest}. The {@code bytes}
+ * counter reports decompressed bytes per second, i.e., divide by 1e6 for
+ * MB/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExploderBenchmark {
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long bytes;
+  }
+
+  HeadlessApplication app;
+  byte[] in;
+  byte[] expected;
+  ByteBuf sector;
+  ByteBuffer legacyIn;
+  ByteBuffer legacyOut;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    app = new HeadlessApplication(new ApplicationAdapter() {});
+    app.setLogLevel(Application.LOG_NONE);
+    in = Gdx.files.internal("test/exploder_in.bin").readBytes();
+    expected = Gdx.files.internal("test/exploder_out.bin").readBytes();
+    sector = Unpooled.buffer(expected.length);
+    legacyIn = ByteBuffer.wrap(in);
+    legacyOut = ByteBuffer.allocate(expected.length);
+
+    Exploder.pkexplode(sector.clear().writeBytes(in));
+    if (!ByteBufUtil.equals(Unpooled.wrappedBuffer(expected), sector)) {
+      throw new AssertionError("Exploder output does not match test/exploder_out.bin");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() {
+    sector.release();
+    app.exit();
+  }
+
+  @Benchmark
+  public ByteBuf explode(Counters counters) {
+    Exploder.pkexplode(sector.clear().writeBytes(in));
+    counters.bytes += sector.readableBytes();
+    return sector;
+  }
+
+  @Benchmark
+  public ByteBuf explodeLegacy(Counters counters) {
+    LegacyExploder.pkexplode(sector.clear().writeBytes(in));
+    counters.bytes += sector.readableBytes();
+    return sector;
+  }
+
+  @Benchmark
+  public ByteBuffer explodeByteBuffer(Counters counters) {
+    legacyIn.clear();
+    legacyOut.clear();
+    com.riiablo.mpq.util.Exploder.pkexplode(legacyIn, legacyOut);
+    counters.bytes += legacyOut.position();
+    return legacyOut;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ExploderBenchmark.class.getSimpleName())
+        .build())
+        .run();
+  }
+}
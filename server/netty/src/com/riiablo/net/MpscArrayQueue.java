@@ -0,0 +1,117 @@
+package com.riiablo.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer single-consumer queue backed by a ring
+ * buffer. Producers claim slots by incrementing the producer index and then
+ * publish their element into the claimed slot. {@link #poll()} may only be
+ * called by a single consumer thread.
+ *
+ * Offers which fail because the queue is full are counted and exposed by
+ * {@link #dropped()} alongside the queue depth so that callers can surface
+ * backpressure instead of silently dropping elements.
+ */
+public final class MpscArrayQueue<E> {
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<E> buffer;
+
+  private final AtomicLong producerIndex = new AtomicLong();
+  private final AtomicLong consumerIndex = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  private volatile int highWaterMark;
+
+  /**
+   * @param capacity maximum number of elements, rounded up to the next power
+   *                 of two
+   */
+  public MpscArrayQueue(int capacity) {
+    if (capacity <= 0) throw new IllegalArgumentException("capacity(" + capacity + ") <= 0");
+    this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = this.capacity - 1;
+    this.buffer = new AtomicReferenceArray<>(this.capacity);
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Inserts the specified element if there is space available.
+   *
+   * @return {@code true} if the element was added, otherwise {@code false}
+   *         and the drop is counted
+   */
+  public boolean offer(E e) {
+    if (e == null) throw new NullPointerException();
+    long index;
+    do {
+      index = producerIndex.get();
+      if (index - consumerIndex.get() >= capacity) {
+        dropped.incrementAndGet();
+        return false;
+      }
+    } while (!producerIndex.compareAndSet(index, index + 1));
+
+    buffer.lazySet((int) index & mask, e);
+    final int size = (int) (index + 1 - consumerIndex.get());
+    if (size > highWaterMark) highWaterMark = size;
+    return true;
+  }
+
+  /**
+   * Removes the head of this queue. Elements whose slot has been claimed but
+   * not yet published are treated as absent and returned by a later poll.
+   * Must only be called by the consumer thread.
+   *
+   * @return the head of this queue, or {@code null} if there is none
+   */
+  public E poll() {
+    final long index = consumerIndex.get();
+    final int offset = (int) index & mask;
+    final E e = buffer.get(offset);
+    if (e == null) return null;
+    buffer.lazySet(offset, null);
+    consumerIndex.lazySet(index + 1);
+    return e;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Returns an estimate of the number of elements in this queue.
+   */
+  public int size() {
+    long consumer, producer;
+    do {
+      consumer = consumerIndex.get();
+      producer = producerIndex.get();
+    } while (consumer != consumerIndex.get());
+    return (int) Math.max(0, Math.min(producer - consumer, capacity));
+  }
+
+  /**
+   * Returns an estimate of the maximum number of elements this queue has
+   * held.
+   */
+  public int highWaterMark() {
+    return highWaterMark;
+  }
+
+  /**
+   * Returns the number of offers rejected because this queue was full.
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("[size=%d/%d, highWaterMark=%d, dropped=%d]", size(), capacity, highWaterMark, dropped.get());
+  }
+}
@@ -0,0 +1,110 @@
+package com.riiablo.net;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.Recycler;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link FlatBufferBuilder} which builds directly into pooled direct
+ * {@link ByteBuf ByteBufs}. Finished buffers are handed off with
+ * {@link #detach()} and can be written to a channel as-is, avoiding both the
+ * heap allocations of a new builder per packet and the copy into a direct
+ * buffer when the packet is written.
+ *
+ * <pre>{@code
+ * PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
+ * int offset = ...;
+ * D2GS.finishSizePrefixedD2GSBuffer(builder, offset);
+ * ByteBuf content = builder.detach(); // builder is recycled
+ * }</pre>
+ */
+public final class PooledFlatBufferBuilder extends FlatBufferBuilder {
+  static final int INITIAL_SIZE = 1 << 10;
+
+  private static final Recycler<PooledFlatBufferBuilder> RECYCLER = new Recycler<PooledFlatBufferBuilder>() {
+    @Override
+    protected PooledFlatBufferBuilder newObject(Handle<PooledFlatBufferBuilder> handle) {
+      return new PooledFlatBufferBuilder(handle, new DirectByteBufFactory(PooledByteBufAllocator.DEFAULT));
+    }
+  };
+
+  public static PooledFlatBufferBuilder obtain() {
+    return RECYCLER.get();
+  }
+
+  private final Recycler.Handle<PooledFlatBufferBuilder> handle;
+  private final DirectByteBufFactory factory;
+
+  private PooledFlatBufferBuilder(Recycler.Handle<PooledFlatBufferBuilder> handle, DirectByteBufFactory factory) {
+    super(INITIAL_SIZE, factory);
+    this.handle = handle;
+    this.factory = factory;
+  }
+
+  /**
+   * Detaches the finished buffer from this builder and recycles this builder.
+   * The returned buffer is owned by the caller and readable from the start of
+   * the finished flatbuffer to its end.
+   */
+  public ByteBuf detach() {
+    final int start = dataBuffer().position();
+    final ByteBuf content = factory.detach();
+    content.setIndex(start, content.capacity());
+    recycle();
+    return content;
+  }
+
+  /**
+   * Discards any data within this builder and recycles it.
+   */
+  public void recycle() {
+    init(factory.newByteBuffer(INITIAL_SIZE), factory);
+    factory.releaseRetired();
+    handle.recycle(this);
+  }
+
+  /**
+   * Allocates the buffers backing a builder. Buffers replaced when the builder
+   * grows are retired and released on the next allocation, once their
+   * contents have been copied into the new buffer.
+   */
+  static final class DirectByteBufFactory extends ByteBufferFactory {
+    final ByteBufAllocator alloc;
+    ByteBuf current;
+    ByteBuf retired;
+
+    DirectByteBufFactory(ByteBufAllocator alloc) {
+      this.alloc = alloc;
+    }
+
+    /**
+     * Returns a view of a new direct buffer. Views are little-endian as
+     * {@link FlatBufferBuilder} requires, since only {@code init} sets the
+     * byte order of the buffers it is given.
+     */
+    @Override
+    public ByteBuffer newByteBuffer(int capacity) {
+      releaseRetired();
+      retired = current;
+      current = alloc.directBuffer(capacity, capacity);
+      return current.nioBuffer(0, capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void releaseRetired() {
+      if (retired != null) {
+        retired.release();
+        retired = null;
+      }
+    }
+
+    ByteBuf detach() {
+      final ByteBuf content = current;
+      current = null;
+      return content;
+    }
+  }
+}
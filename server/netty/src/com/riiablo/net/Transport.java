@@ -0,0 +1,238 @@
+package com.riiablo.net;
+
+import io.netty.bootstrap.AbstractBootstrap;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+
+/**
+ * Selects the Netty transport used by servers and clients and applies the
+ * configured socket options to their bootstraps. The native epoll transport
+ * is used on Linux when it is available, otherwise NIO.
+ *
+ * <pre>{@code
+ * Transport transport = Transport.fromCommandLine(cmd);
+ * EventLoopGroup parentGroup = transport.newParentGroup("boss");
+ * EventLoopGroup childGroup = transport.newChildGroup("worker");
+ * ServerBootstrap bootstrap = transport.configure(new ServerBootstrap().group(parentGroup, childGroup));
+ * ChannelFuture[] futures = transport.bind(bootstrap, port);
+ * }</pre>
+ */
+public class Transport {
+  /** default value, leave the option unset */
+  public static final int DEFAULT = 0;
+
+  boolean epoll;
+  int parentThreads = 1;
+  int childThreads = DEFAULT;
+  boolean reusePort;
+  int receiveBufferSize = DEFAULT;
+  int sendBufferSize = DEFAULT;
+  int writeBufferLowWaterMark = DEFAULT;
+  int writeBufferHighWaterMark = DEFAULT;
+
+  /**
+   * @param preferNative whether or not to use epoll when it is available
+   */
+  public static Transport create(boolean preferNative) {
+    Transport transport = new Transport();
+    transport.epoll = preferNative && Epoll.isAvailable();
+    return transport;
+  }
+
+  /**
+   * Adds the command-line options read by {@link #fromCommandLine(CommandLine)}.
+   */
+  public static Options addOptions(Options options) {
+    return options
+        .addOption("nio", false, "use the nio transport even if epoll is available")
+        .addOption("bossThreads", true, "number of threads accepting connections")
+        .addOption("workerThreads", true, "number of threads servicing channels (defaults to 2 * available processors)")
+        .addOption("reusePort", false, "bind a channel per boss thread using SO_REUSEPORT (epoll only)")
+        .addOption("rcvbuf", true, "SO_RCVBUF in bytes")
+        .addOption("sndbuf", true, "SO_SNDBUF in bytes")
+        .addOption("writeLowWaterMark", true, "channel write buffer low water mark in bytes")
+        .addOption("writeHighWaterMark", true, "channel write buffer high water mark in bytes");
+  }
+
+  public static Transport fromCommandLine(CommandLine cmd) {
+    Transport transport = create(!cmd.hasOption("nio"));
+    transport.parentThreads = parseInt(cmd, "bossThreads", transport.parentThreads);
+    transport.childThreads = parseInt(cmd, "workerThreads", transport.childThreads);
+    transport.reusePort = cmd.hasOption("reusePort");
+    transport.receiveBufferSize = parseInt(cmd, "rcvbuf", transport.receiveBufferSize);
+    transport.sendBufferSize = parseInt(cmd, "sndbuf", transport.sendBufferSize);
+    transport.writeBufferLowWaterMark = parseInt(cmd, "writeLowWaterMark", transport.writeBufferLowWaterMark);
+    transport.writeBufferHighWaterMark = parseInt(cmd, "writeHighWaterMark", transport.writeBufferHighWaterMark);
+    return transport;
+  }
+
+  private static int parseInt(CommandLine cmd, String opt, int defaultValue) {
+    if (!cmd.hasOption(opt)) return defaultValue;
+    String arg = cmd.getOptionValue(opt);
+    try {
+      return Integer.parseInt(arg);
+    } catch (Throwable t) {
+      System.err.println("Invalid " + opt + " provided: " + arg);
+      return defaultValue;
+    }
+  }
+
+  public boolean isEpoll() {
+    return epoll;
+  }
+
+  public Transport parentThreads(int threads) {
+    this.parentThreads = threads;
+    return this;
+  }
+
+  public Transport childThreads(int threads) {
+    this.childThreads = threads;
+    return this;
+  }
+
+  public Transport reusePort(boolean reusePort) {
+    this.reusePort = reusePort;
+    return this;
+  }
+
+  public Transport bufferSizes(int receiveBufferSize, int sendBufferSize) {
+    this.receiveBufferSize = receiveBufferSize;
+    this.sendBufferSize = sendBufferSize;
+    return this;
+  }
+
+  public Transport writeBufferWaterMark(int low, int high) {
+    this.writeBufferLowWaterMark = low;
+    this.writeBufferHighWaterMark = high;
+    return this;
+  }
+
+  public EventLoopGroup newParentGroup(String name) {
+    return newEventLoopGroup(parentThreads, name);
+  }
+
+  public EventLoopGroup newChildGroup(String name) {
+    return newEventLoopGroup(childThreads, name);
+  }
+
+  /**
+   * @param threads number of threads, or {@link #DEFAULT} to use Netty's
+   *                default of twice the available processors
+   */
+  public EventLoopGroup newEventLoopGroup(int threads, String name) {
+    DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+    return epoll
+        ? new EpollEventLoopGroup(threads, threadFactory)
+        : new NioEventLoopGroup(threads, threadFactory);
+  }
+
+  public Class<? extends ServerChannel> serverChannelType() {
+    return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+  }
+
+  public Class<? extends SocketChannel> socketChannelType() {
+    return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+  }
+
+  public Class<? extends DatagramChannel> datagramChannelType() {
+    return epoll ? EpollDatagramChannel.class : NioDatagramChannel.class;
+  }
+
+  /**
+   * Sets the server channel type and applies the configured socket options
+   * to the listening socket and each accepted child channel.
+   */
+  public ServerBootstrap configure(ServerBootstrap bootstrap) {
+    bootstrap.channel(serverChannelType());
+    if (epoll && reusePort) bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+    if (receiveBufferSize > 0) bootstrap.option(ChannelOption.SO_RCVBUF, receiveBufferSize);
+    if (receiveBufferSize > 0) bootstrap.childOption(ChannelOption.SO_RCVBUF, receiveBufferSize);
+    if (sendBufferSize > 0) bootstrap.childOption(ChannelOption.SO_SNDBUF, sendBufferSize);
+    if (writeBufferHighWaterMark > 0) bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark());
+    return bootstrap;
+  }
+
+  /**
+   * Sets the socket channel type and applies the configured socket options.
+   */
+  public Bootstrap configureSocket(Bootstrap bootstrap) {
+    bootstrap.channel(socketChannelType());
+    return configureOptions(bootstrap);
+  }
+
+  /**
+   * Sets the datagram channel type and applies the configured socket options.
+   */
+  public Bootstrap configureDatagram(Bootstrap bootstrap) {
+    bootstrap.channel(datagramChannelType());
+    if (epoll && reusePort) bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+    return configureOptions(bootstrap);
+  }
+
+  /**
+   * Binds the specified bootstrap to the specified port. With epoll and
+   * {@link #reusePort(boolean) SO_REUSEPORT} one channel is bound per event
+   * loop of the bootstrap's group (the parent group of a
+   * {@link ServerBootstrap}), and the kernel balances inbound connections or
+   * datagrams across them. Otherwise a single channel is bound.
+   *
+   * @return the futures of the bound channels
+   */
+  public ChannelFuture[] bind(AbstractBootstrap<?, ?> bootstrap, int port) {
+    final ChannelFuture[] futures = new ChannelFuture[numChannels(bootstrap.config().group())];
+    for (int i = 0; i < futures.length; i++) futures[i] = bootstrap.bind(port);
+    return futures;
+  }
+
+  /**
+   * Returns the number of channels {@link #bind} binds on the specified
+   * event loop group.
+   */
+  public int numChannels(EventLoopGroup group) {
+    if (!epoll || !reusePort) return 1;
+    int numChannels = 0;
+    for (EventExecutor executor : group) numChannels++;
+    return numChannels;
+  }
+
+  private Bootstrap configureOptions(Bootstrap bootstrap) {
+    if (receiveBufferSize > 0) bootstrap.option(ChannelOption.SO_RCVBUF, receiveBufferSize);
+    if (sendBufferSize > 0) bootstrap.option(ChannelOption.SO_SNDBUF, sendBufferSize);
+    if (writeBufferHighWaterMark > 0) bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark());
+    return bootstrap;
+  }
+
+  private WriteBufferWaterMark waterMark() {
+    int low = writeBufferLowWaterMark > 0 ? writeBufferLowWaterMark : writeBufferHighWaterMark / 2;
+    return new WriteBufferWaterMark(Math.min(low, writeBufferHighWaterMark), writeBufferHighWaterMark);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("[%s, parentThreads=%d, childThreads=%d, reusePort=%b, rcvbuf=%d, sndbuf=%d, writeBufferWaterMark=%d-%d]",
+        epoll ? "epoll" : "nio", parentThreads, childThreads, reusePort && epoll,
+        receiveBufferSize, sendBufferSize, writeBufferLowWaterMark, writeBufferHighWaterMark);
+  }
+}
@@ -1,5 +1,6 @@
 package com.riiablo.net.tcp;
 
+import io.netty.buffer.ByteBuf;
 import java.nio.ByteBuffer;
 
 import com.riiablo.net.packet.d2gs.D2GSData;
@@ -9,14 +10,27 @@ public class D2GSOutboundPacketFactory {
     return new D2GSOutboundPacket(id, dataType, buffer);
   }
 
+  public static D2GSOutboundPacket obtain(int id, byte dataType, ByteBuf data) {
+    return new D2GSOutboundPacket(id, dataType, data);
+  }
+
   static class D2GSOutboundPacket extends OutboundPacket {
     D2GSOutboundPacket(int id, byte dataType, ByteBuffer buffer) {
       super(id, dataType, buffer);
     }
 
+    D2GSOutboundPacket(int id, byte dataType, ByteBuf data) {
+      super(id, dataType, data);
+    }
+
     @Override
     public String dataTypeName() {
       return D2GSData.name(dataType());
     }
+
+    @Override
+    public D2GSOutboundPacket replace(ByteBuf content) {
+      return obtain(id(), dataType(), content);
+    }
   }
 }
@@ -1,30 +1,37 @@
 package com.riiablo.net.tcp;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
 import io.netty.buffer.Unpooled;
 import io.netty.util.IllegalReferenceCountException;
 import java.nio.ByteBuffer;
 
-public class OutboundPacket {
+public class OutboundPacket implements ByteBufHolder {
   public static final int BROADCAST = 0xFFFFFFFF;
 
   public static OutboundPacket obtain(int id, byte dataType, ByteBuffer buffer) {
     return new OutboundPacket(id, dataType, buffer);
   }
 
+  public static OutboundPacket obtain(int id, byte dataType, ByteBuf data) {
+    return new OutboundPacket(id, dataType, data);
+  }
+
 // TODO: Implement support for efficient retaining of existing packet data
 //  public static OutboundPacket echo(InboundPacket packet) {}
 
   private final int id;
   private final byte dataType;
-  private final ByteBuffer buffer;
-
-  private ByteBuf data;
+  private final ByteBuf data;
 
   OutboundPacket(int id, byte dataType, ByteBuffer buffer) {
+    this(id, dataType, Unpooled.wrappedBuffer(buffer));
+  }
+
+  OutboundPacket(int id, byte dataType, ByteBuf data) {
     this.id = id;
     this.dataType = dataType;
-    this.buffer = buffer;
+    this.data = data;
   }
 
   public int id() {
@@ -39,18 +46,73 @@ public class OutboundPacket {
     return null;
   }
 
-  public ByteBuffer buffer() {
-    return buffer;
+  @Override
+  public String toString() {
+    return String.format("%s (0x%02x) to %08X", dataTypeName(), dataType() & 0xFF, id());
   }
 
+  @Override
   public ByteBuf content() {
-    if (data == null) data = Unpooled.wrappedBuffer(buffer);
     if (data.refCnt() <= 0) throw new IllegalReferenceCountException(data.refCnt());
     return data;
   }
 
   @Override
-  public String toString() {
-    return String.format("%s (0x%02x) to %08X", dataTypeName(), dataType() & 0xFF, id());
+  public OutboundPacket copy() {
+    return replace(data.copy());
+  }
+
+  @Override
+  public OutboundPacket duplicate() {
+    return replace(data.duplicate());
+  }
+
+  @Override
+  public OutboundPacket retainedDuplicate() {
+    return replace(data.retainedDuplicate());
+  }
+
+  @Override
+  public OutboundPacket replace(ByteBuf content) {
+    return obtain(id, dataType, content);
+  }
+
+  @Override
+  public int refCnt() {
+    return data.refCnt();
+  }
+
+  @Override
+  public OutboundPacket retain() {
+    data.retain();
+    return this;
+  }
+
+  @Override
+  public OutboundPacket retain(int increment) {
+    data.retain(increment);
+    return this;
+  }
+
+  @Override
+  public OutboundPacket touch() {
+    data.touch();
+    return this;
+  }
+
+  @Override
+  public OutboundPacket touch(Object hint) {
+    data.touch(hint);
+    return this;
+  }
+
+  @Override
+  public boolean release() {
+    return data.release();
+  }
+
+  @Override
+  public boolean release(int decrement) {
+    return data.release(decrement);
   }
 }
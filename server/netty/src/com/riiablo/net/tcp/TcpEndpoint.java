@@ -39,6 +39,12 @@ public class TcpEndpoint implements Endpoint<ByteBuf> {
     channels.get(id).writeAndFlush(Unpooled.wrappedBuffer(buffer));
   }
 
+  @Override
+  public void sendMessage(int id, ByteBuf msg, int qos) {
+    if (DEBUG_SEND) Gdx.app.debug(TAG, "sendMessage to " + id);
+    channels.get(id).writeAndFlush(msg);
+  }
+
   @Override
   public void processMessage(ChannelHandlerContext ctx, SocketAddress from, ByteBuf msg) {
     if (DEBUG_RECEIVE) Gdx.app.debug(TAG, "processMessage from " + from);
@@ -13,6 +13,9 @@ public abstract class MessageChannel implements ReliablePacketController.PacketL
 
   protected int sequence;
 
+  /** bytes which may be sent before the budget is exhausted */
+  protected float budgetBytes;
+
   public MessageChannel(ReliableConfiguration config, PacketTransceiver packetTransceiver) {
     this.packetTransceiver = packetTransceiver;
     this.config = config;
@@ -31,6 +34,40 @@ public abstract class MessageChannel implements ReliablePacketController.PacketL
     return packetController;
   }
 
+  /**
+   * @param kbps bandwidth budget in kbps, or {@code 0} for unlimited
+   */
+  public void setBandwidthBudget(float kbps) {
+    config.bandwidthBudget = kbps;
+    budgetBytes = maxBudgetBytes();
+  }
+
+  private float maxBudgetBytes() {
+    return Math.max(config.bandwidthBudget * 1000 / 8 * config.bandwidthBurst, config.fragmentThreshold);
+  }
+
+  /**
+   * Refills the bandwidth budget by the bytes allowed in the elapsed time, up
+   * to {@link ReliableConfiguration#bandwidthBurst} seconds worth.
+   */
+  protected void refillBudget(float delta) {
+    if (config.bandwidthBudget <= 0) return;
+    budgetBytes = Math.min(budgetBytes + config.bandwidthBudget * 1000 / 8 * delta, maxBudgetBytes());
+  }
+
+  /**
+   * Consumes the specified number of bytes from the bandwidth budget.
+   *
+   * @return {@code false} if the budget is exhausted and the bytes should not
+   *         be sent, otherwise {@code true}
+   */
+  protected boolean consumeBudget(int bytes) {
+    if (config.bandwidthBudget <= 0) return true;
+    if (budgetBytes <= 0) return false;
+    budgetBytes -= bytes;
+    return true;
+  }
+
   public abstract void reset();
   public abstract void update(float delta, int channelId, DatagramChannel ch);
   public abstract void sendMessage(int channelId, DatagramChannel ch, ByteBuf bb);
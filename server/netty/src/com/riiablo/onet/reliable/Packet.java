@@ -98,6 +98,16 @@ public class Packet {
     return bb.writerIndex() - startIndex;
   }
 
+  public static int writeFragmentHeader(ByteBuf bb, int channelId, int sequence, int fragmentId, int numFragments) {
+    int startIndex = bb.writerIndex();
+    bb.writeByte(FRAGMENTED);
+    bb.writeByte(channelId);
+    bb.writeShortLE(sequence);
+    bb.writeByte(fragmentId);
+    bb.writeByte(numFragments);
+    return bb.writerIndex() - startIndex;
+  }
+
   public static int readPacketHeader(ReliableConfiguration config, ByteBuf bb, HeaderData out) {
     assert out != null;
     int startIndex = bb.readerIndex();
@@ -12,4 +12,20 @@ public class ReliableConfiguration {
   public float packetLossSmoothingFactor = 0.1f;
   public float bandwidthSmoothingFactor = 0.1f;
   public int packetHeaderSize = 28;
+
+  /** bandwidth budget in kbps, or {@code 0} for unlimited */
+  public float bandwidthBudget = 0;
+  /** seconds of {@link #bandwidthBudget} which may be sent in a burst */
+  public float bandwidthBurst = 0.1f;
+
+  /** flush rates in Hz of reliable channels in good and congested conditions */
+  public float maxFlushRate = 30;
+  public float minFlushRate = 10;
+  /** conditions are considered bad at or above these thresholds */
+  public float congestionRtt = 250; // ms
+  public float congestionPacketLoss = 0.1f;
+
+  /** bounds in seconds of the resend timeout of reliable messages */
+  public float minResendTime = 0.1f;
+  public float maxResendTime = 1.0f;
 }
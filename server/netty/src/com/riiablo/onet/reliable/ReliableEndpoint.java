@@ -22,10 +22,10 @@ public class ReliableEndpoint implements UnicastEndpoint<DatagramPacket>, Messag
   private static final String TAG = "ReliableEndpoint";
 
   private static final boolean DEBUG = true;
-  private static final boolean DEBUG_QOS = DEBUG && true;
-  private static final boolean DEBUG_CHANNEL = DEBUG && true;
-  private static final boolean DEBUG_SEND = DEBUG && true;
-  private static final boolean DEBUG_RECEIVE = DEBUG && true;
+  private static final boolean DEBUG_QOS = DEBUG && !true;
+  private static final boolean DEBUG_CHANNEL = DEBUG && !true;
+  private static final boolean DEBUG_SEND = DEBUG && !true;
+  private static final boolean DEBUG_RECEIVE = DEBUG && !true;
 
   private final DatagramChannel channel;
   private final PacketProcessor packetProcessor;
@@ -58,6 +58,16 @@ public class ReliableEndpoint implements UnicastEndpoint<DatagramPacket>, Messag
     return channels[channelId];
   }
 
+  /**
+   * Sets the bandwidth budget of the default channel of the specified
+   * {@link QoS}.
+   *
+   * @param kbps budget in kbps, or {@code 0} for unlimited
+   */
+  public void setBandwidthBudget(QoS qos, float kbps) {
+    channels[defaultChannels.get(qos)].setBandwidthBudget(kbps);
+  }
+
   @Override
   public void reset() {
     final MessageChannel[] channels = this.channels;
@@ -104,7 +114,7 @@ public class ReliableEndpoint implements UnicastEndpoint<DatagramPacket>, Messag
     Validate.inclusiveBetween(0x00, 0xFF, channelId, "channelId must fit within a ubyte");
     if (DEBUG_CHANNEL) Log.debug(TAG, "sending message on channel %d", channelId);
     MessageChannel mc = channels[channelId];
-    mc.sendMessage(channelId, channel, Unpooled.wrappedBuffer(bb)); // automatically released
+    mc.sendMessage(channelId, channel, Unpooled.wrappedBuffer(bb)); // released by channel
   }
 
   @Override
@@ -157,5 +167,7 @@ public class ReliableEndpoint implements UnicastEndpoint<DatagramPacket>, Messag
     public int NUM_ACKS_SENT;
     public int NUM_ACKS_RECEIVED;
     public int NUM_ACKS_INVALID;
+    public int NUM_MESSAGES_THROTTLED;
+    public int NUM_MESSAGES_RESENT;
   }
 }
@@ -1,6 +1,7 @@
 package com.riiablo.onet.reliable;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.DatagramPacket;
@@ -12,12 +13,22 @@ import com.riiablo.onet.reliable.data.FragmentReassemblyData;
 import com.riiablo.onet.reliable.data.ReceivedPacketData;
 import com.riiablo.onet.reliable.data.SentPacketData;
 
+/**
+ * Sequences, acks and fragments packets sent over a {@link MessageChannel}.
+ *
+ * Statistics are maintained incrementally: packet loss is the fraction of
+ * the last {@code sentPacketBufferSize / 2} packets evicted from the sent
+ * packet buffer which were never acked, and bandwidths are smoothed from the
+ * bytes sent, received and acked between calls to {@link #update(float)}.
+ * Steady state sending and receiving does not allocate beyond the pooled
+ * buffers written to and read from the channel.
+ */
 public class ReliablePacketController {
   private static final String TAG = "ReliablePacketController";
 
   private static final boolean DEBUG = true;
-  private static final boolean DEBUG_SEND = DEBUG && true;
-  private static final boolean DEBUG_RECEIVE = DEBUG && true;
+  private static final boolean DEBUG_SEND = DEBUG && !true;
+  private static final boolean DEBUG_RECEIVE = DEBUG && !true;
 
   private static final float TOLERANCE = 0.00001f;
 
@@ -28,8 +39,23 @@ public class ReliablePacketController {
   private final SequenceBuffer<ReceivedPacketData> receivedPackets;
   private final SequenceBuffer<FragmentReassemblyData> fragmentReassembly;
 
+  /** only accessed by the thread receiving packets */
+  private final Packet.HeaderData headerData = new Packet.HeaderData();
+  private final Packet.FragmentedHeaderData fragmentHeaderData = new Packet.FragmentedHeaderData();
+
+  /** whether each of the last evicted sent packets was lost (never acked) */
+  private final boolean[] lossSamples;
+  private int lossSampleIndex;
+  private int numLossSamples;
+  private int numLost;
+
+  private int bytesSent;
+  private int bytesReceived;
+  private int bytesAcked;
+
   private float time;
   private float rtt;
+  private float rttVariance;
   private float packetLoss;
   private float sentBandwidth;
   private float receivedBandwidth;
@@ -42,128 +68,141 @@ public class ReliablePacketController {
     this.sentPackets = new SequenceBuffer<>(SentPacketData.class, config.sentPacketBufferSize);
     this.receivedPackets = new SequenceBuffer<>(ReceivedPacketData.class, config.receivedPacketBufferSize);
     this.fragmentReassembly = new SequenceBuffer<>(FragmentReassemblyData.class, config.fragmentReassemblyBufferSize);
+    this.lossSamples = new boolean[Math.max(1, config.sentPacketBufferSize / 2)];
   }
 
   public float rtt() {
     return rtt;
   }
 
+  /**
+   * Smoothed mean deviation of the round trip time in milliseconds.
+   */
+  public float rttVariance() {
+    return rttVariance;
+  }
+
+  /**
+   * Retransmission timeout in milliseconds derived from the smoothed round
+   * trip time and its deviation, as in RFC 6298.
+   */
+  public float rto() {
+    return rtt + 4 * rttVariance;
+  }
+
+  public float packetLoss() {
+    return packetLoss;
+  }
+
+  /** kbps */
+  public float sentBandwidth() {
+    return sentBandwidth;
+  }
+
+  /** kbps */
+  public float receivedBandwidth() {
+    return receivedBandwidth;
+  }
+
+  /** kbps */
+  public float ackedBandwidth() {
+    return ackedBandwidth;
+  }
+
   public void reset() {
     channel.sequence = 0;
-    for (int i = 0, s = config.fragmentReassemblyBufferSize; i < s; i++) {
-      FragmentReassemblyData reassemblyData = fragmentReassembly.atIndex(i);
-      if (reassemblyData != null) reassemblyData.dataBuffer.clear();
+    synchronized (fragmentReassembly) {
+      for (int i = 0, s = config.fragmentReassemblyBufferSize; i < s; i++) {
+        FragmentReassemblyData reassemblyData = fragmentReassembly.atIndex(i);
+        if (reassemblyData != null) reassemblyData.release();
+      }
+
+      fragmentReassembly.reset();
     }
 
-    sentPackets.reset();
-    receivedPackets.reset();
-    fragmentReassembly.reset();
+    synchronized (sentPackets) {
+      sentPackets.reset();
+      lossSampleIndex = numLossSamples = numLost = 0;
+      bytesSent = bytesAcked = 0;
+    }
+
+    synchronized (receivedPackets) {
+      receivedPackets.reset();
+      bytesReceived = 0;
+    }
   }
 
   public void update(float delta) {
     time += delta;
-    updatePacketLoss();
-    updateSentBandwidth();
-    updateReceivedBandwidth();
-    updateAckedBandwidth();
-  }
-
-  private void updatePacketLoss() {
-    int baseSequence = (sentPackets.getSequence() - config.sentPacketBufferSize + 1 + Packet.USHORT_MAX_VALUE) & Packet.USHORT_MAX_VALUE;
-
-    int numDropped = 0;
-    int numSamples = config.sentPacketBufferSize / 2;
-    for (int i = 0; i < numSamples; i++) {
-      int sequence = (baseSequence + i) & Packet.USHORT_MAX_VALUE;
-      SentPacketData sentPacketData = sentPackets.find(sequence);
-      if (sentPacketData != null && !sentPacketData.acked) numDropped++;
+    if (delta <= 0) return;
+
+    final int bytesSent, bytesAcked, bytesReceived;
+    synchronized (sentPackets) {
+      bytesSent = this.bytesSent;
+      bytesAcked = this.bytesAcked;
+      this.bytesSent = this.bytesAcked = 0;
+      if (numLossSamples > 0) {
+        packetLoss = smooth(packetLoss, numLost / (float) numLossSamples, config.packetLossSmoothingFactor);
+      }
     }
 
-    float packetLoss = numDropped / (float) numSamples;
-    if (MathUtils.isEqual(this.packetLoss, packetLoss, TOLERANCE)) {
-      this.packetLoss += (packetLoss - this.packetLoss) * config.packetLossSmoothingFactor;
-    } else {
-      this.packetLoss = packetLoss;
+    synchronized (receivedPackets) {
+      bytesReceived = this.bytesReceived;
+      this.bytesReceived = 0;
     }
+
+    final float toKbps = 8f / 1000f / delta;
+    sentBandwidth = smooth(sentBandwidth, bytesSent * toKbps, config.bandwidthSmoothingFactor);
+    receivedBandwidth = smooth(receivedBandwidth, bytesReceived * toKbps, config.bandwidthSmoothingFactor);
+    ackedBandwidth = smooth(ackedBandwidth, bytesAcked * toKbps, config.bandwidthSmoothingFactor);
   }
 
-  private void updateSentBandwidth() {
-    int baseSequence = (sentPackets.getSequence() - config.sentPacketBufferSize + 1 + Packet.USHORT_MAX_VALUE) & Packet.USHORT_MAX_VALUE;
+  private static float smooth(float current, float sample, float factor) {
+    if (current == 0.0f || MathUtils.isEqual(current, sample, TOLERANCE)) return sample;
+    return current + (sample - current) * factor;
+  }
 
-    int bytesSent = 0;
-    float startTime = Float.MAX_VALUE;
-    float finishTime = 0f;
-    int numSamples = config.sentPacketBufferSize / 2;
-    for (int i = 0; i < numSamples; i++) {
-      int sequence = (baseSequence + i) & Packet.USHORT_MAX_VALUE;
-      SentPacketData sentPacketData = sentPackets.find(sequence);
-      if (sentPacketData == null) continue;
-      bytesSent += sentPacketData.packetSize;
-      startTime = Math.min(startTime, sentPacketData.time);
-      finishTime = Math.max(finishTime, sentPacketData.time);
+  /**
+   * Records a loss sample for each sent packet evicted by inserting the
+   * specified sequence. Sequences may skip values when the channel uses its
+   * sequence for other purposes, so every slot up to the inserted sequence is
+   * evicted.
+   */
+  private void evictSentPackets(int sequence) {
+    final int numEntries = sentPackets.numEntries;
+    int seq = sentPackets.getSequence();
+    if (!ReliableUtils.sequenceGreaterThan(sequence, seq) && sequence != seq) return;
+    int numEvicted = ((sequence - seq) & Packet.USHORT_MAX_VALUE) + 1;
+    if (numEvicted > numEntries) {
+      seq = (sequence - numEntries + 1) & Packet.USHORT_MAX_VALUE;
+      numEvicted = numEntries;
     }
 
-    if (startTime != Float.MAX_VALUE && finishTime != 0f) {
-      float sentBandwidth = bytesSent / (finishTime - startTime) * 8f / 1000f;
-      if (MathUtils.isEqual(this.sentBandwidth, sentBandwidth, TOLERANCE)) {
-        this.sentBandwidth += (sentBandwidth - this.sentBandwidth) * config.bandwidthSmoothingFactor;
+    for (int i = 0; i < numEvicted; i++, seq = (seq + 1) & Packet.USHORT_MAX_VALUE) {
+      SentPacketData sentPacketData = sentPackets.atIndex(seq % numEntries);
+      if (sentPacketData == null) continue;
+      final boolean lost = !sentPacketData.acked;
+      if (numLossSamples == lossSamples.length) {
+        if (lossSamples[lossSampleIndex]) numLost--;
       } else {
-        this.sentBandwidth = sentBandwidth;
+        numLossSamples++;
       }
+
+      lossSamples[lossSampleIndex] = lost;
+      if (lost) numLost++;
+      if (++lossSampleIndex == lossSamples.length) lossSampleIndex = 0;
     }
   }
 
-  private void updateReceivedBandwidth() {
+  private int generateAck() {
     synchronized (receivedPackets) {
-      int baseSequence = (receivedPackets.getSequence() - config.receivedPacketBufferSize + 1 + Packet.USHORT_MAX_VALUE) & Packet.USHORT_MAX_VALUE;
-
-      int bytesReceived = 0;
-      float startTime = Float.MAX_VALUE;
-      float finishTime = 0f;
-      int numSamples = config.receivedPacketBufferSize / 2;
-      for (int i = 0; i < numSamples; i++) {
-        int sequence = (baseSequence + i) & Packet.USHORT_MAX_VALUE;
-        ReceivedPacketData receivedPacketData = receivedPackets.find(sequence);
-        if (receivedPacketData == null) continue;
-        bytesReceived += receivedPacketData.packetSize;
-        startTime = Math.min(startTime, receivedPacketData.time);
-        finishTime = Math.max(finishTime, receivedPacketData.time);
-      }
-
-      if (startTime != Float.MAX_VALUE && finishTime != 0f) {
-        float receivedBandwidth = bytesReceived / (finishTime - startTime) * 8f / 1000f;
-        if (MathUtils.isEqual(this.receivedBandwidth, receivedBandwidth, TOLERANCE)) {
-          this.receivedBandwidth += (receivedBandwidth - this.receivedBandwidth) * config.bandwidthSmoothingFactor;
-        } else {
-          this.receivedBandwidth = receivedBandwidth;
-        }
-      }
+      return receivedPackets.generateAck();
     }
   }
 
-  private void updateAckedBandwidth() {
-    int baseSequence = (sentPackets.getSequence() - config.sentPacketBufferSize + 1 + Packet.USHORT_MAX_VALUE) & Packet.USHORT_MAX_VALUE;
-
-    int bytesSent = 0;
-    float startTime = Float.MAX_VALUE;
-    float finishTime = 0f;
-    int numSamples = config.sentPacketBufferSize / 2;
-    for (int i = 0; i < numSamples; i++) {
-      int sequence = (baseSequence + i) & Packet.USHORT_MAX_VALUE;
-      SentPacketData sentPacketData = sentPackets.find(sequence);
-      if (sentPacketData == null || !sentPacketData.acked) continue;
-      bytesSent += sentPacketData.packetSize;
-      startTime = Math.min(startTime, sentPacketData.time);
-      finishTime = Math.max(finishTime, sentPacketData.time);
-    }
-
-    if (startTime != Float.MAX_VALUE && finishTime != 0f) {
-      float ackedBandwidth = bytesSent / (finishTime - startTime) * 8f / 1000f;
-      if (MathUtils.isEqual(this.ackedBandwidth, ackedBandwidth, TOLERANCE)) {
-        this.ackedBandwidth += (ackedBandwidth - this.ackedBandwidth) * config.bandwidthSmoothingFactor;
-      } else {
-        this.ackedBandwidth = ackedBandwidth;
-      }
+  private int generateAckBits(int ack) {
+    synchronized (receivedPackets) {
+      return receivedPackets.generateAckBits(ack);
     }
   }
 
@@ -181,13 +220,23 @@ public class ReliablePacketController {
     if (headerSize < 0) {
       Log.error(TAG, "failed to write ack");
       ReliableEndpoint.stats.NUM_ACKS_INVALID++;
+      packet.release();
       return;
     }
 
+    ReliableEndpoint.stats.NUM_ACKS_SENT++;
     channel.onPacketTransmitted(packet);
-    ch.writeAndFlush(packet);
+    ch.writeAndFlush(packet, ch.voidPromise());
   }
 
+  /**
+   * Sends the readable bytes of the specified buffer as a single packet,
+   * fragmenting it if it exceeds {@link ReliableConfiguration#fragmentThreshold}.
+   * The contents are copied into pooled buffers, so the caller retains
+   * ownership of {@code bb}.
+   *
+   * @return the sequence of the packet, or {@code -1} if it could not be sent
+   */
   public int sendPacket(int channelId, DatagramChannel ch, ByteBuf bb) {
     if (DEBUG_SEND) Log.debug(TAG, "sendPacket " + bb);
 
@@ -207,32 +256,60 @@ public class ReliablePacketController {
       ackBits = receivedPackets.generateAckBits(ack);
     }
 
-    SentPacketData sentPacketData = sentPackets.insert(sequence);
-    sentPacketData.time = this.time;
-    sentPacketData.packetSize = packetSize;
-    sentPacketData.acked = false;
+    synchronized (sentPackets) {
+      evictSentPackets(sequence);
+      SentPacketData sentPacketData = sentPackets.insert(sequence);
+      sentPacketData.time = this.time;
+      sentPacketData.packetSize = packetSize;
+      sentPacketData.acked = false;
+      bytesSent += packetSize;
+    }
 
     if (packetSize <= config.fragmentThreshold) {
       // regular packet
 
-      ByteBuf header = ch.alloc().buffer(config.packetHeaderSize);
-      int headerSize = Packet.writePacketHeader(header, channelId, sequence, ack, ackBits);
-
-      ByteBuf composite = ch.alloc().compositeBuffer(2)
-          .addComponent(true, header)
-          .addComponent(true, bb);
+      ByteBuf packet = ch.alloc().directBuffer(Packet.MAX_PACKET_HEADER_SIZE + packetSize);
+      Packet.writePacketHeader(packet, channelId, sequence, ack, ackBits);
+      packet.writeBytes(bb, bb.readerIndex(), packetSize);
 
-      channel.onPacketTransmitted(composite);
-      ch.writeAndFlush(composite);
-      return headerSize;
+      ReliableEndpoint.stats.NUM_PACKETS_SENT++;
+      channel.onPacketTransmitted(packet);
+      ch.writeAndFlush(packet, ch.voidPromise());
     } else {
       // fragmented packet
 
-      throw new UnsupportedOperationException();
-//      return -1;
+      final int fragmentSize = config.fragmentSize;
+      final int numFragments = (packetSize + fragmentSize - 1) / fragmentSize;
+      if (numFragments > config.maxFragments) {
+        Log.error(TAG, "packet requires %d fragments, max fragments is %d", numFragments, config.maxFragments);
+        ReliableEndpoint.stats.NUM_PACKETS_TOO_LARGE_TO_SEND++;
+        return -1;
+      }
+
+      for (int fragmentId = 0, offset = bb.readerIndex(); fragmentId < numFragments; fragmentId++, offset += fragmentSize) {
+        final int bytes = Math.min(fragmentSize, packetSize - fragmentId * fragmentSize);
+        ByteBuf fragment = ch.alloc().directBuffer(Packet.FRAGMENT_HEADER_SIZE + Packet.MAX_PACKET_HEADER_SIZE + bytes);
+        Packet.writeFragmentHeader(fragment, channelId, sequence, fragmentId, numFragments);
+        if (fragmentId == 0) Packet.writePacketHeader(fragment, channelId, sequence, ack, ackBits);
+        fragment.writeBytes(bb, offset, bytes);
+
+        ReliableEndpoint.stats.NUM_FRAGMENTS_SENT++;
+        channel.onPacketTransmitted(fragment);
+        ch.write(fragment, ch.voidPromise());
+      }
+
+      ReliableEndpoint.stats.NUM_PACKETS_SENT++;
+      ch.flush();
     }
+
+    return sequence;
   }
 
+  /**
+   * Processes the specified datagram. The datagram is owned by the caller,
+   * and the buffer passed to {@link PacketListener#onPacketProcessed} is
+   * only valid for the duration of that call.
+   */
   public void onPacketReceived(ChannelHandlerContext ctx, DatagramPacket packet) {
     if (DEBUG_RECEIVE) Log.debug(TAG, "onPacketReceived " + packet);
 
@@ -250,70 +327,138 @@ public class ReliablePacketController {
 
       ReliableEndpoint.stats.NUM_PACKETS_RECEIVED++;
 
-      Packet.HeaderData headerData = null;
-      try {
-        headerData = Packet.obtainData();
-        int headerSize = Packet.readPacketHeader(config, bb, headerData);
-        if (headerSize == -1) {
-          Log.error(TAG, "ignoring invalid packet. could not read packet header");
-          ReliableEndpoint.stats.NUM_PACKETS_INVALID++;
-          return;
-        }
+      final Packet.HeaderData headerData = this.headerData;
+      int headerSize = Packet.readPacketHeader(config, bb, headerData);
+      if (headerSize == -1) {
+        Log.error(TAG, "ignoring invalid packet. could not read packet header");
+        ReliableEndpoint.stats.NUM_PACKETS_INVALID++;
+        return;
+      }
 
-        final boolean isStale;
-        final int sequence = headerData.sequence;
-        synchronized (receivedPackets) {
-          isStale = !receivedPackets.testInsert(sequence);
-        }
+      if (Packet.isAck(flags)) ReliableEndpoint.stats.NUM_ACKS_RECEIVED++;
+      processPacket(ctx, packet.sender(), headerData.sequence, headerData.ack, headerData.ackBits,
+          Packet.isAck(flags), packetSize, bb.readSlice(bb.readableBytes()));
+    } else {
+      // fragmented packet
+
+      ReliableEndpoint.stats.NUM_FRAGMENTS_RECEIVED++;
 
-        if (DEBUG_RECEIVE) Log.debug(TAG, "packet reported sequence as %d", sequence);
-        final boolean isAck = Packet.isAck(flags);
-        if (!isStale && !isAck) {
-          if (DEBUG_RECEIVE) Log.debug(TAG, "processing packet %d", sequence);
-          ByteBuf slice = bb.readSlice(bb.readableBytes());
-          channel.onPacketProcessed(ctx, packet.sender(), sequence, slice);
-          synchronized (receivedPackets) {
-            ReceivedPacketData receivedPacketData = receivedPackets.insert(sequence);
-            receivedPacketData.time = time;
-            receivedPacketData.packetSize =  packetSize;
+      final Packet.FragmentedHeaderData fragmentHeaderData = this.fragmentHeaderData;
+      int headerSize = Packet.readFragmentHeader(config, bb, fragmentHeaderData);
+      if (headerSize == -1) {
+        Log.error(TAG, "ignoring invalid fragment. could not read fragment header");
+        ReliableEndpoint.stats.NUM_FRAGMENTS_INVALID++;
+        return;
+      }
+
+      final int sequence = fragmentHeaderData.sequence;
+      final int fragmentId = fragmentHeaderData.fragmentId;
+      final FragmentReassemblyData reassemblyData;
+      synchronized (fragmentReassembly) {
+        FragmentReassemblyData data = fragmentReassembly.find(sequence);
+        if (data == null) {
+          data = fragmentReassembly.insert(sequence);
+          if (data == null) {
+            Log.error(TAG, "ignoring stale fragment %d of packet %d", fragmentId, sequence);
+            ReliableEndpoint.stats.NUM_FRAGMENTS_INVALID++;
+            return;
           }
+
+          data.reset(sequence, fragmentHeaderData.numFragments);
         }
 
-        if (!isStale || isAck) {
-          final int ack = headerData.ack;
-          for (int i = 0, ackBits = headerData.ackBits; i < Integer.SIZE && ackBits != 0; i++, ackBits >>>= 1) {
-            if ((ackBits & 1) != 0) {
-              int ackSequence = (ack - i) & Packet.USHORT_MAX_VALUE;
-              SentPacketData sentPacketData = sentPackets.find(ackSequence);
-              if (sentPacketData != null && !sentPacketData.acked) {
-                if (DEBUG_RECEIVE) Log.debug(TAG, "acked packet %d", ackSequence);
-                ReliableEndpoint.stats.NUM_PACKETS_ACKED++;
-                sentPacketData.acked = true;
-                channel.onAckProcessed(ctx, packet.sender(), ackSequence);
-
-                float rtt = (time - sentPacketData.time) * 1000f;
-                if ((this.rtt == 0.0f && rtt > 0.0f) || MathUtils.isEqual(this.rtt, rtt, TOLERANCE)) {
-                  this.rtt = rtt;
-                } else {
-                  this.rtt += (rtt - this.rtt) * config.rttSmoothingFactor;
-                }
-              }
-            }
-          }
+        if (data.numFragmentsTotal != fragmentHeaderData.numFragments) {
+          Log.error(TAG, "ignoring fragment %d of packet %d, expected %d fragments, got %d",
+              fragmentId, sequence, data.numFragmentsTotal, fragmentHeaderData.numFragments);
+          ReliableEndpoint.stats.NUM_FRAGMENTS_INVALID++;
+          return;
         }
 
-        if (isStale) {
-          Log.error(TAG, "ignoring stale packet %d", sequence);
-          ReliableEndpoint.stats.NUM_PACKETS_STALE++;
+        if (data.fragmentReceived.get(fragmentId)) {
+          if (DEBUG_RECEIVE) Log.debug(TAG, "ignoring duplicate fragment %d of packet %d", fragmentId, sequence);
           return;
         }
+
+        data.fragmentReceived.set(fragmentId);
+        data.numFragmentsReceived++;
+        data.packetBytes += fragmentHeaderData.fragmentSize;
+        data.fragments[fragmentId] = bb.readRetainedSlice(bb.readableBytes());
+        if (fragmentId == 0) {
+          data.ack = fragmentHeaderData.ack;
+          data.ackBits = fragmentHeaderData.ackBits;
+        }
+
+        if (data.numFragmentsReceived < data.numFragmentsTotal) return;
+        reassemblyData = data;
+      }
+
+      try {
+        if (DEBUG_RECEIVE) Log.debug(TAG, "reassembled packet %d from %d fragments", sequence, reassemblyData.numFragmentsTotal);
+        ReliableEndpoint.stats.NUM_PACKETS_RECEIVED++;
+        CompositeByteBuf composite = reassemblyData.assemble();
+        processPacket(ctx, packet.sender(), sequence, reassemblyData.ack, reassemblyData.ackBits,
+            false, reassemblyData.packetBytes, composite);
       } finally {
-        if (headerData != null) headerData.free();
+        synchronized (fragmentReassembly) {
+          reassemblyData.release();
+          fragmentReassembly.remove(sequence);
+        }
       }
-    } else {
-      // fragmented packet
+    }
+  }
+
+  private void processPacket(
+      ChannelHandlerContext ctx, SocketAddress sender,
+      int sequence, int ack, int ackBits, boolean isAck,
+      int packetSize, ByteBuf payload) {
+    final boolean isStale;
+    synchronized (receivedPackets) {
+      isStale = !receivedPackets.testInsert(sequence);
+    }
+
+    if (DEBUG_RECEIVE) Log.debug(TAG, "packet reported sequence as %d", sequence);
+    if (!isStale && !isAck) {
+      if (DEBUG_RECEIVE) Log.debug(TAG, "processing packet %d", sequence);
+      channel.onPacketProcessed(ctx, sender, sequence, payload);
+      synchronized (receivedPackets) {
+        ReceivedPacketData receivedPacketData = receivedPackets.insert(sequence);
+        receivedPacketData.time = time;
+        receivedPacketData.packetSize = packetSize;
+        bytesReceived += packetSize;
+      }
+    }
+
+    if (!isStale || isAck) {
+      for (int i = 0; i < Integer.SIZE && ackBits != 0; i++, ackBits >>>= 1) {
+        if ((ackBits & 1) == 0) continue;
+        final int ackSequence = (ack - i) & Packet.USHORT_MAX_VALUE;
+        final float sentTime;
+        synchronized (sentPackets) {
+          SentPacketData sentPacketData = sentPackets.find(ackSequence);
+          if (sentPacketData == null || sentPacketData.acked) continue;
+          sentPacketData.acked = true;
+          bytesAcked += sentPacketData.packetSize;
+          sentTime = sentPacketData.time;
+        }
+
+        if (DEBUG_RECEIVE) Log.debug(TAG, "acked packet %d", ackSequence);
+        ReliableEndpoint.stats.NUM_PACKETS_ACKED++;
+        channel.onAckProcessed(ctx, sender, ackSequence);
+
+        float rtt = (time - sentTime) * 1000f;
+        if ((this.rtt == 0.0f && rtt > 0.0f) || MathUtils.isEqual(this.rtt, rtt, TOLERANCE)) {
+          if (this.rtt == 0.0f) rttVariance = rtt / 2;
+          this.rtt = rtt;
+        } else {
+          rttVariance += (Math.abs(rtt - this.rtt) - rttVariance) * config.rttSmoothingFactor;
+          this.rtt += (rtt - this.rtt) * config.rttSmoothingFactor;
+        }
+      }
+    }
 
-      throw new UnsupportedOperationException();
+    if (isStale) {
+      Log.error(TAG, "ignoring stale packet %d", sequence);
+      ReliableEndpoint.stats.NUM_PACKETS_STALE++;
     }
   }
 
@@ -38,11 +38,19 @@ public class SequenceBuffer<T> {
   public void removeEntries(int startSequence, int endSequence) {
     startSequence &= Packet.USHORT_MAX_VALUE;
     endSequence   &= Packet.USHORT_MAX_VALUE;
-    if (endSequence < startSequence) {
-      Arrays.fill(entrySequence, startSequence, numEntries, INVALID_SEQUENCE);
-      Arrays.fill(entrySequence, 0, endSequence, INVALID_SEQUENCE);
+    final int count = ((endSequence - startSequence) & Packet.USHORT_MAX_VALUE) + 1;
+    if (count >= numEntries) {
+      Arrays.fill(entrySequence, INVALID_SEQUENCE);
+      return;
+    }
+
+    final int startIndex = startSequence % numEntries;
+    final int endIndex = startIndex + count;
+    if (endIndex > numEntries) {
+      Arrays.fill(entrySequence, startIndex, numEntries, INVALID_SEQUENCE);
+      Arrays.fill(entrySequence, 0, endIndex - numEntries, INVALID_SEQUENCE);
     } else {
-      Arrays.fill(entrySequence, startSequence, endSequence, INVALID_SEQUENCE);
+      Arrays.fill(entrySequence, startIndex, endIndex, INVALID_SEQUENCE);
     }
   }
 
@@ -8,10 +8,8 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.DatagramPacket;
-import io.netty.channel.socket.nio.NioDatagramChannel;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 
@@ -22,6 +20,7 @@ import com.badlogic.gdx.backends.headless.HeadlessApplication;
 import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
 
 import com.riiablo.codec.Animation;
+import com.riiablo.net.Transport;
 import com.riiablo.net.packet.netty.Connection;
 import com.riiablo.net.packet.netty.Netty;
 import com.riiablo.net.packet.netty.NettyData;
@@ -46,11 +45,11 @@ public class TestClient extends ApplicationAdapter implements PacketProcessor {
   public void create() {
     Gdx.app.setLogLevel(Application.LOG_DEBUG);
 
-    group = new NioEventLoopGroup();
+    Transport transport = Transport.create(true);
+    group = transport.newEventLoopGroup(Transport.DEFAULT, "client");
     try {
-      Bootstrap b = new Bootstrap()
+      Bootstrap b = transport.configureDatagram(new Bootstrap())
           .group(group)
-          .channel(NioDatagramChannel.class)
           .handler(new ChannelInitializer<DatagramChannel>() {
             @Override
             protected void initChannel(DatagramChannel ch) {
@@ -8,12 +8,12 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.DatagramPacket;
-import io.netty.channel.socket.nio.NioDatagramChannel;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.badlogic.gdx.Application;
 import com.badlogic.gdx.ApplicationAdapter;
@@ -22,6 +22,7 @@ import com.badlogic.gdx.backends.headless.HeadlessApplication;
 import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
 
 import com.riiablo.codec.Animation;
+import com.riiablo.net.Transport;
 import com.riiablo.net.packet.netty.Netty;
 import com.riiablo.net.packet.netty.NettyData;
 import com.riiablo.onet.Endpoint;
@@ -39,24 +40,26 @@ public class TestServer extends ApplicationAdapter implements PacketProcessor {
     new HeadlessApplication(new TestServer(), config);
   }
 
-  private Endpoint<?> endpoint;
+  /** one per bound channel, added from the event loops binding them */
+  private final List<Endpoint<?>> endpoints = new CopyOnWriteArrayList<>();
   private EventLoopGroup group;
 
   @Override
   public void create() {
     Gdx.app.setLogLevel(Application.LOG_DEBUG);
 
-    group = new NioEventLoopGroup();
+    Transport transport = Transport.create(true).reusePort(true);
+    Gdx.app.log(TAG, "Using transport " + transport);
+    group = transport.newEventLoopGroup(Transport.DEFAULT, "server");
     try {
-      Bootstrap b = new Bootstrap()
+      Bootstrap b = transport.configureDatagram(new Bootstrap())
           .group(group)
-          .channel(NioDatagramChannel.class)
           .option(ChannelOption.SO_BROADCAST, true)
           .handler(new ChannelInitializer<DatagramChannel>() {
             @Override
             protected void initChannel(DatagramChannel ch) {
               ReliableEndpoint endpoint = new ReliableEndpoint(ch, TestServer.this);
-              TestServer.this.endpoint = endpoint;
+              endpoints.add(endpoint);
               ch.pipeline()
                   .addLast(new EndpointedChannelHandler<>(DatagramPacket.class, endpoint))
                   ;
@@ -64,7 +67,7 @@ public class TestServer extends ApplicationAdapter implements PacketProcessor {
           })
           ;
 
-      ChannelFuture f = b.bind(PORT).sync();
+      for (ChannelFuture f : transport.bind(b, PORT)) f.sync();
     } catch (Throwable t) {
       Gdx.app.error(TAG, t.getMessage(), t);
       Gdx.app.exit();
@@ -73,7 +76,8 @@ public class TestServer extends ApplicationAdapter implements PacketProcessor {
 
   @Override
   public void render() {
-    endpoint.update(Gdx.graphics.getDeltaTime());
+    final float delta = Gdx.graphics.getDeltaTime();
+    for (Endpoint<?> endpoint : endpoints) endpoint.update(delta);
   }
 
   @Override
@@ -11,19 +11,20 @@ import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.Queue;
 
+import com.riiablo.net.MpscArrayQueue;
 import com.riiablo.onet.reliable.Log;
 import com.riiablo.onet.reliable.MessageChannel;
 import com.riiablo.onet.reliable.Packet;
 import com.riiablo.onet.reliable.ReliableConfiguration;
-import com.riiablo.onet.reliable.ReliableUtils;
+import com.riiablo.onet.reliable.ReliableEndpoint;
 import com.riiablo.onet.reliable.SequenceBuffer;
 
 public class ReliableMessageChannel extends MessageChannel {
   private static final String TAG = "ReliableMessageChannel";
 
   private static final boolean DEBUG = true;
-  private static final boolean DEBUG_SEND = DEBUG && true;
-  private static final boolean DEBUG_RECEIVE = DEBUG && true;
+  private static final boolean DEBUG_SEND = DEBUG && !true;
+  private static final boolean DEBUG_RECEIVE = DEBUG && !true;
 
   private final ByteBuf packetBuffer = Unpooled.buffer();
   private final SequenceBuffer<BufferedPacket> sendBuffer;
@@ -33,12 +34,16 @@ public class ReliableMessageChannel extends MessageChannel {
   private final Queue<ByteBuf> messageQueue = new Queue<>(64, ByteBuf.class);
   private final IntArray outgoingMessageIds = new IntArray(256);
 
+  /** packet sequences acked on the event loop, processed by {@link #update} */
+  private final MpscArrayQueue<Integer> ackedPackets = new MpscArrayQueue<>(256);
+
   private float time;
   private float lastBufferFlush;
   private float lastMessageSend;
 
   private int oldestUnacked;
-//  private int sequence; // hides MessageChannel#sequence
+  /** sequence of the next buffered message, separate from packet sequences */
+  private int messageSequence;
   private int nextReceive;
 
   private boolean congestionControl = false;
@@ -60,19 +65,47 @@ public class ReliableMessageChannel extends MessageChannel {
     congestionDisableInterval = 5.0f;
 
     sequence = 0;
+    messageSequence = 0;
     nextReceive = 0;
     oldestUnacked = 0;
   }
 
 
+  /**
+   * Number of messages between the oldest unacked message and the next
+   * message to be buffered, i.e., the occupied portion of the sequence window.
+   */
+  private int windowSize() {
+    return (messageSequence - oldestUnacked) & Packet.USHORT_MAX_VALUE;
+  }
+
+  /**
+   * Whether or not another message can be buffered without overwriting the
+   * oldest unacked message.
+   */
+  private boolean windowAvailable() {
+    return windowSize() < sendBuffer.numEntries;
+  }
+
   @Override
   public void reset() {
     packetController.reset();
 
+    for (int i = 0, s = sendBuffer.numEntries; i < s; i++) {
+      BufferedPacket packet = sendBuffer.atIndex(i);
+      if (packet != null) packet.release();
+    }
+
+    while (messageQueue.size > 0) messageQueue.removeFirst().release();
+    while (ackedPackets.poll() != null);
+
     sendBuffer.reset();
 //    receiveBuffer.reset(); // this isn't in the original code? why?
     ackBuffer.reset();
 
+    packetBuffer.clear();
+    outgoingMessageIds.clear();
+
     lastBufferFlush = -1.0f;
     lastMessageSend = 0.0f;
 
@@ -82,6 +115,7 @@ public class ReliableMessageChannel extends MessageChannel {
     congestionDisableInterval = 5.0f;
 
     sequence = 0;
+    messageSequence = 0;
     nextReceive = 0;
     oldestUnacked = 0;
   }
@@ -89,30 +123,27 @@ public class ReliableMessageChannel extends MessageChannel {
   @Override
   public void update(float delta, int channelId, DatagramChannel ch) {
     packetController.update(delta);
+    refillBudget(delta);
 
     time += delta;
 
-    // see if we can pop messages off of the message queue and put them into the send queue
-    updateQueue(channelId, ch);
+    // release acked messages on this thread, which owns the send buffer
+    processAcks();
+
+    // move as many messages as the sequence window allows from the message queue to the send buffer
+    updateQueue();
     updateCongestion(delta, channelId, ch);
   }
 
-  private void updateQueue(int channelId, DatagramChannel ch) {
-    if (messageQueue.size > 0) {
-      int sendBufferSize = 0;
-      for (int seq = oldestUnacked; ReliableUtils.sequenceLessThan(seq, sequence); seq = (seq + 1) & Packet.USHORT_MAX_VALUE) {
-        if (sendBuffer.exists(seq)) sendBufferSize++;
-      }
-
-      if (sendBufferSize < sendBuffer.numEntries) {
-        ByteBuf packetData = messageQueue.removeFirst();
-        sendMessage(channelId, ch, packetData);
-      }
+  private void updateQueue() {
+    while (messageQueue.size > 0 && windowAvailable()) {
+      bufferMessage(messageQueue.removeFirst());
     }
   }
 
   private void updateCongestion(float delta, int channelId, DatagramChannel ch) {
-    boolean conditionsBad = packetController.rtt() >= 250.0f; // 250ms
+    boolean conditionsBad = packetController.rtt() >= config.congestionRtt
+        || packetController.packetLoss() >= config.congestionPacketLoss;
 
     // if conditions are bad, immediately enable congestion control and reset the congestion timer
     if (conditionsBad) {
@@ -148,48 +179,77 @@ public class ReliableMessageChannel extends MessageChannel {
       }
     }
 
-    // if we're in congestion control mode, only send packets 10 times per second. otherwise, send
-    // 30 times per second
-    float flushInterval = congestionControl ? (1.0f / 10) : (1.0f / 30);
-    if (time - lastBufferFlush >= flushInterval) {
+    if (time - lastBufferFlush >= flushInterval()) {
       lastBufferFlush = time;
       processSendBuffer(channelId, ch);
     }
   }
 
-  private void processSendBuffer(int channelId, DatagramChannel ch) {
-//    int numUnacked = 0;
-//    for (int seq = oldestUnacked; ReliableUtils.sequenceLessThan(seq, sequence);  seq = (seq + 1) & Packet.USHORT_MAX_VALUE) {
-//      numUnacked++;
-//    }
+  /**
+   * Returns the interval in seconds between flushes of the send buffer. While
+   * congested packets are flushed at {@link ReliableConfiguration#minFlushRate},
+   * otherwise the rate is scaled between the min and max rates by how close
+   * the measured rtt and packet loss are to the congestion thresholds.
+   */
+  private float flushInterval() {
+    if (congestionControl) return 1.0f / config.minFlushRate;
+    float rttRatio = packetController.rtt() / config.congestionRtt;
+    float lossRatio = packetController.packetLoss() / config.congestionPacketLoss;
+    float congestion = MathUtils.clamp(Math.max(rttRatio, lossRatio), 0.0f, 1.0f);
+    return 1.0f / MathUtils.lerp(config.maxFlushRate, config.minFlushRate, congestion);
+  }
 
-    for (int seq = oldestUnacked; ReliableUtils.sequenceLessThan(seq, sequence); seq = (seq + 1) & Packet.USHORT_MAX_VALUE) {
-      // never send message ID >= (oldestUnacked + bufferSize)
-      if (seq >= (oldestUnacked + 256)) break;
+  /**
+   * Returns the time in seconds to wait for an ack before resending the
+   * specified packet. The timeout is derived from the smoothed rtt and its
+   * deviation and backs off exponentially each time the packet is resent.
+   */
+  private float resendTimeout(BufferedPacket packet) {
+    float rto = MathUtils.clamp(packetController.rto() / 1000f, config.minResendTime, config.maxResendTime);
+    return Math.min(rto * (1 << Math.min(packet.numResends, 4)), config.maxResendTime * 4);
+  }
 
-      // for any message that hasn't been sent in the last 0.1 seconds and fits in the available
+  private void processSendBuffer(int channelId, DatagramChannel ch) {
+    final int windowSize = windowSize();
+    for (int i = 0, seq = oldestUnacked;
+         i < windowSize;
+         i++, seq = (seq + 1) & Packet.USHORT_MAX_VALUE) {
+      // for any message that hasn't been sent within its resend timeout and fits in the available
       // space of our message packer, add it
       BufferedPacket packet = sendBuffer.find(seq);
-      if (packet != null && !packet.writeLock) {
-        if (MathUtils.isEqual(time, packet.time, 0.1f)) continue;
-        boolean packetFits = false;
-        int packetSize = packetBuffer.readableBytes() + packet.bb.readableBytes();
-        if (packet.bb.readableBytes() < config.fragmentThreshold) {
-          packetFits = packetSize <= (config.fragmentThreshold - Packet.MAX_PACKET_HEADER_SIZE);
-        } else {
-          packetFits = packetSize <= (config.maxPacketSize - Packet.FRAGMENT_HEADER_SIZE - Packet.MAX_PACKET_HEADER_SIZE);
-        }
+      if (packet == null || packet.writeLock) continue;
+      final boolean resend = packet.time >= 0.0f;
+      if (resend && time - packet.time < resendTimeout(packet)) continue;
+
+      final int messageSize = packet.bb.readableBytes();
+      if (!consumeBudget(messageSize)) {
+        if (DEBUG_SEND) Log.debug(TAG, "bandwidth budget exhausted, deferring message %d", seq);
+        ReliableEndpoint.stats.NUM_MESSAGES_THROTTLED++;
+        break;
+      }
 
-        // if the packet won't fit, flush the message packet
-        if (!packetFits) {
-          flushPacketBuffer(channelId, ch);
-        }
+      boolean packetFits = false;
+      int packetSize = packetBuffer.readableBytes() + messageSize;
+      if (messageSize < config.fragmentThreshold) {
+        packetFits = packetSize <= (config.fragmentThreshold - Packet.MAX_PACKET_HEADER_SIZE);
+      } else {
+        packetFits = packetSize <= (config.maxPacketSize - Packet.FRAGMENT_HEADER_SIZE - Packet.MAX_PACKET_HEADER_SIZE);
+      }
 
-        packet.time = time;
-        packetBuffer.writeBytes(packet.bb);
-        outgoingMessageIds.add(seq);
-        lastMessageSend = time;
+      // if the packet won't fit, flush the message packet
+      if (!packetFits) {
+        flushPacketBuffer(channelId, ch);
       }
+
+      if (resend) {
+        packet.numResends++;
+        ReliableEndpoint.stats.NUM_MESSAGES_RESENT++;
+      }
+
+      packet.time = time;
+      packetBuffer.writeBytes(packet.bb, packet.bb.readerIndex(), messageSize);
+      outgoingMessageIds.add(seq);
+      lastMessageSend = time;
     }
 
     // if it has been 0.1 seconds since the last time we sent a message, send an empty message
@@ -205,6 +265,12 @@ public class ReliableMessageChannel extends MessageChannel {
   private void flushPacketBuffer(int channelId, DatagramChannel ch) {
     if (packetBuffer.readableBytes() > 0) {
       int outgoingSeq = packetController.sendPacket(channelId, ch, packetBuffer);
+      if (outgoingSeq < 0) {
+        packetBuffer.clear();
+        outgoingMessageIds.clear();
+        return;
+      }
+
       OutgoingPacketSet outgoingPacket = ackBuffer.insert(outgoingSeq);
 
       // store message IDs so we can map packet-level acks to message ID acks
@@ -220,20 +286,21 @@ public class ReliableMessageChannel extends MessageChannel {
   public void sendMessage(int channelId, DatagramChannel ch, ByteBuf bb) {
     if (DEBUG_SEND) Log.debug(TAG, "sendMessage " + bb);
 
-    int sendBufferSize = 0;
-    for (int seq = oldestUnacked; ReliableUtils.sequenceLessThan(seq, sequence); seq = (seq + 1) & Packet.USHORT_MAX_VALUE) {
-      if (sendBuffer.exists(seq)) sendBufferSize++;
-    }
-
-    // TODO: make sure this doesn't leak
-    if (sendBufferSize == sendBuffer.numEntries) {
+    // preserve ordering with messages already waiting on the sequence window
+    if (messageQueue.size > 0 || !windowAvailable()) {
       messageQueue.addLast(bb);
       return;
     }
 
-    final int sequence = incSequence();
+    bufferMessage(bb);
+  }
+
+  private void bufferMessage(ByteBuf bb) {
+    final int sequence = messageSequence;
+    messageSequence = (messageSequence + 1) & Packet.USHORT_MAX_VALUE;
     BufferedPacket packet = sendBuffer.insert(sequence);
     packet.time = -1.0f;
+    packet.numResends = 0;
 
     // ensure size for header
     // TODO: prepend sequence and variable length field for size of packet.
@@ -258,35 +325,46 @@ public class ReliableMessageChannel extends MessageChannel {
   @Override
   public void onAckProcessed(ChannelHandlerContext ctx, SocketAddress from, int sequence) {
     if (DEBUG_RECEIVE) Log.debug(TAG, "onAckProcessed " + sequence);
-    // first, map sequence to message IDs and ack them
-    OutgoingPacketSet outgoingPacket = ackBuffer.find(sequence);
-    if (outgoingPacket == null) return;
-
-    // process messages
-    final int[] messageIds = outgoingPacket.messageIds.items;
-    for (int i = 0, s = outgoingPacket.messageIds.size; i < s; i++) {
-      // remove acked message from send buffer
-      int messageId = messageIds[i];
-      if (sendBuffer.exists(messageId)) {
-        sendBuffer.find(messageId).writeLock = true;
-        sendBuffer.remove(messageId);
+    // called on the event loop, the send buffer is only accessed by update
+    // a dropped ack only delays its messages until they are resent
+    ackedPackets.offer(sequence);
+  }
+
+  private void processAcks() {
+    Integer sequence;
+    boolean acked = false;
+    while ((sequence = ackedPackets.poll()) != null) {
+      // first, map sequence to message IDs and ack them
+      OutgoingPacketSet outgoingPacket = ackBuffer.find(sequence);
+      if (outgoingPacket == null) continue;
+
+      // process messages
+      final int[] messageIds = outgoingPacket.messageIds.items;
+      for (int i = 0, s = outgoingPacket.messageIds.size; i < s; i++) {
+        // remove acked message from send buffer
+        int messageId = messageIds[i];
+        BufferedPacket packet = sendBuffer.find(messageId);
+        if (packet != null) {
+          packet.writeLock = true;
+          packet.release();
+          sendBuffer.remove(messageId);
+          acked = true;
+        }
       }
     }
 
+    if (!acked) return;
+
     // update oldest unacked message
-    boolean allAcked = true;
-    for (int seq = oldestUnacked;
-         seq == this.sequence || ReliableUtils.sequenceLessThan(seq, this.sequence);
-         seq = (seq + 1) & Packet.USHORT_MAX_VALUE) {
+    for (int seq = oldestUnacked; seq != messageSequence; seq = (seq + 1) & Packet.USHORT_MAX_VALUE) {
       // if it's still in the send buffer, it hasn't been acked
       if (sendBuffer.exists(seq)) {
         oldestUnacked = seq;
-        allAcked = false;
-        break;
+        return;
       }
     }
 
-    if (allAcked) oldestUnacked = this.sequence;
+    oldestUnacked = messageSequence;
   }
 
   @Override
@@ -299,7 +377,15 @@ public class ReliableMessageChannel extends MessageChannel {
   public static class BufferedPacket {
     boolean writeLock = true;
     float   time;
+    int     numResends;
     ByteBuf bb;
+
+    void release() {
+      if (bb != null) {
+        bb.release();
+        bb = null;
+      }
+    }
   }
 
   public static class OutgoingPacketSet {
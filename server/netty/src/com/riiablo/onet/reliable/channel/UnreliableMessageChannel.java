@@ -9,13 +9,14 @@ import java.net.SocketAddress;
 import com.riiablo.onet.reliable.Log;
 import com.riiablo.onet.reliable.MessageChannel;
 import com.riiablo.onet.reliable.ReliableConfiguration;
+import com.riiablo.onet.reliable.ReliableEndpoint;
 
 public class UnreliableMessageChannel extends MessageChannel {
   private static final String TAG = "UnreliableMessageChannel";
 
   private static final boolean DEBUG = true;
-  private static final boolean DEBUG_SEND = DEBUG && true;
-  private static final boolean DEBUG_RECEIVE = DEBUG && true;
+  private static final boolean DEBUG_SEND = DEBUG && !true;
+  private static final boolean DEBUG_RECEIVE = DEBUG && !true;
 
   public UnreliableMessageChannel(PacketTransceiver packetTransceiver) {
     super(new ReliableConfiguration(), packetTransceiver);
@@ -44,12 +45,23 @@ public class UnreliableMessageChannel extends MessageChannel {
   @Override
   public void update(float delta, int channelId, DatagramChannel ch) {
     packetController.update(delta);
+    refillBudget(delta);
   }
 
   @Override
   public void sendMessage(int channelId, DatagramChannel ch, ByteBuf bb) {
     if (DEBUG_SEND) Log.debug(TAG, "sendMessage " + bb);
-    packetController.sendPacket(channelId, ch, bb);
+    try {
+      if (!consumeBudget(bb.readableBytes())) {
+        if (DEBUG_SEND) Log.debug(TAG, "dropping message, bandwidth budget exhausted");
+        ReliableEndpoint.stats.NUM_MESSAGES_THROTTLED++;
+        return;
+      }
+
+      packetController.sendPacket(channelId, ch, bb);
+    } finally {
+      bb.release();
+    }
   }
 
   @Override
@@ -10,14 +10,15 @@ import com.riiablo.onet.reliable.Log;
 import com.riiablo.onet.reliable.MessageChannel;
 import com.riiablo.onet.reliable.Packet;
 import com.riiablo.onet.reliable.ReliableConfiguration;
+import com.riiablo.onet.reliable.ReliableEndpoint;
 import com.riiablo.onet.reliable.ReliableUtils;
 
 public class UnreliableOrderedMessageChannel extends MessageChannel {
   private static final String TAG = "UnreliableOrderedMessageChannel";
 
   private static final boolean DEBUG = true;
-  private static final boolean DEBUG_SEND = DEBUG && true;
-  private static final boolean DEBUG_RECEIVE = DEBUG && true;
+  private static final boolean DEBUG_SEND = DEBUG && !true;
+  private static final boolean DEBUG_RECEIVE = DEBUG && !true;
 
   private int nextSequence = 0;
 
@@ -34,12 +35,23 @@ public class UnreliableOrderedMessageChannel extends MessageChannel {
   @Override
   public void update(float delta, int channelId, DatagramChannel ch) {
     packetController.update(delta);
+    refillBudget(delta);
   }
 
   @Override
   public void sendMessage(int channelId, DatagramChannel ch, ByteBuf bb) {
     if (DEBUG_SEND) Log.debug(TAG, "sendMessage " + bb);
-    packetController.sendPacket(channelId, ch, bb);
+    try {
+      if (!consumeBudget(bb.readableBytes())) {
+        if (DEBUG_SEND) Log.debug(TAG, "dropping message, bandwidth budget exhausted");
+        ReliableEndpoint.stats.NUM_MESSAGES_THROTTLED++;
+        return;
+      }
+
+      packetController.sendPacket(channelId, ch, bb);
+    } finally {
+      bb.release();
+    }
   }
 
   @Override
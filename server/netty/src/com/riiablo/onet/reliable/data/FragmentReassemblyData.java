@@ -1,6 +1,8 @@
 package com.riiablo.onet.reliable.data;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 
 import com.artemis.utils.BitVector;
 
@@ -10,9 +12,57 @@ public class FragmentReassemblyData {
   public int     ackBits;
   public int     numFragmentsReceived;
   public int     numFragmentsTotal;
-  public ByteBuf dataBuffer;
   public int     packetBytes;
-  public int     headerOffset;
 
   public final BitVector fragmentReceived = new BitVector(256);
+
+  /** retained slices of the received fragments, indexed by fragment id */
+  public final ByteBuf[] fragments = new ByteBuf[256];
+
+  /** reused view of the reassembled packet, composed of {@link #fragments} */
+  public final CompositeByteBuf dataBuffer = Unpooled.compositeBuffer(256);
+
+  /**
+   * Releases any fragments held from a previous packet and prepares this
+   * instance to reassemble the specified packet.
+   */
+  public void reset(int sequence, int numFragmentsTotal) {
+    release();
+    this.sequence = sequence;
+    this.ack = 0;
+    this.ackBits = 0;
+    this.numFragmentsReceived = 0;
+    this.numFragmentsTotal = numFragmentsTotal;
+    this.packetBytes = 0;
+    fragmentReceived.clear();
+  }
+
+  /**
+   * Composes the received fragments in order into {@link #dataBuffer}. The
+   * fragments are owned by the returned buffer until {@link #release()}.
+   */
+  public CompositeByteBuf assemble() {
+    assert numFragmentsReceived == numFragmentsTotal;
+    for (int i = 0; i < numFragmentsTotal; i++) {
+      dataBuffer.addComponent(true, fragments[i]);
+      fragments[i] = null;
+    }
+
+    return dataBuffer;
+  }
+
+  /**
+   * Releases the fragments of the packet being reassembled or that was last
+   * assembled.
+   */
+  public void release() {
+    if (dataBuffer.numComponents() > 0) dataBuffer.removeComponents(0, dataBuffer.numComponents());
+    dataBuffer.clear();
+    for (int i = 0, s = numFragmentsTotal; i < s; i++) {
+      if (fragments[i] != null) {
+        fragments[i].release();
+        fragments[i] = null;
+      }
+    }
+  }
 }
@@ -9,9 +9,7 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 
@@ -22,6 +20,7 @@ import com.badlogic.gdx.backends.headless.HeadlessApplication;
 import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
 
 import com.riiablo.codec.Animation;
+import com.riiablo.net.Transport;
 import com.riiablo.net.packet.netty.Connection;
 import com.riiablo.net.packet.netty.Netty;
 import com.riiablo.net.packet.netty.NettyData;
@@ -47,11 +46,11 @@ public class TestClient extends ApplicationAdapter implements PacketProcessor {
   public void create() {
     Gdx.app.setLogLevel(Application.LOG_DEBUG);
 
-    group = new NioEventLoopGroup();
+    Transport transport = Transport.create(true);
+    group = transport.newEventLoopGroup(Transport.DEFAULT, "client");
     try {
-      Bootstrap b = new Bootstrap()
+      Bootstrap b = transport.configureSocket(new Bootstrap())
           .group(group)
-          .channel(NioSocketChannel.class)
           .option(ChannelOption.SO_KEEPALIVE, true)
           .handler(new ChannelInitializer<SocketChannel>() {
             @Override
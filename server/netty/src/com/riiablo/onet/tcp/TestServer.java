@@ -8,9 +8,7 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import java.net.SocketAddress;
 
 import com.badlogic.gdx.Application;
@@ -20,6 +18,7 @@ import com.badlogic.gdx.backends.headless.HeadlessApplication;
 import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
 
 import com.riiablo.codec.Animation;
+import com.riiablo.net.Transport;
 import com.riiablo.onet.Endpoint;
 import com.riiablo.onet.EndpointedChannelHandler;
 import com.riiablo.onet.PacketProcessor;
@@ -43,12 +42,13 @@ public class TestServer extends ApplicationAdapter implements PacketProcessor {
   public void create() {
     Gdx.app.setLogLevel(Application.LOG_DEBUG);
 
-    bossGroup = new NioEventLoopGroup();
-    workerGroup = new NioEventLoopGroup();
+    Transport transport = Transport.create(true);
+    Gdx.app.log(TAG, "Using transport " + transport);
+    bossGroup = transport.newParentGroup("boss");
+    workerGroup = transport.newChildGroup("worker");
     try {
-      ServerBootstrap b = new ServerBootstrap()
+      ServerBootstrap b = transport.configure(new ServerBootstrap())
           .group(bossGroup, workerGroup)
-          .channel(NioServerSocketChannel.class)
           .childHandler(new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) {
@@ -62,8 +62,9 @@ public class TestServer extends ApplicationAdapter implements PacketProcessor {
           .option(ChannelOption.SO_BACKLOG, 128)
           .childOption(ChannelOption.SO_KEEPALIVE, true);
 
-      ChannelFuture f = b.bind(PORT).sync();
-      f.channel().closeFuture().sync();
+      ChannelFuture[] futures = transport.bind(b, PORT);
+      for (ChannelFuture f : futures) f.sync();
+      for (ChannelFuture f : futures) f.channel().closeFuture().sync();
     } catch (Throwable t) {
       Gdx.app.error(TAG, t.getMessage(), t);
       Gdx.app.exit();
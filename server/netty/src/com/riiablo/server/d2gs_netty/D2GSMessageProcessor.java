@@ -2,7 +2,6 @@ package com.riiablo.server.d2gs_netty;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.concurrent.BlockingQueue;
 
 import com.artemis.annotations.Wire;
 
@@ -11,6 +10,7 @@ import com.badlogic.gdx.utils.IntIntMap;
 
 import com.riiablo.engine.Engine;
 import com.riiablo.engine.server.ItemManager;
+import com.riiablo.net.MpscArrayQueue;
 import com.riiablo.net.packet.d2gs.BeltToCursor;
 import com.riiablo.net.packet.d2gs.BodyToCursor;
 import com.riiablo.net.packet.d2gs.CursorToBelt;
@@ -35,7 +35,7 @@ public class D2GSMessageProcessor {
   private static final boolean DEBUG_RECEIVED_PACKETS = DEBUG && true;
 
   @Wire(name = "outPackets")
-  protected BlockingQueue<OutboundPacket> outPackets;
+  protected MpscArrayQueue<OutboundPacket> outPackets;
 
   @Wire(name = "player")
   protected IntIntMap player;
@@ -122,76 +122,76 @@ public class D2GSMessageProcessor {
     int entityId = getPlayerEntityId(packet);
     GroundToCursor groundToCursor = (GroundToCursor) packet.table().data(new GroundToCursor());
     itemManager.groundToCursor(entityId, groundToCursor.itemId());
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 
   private void onCursorToGround(InboundPacket<D2GS> packet) {
     int entityId = getPlayerEntityId(packet);
     CursorToGround cursorToGround = (CursorToGround) packet.table().data(new CursorToGround());
     itemManager.cursorToGround(entityId);
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 
   private void onStoreToCursor(InboundPacket<D2GS> packet) {
     int entityId = getPlayerEntityId(packet);
     StoreToCursor storeToCursor = (StoreToCursor) packet.table().data(new StoreToCursor());
     itemManager.storeToCursor(entityId, storeToCursor.itemId());
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 
   private void onCursorToStore(InboundPacket<D2GS> packet) {
     int entityId = getPlayerEntityId(packet);
     CursorToStore cursorToStore = (CursorToStore) packet.table().data(new CursorToStore());
     itemManager.cursorToStore(entityId, cursorToStore.storeLoc(), cursorToStore.x(), cursorToStore.y());
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 
   private void onSwapStoreItem(InboundPacket<D2GS> packet) {
     int entityId = getPlayerEntityId(packet);
     SwapStoreItem swapStoreItem = (SwapStoreItem) packet.table().data(new SwapStoreItem());
     itemManager.swapStoreItem(entityId, swapStoreItem.itemId(), swapStoreItem.storeLoc(), swapStoreItem.x(), swapStoreItem.y());
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 
   private void onBodyToCursor(InboundPacket<D2GS> packet) {
     int entityId = getPlayerEntityId(packet);
     BodyToCursor bodyToCursor = (BodyToCursor) packet.table().data(new BodyToCursor());
     itemManager.bodyToCursor(entityId, bodyToCursor.bodyLoc(), bodyToCursor.merc());
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 
   private void onCursorToBody(InboundPacket<D2GS> packet) {
     int entityId = getPlayerEntityId(packet);
     CursorToBody cursorToBody = (CursorToBody) packet.table().data(new CursorToBody());
     itemManager.cursorToBody(entityId, cursorToBody.bodyLoc(), cursorToBody.merc());
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 
   private void onSwapBodyItem(InboundPacket<D2GS> packet) {
     int entityId = getPlayerEntityId(packet);
     SwapBodyItem swapBodyItem = (SwapBodyItem) packet.table().data(new SwapBodyItem());
     itemManager.swapBodyItem(entityId, swapBodyItem.bodyLoc(), swapBodyItem.merc());
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 
   private void onBeltToCursor(InboundPacket<D2GS> packet) {
     int entityId = getPlayerEntityId(packet);
     BeltToCursor beltToCursor = (BeltToCursor) packet.table().data(new BeltToCursor());
     itemManager.beltToCursor(entityId, beltToCursor.itemId());
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 
   private void onCursorToBelt(InboundPacket<D2GS> packet) {
     int entityId = getPlayerEntityId(packet);
     CursorToBelt cursorToBelt = (CursorToBelt) packet.table().data(new CursorToBelt());
     itemManager.cursorToBelt(entityId, cursorToBelt.x(), cursorToBelt.y());
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 
   private void onSwapBeltItem(InboundPacket<D2GS> packet) {
     int entityId = getPlayerEntityId(packet);
     SwapBeltItem swapBeltItem = (SwapBeltItem) packet.table().data(new SwapBeltItem());
     itemManager.swapBeltItem(entityId, swapBeltItem.itemId());
-    outPackets.offer(echo(packet));
+    Server.offer(outPackets, echo(packet));
   }
 }
@@ -0,0 +1,224 @@
+package com.riiablo.server.d2gs_netty;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoopGroup;
+import java.net.InetAddress;
+
+import com.artemis.World;
+import com.artemis.WorldConfiguration;
+import com.artemis.WorldConfigurationBuilder;
+import net.mostlyoriginal.api.event.common.EventSystem;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import com.riiablo.codec.Animation;
+import com.riiablo.engine.EntityFactory;
+import com.riiablo.engine.server.AIStepper;
+import com.riiablo.engine.server.AnimDataResolver;
+import com.riiablo.engine.server.CofManager;
+import com.riiablo.engine.server.ItemInteractor;
+import com.riiablo.engine.server.ItemManager;
+import com.riiablo.engine.server.ObjectInitializer;
+import com.riiablo.engine.server.ObjectInteractor;
+import com.riiablo.engine.server.Pathfinder;
+import com.riiablo.engine.server.SerializationManager;
+import com.riiablo.engine.server.ServerEntityFactory;
+import com.riiablo.engine.server.ServerItemManager;
+import com.riiablo.engine.server.ServerNetworkIdManager;
+import com.riiablo.engine.server.VelocityAdder;
+import com.riiablo.engine.server.WarpInteractor;
+import com.riiablo.item.ItemGenerator;
+import com.riiablo.item.VendorGenerator;
+import com.riiablo.map.Act1MapBuilder;
+import com.riiablo.map.Map;
+import com.riiablo.map.MapManager;
+import com.riiablo.net.Transport;
+
+/**
+ * Single game hosted by a {@link GameManager}. Each game has its own map,
+ * {@link World} and {@link Server} listening on its own port, while the
+ * static game data and Netty event loops are shared with all other games.
+ */
+public class GameInstance {
+  private static final String TAG = "GameInstance";
+
+  final int id;
+  final int port;
+  int seed;
+  final int diff;
+
+  Server server;
+  D2GSMessageProcessor messageProcessor;
+
+  World world;
+  Map map;
+
+  EntityFactory factory;
+  ItemManager itemManager;
+  MapManager mapManager;
+  NetworkSynchronizer sync;
+
+  final SystemProfiler profiler = new SystemProfiler();
+  long tickNanos;
+  long maxTickNanos;
+  int  ticks;
+  int  overruns;
+
+  GameInstance(int id, int port, int seed, int diff) {
+    this.id = id;
+    this.port = port;
+    this.seed = seed;
+    this.diff = diff;
+  }
+
+  public int id() {
+    return id;
+  }
+
+  public int port() {
+    return port;
+  }
+
+  public int seed() {
+    return seed;
+  }
+
+  public int diff() {
+    return diff;
+  }
+
+  public Server server() {
+    return server;
+  }
+
+  /**
+   * Generates the map and creates the world of this game. Map generation and
+   * {@link Act1MapBuilder} are not thread-safe, so games must be created one
+   * at a time.
+   */
+  void create(InetAddress address) {
+    if (seed == 0) {
+      Gdx.app.log(TAG, "Generating seed...");
+      seed = MathUtils.random.nextInt();
+      Gdx.app.log(TAG, "seed=" + seed);
+    }
+
+    Gdx.app.log(TAG, "Generating map for game " + id + "...");
+    map = new Map(seed, diff);
+    Gdx.app.log(TAG, "  generating act 1...");
+    long start = TimeUtils.millis();
+    map.generate(0);
+    Gdx.app.log(TAG, "  act 1 generated in " + (TimeUtils.millis() - start) + "ms");
+
+    Gdx.app.log(TAG, "Loading act 1...");
+    map.load();
+    map.finishLoading();
+
+    messageProcessor = new D2GSMessageProcessor();
+    server = new Server(this, address, port);
+
+    factory = new ServerEntityFactory();
+    itemManager = new ServerItemManager();
+    mapManager = new MapManager();
+    sync = new NetworkSynchronizer();
+    WorldConfigurationBuilder builder = new WorldConfigurationBuilder()
+        .with(new EventSystem())
+        .with(new ServerNetworkIdManager())
+        .with(new SerializationManager())
+        .with(mapManager)
+        .with(itemManager)
+        .with(new ItemGenerator())
+        .with(new CofManager())
+        .with(new ObjectInitializer())
+        .with(new ObjectInteractor(), new WarpInteractor(), new ItemInteractor())
+
+        .with(new VendorGenerator())
+        .with(new AIStepper())
+        .with(new Pathfinder())
+
+        .with(new VelocityAdder()) // FIXME: temp until proper physics implemented
+
+        .with(factory)
+        .with(sync)
+        .with(new AnimDataResolver())
+        .register(profiler)
+        ;
+    WorldConfiguration config = builder.build()
+        .register("map", map)
+        .register("factory", factory)
+        .register("player", server.player)
+        .register("outPackets", server.outPackets)
+        .register("messageProcessor", messageProcessor)
+        ;
+    world = new World(config);
+
+    world.inject(map);
+    world.inject(Act1MapBuilder.INSTANCE);
+    world.inject(messageProcessor);
+    world.inject(server);
+
+    map.generate();
+    mapManager.createEntities();
+
+    world.delta = Animation.FRAME_DURATION;
+  }
+
+  /**
+   * Binds the server of this game using the given shared event loop groups.
+   */
+  ChannelFuture[] start(Transport transport, EventLoopGroup parentGroup, EventLoopGroup childGroup) {
+    Gdx.app.log(TAG, "Creating server instance for game " + id + "...");
+    server.create(transport, parentGroup, childGroup);
+    Gdx.app.log(TAG, "Starting server instance for game " + id + "...");
+    return server.start();
+  }
+
+  /**
+   * Processes a single tick of this game. Called by at most one thread at a
+   * time.
+   *
+   * @param budget nanoseconds the tick may take before counting as an overrun
+   */
+  void tick(float delta, long budget) {
+    final long start = System.nanoTime();
+    server.updateIncoming(delta);
+    world.delta = delta;
+    world.process();
+    server.updateOutgoing(delta);
+    final long elapsed = System.nanoTime() - start;
+    tickNanos += elapsed;
+    if (elapsed > maxTickNanos) maxTickNanos = elapsed;
+    if (elapsed > budget) overruns++;
+    ticks++;
+  }
+
+  /**
+   * Appends the tick statistics of this game since the last report and
+   * resets them. Must not be called while this game is ticking.
+   */
+  StringBuilder report(StringBuilder builder) {
+    builder.append(String.format("game %d: %d ticks avg %.3fms max %.3fms, %d overruns",
+        id, ticks, ticks > 0 ? tickNanos / (ticks * 1e6) : 0.0, maxTickNanos / 1e6, overruns));
+    builder.append(String.format("\n  in %s out %s, %d throttled",
+        server.inPackets, server.outPackets, server.throttled.get()));
+    profiler.report(builder);
+    tickNanos = maxTickNanos = 0;
+    ticks = overruns = 0;
+    return builder;
+  }
+
+  void dispose() {
+    Gdx.app.log(TAG, "Disposing server for game " + id + "...");
+    server.dispose();
+
+    Gdx.app.log(TAG, "Disposing world for game " + id + "...");
+    world.dispose();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("[game %d: port=%d, seed=%d, diff=%d]", id, port, seed, diff);
+  }
+}
@@ -0,0 +1,175 @@
+package com.riiablo.server.d2gs_netty;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Array;
+
+import com.riiablo.net.Transport;
+
+/**
+ * Hosts any number of independent {@link GameInstance games} within a single
+ * JVM. Games share the static game data loaded by {@link Main}, the Netty
+ * event loop groups accepting and servicing connections, and a fixed pool of
+ * tick threads which each game tick is distributed across.
+ *
+ * A game is only ever ticked by one thread at a time, and every game is
+ * ticked once before the next tick of any game begins.
+ */
+public class GameManager {
+  private static final String TAG = "GameManager";
+
+  private final InetAddress address;
+  private final int basePort;
+  private final Transport transport;
+
+  private final EventLoopGroup parentGroup;
+  private final EventLoopGroup childGroup;
+  private final ExecutorService tickExecutor;
+
+  private final Array<GameInstance> games = new Array<>(false, 8, GameInstance.class);
+  private final List<GameTick> ticks = new ArrayList<>(8);
+
+  /**
+   * @param tickThreads number of threads ticking games, or {@code 0} to use
+   *                    one per available processor
+   */
+  public GameManager(InetAddress address, int basePort, Transport transport, int tickThreads) {
+    this.address = address;
+    this.basePort = basePort;
+    this.transport = transport;
+    if (tickThreads <= 0) tickThreads = Runtime.getRuntime().availableProcessors();
+    Gdx.app.log(TAG, "Using transport " + transport);
+    parentGroup = transport.newParentGroup("d2gs-boss");
+    childGroup = transport.newChildGroup("d2gs-worker");
+    tickExecutor = Executors.newFixedThreadPool(tickThreads, new DefaultThreadFactory("game-tick"));
+    Gdx.app.log(TAG, "Ticking games on " + tickThreads + " threads");
+  }
+
+  public Array<GameInstance> games() {
+    return games;
+  }
+
+  /**
+   * Creates and starts a new game listening on the next available port.
+   * Must not be called while games are being ticked.
+   */
+  public GameInstance createGame(int seed, int diff) {
+    final int id = games.size;
+    GameInstance game = new GameInstance(id, basePort + id, seed, diff);
+    game.create(address);
+    for (ChannelFuture future : game.start(transport, parentGroup, childGroup)) future.syncUninterruptibly();
+    games.add(game);
+    ticks.add(new GameTick(game));
+    Gdx.app.log(TAG, "Started " + game);
+    return game;
+  }
+
+  /**
+   * Ticks every game once, blocking until all games have finished.
+   *
+   * @param budget nanoseconds each game tick may take before counting as an
+   *               overrun
+   */
+  public void tick(float delta, long budget) {
+    final List<GameTick> ticks = this.ticks;
+    if (ticks.isEmpty()) return;
+    if (ticks.size() == 1) {
+      final GameInstance game = ticks.get(0).game;
+      try {
+        game.tick(delta, budget);
+      } catch (Throwable t) {
+        Gdx.app.error(TAG, "Failed to tick " + game, t);
+      }
+      return;
+    }
+
+    for (int i = 0, s = ticks.size(); i < s; i++) {
+      GameTick tick = ticks.get(i);
+      tick.delta = delta;
+      tick.budget = budget;
+    }
+    try {
+      List<Future<Void>> results = tickExecutor.invokeAll(ticks);
+      for (int i = 0, s = results.size(); i < s; i++) {
+        try {
+          results.get(i).get();
+        } catch (ExecutionException e) {
+          Gdx.app.error(TAG, "Failed to tick " + ticks.get(i).game, e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Appends the tick statistics of each game since the last report and
+   * resets them. Must not be called while games are being ticked.
+   */
+  public StringBuilder report(StringBuilder builder) {
+    for (GameInstance game : games) game.report(builder).append('\n');
+    return builder;
+  }
+
+  public void dispose() {
+    for (GameInstance game : games) {
+      try {
+        game.dispose();
+      } catch (Throwable t) {
+        Gdx.app.error(TAG, t.getMessage(), t);
+      }
+    }
+    games.clear();
+    ticks.clear();
+
+    Gdx.app.log(TAG, "Shutting down tick threads...");
+    tickExecutor.shutdown();
+    try {
+      tickExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      Gdx.app.log(TAG, "Shutting down children...");
+      childGroup.shutdownGracefully().syncUninterruptibly();
+    } catch (Throwable t) {
+      Gdx.app.error(TAG, t.getMessage(), t);
+    }
+
+    try {
+      Gdx.app.log(TAG, "Shutting down parent...");
+      parentGroup.shutdownGracefully().syncUninterruptibly();
+    } catch (Throwable t) {
+      Gdx.app.error(TAG, t.getMessage(), t);
+    }
+  }
+
+  private static final class GameTick implements Callable<Void> {
+    final GameInstance game;
+    float delta;
+    long budget;
+
+    GameTick(GameInstance game) {
+      this.game = game;
+    }
+
+    @Override
+    public Void call() {
+      game.tick(delta, budget);
+      return null;
+    }
+  }
+}
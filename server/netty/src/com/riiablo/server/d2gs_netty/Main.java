@@ -1,6 +1,5 @@
 package com.riiablo.server.d2gs_netty;
 
-import io.netty.channel.ChannelFuture;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.net.InetAddress;
@@ -13,11 +12,6 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 
-import com.artemis.World;
-import com.artemis.WorldConfiguration;
-import com.artemis.WorldConfigurationBuilder;
-import net.mostlyoriginal.api.event.common.EventSystem;
-
 import com.badlogic.gdx.Application;
 import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
@@ -25,9 +19,7 @@ import com.badlogic.gdx.assets.AssetManager;
 import com.badlogic.gdx.backends.headless.HeadlessApplication;
 import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
 import com.badlogic.gdx.files.FileHandle;
-import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.utils.GdxRuntimeException;
-import com.badlogic.gdx.utils.TimeUtils;
 
 import com.riiablo.COFs;
 import com.riiablo.Files;
@@ -36,31 +28,12 @@ import com.riiablo.audio.ServerAudio;
 import com.riiablo.codec.Animation;
 import com.riiablo.codec.D2;
 import com.riiablo.codec.StringTBLs;
-import com.riiablo.engine.EntityFactory;
-import com.riiablo.engine.server.AIStepper;
-import com.riiablo.engine.server.AnimDataResolver;
-import com.riiablo.engine.server.CofManager;
-import com.riiablo.engine.server.ItemInteractor;
-import com.riiablo.engine.server.ItemManager;
-import com.riiablo.engine.server.ObjectInitializer;
-import com.riiablo.engine.server.ObjectInteractor;
-import com.riiablo.engine.server.Pathfinder;
-import com.riiablo.engine.server.SerializationManager;
-import com.riiablo.engine.server.ServerEntityFactory;
-import com.riiablo.engine.server.ServerItemManager;
-import com.riiablo.engine.server.ServerNetworkIdManager;
-import com.riiablo.engine.server.VelocityAdder;
-import com.riiablo.engine.server.WarpInteractor;
-import com.riiablo.item.ItemGenerator;
-import com.riiablo.item.VendorGenerator;
-import com.riiablo.map.Act1MapBuilder;
 import com.riiablo.map.DS1;
 import com.riiablo.map.DS1Loader;
 import com.riiablo.map.DT1;
 import com.riiablo.map.DT1Loader;
-import com.riiablo.map.Map;
-import com.riiablo.map.MapManager;
 import com.riiablo.mpq.MPQFileHandleResolver;
+import com.riiablo.net.Transport;
 
 public class Main extends ApplicationAdapter {
   private static final String TAG = "Main";
@@ -71,7 +44,10 @@ public class Main extends ApplicationAdapter {
     Options options = new Options()
         .addOption("home", true, "directory containing D2 MPQ files")
         .addOption("seed", true, "seed used to generate map")
-        .addOption("diff", true, "difficulty (0-2)");
+        .addOption("diff", true, "difficulty (0-2)")
+        .addOption("games", true, "number of games to host, listening on consecutive ports")
+        .addOption("threads", true, "number of threads ticking games (defaults to available processors)");
+    Transport.addOptions(options);
 
     CommandLine cmd = null;
     try {
@@ -117,33 +93,53 @@ public class Main extends ApplicationAdapter {
       }
     }
 
+    int games = 1;
+    if (cmd.hasOption("games")) {
+      String gamesArg = cmd.getOptionValue("games");
+      try {
+        games = Math.max(1, Integer.parseInt(gamesArg));
+      } catch (Throwable t) {
+        System.err.println("Invalid games provided: " + gamesArg);
+      }
+    }
+
+    int threads = 0;
+    if (cmd.hasOption("threads")) {
+      String threadsArg = cmd.getOptionValue("threads");
+      try {
+        threads = Integer.parseInt(threadsArg);
+      } catch (Throwable t) {
+        System.err.println("Invalid threads provided: " + threadsArg);
+      }
+    }
+
+    Transport transport = Transport.fromCommandLine(cmd);
+
     HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
-    config.renderInterval = Animation.FRAME_DURATION;
-    new HeadlessApplication(new Main(home, seed, diff), config);
+    config.renderInterval = 1f; // games are ticked by TickLoop
+    new HeadlessApplication(new Main(home, seed, diff, games, threads, transport), config);
   }
 
   FileHandle home;
   int seed;
   int diff;
+  int games;
+  int threads;
+  Transport transport;
 
   Thread cli;
   AtomicBoolean kill;
 
-  Server server;
-  D2GSMessageProcessor messageProcessor;
+  GameManager manager;
+  TickLoop loop;
 
-  World world;
-  Map map;
-
-  EntityFactory factory;
-  ItemManager itemManager;
-  MapManager mapManager;
-  NetworkSynchronizer sync;
-
-  Main(FileHandle home, int seed, int diff) {
+  Main(FileHandle home, int seed, int diff, int games, int threads, Transport transport) {
     this.home = home;
     this.seed = seed;
     this.diff = diff;
+    this.games = games;
+    this.threads = threads;
+    this.transport = transport;
   }
 
   @Override
@@ -160,6 +156,7 @@ public class Main extends ApplicationAdapter {
       throw new GdxRuntimeException("home does not refer to a valid D2 installation. Copy MPQs to " + home);
     }
 
+    // static game data is loaded once and shared by all games
     Riiablo.mpqs = new MPQFileHandleResolver();
     Riiablo.assets = new AssetManager();
     Riiablo.files = new Files(Riiablo.assets);
@@ -173,97 +170,28 @@ public class Main extends ApplicationAdapter {
     Riiablo.assets.setLoader(DS1.class, new DS1Loader(Riiablo.mpqs));
     Riiablo.assets.setLoader(DT1.class, new DT1Loader(Riiablo.mpqs));
 
-    Riiablo.home = home = Gdx.files.absolute(home.path());
-    if (!home.exists() || !home.child("d2data.mpq").exists()) {
-      throw new GdxRuntimeException("home does not refer to a valid D2 installation. Copy MPQs to " + home);
+    manager = new GameManager(address, PORT, transport, threads);
+    for (int i = 0; i < games; i++) {
+      manager.createGame(seed == 0 ? 0 : seed + i, diff);
     }
 
-    if (seed == 0) {
-      Gdx.app.log(TAG, "Generating seed...");
-      seed = MathUtils.random.nextInt();
-      Gdx.app.log(TAG, "seed=" + seed);
-    }
-
-    Gdx.app.log(TAG, "Generating map...");
-    map = new Map(seed, diff);
-    mapManager = new MapManager();
-    Gdx.app.log(TAG, "  generating act 1...");
-    long start = TimeUtils.millis();
-    map.generate(0);
-    Gdx.app.log(TAG, "  act 1 generated in " + (TimeUtils.millis() - start) + "ms");
-
-    Gdx.app.log(TAG, "Loading act 1...");
-    map.load();
-    map.finishLoading();
-
-    messageProcessor = new D2GSMessageProcessor();
-    server = new Server(this, address, PORT);
-
-    factory = new ServerEntityFactory();
-    itemManager = new ServerItemManager();
-    mapManager = new MapManager();
-    sync = new NetworkSynchronizer();
-    WorldConfigurationBuilder builder = new WorldConfigurationBuilder()
-        .with(new EventSystem())
-        .with(new ServerNetworkIdManager())
-        .with(new SerializationManager())
-        .with(mapManager)
-        .with(itemManager)
-        .with(new ItemGenerator())
-        .with(new CofManager())
-        .with(new ObjectInitializer())
-        .with(new ObjectInteractor(), new WarpInteractor(), new ItemInteractor())
-
-        .with(new VendorGenerator())
-        .with(new AIStepper())
-        .with(new Pathfinder())
-
-        .with(new VelocityAdder()) // FIXME: temp until proper physics implemented
-
-        .with(factory)
-        .with(sync)
-        .with(new AnimDataResolver())
-        ;
-    WorldConfiguration config = builder.build()
-        .register("map", map)
-        .register("factory", factory)
-        .register("player", server.player)
-        .register("outPackets", server.outPackets)
-        .register("messageProcessor", messageProcessor)
-        ;
-    Riiablo.engine = world = new World(config);
-
-    world.inject(map);
-    world.inject(Act1MapBuilder.INSTANCE);
-    world.inject(messageProcessor);
-    world.inject(server);
-
-    map.generate();
-    mapManager.createEntities();
-
-    world.delta = Animation.FRAME_DURATION;
+    loop = new TickLoop(manager, Animation.FRAME_DURATION);
+    loop.start();
 
     kill = new AtomicBoolean(false);
     cli = createCLI();
     cli.start();
-
-    Gdx.app.log(TAG, "Creating server instance...");
-    server.create();
-    Gdx.app.log(TAG, "Starting server instance...");
-    ChannelFuture f = server.start();
-    Gdx.app.log(TAG, "Waiting for server startup...");
-    f.syncUninterruptibly();
   }
 
   @Override
   public void dispose() {
     Gdx.app.log(TAG, "Shutting down...");
 
-    Gdx.app.log(TAG, "Disposing server...");
-    server.dispose();
+    Gdx.app.log(TAG, "Stopping tick loop...");
+    loop.stop();
 
-    Gdx.app.log(TAG, "Disposing world...");
-    world.dispose();
+    Gdx.app.log(TAG, "Disposing games...");
+    manager.dispose();
 
     Gdx.app.log(TAG, "Disposing assets...");
     Riiablo.assets.dispose();
@@ -276,14 +204,6 @@ public class Main extends ApplicationAdapter {
     } catch (Throwable ignored) {}
   }
 
-  @Override
-  public void render() {
-    final float delta = Gdx.graphics.getDeltaTime();
-    server.updateIncoming(delta);
-    world.process();
-    server.updateOutgoing(delta);
-  }
-
   private InetAddress getLocalHostAddress() {
     try {
       return InetAddress.getLocalHost();
@@ -317,13 +237,17 @@ public class Main extends ApplicationAdapter {
             if (in.equalsIgnoreCase("exit")) {
               Gdx.app.exit();
             } else if (in.equalsIgnoreCase("help") || in.equalsIgnoreCase("?")) {
-              Gdx.app.log(TAG, "commands: address, clients, seed, exit");
+              Gdx.app.log(TAG, "commands: games, address, clients, seed, stats, exit");
+            } else if (in.equalsIgnoreCase("games")) {
+              for (GameInstance game : manager.games()) Gdx.app.log(TAG, game.toString());
+            } else if (in.equalsIgnoreCase("stats")) {
+              loop.requestReport();
             } else if (in.equalsIgnoreCase("address")) {
-              Gdx.app.log(TAG, "address: " + server.config().localAddress());
+              for (GameInstance game : manager.games()) Gdx.app.log(TAG, game.id() + " address: " + game.server().config().localAddress());
             } else if (in.equalsIgnoreCase("clients")) {
-              Gdx.app.log(TAG, "clients: " + server.resolver());
+              for (GameInstance game : manager.games()) Gdx.app.log(TAG, game.id() + " clients: " + game.server().resolver());
             } else if (in.equalsIgnoreCase("seed")) {
-              Gdx.app.log(TAG, "seed: " + seed);
+              for (GameInstance game : manager.games()) Gdx.app.log(TAG, game.id() + " seed: " + game.seed());
             } else {
               Gdx.app.error(TAG, "Unknown command: " + in);
             }
@@ -1,7 +1,6 @@
 package com.riiablo.server.d2gs_netty;
 
 import com.google.flatbuffers.FlatBufferBuilder;
-import java.util.concurrent.BlockingQueue;
 
 import com.artemis.BaseEntitySystem;
 import com.artemis.ComponentMapper;
@@ -10,18 +9,45 @@ import com.artemis.annotations.Wire;
 import com.artemis.utils.IntBag;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.IntIntMap;
+import com.badlogic.gdx.utils.IntMap;
 
+import com.riiablo.engine.Engine;
 import com.riiablo.engine.server.SerializationManager;
 import com.riiablo.engine.server.component.Class;
 import com.riiablo.engine.server.component.Flags;
 import com.riiablo.engine.server.component.Networked;
+import com.riiablo.engine.server.component.Position;
+import com.riiablo.net.MpscArrayQueue;
+import com.riiablo.net.PooledFlatBufferBuilder;
+import com.riiablo.net.packet.d2gs.ComponentP;
 import com.riiablo.net.packet.d2gs.D2GS;
 import com.riiablo.net.packet.d2gs.D2GSData;
-import com.riiablo.net.packet.d2gs.EntityFlags;
 import com.riiablo.net.tcp.D2GSOutboundPacketFactory;
 import com.riiablo.net.tcp.OutboundPacket;
 
+/**
+ * Synchronizes {@link Networked} entities with each connected client.
+ *
+ * Entities are only synchronized with clients whose player is within
+ * {@link #SYNC_RANGE} sub-tiles of them (players and entities without a
+ * position are always synchronized). Clients are sent a deleted sync once an
+ * entity moves beyond {@link #DESYNC_RANGE} of their player so it can be
+ * recreated from a full sync if it comes back into range.
+ *
+ * Components are delta encoded against the last sync sent to each client:
+ * only components whose serialized form changed are sent. Clients are
+ * connected over TCP, so the last sent sync is the last acked sync. A full
+ * sync of each entity is still sent every {@link #KEYFRAME_INTERVAL} ticks
+ * (staggered by entity id) as a safeguard against hash collisions.
+ *
+ * The state of a client is only updated once a packet for it was queued, so
+ * a packet dropped because the outbound queue is full is sent again on the
+ * next tick. Deleted syncs of removed entities are retried using the type and
+ * flags captured when they were removed, and are dropped if the entity id is
+ * reused in the meantime.
+ */
 @All(Networked.class)
 public class NetworkSynchronizer extends BaseEntitySystem {
   private static final String TAG = "NetworkSynchronizer";
@@ -29,38 +55,100 @@ public class NetworkSynchronizer extends BaseEntitySystem {
   private static final boolean DEBUG      = true;
   private static final boolean DEBUG_SYNC = DEBUG && !true;
 
+  static final float SYNC_RANGE    = 64; // sub-tiles
+  static final float SYNC_RANGE2   = SYNC_RANGE * SYNC_RANGE;
+  static final float DESYNC_RANGE  = SYNC_RANGE * 1.25f;
+  static final float DESYNC_RANGE2 = DESYNC_RANGE * DESYNC_RANGE;
+
+  static final int KEYFRAME_INTERVAL = 64; // ticks
+
+  /** component mask used to send a deleted sync when an entity leaves a client's range */
+  static final int DESYNC = 1 << 31;
+
   protected SerializationManager serializer;
 
   @Wire(name = "outPackets")
-  protected BlockingQueue<OutboundPacket> outPackets;
+  protected MpscArrayQueue<OutboundPacket> outPackets;
 
   @Wire(name = "player")
   protected IntIntMap players;
 
   protected ComponentMapper<Class> mClass;
   protected ComponentMapper<Flags> mFlags;
+  protected ComponentMapper<Position> mPosition;
+
+  private final ClientState[] clients = new ClientState[Server.MAX_CLIENTS]; {
+    for (int i = 0; i < Server.MAX_CLIENTS; i++) clients[i] = new ClientState();
+  }
+
+  private final FlatBufferBuilder scratch = new FlatBufferBuilder(256);
+  private final int[] hashes = new int[ComponentP.names.length];
+  private final int[] groupMasks = new int[Server.MAX_CLIENTS];
+  private final int[] groupFlags = new int[Server.MAX_CLIENTS];
+  private final int[] clientMasks = new int[Server.MAX_CLIENTS];
+  private int tick;
 
   @Override
   protected boolean checkProcessing() {
     return players.size > 0;
   }
 
-  // FIXME: this assumes that removing Networked component implies deletion -- may not always be case
   @Override
   protected void removed(int entityId) {
+    int flags = 0;
+    for (int id = 0; id < Server.MAX_CLIENTS; id++) {
+      if (clients[id].known.remove(entityId) != null) flags |= (1 << id);
+    }
+
     Class.Type type = mClass.get(entityId).type;
     switch (type) {
       case PLR:
         // TODO: handled by disconnection packet, need to handle here also
         break;
       default:
-        mFlags.get(entityId).flags |= EntityFlags.deleted;
-        process(entityId);
+        // components are gone once this returns, so retries cannot read them
+        final int entityFlags = mFlags.get(entityId).flags;
+        if (flags != 0 && !sendDeleted(entityId, type.ordinal(), entityFlags, flags)) {
+          for (int id = 0; id < Server.MAX_CLIENTS; id++) {
+            if ((flags & (1 << id)) != 0) clients[id].removed.add(entityId, type.ordinal(), entityFlags);
+          }
+        }
+    }
+  }
+
+  @Override
+  protected void inserted(int entityId) {
+    // id was reused, a pending deleted sync would now delete the new entity
+    for (int id = 0; id < Server.MAX_CLIENTS; id++) {
+      final IntArray removed = clients[id].removed;
+      for (int i = removed.size - 3; i >= 0; i -= 3) {
+        if (removed.get(i) == entityId) removed.removeRange(i, i + 2);
+      }
+    }
+  }
+
+  @Override
+  protected void begin() {
+    tick++;
+    for (int id = 0; id < Server.MAX_CLIENTS; id++) {
+      int entityId = players.get(id, Engine.INVALID_ENTITY);
+      ClientState client = clients[id];
+      if (client.entityId != entityId) client.reset(entityId);
     }
   }
 
   @Override
   protected void processSystem() {
+    // deleted syncs which could not be queued when their entities were removed
+    for (int id = 0; id < Server.MAX_CLIENTS; id++) {
+      final IntArray removed = clients[id].removed;
+      for (int i = removed.size - 3; i >= 0; i -= 3) {
+        if (sendDeleted(removed.get(i), removed.get(i + 1), removed.get(i + 2), 1 << id)) {
+          removed.removeRange(i, i + 2);
+        }
+      }
+    }
+
     IntBag entities = subscription.getEntities();
     int[] entityIds = entities.getData();
     for (int i = 0, s = entities.size(); i < s; i++) {
@@ -69,11 +157,111 @@ public class NetworkSynchronizer extends BaseEntitySystem {
   }
 
   protected void process(int entityId) {
-    FlatBufferBuilder builder = sync(new FlatBufferBuilder(0), entityId);
-    int id = players.findKey(entityId, -1); // TODO: replace with component referencing player id
-    OutboundPacket packet = D2GSOutboundPacketFactory.obtain(id != -1 ? ~(1 << id) : OutboundPacket.BROADCAST, D2GSData.EntitySync, builder.dataBuffer());
-    boolean success = outPackets.offer(packet);
-    assert success;
+    final int[] hashes = this.hashes;
+    final int componentMask = serializer.hash(scratch, entityId, hashes);
+    final boolean keyframe = (tick + entityId) % KEYFRAME_INTERVAL == 0;
+    final Position position = mPosition.get(entityId);
+    final boolean player = mClass.get(entityId).type == Class.Type.PLR;
+    final int owner = players.findKey(entityId, -1); // TODO: replace with component referencing player id
+
+    int numGroups = 0;
+    for (int id = 0; id < Server.MAX_CLIENTS; id++) {
+      final ClientState client = clients[id];
+      if (client.entityId == Engine.INVALID_ENTITY || id == owner) continue;
+
+      final int[] sent = client.known.get(entityId);
+      int mask;
+      if (!player && !isRelevant(client, position, sent != null)) {
+        if (sent == null) continue;
+        mask = DESYNC;
+      } else if (sent == null) {
+        mask = componentMask;
+      } else {
+        mask = keyframe ? componentMask : 0;
+        for (int type = 0; type < hashes.length; type++) {
+          if ((componentMask & (1 << type)) != 0 && sent[type] != hashes[type]) {
+            mask |= (1 << type);
+          }
+        }
+
+        if (mask == 0) continue;
+      }
+
+      clientMasks[id] = mask;
+
+      int group;
+      for (group = 0; group < numGroups && groupMasks[group] != mask; group++);
+      if (group == numGroups) {
+        groupMasks[numGroups] = mask;
+        groupFlags[numGroups++] = 0;
+      }
+
+      groupFlags[group] |= (1 << id);
+    }
+
+    for (int group = 0; group < numGroups; group++) {
+      final int flags = groupFlags[group];
+      if (!send(entityId, groupMasks[group], flags)) continue;
+      for (int id = 0; id < Server.MAX_CLIENTS; id++) {
+        if ((flags & (1 << id)) != 0) commit(clients[id], entityId, clientMasks[id], hashes);
+      }
+    }
+  }
+
+  /**
+   * Records that the specified components of an entity were queued to a
+   * client.
+   */
+  private static void commit(ClientState client, int entityId, int mask, int[] hashes) {
+    if (mask == DESYNC) {
+      client.known.remove(entityId);
+      return;
+    }
+
+    int[] sent = client.known.get(entityId);
+    if (sent == null) client.known.put(entityId, sent = new int[hashes.length]);
+    for (int type = 0; type < hashes.length; type++) {
+      if ((mask & (1 << type)) != 0) sent[type] = hashes[type];
+    }
+  }
+
+  private boolean isRelevant(ClientState client, Position position, boolean known) {
+    if (position == null) return true;
+    Position origin = mPosition.get(client.entityId);
+    if (origin == null) return true;
+    float dst2 = origin.position.dst2(position.position);
+    return dst2 <= (known ? DESYNC_RANGE2 : SYNC_RANGE2);
+  }
+
+  /**
+   * @return whether or not the packet was queued
+   */
+  private boolean send(int entityId, int componentMask, int flags) {
+    if (DEBUG_SYNC) Gdx.app.debug(TAG, String.format("syncing %d (0x%08x) to 0x%08x", entityId, componentMask, flags));
+    PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
+    int syncOffset = componentMask == DESYNC
+        ? serializer.serializeDeleted(builder, entityId)
+        : serializer.serialize(builder, entityId, componentMask);
+    return send(builder, syncOffset, flags);
+  }
+
+  /**
+   * Sends a deleted sync of an entity whose components may no longer exist.
+   *
+   * @return whether or not the packet was queued
+   */
+  private boolean sendDeleted(int entityId, int type, int entityFlags, int flags) {
+    if (DEBUG_SYNC) Gdx.app.debug(TAG, String.format("deleting %d to 0x%08x", entityId, flags));
+    PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
+    int syncOffset = serializer.serializeDeleted(builder, entityId, type, entityFlags);
+    return send(builder, syncOffset, flags);
+  }
+
+  private boolean send(PooledFlatBufferBuilder builder, int syncOffset, int flags) {
+    int root = D2GS.createD2GS(builder, D2GSData.EntitySync, syncOffset);
+    D2GS.finishSizePrefixedD2GSBuffer(builder, root);
+    OutboundPacket packet = D2GSOutboundPacketFactory.obtain(flags, D2GSData.EntitySync, builder.detach());
+    return Server.offer(outPackets, packet);
   }
 
   public FlatBufferBuilder sync(FlatBufferBuilder builder, int entityId) {
@@ -87,4 +275,21 @@ public class NetworkSynchronizer extends BaseEntitySystem {
     if (DEBUG_SYNC) Gdx.app.log(TAG, "syncing " + entityId);
     serializer.deserialize(entityId, packet);
   }
+
+  /**
+   * Tracks the entities a client has been synchronized with and the hashes of
+   * the components last sent to it.
+   */
+  static final class ClientState {
+    int entityId = Engine.INVALID_ENTITY;
+    final IntMap<int[]> known = new IntMap<>();
+    /** (entity id, type, flags) of removed entities whose deleted sync is yet to be queued */
+    final IntArray removed = new IntArray();
+
+    void reset(int entityId) {
+      this.entityId = entityId;
+      known.clear();
+      removed.clear();
+    }
+  }
 }
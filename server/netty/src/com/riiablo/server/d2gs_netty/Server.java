@@ -1,6 +1,5 @@
 package com.riiablo.server.d2gs_netty;
 
-import com.google.flatbuffers.FlatBufferBuilder;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.bootstrap.ServerBootstrapConfig;
 import io.netty.buffer.ByteBuf;
@@ -15,23 +14,18 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCountUtil;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.artemis.ComponentMapper;
 import com.artemis.annotations.Wire;
@@ -52,7 +46,10 @@ import com.riiablo.net.Endpoint;
 import com.riiablo.net.InboundChannelHandler;
 import com.riiablo.net.IntResolver;
 import com.riiablo.net.MessageProcessor;
+import com.riiablo.net.MpscArrayQueue;
 import com.riiablo.net.OutboundChannelHandler;
+import com.riiablo.net.PooledFlatBufferBuilder;
+import com.riiablo.net.Transport;
 import com.riiablo.net.packet.d2gs.Connection;
 import com.riiablo.net.packet.d2gs.D2GS;
 import com.riiablo.net.packet.d2gs.D2GSData;
@@ -82,13 +79,15 @@ public class Server implements MessageProcessor {
   private static final boolean DEBUG_RECEIVED_PACKETS = DEBUG && true;
   private static final boolean DEBUG_SENT_CACHE = DEBUG && !true;
   private static final boolean DEBUG_SENT_PACKETS = DEBUG && true;
+  private static final boolean DEBUG_THROTTLE = DEBUG && true;
 
   static final int MAX_CLIENTS = Riiablo.MAX_PLAYERS;
 
   private final InetAddress address;
   private final int port;
 
-  private ChannelFuture future;
+  private ChannelFuture[] futures;
+  private Transport transport;
   private ServerBootstrap bootstrap;
   private EventLoopGroup parentGroup;
   private EventLoopGroup childGroup;
@@ -99,10 +98,19 @@ public class Server implements MessageProcessor {
   private final ChannelInboundHandler connectionLimiter = new ConnectionLimiter(MAX_CLIENTS);
   private final ChannelInboundHandler connectionListener = new ConnectionListener();
 
-  private final BlockingQueue<InboundPacket<D2GS>> inPackets = new ArrayBlockingQueue<>(32);
-  private final Collection<InboundPacket<D2GS>> inCache = new ArrayList<>(32);
-  final BlockingQueue<OutboundPacket> outPackets = new ArrayBlockingQueue<>(MAX_CLIENTS * 32);
-  private final Collection<OutboundPacket> outCache = new ArrayList<>(MAX_CLIENTS * 32);
+  /**
+   * Maximum number of inbound packets a client may have queued before reads
+   * from its channel are paused. Reads resume once the game has processed
+   * enough of them to reach {@link #INBOUND_RESUME}.
+   */
+  static final int INBOUND_QUOTA  = 32;
+  static final int INBOUND_RESUME = INBOUND_QUOTA / 2;
+
+  static final AttributeKey<InboundQuota> QUOTA = AttributeKey.valueOf("quota");
+
+  final MpscArrayQueue<InboundPacket<D2GS>> inPackets = new MpscArrayQueue<>(MAX_CLIENTS * INBOUND_QUOTA * 2);
+  final MpscArrayQueue<OutboundPacket> outPackets = new MpscArrayQueue<>(MAX_CLIENTS * 32);
+  final AtomicLong throttled = new AtomicLong();
 
   static final BitVector ignoredPackets = new BitVector(D2GSData.names.length); {
     ignoredPackets.set(D2GSData.EntitySync);
@@ -134,10 +142,10 @@ public class Server implements MessageProcessor {
   @Wire(name = "map")
   protected Map map;
 
-  private final Main main; // FIXME: replace when Server is a PassiveSystem
+  private final GameInstance game; // FIXME: replace when Server is a PassiveSystem
 
-  public Server(Main main, InetAddress address, int port) {
-    this.main = main;
+  public Server(GameInstance game, InetAddress address, int port) {
+    this.game = game;
     this.address = address;
     this.port = port;
   }
@@ -164,18 +172,26 @@ public class Server implements MessageProcessor {
     return new OutboundChannelHandler();
   }
 
-  public void create() {
+  /**
+   * @param transport   transport used to create the server channels
+   * @param parentGroup event loop group accepting connections, shared with
+   *                    other games
+   * @param childGroup  event loop group servicing client channels, shared
+   *                    with other games
+   */
+  public void create(Transport transport, EventLoopGroup parentGroup, EventLoopGroup childGroup) {
     endpoint = createEndpoint(channels, this);
-    parentGroup = new NioEventLoopGroup();
-    childGroup = new NioEventLoopGroup();
-    bootstrap = new ServerBootstrap()
+    this.transport = transport;
+    this.parentGroup = parentGroup;
+    this.childGroup = childGroup;
+    bootstrap = transport.configure(new ServerBootstrap())
         .group(parentGroup, childGroup)
-        .channel(NioServerSocketChannel.class)
         .option(ChannelOption.SO_BACKLOG, 64)
         .childHandler(new ChannelInitializer<SocketChannel>() {
           @Override
           protected void initChannel(SocketChannel ch) {
             if (DEBUG_CHILD_EVENTS) Gdx.app.debug(TAG, "initChannel " + ch);
+            ch.attr(QUOTA).set(new InboundQuota(ch, throttled));
             ch.pipeline()
                 .addFirst(connectionLimiter)
                 .addLast(connectionListener)
@@ -190,95 +206,113 @@ public class Server implements MessageProcessor {
         ;
   }
 
-  public ChannelFuture start() {
+  /**
+   * Binds the server channels, one per thread of the parent group if the
+   * transport uses SO_REUSEPORT.
+   */
+  public ChannelFuture[] start() {
     if (DEBUG_EVENTS) Gdx.app.log(TAG, "Starting server...");
     if (DEBUG_BINDING) Gdx.app.debug(TAG, "Attempting to bind to " + bootstrap.config().localAddress());
-    future = bootstrap.bind(port);
+    futures = transport.bind(bootstrap, port);
     if (DEBUG_BINDING) {
-      future.addListener(new ChannelFutureListener() {
-        @Override
-        public void operationComplete(ChannelFuture future) throws Exception {
-          Gdx.app.debug(TAG, "Successfully bound to " + future.channel().localAddress());
-        }
-      });
+      for (ChannelFuture future : futures) {
+        future.addListener(new ChannelFutureListener() {
+          @Override
+          public void operationComplete(ChannelFuture future) throws Exception {
+            Gdx.app.debug(TAG, "Successfully bound to " + future.channel().localAddress());
+          }
+        });
+      }
     }
-    return future;
+    return futures;
   }
 
   public void dispose() {
     Gdx.app.log(TAG, "Notifying clients...");
     for (int id = 0; id < MAX_CLIENTS; id++) if (clients[id].connected) disconnect(id, 0);
 
-    try {
-      Gdx.app.log(TAG, "Shutting down channel...");
-      future.channel().close();
-      future.channel().closeFuture().syncUninterruptibly();
-    } catch (Throwable t) {
-      Gdx.app.error(TAG, t.getMessage(), t);
-    }
-
-    try {
-      Gdx.app.log(TAG, "Shutting down children...");
-      childGroup.shutdownGracefully().syncUninterruptibly();
-    } catch (Throwable t) {
-      Gdx.app.error(TAG, t.getMessage(), t);
+    Gdx.app.log(TAG, "Shutting down channels...");
+    for (ChannelFuture future : futures) {
+      try {
+        future.channel().close();
+        future.channel().closeFuture().syncUninterruptibly();
+      } catch (Throwable t) {
+        Gdx.app.error(TAG, t.getMessage(), t);
+      }
     }
 
-    try {
-      Gdx.app.log(TAG, "Shutting down parent...");
-      parentGroup.shutdownGracefully().syncUninterruptibly();
-    } catch (Throwable t) {
-      Gdx.app.error(TAG, t.getMessage(), t);
+    // event loop groups are shared with other games, so only close the
+    // channels belonging to this server
+    synchronized (clients) {
+      for (ClientData client : clients) {
+        if (client.channel != null) client.channel.close();
+      }
     }
   }
 
   public void updateIncoming(float delta) {
-    assert inCache.isEmpty();
-    int numCached = inPackets.drainTo(inCache);
-    if (DEBUG_RECEIVED_CACHE && numCached > 0) Gdx.app.debug(TAG, "Processing " + numCached + " packets...");
-    for (InboundPacket<D2GS> packet : inCache) {
-      packet.setId(cdata.get(packet.sender(), InboundPacket.INVALID_CLIENT));
-      if (packet.id() == InboundPacket.INVALID_CLIENT && packet.dataType() != D2GSData.Connection) {
-        Gdx.app.error(TAG, "  " + packet + " from invalid client and not a connection request");
-        continue;
-      }
-      if (DEBUG_RECEIVED_PACKETS && !ignoredPackets.get(packet.dataType())) Gdx.app.debug(TAG, "Processing " + packet);
+    if (DEBUG_RECEIVED_CACHE && !inPackets.isEmpty()) Gdx.app.debug(TAG, "Processing " + inPackets.size() + " packets...");
+    InboundPacket<D2GS> packet;
+    while ((packet = inPackets.poll()) != null) {
       try {
+        packet.setId(cdata.get(packet.sender(), InboundPacket.INVALID_CLIENT));
+        if (packet.id() == InboundPacket.INVALID_CLIENT && packet.dataType() != D2GSData.Connection) {
+          Gdx.app.error(TAG, "  " + packet + " from invalid client and not a connection request");
+          continue;
+        }
+        if (DEBUG_RECEIVED_PACKETS && !ignoredPackets.get(packet.dataType())) Gdx.app.debug(TAG, "Processing " + packet);
         processPacket(packet);
       } finally {
+        InboundQuota quota = packet.ctx().channel().attr(QUOTA).get();
+        if (quota != null) quota.release();
         ReferenceCountUtil.release(packet);
         assert ReferenceCountUtil.refCnt(packet) == 0 : "refCnt: " + ReferenceCountUtil.refCnt(packet);
       }
     }
-    inCache.clear();
   }
 
   public void updateOutgoing(float delta) {
-    assert outCache.isEmpty();
-    int numCached = outPackets.drainTo(outCache);
-    if (DEBUG_SENT_CACHE && numCached > 0) Gdx.app.debug(TAG, "Sending " + numCached + " packets...");
-    for (OutboundPacket packet : outCache) {
+    if (DEBUG_SENT_CACHE && !outPackets.isEmpty()) Gdx.app.debug(TAG, "Sending " + outPackets.size() + " packets...");
+    OutboundPacket packet;
+    while ((packet = outPackets.poll()) != null) {
       if (DEBUG_SENT_PACKETS && !ignoredPackets.get(packet.dataType())) Gdx.app.debug(TAG, "Dispatching " + packet);
-      for (int i = 0, flag = 1; i < MAX_CLIENTS; i++, flag <<= 1) {
-        if ((packet.id() & flag) == flag && ((connectedFlags & flag) == flag || packet.dataType() == D2GSData.Connection)) {
-          ClientData client = clients[i];
-          if (!client.connected) continue;
-          try {
-            if (DEBUG_SENT_PACKETS && !ignoredPackets.get(packet.dataType())) Gdx.app.debug(TAG, "  " + "Dispatching packet to " + i);
-            sendMessage(i, packet);
-          } catch (Throwable t) {
-            Gdx.app.error(TAG, t.getMessage(), t);
+      try {
+        for (int i = 0, flag = 1; i < MAX_CLIENTS; i++, flag <<= 1) {
+          if ((packet.id() & flag) == flag && ((connectedFlags & flag) == flag || packet.dataType() == D2GSData.Connection)) {
+            ClientData client = clients[i];
+            if (!client.connected) continue;
+            try {
+              if (DEBUG_SENT_PACKETS && !ignoredPackets.get(packet.dataType())) Gdx.app.debug(TAG, "  " + "Dispatching packet to " + i);
+              sendMessage(i, packet);
+            } catch (Throwable t) {
+              Gdx.app.error(TAG, t.getMessage(), t);
+            }
           }
         }
+      } finally {
+        ReferenceCountUtil.release(packet);
       }
     }
-    outCache.clear();
   }
 
+  /**
+   * Queues the packet to be dispatched at the end of the current tick. If the
+   * queue is full the packet is released and the drop is counted by the
+   * queue.
+   */
+  static boolean offer(MpscArrayQueue<OutboundPacket> outPackets, OutboundPacket packet) {
+    if (outPackets.offer(packet)) return true;
+    Gdx.app.error(TAG, "Failed to add packet " + packet + " to outbound queue " + outPackets);
+    ReferenceCountUtil.release(packet);
+    return false;
+  }
+
+  /**
+   * Writes a retained duplicate of the packet contents, the packet itself
+   * should be released by the caller once it has been sent to all clients.
+   */
   private void sendMessage(int id, OutboundPacket packet) {
-    packet.buffer().mark();
-    endpoint.sendMessage(id, packet.buffer(), -1);
-    packet.buffer().reset();
+    endpoint.sendMessage(id, packet.content().retainedDuplicate(), -1);
     if ((connectedFlags & (1 << id)) == 0 && packet.dataType() == D2GSData.Connection) {
       connectedFlags |= (1 << id);
     }
@@ -291,19 +325,25 @@ public class Server implements MessageProcessor {
     InboundPacket<D2GS> packet = D2GSInboundPacketFactory.obtain(ctx, (InetSocketAddress) sender, msg);
     if (DEBUG_RECEIVED_CACHE && !ignoredPackets.get(packet.dataType())) Gdx.app.debug(TAG, "  " + packet.toString("unknown"));
     // NOTE: packet sender id is not resolved until the message is processed
+    final InboundQuota quota = ctx.channel().attr(QUOTA).get();
     boolean success = false;
     try {
       if (packet.dataType() == D2GSData.Ping) onPing(packet, true);
-      success = inPackets.offer(packet, 5, TimeUnit.MILLISECONDS); // TODO: what is a reasonable timeout
+      // retain before publishing, the game thread may release it immediately
+      ReferenceCountUtil.retain(packet);
+      quota.acquire();
+      success = inPackets.offer(packet);
+      if (!success) {
+        quota.release();
+        ReferenceCountUtil.release(packet);
+      }
     } catch (Throwable t) {
       Gdx.app.error(TAG, t.getMessage(), t);
       success = false;
     } finally {
-      if (success) {
-        ReferenceCountUtil.retain(packet);
-        assert ReferenceCountUtil.refCnt(packet) == 2 : "refCnt: " + ReferenceCountUtil.refCnt(packet);
-      } else {
-        Gdx.app.error(TAG, "Failed to add packet " + packet + " to inbound queue");
+      if (!success) {
+        // quotas should prevent this, so a full queue means the game is not keeping up
+        Gdx.app.error(TAG, "Failed to add packet " + packet + " to inbound queue " + inPackets);
         disconnect(ctx, sender);
       }
     }
@@ -371,7 +411,7 @@ public class Server implements MessageProcessor {
     Gdx.app.debug(TAG, "  " + DebugUtils.toByteArray(cofTransforms));
 
     ByteBuffer d2sData = connection.d2sAsByteBuffer();
-    CharData charData = CharData.loadFromBuffer(main.diff, d2sData);
+    CharData charData = CharData.loadFromBuffer(game.diff, d2sData);
     Gdx.app.debug(TAG, "  " + charData);
 
     Vector2 origin = map.find(Map.ID.TOWN_ENTRY_1);
@@ -383,14 +423,14 @@ public class Server implements MessageProcessor {
 
     Gdx.app.log(TAG, String.format("Connection from %s : %s (Level %d %s)", packet.sender(), charData.name, charData.level, charData.classId));
 
-    FlatBufferBuilder builder = new FlatBufferBuilder();
+    PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
     Connection.startConnection(builder);
     Connection.addEntityId(builder, entityId);
     int connectionOffset = Connection.endConnection(builder);
     int offset = D2GS.createD2GS(builder, D2GSData.Connection, connectionOffset);
     D2GS.finishSizePrefixedD2GSBuffer(builder, offset);
-    OutboundPacket response = D2GSOutboundPacketFactory.obtain(packet.flag(), D2GSData.Connection, builder.dataBuffer());
-    outPackets.offer(response);
+    OutboundPacket response = D2GSOutboundPacketFactory.obtain(packet.flag(), D2GSData.Connection, builder.detach());
+    offer(outPackets, response);
 
     Synchronize(packet.id(), entityId);
 
@@ -401,7 +441,7 @@ public class Server implements MessageProcessor {
   private void Synchronize(int id, int entityId) {}
 
   private void BroadcastConnect(int id, int flags, Connection connection, CharData charData, int entityId) {
-    FlatBufferBuilder builder = new FlatBufferBuilder();
+    PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
     int charNameOffset = builder.createString(charData.name);
 
     byte[] components = new byte[16];
@@ -427,9 +467,8 @@ public class Server implements MessageProcessor {
     int offset = D2GS.createD2GS(builder, D2GSData.Connection, connectionOffset);
     D2GS.finishSizePrefixedD2GSBuffer(builder, offset);
 
-    OutboundPacket broadcast = D2GSOutboundPacketFactory.obtain(flags, D2GSData.Connection, builder.dataBuffer());
-    boolean success = outPackets.offer(broadcast);
-    assert success;
+    OutboundPacket broadcast = D2GSOutboundPacketFactory.obtain(flags, D2GSData.Connection, builder.detach());
+    offer(outPackets, broadcast);
   }
 
   private void onDisconnect(InboundPacket<D2GS> packet) {
@@ -483,36 +522,43 @@ public class Server implements MessageProcessor {
       Gdx.app.debug(TAG, "  " + String.format("Disconnecting %d (0x%08x) %s (Level %d %s)", id, 1 << id, charData.name, charData.level, charData.classId));
     }
 
-    FlatBufferBuilder builder = new FlatBufferBuilder();
+    PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
     int disconnectOffset = Disconnect.createDisconnect(builder, entityId);
     int offset = D2GS.createD2GS(builder, D2GSData.Disconnect, disconnectOffset);
     D2GS.finishSizePrefixedD2GSBuffer(builder, offset);
-    OutboundPacket broadcast = D2GSOutboundPacketFactory.obtain(flags, D2GSData.Disconnect, builder.dataBuffer());
-    outPackets.offer(broadcast);
+    OutboundPacket broadcast = D2GSOutboundPacketFactory.obtain(flags, D2GSData.Disconnect, builder.detach());
+    offer(outPackets, broadcast);
 
-    main.world.delete(entityId);
+    game.world.delete(entityId);
     player.remove(id, Engine.INVALID_ENTITY);
   }
 
   private void onPing(InboundPacket<D2GS> packet, boolean ack) {
     Ping ping = (Ping) packet.table().data(new Ping());
-    FlatBufferBuilder builder = new FlatBufferBuilder(0);
+    PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
     int dataOffset = Ping.createPing(builder, ping.tickCount(), ping.sendTime(), ack ? 0 : TimeUtils.millis() - packet.time(), ack);
     int root = D2GS.createD2GS(builder, D2GSData.Ping, dataOffset);
     D2GS.finishSizePrefixedD2GSBuffer(builder, root);
     if (ack) {
       try {
         int id = cdata.get(packet.sender(), InboundPacket.INVALID_CLIENT);
-        if (id == InboundPacket.INVALID_CLIENT) return;
-        OutboundPacket response = D2GSOutboundPacketFactory.obtain(1 << id, D2GSData.Ping, builder.dataBuffer());
+        if (id == InboundPacket.INVALID_CLIENT) {
+          builder.recycle();
+          return;
+        }
+        OutboundPacket response = D2GSOutboundPacketFactory.obtain(1 << id, D2GSData.Ping, builder.detach());
         if (DEBUG_SENT_PACKETS && !ignoredPackets.get(packet.dataType())) Gdx.app.debug(TAG, "  " + "Dispatching " + response);
-        sendMessage(id, response);
+        try {
+          sendMessage(id, response);
+        } finally {
+          ReferenceCountUtil.release(response);
+        }
       } catch (Throwable t) {
         Gdx.app.error(TAG, t.getMessage(), t);
       }
     } else {
-      OutboundPacket response = D2GSOutboundPacketFactory.obtain(packet.flag(), D2GSData.Ping, builder.dataBuffer());
-      outPackets.offer(response);
+      OutboundPacket response = D2GSOutboundPacketFactory.obtain(packet.flag(), D2GSData.Ping, builder.detach());
+      offer(outPackets, response);
     }
   }
 
@@ -558,6 +604,47 @@ public class Server implements MessageProcessor {
     }
   }
 
+  /**
+   * Tracks the number of inbound packets queued by a channel and pauses reads
+   * from it while the client is over its quota, leaving the remaining data in
+   * the socket buffers so TCP flow control slows the client down. Reads are
+   * only paused and resumed on the channel's event loop.
+   */
+  private static class InboundQuota implements Runnable {
+    final Channel channel;
+    final AtomicLong throttled;
+    final AtomicInteger pending = new AtomicInteger();
+
+    InboundQuota(Channel channel, AtomicLong throttled) {
+      this.channel = channel;
+      this.throttled = throttled;
+    }
+
+    /** called on the event loop before a packet is queued */
+    void acquire() {
+      if (pending.incrementAndGet() >= INBOUND_QUOTA && channel.config().isAutoRead()) {
+        channel.config().setAutoRead(false);
+        throttled.incrementAndGet();
+        if (DEBUG_THROTTLE) Gdx.app.debug(TAG, "Throttling " + channel);
+      }
+    }
+
+    /** called once a queued packet has been processed */
+    void release() {
+      if (pending.decrementAndGet() == INBOUND_RESUME) {
+        channel.eventLoop().execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (pending.get() <= INBOUND_RESUME && !channel.config().isAutoRead()) {
+        if (DEBUG_THROTTLE) Gdx.app.debug(TAG, "Resuming " + channel);
+        channel.config().setAutoRead(true);
+      }
+    }
+  }
+
   private static class SizePrefixedDecoder extends ByteToMessageDecoder {
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
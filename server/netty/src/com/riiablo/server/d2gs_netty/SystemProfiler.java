@@ -0,0 +1,62 @@
+package com.riiablo.server.d2gs_netty;
+
+import java.util.Arrays;
+
+import com.artemis.BaseSystem;
+import com.artemis.SystemInvocationStrategy;
+
+/**
+ * Invokes systems in order like the default invocation strategy while
+ * recording the time each {@link BaseSystem} spends processing. Statistics
+ * are accumulated until {@link #report(StringBuilder)} is called, which must
+ * happen on the thread processing the world.
+ */
+public class SystemProfiler extends SystemInvocationStrategy {
+  private long[] total = new long[0];
+  private long[] max   = new long[0];
+  private int    samples;
+
+  @Override
+  protected void process() {
+    final BaseSystem[] systems = this.systems.getData();
+    final int size = this.systems.size();
+    if (total.length < size) {
+      total = Arrays.copyOf(total, size);
+      max = Arrays.copyOf(max, size);
+    }
+
+    for (int i = 0; i < size; i++) {
+      if (disabled.get(i)) continue;
+      updateEntityStates();
+      final long start = System.nanoTime();
+      systems[i].process();
+      final long elapsed = System.nanoTime() - start;
+      total[i] += elapsed;
+      if (elapsed > max[i]) max[i] = elapsed;
+    }
+
+    updateEntityStates();
+    samples++;
+  }
+
+  /**
+   * Appends the average and maximum time spent by each system since the last
+   * report and resets the statistics.
+   */
+  public StringBuilder report(StringBuilder builder) {
+    if (samples == 0) return builder;
+    final BaseSystem[] systems = this.systems.getData();
+    for (int i = 0, s = Math.min(this.systems.size(), total.length); i < s; i++) {
+      if (total[i] == 0) continue;
+      builder
+          .append("\n  ")
+          .append(systems[i].getClass().getSimpleName())
+          .append(String.format(" avg %.3fms max %.3fms", total[i] / (samples * 1e6), max[i] / 1e6));
+    }
+
+    Arrays.fill(total, 0);
+    Arrays.fill(max, 0);
+    samples = 0;
+    return builder;
+  }
+}
@@ -0,0 +1,118 @@
+package com.riiablo.server.d2gs_netty;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.badlogic.gdx.Gdx;
+
+/**
+ * Dedicated fixed-timestep loop ticking the games of a {@link GameManager}.
+ *
+ * Every tick advances the simulation by exactly {@link #step} seconds. When
+ * ticks take longer than their budget the loop catches up by ticking back to
+ * back, up to {@link #MAX_CATCHUP_TICKS} at a time, after which the
+ * remaining ticks are skipped so that an overloaded server does not spiral.
+ * Skipped ticks are logged as errors at most once every
+ * {@link #OVERLOAD_LOG_INTERVAL} seconds.
+ * Tick durations, overruns and per-system times are reported every
+ * {@link #REPORT_INTERVAL} seconds or when requested with
+ * {@link #requestReport()}.
+ */
+public class TickLoop implements Runnable {
+  private static final String TAG = "TickLoop";
+
+  static final int MAX_CATCHUP_TICKS     = 5;
+  static final int REPORT_INTERVAL       = 60; // seconds
+  static final int OVERLOAD_LOG_INTERVAL = 5; // seconds
+
+  final GameManager manager;
+  final float step;
+  final long  stepNanos;
+  final int   reportTicks;
+
+  private Thread thread;
+  private volatile boolean running;
+  private volatile boolean reportRequested;
+
+  private long ticks;
+  private long lateTicks;
+  private long skippedTicks;
+  private long unloggedSkippedTicks;
+  private long lastOverloadLog;
+
+  public TickLoop(GameManager manager, float step) {
+    this.manager = manager;
+    this.step = step;
+    this.stepNanos = (long) (step * TimeUnit.SECONDS.toNanos(1));
+    this.reportTicks = Math.max(1, (int) (REPORT_INTERVAL / step));
+  }
+
+  public void start() {
+    assert thread == null;
+    running = true;
+    thread = new Thread(this);
+    thread.setName(TAG);
+    thread.start();
+  }
+
+  public void stop() {
+    running = false;
+    if (thread == null) return;
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  /**
+   * Reports the statistics of each game at the next tick boundary.
+   */
+  public void requestReport() {
+    reportRequested = true;
+  }
+
+  @Override
+  public void run() {
+    long next = System.nanoTime();
+    lastOverloadLog = next - TimeUnit.SECONDS.toNanos(OVERLOAD_LOG_INTERVAL);
+    while (running) {
+      long now = System.nanoTime();
+      if (now < next) {
+        LockSupport.parkNanos(next - now);
+        continue;
+      }
+
+      int catchup = 0;
+      do {
+        manager.tick(step, stepNanos);
+        next += stepNanos;
+        if (catchup > 0) lateTicks++;
+        if (++ticks % reportTicks == 0 || reportRequested) report();
+        now = System.nanoTime();
+      } while (now >= next && ++catchup < MAX_CATCHUP_TICKS && running);
+
+      if (now >= next) {
+        final long behind = (now - next) / stepNanos + 1;
+        skippedTicks += behind;
+        next += behind * stepNanos;
+        unloggedSkippedTicks += behind;
+        if (now - lastOverloadLog >= TimeUnit.SECONDS.toNanos(OVERLOAD_LOG_INTERVAL)) {
+          Gdx.app.error(TAG, "Skipped " + unloggedSkippedTicks + " ticks, server is overloaded");
+          unloggedSkippedTicks = 0;
+          lastOverloadLog = now;
+        }
+      }
+    }
+  }
+
+  private void report() {
+    reportRequested = false;
+    StringBuilder builder = new StringBuilder(256)
+        .append(String.format("%d ticks, %d late, %d skipped", ticks, lateTicks, skippedTicks))
+        .append('\n');
+    manager.report(builder);
+    Gdx.app.log(TAG, builder.toString());
+  }
+}
@@ -0,0 +1,90 @@
+package com.riiablo.net;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.riiablo.net.packet.d2gs.ComponentP;
+import com.riiablo.net.packet.d2gs.D2GS;
+import com.riiablo.net.packet.d2gs.D2GSData;
+import com.riiablo.net.packet.d2gs.EntitySync;
+import com.riiablo.net.packet.d2gs.PositionP;
+import com.riiablo.net.packet.d2gs.VelocityP;
+
+/**
+ * Measures single-threaded EntitySync packets per second from building the
+ * packet until it is ready to be written to a channel. The heap variant
+ * mirrors the previous path of a new builder per packet whose contents are
+ * copied into a direct buffer when written.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PooledFlatBufferBuilderBenchmark {
+  static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+
+  int entityId;
+
+  static int build(FlatBufferBuilder builder, int entityId) {
+    int position = PositionP.createPositionP(builder, entityId, entityId);
+    int velocity = VelocityP.createVelocityP(builder, 1, 1);
+    int dataTypeOffset = EntitySync.createComponentTypeVector(builder, new byte[] {ComponentP.PositionP, ComponentP.VelocityP});
+    int dataOffset = EntitySync.createComponentVector(builder, new int[] {position, velocity});
+    int syncOffset = EntitySync.createEntitySync(builder, entityId, 0, 0, dataTypeOffset, dataOffset);
+    int root = D2GS.createD2GS(builder, D2GSData.EntitySync, syncOffset);
+    D2GS.finishSizePrefixedD2GSBuffer(builder, root);
+    return root;
+  }
+
+  @Benchmark
+  public int heap() {
+    FlatBufferBuilder builder = new FlatBufferBuilder(0);
+    build(builder, entityId++);
+    ByteBuf content = Unpooled.wrappedBuffer(builder.dataBuffer());
+    ByteBuf direct = ALLOC.directBuffer(content.readableBytes());
+    try {
+      return direct.writeBytes(content).readableBytes();
+    } finally {
+      direct.release();
+    }
+  }
+
+  @Benchmark
+  public int pooled() {
+    PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
+    build(builder, entityId++);
+    ByteBuf content = builder.detach();
+    try {
+      return content.readableBytes();
+    } finally {
+      content.release();
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(PooledFlatBufferBuilderBenchmark.class.getSimpleName())
+        .build())
+        .run();
+  }
+}
@@ -0,0 +1,92 @@
+package com.riiablo.net;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.riiablo.net.packet.d2gs.ComponentP;
+import com.riiablo.net.packet.d2gs.D2GS;
+import com.riiablo.net.packet.d2gs.D2GSData;
+import com.riiablo.net.packet.d2gs.EntitySync;
+import com.riiablo.net.packet.d2gs.PositionP;
+
+public class PooledFlatBufferBuilderTest {
+  /** enough components for the packet to grow past the initial buffer */
+  static final int NUM_COMPONENTS = 256;
+
+  static void build(PooledFlatBufferBuilder builder, int entityId, int numComponents) {
+    byte[] types = new byte[numComponents];
+    int[] components = new int[numComponents];
+    for (int i = 0; i < numComponents; i++) {
+      types[i] = ComponentP.PositionP;
+      components[i] = PositionP.createPositionP(builder, i, -i);
+    }
+
+    int dataTypeOffset = EntitySync.createComponentTypeVector(builder, types);
+    int dataOffset = EntitySync.createComponentVector(builder, components);
+    int syncOffset = EntitySync.createEntitySync(builder, entityId, 1, 2, dataTypeOffset, dataOffset);
+    int root = D2GS.createD2GS(builder, D2GSData.EntitySync, syncOffset);
+    D2GS.finishSizePrefixedD2GSBuffer(builder, root);
+  }
+
+  static void assertDecodes(ByteBuf content, int entityId, int numComponents) {
+    ByteBuffer buffer = content.nioBuffer();
+    Assert.assertEquals(buffer.remaining() - 4, Integer.reverseBytes(buffer.getInt(buffer.position())));
+    buffer.position(buffer.position() + 4);
+
+    D2GS packet = D2GS.getRootAsD2GS(buffer);
+    Assert.assertEquals(D2GSData.EntitySync, packet.dataType());
+    EntitySync sync = (EntitySync) packet.data(new EntitySync());
+    Assert.assertEquals(entityId, sync.entityId());
+    Assert.assertEquals(1, sync.type());
+    Assert.assertEquals(2, sync.flags());
+    Assert.assertEquals(numComponents, sync.componentLength());
+    PositionP position = new PositionP();
+    for (int i = 0; i < numComponents; i++) {
+      Assert.assertEquals(ComponentP.PositionP, sync.componentType(i));
+      sync.component(position, i);
+      Assert.assertEquals(i, position.x(), 0);
+      Assert.assertEquals(-i, position.y(), 0);
+    }
+  }
+
+  @Test
+  public void decodes_packet_from_fresh_builder() {
+    PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
+    build(builder, 1, 1);
+    ByteBuf content = builder.detach();
+    try {
+      assertDecodes(content, 1, 1);
+    } finally {
+      content.release();
+    }
+  }
+
+  @Test
+  public void decodes_packet_which_grew() {
+    PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
+    build(builder, 2, NUM_COMPONENTS);
+    ByteBuf content = builder.detach();
+    try {
+      Assert.assertTrue(content.readableBytes() > PooledFlatBufferBuilder.INITIAL_SIZE);
+      assertDecodes(content, 2, NUM_COMPONENTS);
+    } finally {
+      content.release();
+    }
+  }
+
+  @Test
+  public void decodes_packets_from_recycled_builders() {
+    for (int i = 0; i < 4; i++) {
+      PooledFlatBufferBuilder builder = PooledFlatBufferBuilder.obtain();
+      build(builder, i, (i & 1) == 0 ? 1 : NUM_COMPONENTS);
+      ByteBuf content = builder.detach();
+      try {
+        assertDecodes(content, i, (i & 1) == 0 ? 1 : NUM_COMPONENTS);
+      } finally {
+        content.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package com.riiablo.onet.reliable;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+
+import com.riiablo.onet.PacketProcessor;
+
+/**
+ * Measures unreliable packets per second sent and received through a
+ * {@link ReliableEndpoint} over loopback. The target is at least 100k
+ * packets per second in each direction. Run with {@code -prof gc} to verify
+ * that steady state sending and receiving does not allocate per packet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ReliableEndpointBenchmark {
+  static final int PAYLOAD_SIZE = 64;
+  static final int SEQUENCE_OFFSET = 2;
+
+  HeadlessApplication app;
+  EventLoopGroup group;
+  DatagramChannel sink;
+  DatagramChannel ch;
+  ReliableEndpoint endpoint;
+
+  ByteBuf payload;
+  DatagramPacket packet;
+  int sequence;
+  int received;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+    app = new HeadlessApplication(new ApplicationAdapter() {}, config);
+    app.setLogLevel(Application.LOG_NONE);
+
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    group = new NioEventLoopGroup(1);
+    sink = (DatagramChannel) new Bootstrap()
+        .group(group)
+        .channel(NioDatagramChannel.class)
+        .handler(new SimpleChannelInboundHandler<DatagramPacket>() {
+          @Override
+          protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) {}
+        })
+        .bind(loopback, 0)
+        .sync()
+        .channel();
+    ch = (DatagramChannel) new Bootstrap()
+        .group(group)
+        .channel(NioDatagramChannel.class)
+        .handler(new SimpleChannelInboundHandler<DatagramPacket>() {
+          @Override
+          protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) {}
+        })
+        .connect(sink.localAddress())
+        .sync()
+        .channel();
+
+    endpoint = new ReliableEndpoint(ch, new PacketProcessor() {
+      @Override
+      public void processPacket(ChannelHandlerContext ctx, SocketAddress from, ByteBuf bb) {
+        received += bb.readableBytes();
+      }
+    });
+
+    payload = PooledByteBufAllocator.DEFAULT.directBuffer(PAYLOAD_SIZE);
+    payload.writeZero(PAYLOAD_SIZE);
+
+    ByteBuf content = PooledByteBufAllocator.DEFAULT.directBuffer(Packet.MAX_PACKET_HEADER_SIZE + PAYLOAD_SIZE);
+    Packet.writePacketHeader(content, QoS.Unreliable.ordinal(), 0, 0, 0xFFFFFFFF);
+    content.writeZero(PAYLOAD_SIZE);
+    InetSocketAddress sender = new InetSocketAddress(loopback, 0);
+    packet = new DatagramPacket(content, (InetSocketAddress) ch.localAddress(), sender);
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() throws Exception {
+    payload.release();
+    packet.release();
+    ch.close().sync();
+    sink.close().sync();
+    group.shutdownGracefully().sync();
+    app.exit();
+  }
+
+  @Benchmark
+  public void send() {
+    MessageChannel mc = endpoint.channel(QoS.Unreliable.ordinal());
+    mc.sendMessage(QoS.Unreliable.ordinal(), ch, payload.retainedDuplicate());
+  }
+
+  @Benchmark
+  public int receive() {
+    ByteBuf content = packet.content();
+    content.readerIndex(0);
+    content.setShortLE(SEQUENCE_OFFSET, sequence = (sequence + 1) & Packet.USHORT_MAX_VALUE);
+    endpoint.messageReceived(null, packet.sender(), packet);
+    return received;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ReliableEndpointBenchmark.class.getSimpleName())
+        .build())
+        .run();
+  }
+}